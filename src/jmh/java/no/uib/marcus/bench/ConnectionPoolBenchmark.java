@@ -0,0 +1,130 @@
+package no.uib.marcus.bench;
+
+import com.sun.net.httpserver.HttpServer;
+import no.uib.marcus.client.HttpClientSettings;
+import org.apache.http.HttpHost;
+import org.elasticsearch.client.Request;
+import org.elasticsearch.client.Response;
+import org.elasticsearch.client.ResponseListener;
+import org.elasticsearch.client.RestClient;
+import org.elasticsearch.client.RestClientBuilder;
+
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A load test of the connection pool to Elasticsearch. A local HTTP server stands in for a node that answers every
+ * request after a fixed delay, so throughput is only limited by how many requests the client has in flight.
+ * The same concurrent load is sent through a {@link RestClient} with the client defaults and with
+ * {@link HttpClientSettings#defaults()}, and the throughput of each is printed. With the client defaults,
+ * throughput stops at about 10 connections / delay.
+ * <p>
+ * Usage, with the benchmark profile that compiles {@code src/jmh/java}:
+ * <pre>
+ * mvn -P benchmark test-compile exec:java -Dexec.mainClass=no.uib.marcus.bench.ConnectionPoolBenchmark \
+ *     -Dexec.args="-c 200 -n 20000 -l 20"
+ * </pre>
+ * Options are {@code -c} concurrent requests (default 200), {@code -n} requests per run (default 20000)
+ * and {@code -l} the latency of the stand-in node in milliseconds (default 20).
+ */
+public final class ConnectionPoolBenchmark {
+
+    //Prevent this class from being initialized
+    private ConnectionPoolBenchmark() {
+    }
+
+    public static void main(String[] args) throws Exception {
+        int concurrency = 200;
+        int requests = 20_000;
+        int latencyMillis = 20;
+        for (int i = 0; i < args.length; i++) {
+            switch (args[i]) {
+                case "-c" -> concurrency = Integer.parseInt(args[++i]);
+                case "-n" -> requests = Integer.parseInt(args[++i]);
+                case "-l" -> latencyMillis = Integer.parseInt(args[++i]);
+                default -> {
+                    System.err.println("Usage: ConnectionPoolBenchmark [-c concurrent] [-n requests] [-l latency ms]");
+                    System.exit(1);
+                }
+            }
+        }
+
+        HttpServer server = startNode(latencyMillis);
+        HttpHost node = new HttpHost("localhost", server.getAddress().getPort(), "http");
+        HttpClientSettings settings = HttpClientSettings.defaults();
+        try {
+            System.out.printf("%d concurrent requests, %d requests, %d ms node latency%n", concurrency, requests, latencyMillis);
+            System.out.printf("%-70s %10s %8s%n", "client", "req/s", "errors");
+            run("RestClient defaults", RestClient.builder(node), concurrency, requests);
+            run(settings.toString(), RestClient.builder(node)
+                    .setHttpClientConfigCallback(settings::configure)
+                    .setCompressionEnabled(settings.isCompression()), concurrency, requests);
+        } finally {
+            server.stop(0);
+        }
+    }
+
+    private static void run(String name, RestClientBuilder builder, int concurrency, int requests) throws Exception {
+        try (RestClient client = builder.build()) {
+            //Warm up the connections, then measure
+            send(client, concurrency, Math.min(requests, concurrency * 5));
+            LongAdder errors = new LongAdder();
+            long start = System.nanoTime();
+            errors.add(send(client, concurrency, requests));
+            double seconds = (System.nanoTime() - start) / 1e9;
+            System.out.printf("%-70s %10.1f %8d%n", name, requests / seconds, errors.sum());
+        }
+    }
+
+    /**
+     * Send requests asynchronously, never more than the given number at a time
+     *
+     * @return the number of failed requests
+     */
+    private static long send(RestClient client, int concurrency, int requests) throws InterruptedException {
+        Semaphore inFlight = new Semaphore(concurrency);
+        LongAdder errors = new LongAdder();
+        for (int i = 0; i < requests; i++) {
+            inFlight.acquire();
+            client.performRequestAsync(new Request("GET", "/"), new ResponseListener() {
+                @Override
+                public void onSuccess(Response response) {
+                    inFlight.release();
+                }
+
+                @Override
+                public void onFailure(Exception exception) {
+                    errors.increment();
+                    inFlight.release();
+                }
+            });
+        }
+        inFlight.acquire(concurrency);
+        return errors.sum();
+    }
+
+    private static HttpServer startNode(int latencyMillis) throws Exception {
+        HttpServer server = HttpServer.create(new InetSocketAddress("localhost", 0), 1024);
+        //One virtual thread per request, so the stand-in node is never the bottleneck
+        server.setExecutor(Executors.newVirtualThreadPerTaskExecutor());
+        byte[] body = "{\"took\":1,\"timed_out\":false}".getBytes(StandardCharsets.UTF_8);
+        server.createContext("/", exchange -> {
+            try {
+                Thread.sleep(latencyMillis);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            exchange.getResponseHeaders().add("Content-Type", "application/json");
+            exchange.sendResponseHeaders(200, body.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(body);
+            }
+        });
+        server.start();
+        return server;
+    }
+}
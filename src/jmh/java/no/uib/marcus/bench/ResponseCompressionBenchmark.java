@@ -0,0 +1,75 @@
+package no.uib.marcus.bench;
+
+import no.uib.marcus.common.util.GzipUtils;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks for the CPU cost of gzip on "/search" responses: compressing a response that Elasticsearch sent
+ * uncompressed, and decompressing a gzip response for a client that does not accept gzip. Passing a gzip response
+ * on costs nothing. The size of a response with and without gzip is printed at setup, which is what the client saves.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ResponseCompressionBenchmark {
+
+    /**
+     * Number of hits in the response, each with a source of a typical size
+     */
+    @Param({"10", "100", "1000"})
+    public int hits;
+
+    private byte[] body;
+    private byte[] gzipped;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        StringBuilder json = new StringBuilder("{\"took\":12,\"timed_out\":false,\"hits\":{\"total\":{\"value\":")
+                .append(hits).append(",\"relation\":\"eq\"},\"hits\":[");
+        for (int i = 0; i < hits; i++) {
+            if (i > 0) {
+                json.append(',');
+            }
+            json.append("{\"_index\":\"marcus\",\"_id\":\"ubb-ms-").append(i).append("\",\"_score\":")
+                    .append(10.0 / (i + 1)).append(",\"_source\":{\"identifier\":\"ubb-ms-").append(i)
+                    .append("\",\"label\":\"Brev til Christian Michelsen ").append(i)
+                    .append("\",\"type\":\"Brev\",\"subject\":[\"Bergen\",\"Politikk\",\"Unionsoppløsningen\"],")
+                    .append("\"madeBy\":[\"Michelsen, Christian\"],\"available\":\"19").append(i % 100)
+                    .append("-01-01\",\"description\":\"Brev om forholdene i Bergen og unionsspørsmålet, nr. ")
+                    .append(i).append("\"}}");
+        }
+        json.append("]},\"aggregations\":{\"type\":{\"buckets\":[{\"key\":\"Brev\",\"doc_count\":").append(hits)
+                .append("}]}}}");
+        body = json.toString().getBytes(StandardCharsets.UTF_8);
+        gzipped = GzipUtils.gzip(body);
+        System.out.printf("%n%d hits: %d bytes, %d bytes with gzip%n", hits, body.length, gzipped.length);
+    }
+
+    @Benchmark
+    public byte[] gzip() {
+        return GzipUtils.gzip(body);
+    }
+
+    @Benchmark
+    public byte[] gunzip() throws IOException {
+        return GzipUtils.gunzip(gzipped);
+    }
+}
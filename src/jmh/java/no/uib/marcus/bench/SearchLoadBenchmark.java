@@ -0,0 +1,133 @@
+package no.uib.marcus.bench;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A closed-loop HTTP load generator for comparing execution modes of a running Blackbox, e.g. one Tomcat started with
+ * {@code BLACKBOX_EXECUTION_MODE=blocking} and one with {@code BLACKBOX_EXECUTION_MODE=virtual}.
+ * Each target gets the same number of concurrent clients for the same time, one after the other, and the
+ * throughput and latency percentiles are printed as a table.
+ * <p>
+ * Usage (after {@code mvn -P benchmark test-compile}, which compiles the benchmarks in {@code src/jmh/java}):
+ * <pre>
+ * java -cp target/test-classes no.uib.marcus.bench.SearchLoadBenchmark \
+ *     -c 200 -d 30 -w 10 \
+ *     "http://localhost:8080/blackbox/search?q=bergen" "http://localhost:8081/blackbox/search?q=bergen"
+ * </pre>
+ * Options are {@code -c} concurrent clients (default 100), {@code -d} measured seconds (default 30)
+ * and {@code -w} warm-up seconds (default 10). The response cache should be disabled on the targets
+ * ({@code BLACKBOX_CACHE_MAX_BYTES=0}), otherwise it is the cache that is measured.
+ */
+public final class SearchLoadBenchmark {
+
+    //Prevent this class from being initialized
+    private SearchLoadBenchmark() {
+    }
+
+    public static void main(String[] args) throws Exception {
+        int concurrency = 100;
+        int durationSeconds = 30;
+        int warmupSeconds = 10;
+        List<URI> targets = new ArrayList<>();
+        for (int i = 0; i < args.length; i++) {
+            switch (args[i]) {
+                case "-c" -> concurrency = Integer.parseInt(args[++i]);
+                case "-d" -> durationSeconds = Integer.parseInt(args[++i]);
+                case "-w" -> warmupSeconds = Integer.parseInt(args[++i]);
+                default -> targets.add(URI.create(args[i]));
+            }
+        }
+        if (targets.isEmpty()) {
+            System.err.println("Usage: SearchLoadBenchmark [-c clients] [-d seconds] [-w seconds] url...");
+            System.exit(1);
+        }
+
+        System.out.printf("%d clients, %d s warm-up, %d s measured%n", concurrency, warmupSeconds, durationSeconds);
+        System.out.printf("%-60s %10s %8s %10s %10s %10s %10s%n",
+                "target", "requests", "errors", "req/s", "p50 ms", "p99 ms", "max ms");
+        for (URI target : targets) {
+            run(target, concurrency, warmupSeconds, false);
+            Result result = run(target, concurrency, durationSeconds, true);
+            System.out.printf("%-60s %10d %8d %10.1f %10.2f %10.2f %10.2f%n",
+                    target, result.requests(), result.errors(), result.throughput(),
+                    result.percentileMillis(50), result.percentileMillis(99), result.percentileMillis(100));
+        }
+    }
+
+    private static Result run(URI target, int concurrency, int seconds, boolean record) throws Exception {
+        //Client side threads should never be the bottleneck, so every client gets a virtual thread
+        try (ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor();
+             HttpClient client = HttpClient.newBuilder()
+                     .connectTimeout(Duration.ofSeconds(10))
+                     .executor(executor)
+                     .build()) {
+            HttpRequest request = HttpRequest.newBuilder(target).timeout(Duration.ofSeconds(60)).GET().build();
+            long deadline = System.nanoTime() + Duration.ofSeconds(seconds).toNanos();
+            LongAdder errors = new LongAdder();
+            List<Future<long[]>> clients = new ArrayList<>(concurrency);
+            for (int i = 0; i < concurrency; i++) {
+                clients.add(executor.submit(() -> {
+                    long[] latencies = new long[1024];
+                    int count = 0;
+                    while (System.nanoTime() - deadline < 0) {
+                        long start = System.nanoTime();
+                        try {
+                            HttpResponse<byte[]> response = client.send(request, HttpResponse.BodyHandlers.ofByteArray());
+                            if (response.statusCode() != 200) {
+                                errors.increment();
+                            }
+                        } catch (IOException e) {
+                            errors.increment();
+                        }
+                        if (count == latencies.length) {
+                            latencies = Arrays.copyOf(latencies, count * 2);
+                        }
+                        latencies[count++] = System.nanoTime() - start;
+                    }
+                    return Arrays.copyOf(latencies, count);
+                }));
+            }
+            long started = System.nanoTime();
+            List<long[]> all = new ArrayList<>(concurrency);
+            for (Future<long[]> future : clients) {
+                all.add(future.get());
+            }
+            long elapsed = System.nanoTime() - started;
+            if (!record) {
+                return null;
+            }
+            long[] merged = all.stream().flatMapToLong(Arrays::stream).sorted().toArray();
+            return new Result(merged, errors.sum(), elapsed);
+        }
+    }
+
+    private record Result(long[] sortedLatencies, long errors, long elapsedNanos) {
+        long requests() {
+            return sortedLatencies.length;
+        }
+
+        double throughput() {
+            return requests() / (elapsedNanos / 1e9);
+        }
+
+        double percentileMillis(double percentile) {
+            if (sortedLatencies.length == 0) {
+                return 0;
+            }
+            int index = (int) Math.ceil(percentile / 100 * sortedLatencies.length) - 1;
+            return sortedLatencies[Math.max(0, Math.min(index, sortedLatencies.length - 1))] / 1e6;
+        }
+    }
+}
@@ -0,0 +1,209 @@
+package no.uib.marcus.bench;
+
+import co.elastic.clients.elasticsearch.ElasticsearchClient;
+import co.elastic.clients.elasticsearch._types.query_dsl.BoolQuery;
+import co.elastic.clients.elasticsearch._types.query_dsl.QueryBuilders;
+import co.elastic.clients.elasticsearch.core.SearchRequest;
+import co.elastic.clients.json.jackson.JacksonJsonpGenerator;
+import co.elastic.clients.json.jackson.JacksonJsonpMapper;
+import co.elastic.clients.transport.rest_client.RestClientTransport;
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.databind.json.JsonMapper;
+import jakarta.json.stream.JsonGenerator;
+import no.uib.marcus.client.RequestBody;
+import no.uib.marcus.common.util.AggregationUtils;
+import no.uib.marcus.common.util.FilterUtils;
+import no.uib.marcus.common.util.SortUtils;
+import no.uib.marcus.facet.FacetSpec;
+import no.uib.marcus.range.DateRange;
+import no.uib.marcus.search.AbstractSearchBuilder;
+import no.uib.marcus.search.MarcusSearchBuilder;
+import no.uib.marcus.search.NaturenSearchBuilder;
+import no.uib.marcus.search.SearchBuilderFactory;
+import no.uib.marcus.search.WabSearchBuilder;
+import org.apache.http.HttpHost;
+import org.elasticsearch.client.RestClient;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks for the query-building hot path of "/search": building the filters, the aggregations and
+ * the request for each service, and serializing the request to JSON.
+ * Run with the GC profiler to see allocation per operation, see the {@code benchmark} profile in pom.xml.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class SearchRequestBenchmark {
+
+    /**
+     * Number of facets in the "aggs" parameter
+     */
+    @Param({"2", "8", "16"})
+    public int facets;
+
+    /**
+     * Number of selected filters, spread over the facets
+     */
+    @Param({"0", "4", "16"})
+    public int selectedFilters;
+
+    /**
+     * Number of facets with the "OR" operator
+     */
+    @Param({"0", "2"})
+    public int orOperators;
+
+    private RestClient restClient;
+    private String aggregations;
+    private FacetSpec facetSpec;
+    private Map<String, List<String>> selectedFacets;
+    private DateRange dateRange;
+    private MarcusSearchBuilder marcus;
+    private WabSearchBuilder wab;
+    private NaturenSearchBuilder naturen;
+    private SearchRequest searchRequest;
+
+    //The way requests were serialized before they were written into pooled buffers, kept as a baseline
+    private final JacksonJsonpMapper jsonpMapper = new JacksonJsonpMapper(new JsonMapper());
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        //The builders need a client, but never use it while building requests
+        restClient = RestClient.builder(new HttpHost("localhost", 9200)).build();
+        ElasticsearchClient client = new ElasticsearchClient(new RestClientTransport(restClient, new JacksonJsonpMapper()));
+
+        StringBuilder aggs = new StringBuilder("[");
+        for (int i = 0; i < facets; i++) {
+            if (i > 0) {
+                aggs.append(',');
+            }
+            aggs.append("{\"field\":\"field").append(i).append(".exact\",\"size\":20");
+            if (i < orOperators) {
+                aggs.append(",\"operator\":\"OR\"");
+            }
+            aggs.append('}');
+        }
+        aggs.append(",{\"field\":\"available\",\"type\":\"date_histogram\",\"format\":\"yyyy\",\"interval\":\"year\"}]");
+        aggregations = aggs.toString();
+        facetSpec = FacetSpec.parse(aggregations);
+
+        String[] filters = new String[selectedFilters];
+        for (int i = 0; i < selectedFilters; i++) {
+            filters[i] = "field" + (i % facets) + ".exact#value" + i;
+        }
+        selectedFacets = FilterUtils.buildFilterMap(filters);
+        dateRange = DateRange.of("1900", "2000");
+
+        marcus = SearchBuilderFactory.marcusSearch(client);
+        wab = SearchBuilderFactory.wabSearch(client);
+        naturen = SearchBuilderFactory.naturenSearch(client);
+        prepare(marcus);
+        prepare(wab);
+        prepare(naturen);
+        searchRequest = marcus.constructSearchRequest().build();
+    }
+
+    private void prepare(AbstractSearchBuilder<?> builder) {
+        builder.setIndices("marcus", "ska")
+                .setQueryString("bergen fotografi")
+                .setFacetSpec(facetSpec)
+                .setFrom(0)
+                .setSize(10)
+                .setSelectedFacets(selectedFacets)
+                .setSortBuilder(SortUtils.getSort("dateSort:desc"));
+        BoolQuery.Builder topFilter = FilterUtils.getTopFilter(selectedFacets, facetSpec, dateRange);
+        if (topFilter.hasClauses()) {
+            builder.setFilter(topFilter.build());
+        }
+        BoolQuery.Builder postFilter = FilterUtils.getPostFilter(selectedFacets, facetSpec);
+        if (postFilter.hasClauses()) {
+            builder.setPostFilter(QueryBuilders.bool().must(postFilter.build()._toQuery()).build());
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        restClient.close();
+    }
+
+    @Benchmark
+    public SearchRequest marcusConstructSearchRequest() {
+        return marcus.constructSearchRequest().build();
+    }
+
+    @Benchmark
+    public SearchRequest wabConstructSearchRequest() {
+        return wab.constructSearchRequest().build();
+    }
+
+    @Benchmark
+    public SearchRequest naturenConstructSearchRequest() {
+        return naturen.constructSearchRequest().build();
+    }
+
+    @Benchmark
+    public Object buildBoolFilter() {
+        return FilterUtils.buildBoolFilter(selectedFacets, aggregations);
+    }
+
+    @Benchmark
+    public BoolQuery topFilter() {
+        return FilterUtils.getTopFilter(selectedFacets, facetSpec, dateRange).build();
+    }
+
+    @Benchmark
+    public BoolQuery postFilter() {
+        return FilterUtils.getPostFilter(selectedFacets, facetSpec).build();
+    }
+
+    @Benchmark
+    public SearchRequest addAggregations() {
+        SearchRequest.Builder builder = new SearchRequest.Builder();
+        AggregationUtils.addAggregations(builder, facetSpec, selectedFacets);
+        return builder.build();
+    }
+
+    /**
+     * Serialization as done by "/search", into a pooled buffer
+     */
+    @Benchmark
+    public int serializePooled() throws IOException {
+        try (RequestBody body = RequestBody.of(searchRequest, false)) {
+            return body.length();
+        }
+    }
+
+    /**
+     * Serialization through a new JsonFactory, a StringWriter and a String, as before pooled buffers
+     */
+    @Benchmark
+    public int serializeString() throws IOException {
+        StringWriter writer = new StringWriter();
+        JsonGenerator generator = new JacksonJsonpGenerator(new JsonFactory().createGenerator(writer));
+        searchRequest.serialize(generator, jsonpMapper);
+        generator.close();
+        return writer.toString().getBytes(StandardCharsets.UTF_8).length;
+    }
+}
@@ -0,0 +1,360 @@
+package no.uib.marcus.cache;
+
+import jakarta.annotation.Nullable;
+import no.uib.marcus.client.ElasticsearchClientFactory;
+import no.uib.marcus.client.RawResponse;
+import no.uib.marcus.common.SearchParameters;
+import no.uib.marcus.common.Settings;
+import no.uib.marcus.common.util.StringUtils;
+import no.uib.marcus.metrics.MetricWriter;
+import no.uib.marcus.metrics.Metrics;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Warms up a node by replaying the most common searches, so the first visitors after a deploy or restart do not pay
+ * for a cold JIT, cold connections and an empty response cache.
+ * <p>
+ * While running, the fingerprints of cacheable searches are counted, and the most common ones are saved to a file
+ * every {@code BLACKBOX_WARMUP_SAVE_SECONDS} (default 300) and on shutdown. When the application starts, the
+ * searches in the file are replayed at {@code BLACKBOX_WARMUP_RATE} searches per second (default 5), and the node
+ * is not ready until they are done, see {@link #isWarm()}. The indices named by these searches are checked every
+ * {@code BLACKBOX_WARMUP_CHECK_SECONDS} (default 60), and the searches are replayed again when documents have been
+ * indexed, updated or deleted, which also refreshes the cached responses. The indexing counters behind this are
+ * per shard, so moving a shard can cause a replay too. Changes to other indices in the cluster are ignored, unless
+ * a search names no index or an index pattern, then every index is watched.
+ * <p>
+ * Enabled by setting the file, {@code BLACKBOX_WARMUP_FILE}. {@code BLACKBOX_WARMUP_QUERIES} (default 100) sets
+ * how many searches are kept.
+ */
+public final class CacheWarmer {
+    private static final Logger logger = Logger.getLogger(CacheWarmer.class.getName());
+    private static final Map<String, String> INDICES_PARAMETERS = Map.of("format", "json", "h",
+            "index,uuid,docs.count,indexing.index_total,indexing.delete_total", "s", "index");
+    //Watches every index, for searches that do not name their indices
+    static final String ALL_INDICES = "_all";
+
+    private static final CacheWarmer DEFAULT = new CacheWarmer(
+            Settings.get("BLACKBOX_WARMUP_FILE", ""),
+            Settings.getInt("BLACKBOX_WARMUP_QUERIES", 100),
+            Settings.getInt("BLACKBOX_WARMUP_RATE", 5));
+
+    static {
+        Metrics.register(CacheWarmer::writeMetrics);
+    }
+
+    /**
+     * Runs one search the normal way, and caches the response if the response cache is enabled
+     */
+    @FunctionalInterface
+    public interface Loader {
+        void load(SearchParameters params) throws IOException;
+    }
+
+    @Nullable
+    private final Path file;
+    private final int size;
+    private final int rate;
+    //Counts per fingerprint, at most a few times the number of kept searches
+    private final Map<String, LongAdder> counts = new ConcurrentHashMap<>();
+    private volatile ScheduledExecutorService scheduler;
+    private volatile boolean warm;
+    @Nullable
+    private volatile String indices;
+    //The indices that were read into indices
+    private volatile Set<String> watched = Set.of();
+    private final LongAdder replayed = new LongAdder();
+
+    /**
+     * Create a warmer
+     *
+     * @param file a file to keep the most common searches in, empty disables the warmer
+     * @param size the number of searches to keep
+     * @param rate the number of searches to replay per second
+     */
+    public CacheWarmer(String file, int size, int rate) {
+        this.file = StringUtils.hasText(file) ? Path.of(file.trim()) : null;
+        this.size = Math.max(1, size);
+        this.rate = Math.max(1, rate);
+        this.warm = this.file == null;
+    }
+
+    /**
+     * Get the warmer configured from the Blackbox settings
+     */
+    public static CacheWarmer getDefault() {
+        return DEFAULT;
+    }
+
+    /**
+     * Write the metrics of the shared instance, see {@link Metrics}
+     */
+    private static void writeMetrics(MetricWriter out) throws IOException {
+        if (DEFAULT.isEnabled()) {
+            out.header("blackbox_warmup_replayed_total", "counter", "Common searches replayed to warm up the node");
+            out.sample("blackbox_warmup_replayed_total", DEFAULT.getReplayed());
+        }
+    }
+
+    public boolean isEnabled() {
+        return file != null;
+    }
+
+    /**
+     * Whether the searches saved by the last run have been replayed, always true if the warmer is disabled
+     */
+    public boolean isWarm() {
+        return warm;
+    }
+
+    /**
+     * Replay the saved searches in the background, then keep saving the most common searches and watching the
+     * indices for changes. Does nothing if the warmer is disabled.
+     *
+     * @param loader runs a search
+     */
+    public void start(Loader loader) {
+        if (!isEnabled() || scheduler != null) {
+            return;
+        }
+        try {
+            schedule(loader);
+        } catch (RuntimeException e) {
+            //Without the replay the node would never report ready, better start cold
+            warm = true;
+            throw e;
+        }
+    }
+
+    private void schedule(Loader loader) {
+        scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "blackbox-warmup");
+            thread.setDaemon(true);
+            return thread;
+        });
+        long saveSeconds = Math.max(1, Settings.getLong("BLACKBOX_WARMUP_SAVE_SECONDS", 300));
+        long checkSeconds = Math.max(1, Settings.getLong("BLACKBOX_WARMUP_CHECK_SECONDS", 60));
+        scheduler.execute(() -> {
+            try {
+                List<String> saved = read();
+                watch(saved);
+                replay(loader, saved);
+            } catch (IOException | RuntimeException e) {
+                logger.log(Level.WARNING, "Warmup failed, starting cold", e);
+            } finally {
+                warm = true;
+            }
+        });
+        scheduler.scheduleWithFixedDelay(this::saveQuietly, saveSeconds, saveSeconds, TimeUnit.SECONDS);
+        scheduler.scheduleWithFixedDelay(() -> replayIfChanged(loader), checkSeconds, checkSeconds, TimeUnit.SECONDS);
+        logger.info("Warming up with the " + size + " most common searches in " + file);
+    }
+
+    /**
+     * Save the most common searches and stop
+     */
+    public void stop() {
+        ScheduledExecutorService running = scheduler;
+        if (running != null) {
+            running.shutdownNow();
+            scheduler = null;
+            saveQuietly();
+        }
+    }
+
+    /**
+     * Count a search. Only cacheable searches should be counted, since the point is to fill the cache.
+     */
+    public void record(SearchParameters params) {
+        if (!isEnabled()) {
+            return;
+        }
+        String fingerprint = params.fingerprint();
+        LongAdder count = counts.get(fingerprint);
+        if (count == null) {
+            //New searches are not counted once there are many, until the next save prunes the counts
+            if (counts.size() >= size * 10) {
+                return;
+            }
+            count = counts.computeIfAbsent(fingerprint, f -> new LongAdder());
+        }
+        count.increment();
+    }
+
+    /**
+     * Get the most common searches, most common first
+     */
+    public List<String> top() {
+        return counts.entrySet().stream()
+                .sorted(Comparator.comparingLong((Map.Entry<String, LongAdder> e) -> e.getValue().sum()).reversed())
+                .limit(size)
+                .map(Map.Entry::getKey)
+                .toList();
+    }
+
+    /**
+     * Save the most common searches, one fingerprint per line, and forget the others. The remaining counts are
+     * halved, so searches that have become common can take the place of those that were.
+     */
+    void save() throws IOException {
+        List<String> top = top();
+        if (top.isEmpty()) {
+            return;
+        }
+        counts.keySet().retainAll(top);
+        counts.values().forEach(count -> {
+            long half = count.sum() / 2;
+            count.reset();
+            count.add(half);
+        });
+        Path tmp = file.resolveSibling(file.getFileName() + ".tmp");
+        Files.write(tmp, top, StandardCharsets.UTF_8);
+        Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private void saveQuietly() {
+        try {
+            save();
+        } catch (IOException | RuntimeException e) {
+            logger.log(Level.WARNING, "Unable to save the most common searches to " + file, e);
+        }
+    }
+
+    /**
+     * Read the saved searches, none if there is no file yet
+     */
+    List<String> read() throws IOException {
+        if (!Files.isRegularFile(file)) {
+            return List.of();
+        }
+        List<String> fingerprints = new ArrayList<>();
+        for (String line : Files.readAllLines(file, StandardCharsets.UTF_8)) {
+            if (StringUtils.hasText(line) && fingerprints.size() < size) {
+                fingerprints.add(line.trim());
+            }
+        }
+        return fingerprints;
+    }
+
+    /**
+     * Run searches one by one, at the configured rate. A search that fails is skipped.
+     *
+     * @return the number of searches that succeeded
+     */
+    int replay(Loader loader, List<String> fingerprints) {
+        long start = System.nanoTime();
+        long pauseMillis = 1000L / rate;
+        int done = 0;
+        for (String fingerprint : fingerprints) {
+            try {
+                loader.load(SearchParameters.ofQueryString(fingerprint));
+                replayed.increment();
+                done++;
+            } catch (IOException | RuntimeException e) {
+                logger.log(Level.FINE, "Unable to replay [" + fingerprint + "]", e);
+            }
+            try {
+                Thread.sleep(pauseMillis);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            }
+        }
+        if (!fingerprints.isEmpty()) {
+            logger.info("Replayed " + done + " of " + fingerprints.size() + " searches in "
+                    + (System.nanoTime() - start) / 1_000_000 + " ms");
+        }
+        return done;
+    }
+
+    /**
+     * Replay the most common searches if documents have been added, changed or removed, or an index was replaced
+     */
+    private void replayIfChanged(Loader loader) {
+        try {
+            List<String> top = top();
+            List<String> searches = top.isEmpty() ? read() : top;
+            String previous = indices;
+            //A change in the watched indices is not a change in the documents
+            if (watch(searches) && previous != null && !previous.equals(indices)) {
+                logger.info("Indices have changed, replaying the most common searches");
+                replay(loader, searches);
+            }
+        } catch (IOException | RuntimeException e) {
+            logger.log(Level.FINE, "Unable to check the indices", e);
+        }
+    }
+
+    /**
+     * Read the state of the indices named by some searches
+     *
+     * @return true if they are the same indices as last time
+     */
+    private boolean watch(List<String> fingerprints) throws IOException {
+        Set<String> names = indexNames(fingerprints);
+        boolean same = names.equals(watched);
+        indices = names.isEmpty() ? null : readIndices(names);
+        watched = names;
+        return same;
+    }
+
+    /**
+     * Get the indices named by some searches, or {@link #ALL_INDICES} if a search names no index, or a name that
+     * is not a plain index or alias name
+     */
+    static Set<String> indexNames(List<String> fingerprints) {
+        Set<String> names = new TreeSet<>();
+        for (String fingerprint : fingerprints) {
+            String[] indices = SearchParameters.ofQueryString(fingerprint).getIndices();
+            if (indices.length == 0) {
+                return Set.of(ALL_INDICES);
+            }
+            for (String index : indices) {
+                if (!StringUtils.hasText(index) || index.contains("..") || index.contains("/")
+                        || index.startsWith("_") || index.startsWith("-") || index.contains("*")
+                        || index.contains(",")) {
+                    return Set.of(ALL_INDICES);
+                }
+                names.add(index.trim());
+            }
+        }
+        return names;
+    }
+
+    /**
+     * Get the name, id, number of documents and indexing counters of some indices, which change when documents
+     * are indexed, updated or deleted, or an index is replaced
+     */
+    private static String readIndices(Set<String> names) throws IOException {
+        RawResponse response = ElasticsearchClientFactory.getLowLevelClient()
+                .perform("GET", "/_cat/indices/" + String.join(",", names), INDICES_PARAMETERS, (byte[]) null);
+        if (!response.isSuccessful()) {
+            throw new IOException("Elasticsearch responded with status " + response.status());
+        }
+        return new String(response.decodedBody(), StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Get the number of searches replayed since the application started
+     */
+    public long getReplayed() {
+        return replayed.sum();
+    }
+}
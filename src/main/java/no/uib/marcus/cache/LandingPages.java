@@ -0,0 +1,230 @@
+package no.uib.marcus.cache;
+
+import jakarta.annotation.Nullable;
+import no.uib.marcus.common.SearchParameters;
+import no.uib.marcus.common.ServiceName;
+import no.uib.marcus.common.Settings;
+import no.uib.marcus.common.util.StringUtils;
+import no.uib.marcus.metrics.MetricWriter;
+import no.uib.marcus.metrics.Metrics;
+import no.uib.marcus.search.MarcusSearchBuilder;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Front page results of Marcus answered from memory. Without a query string, Marcus boosts one of several random
+ * pictures (see {@link MarcusSearchBuilder}), so the busiest request is also one that can not be cached.
+ * Instead, every variant of the front page is searched in the background and kept, and each request gets one of
+ * them at random, which looks just as random to visitors.
+ * <p>
+ * Only the front pages in {@code BLACKBOX_LANDING_PAGES} are kept: a semicolon-separated list of "/search" query
+ * strings without {@code q}, e.g. {@code service=marcus&size=20;service=marcus&aggs=%5B...%5D}, matched on
+ * {@link SearchParameters#fingerprint()}. {@code BLACKBOX_LANDING_REFRESH_SECONDS} (default 300) sets the time
+ * between refreshes. A failed refresh keeps the previous results.
+ */
+public final class LandingPages {
+    private static final Logger logger = Logger.getLogger(LandingPages.class.getName());
+
+    private static final LandingPages DEFAULT = new LandingPages(
+            Settings.get("BLACKBOX_LANDING_PAGES", ""),
+            MarcusSearchBuilder.getRandomPictureCount(),
+            Settings.getLong("BLACKBOX_LANDING_REFRESH_SECONDS", 300));
+
+    static {
+        Metrics.register(LandingPages::writeMetrics);
+    }
+
+    /**
+     * Searches one variant of a front page
+     */
+    @FunctionalInterface
+    public interface Loader {
+        /**
+         * @param params  the parameters of a front page
+         * @param variant the random picture to boost
+         * @return the gzip compressed response body, or {@code null} if the search failed or timed out
+         */
+        @Nullable
+        byte[] load(SearchParameters params, int variant) throws IOException;
+    }
+
+    private final List<SearchParameters> pages;
+    private final int variants;
+    private final long refreshSeconds;
+    //Response bodies per fingerprint and variant, null for a variant that has not been loaded
+    private volatile Map<String, byte[][]> loaded = Map.of();
+    private volatile ScheduledExecutorService scheduler;
+    private final LongAdder hits = new LongAdder();
+
+    /**
+     * Create front pages
+     *
+     * @param pages          semicolon-separated query strings, empty disables the front pages
+     * @param variants       the number of variants of each front page
+     * @param refreshSeconds time between refreshes
+     */
+    public LandingPages(String pages, int variants, long refreshSeconds) {
+        this.pages = parse(pages);
+        this.variants = Math.max(1, variants);
+        this.refreshSeconds = Math.max(1, refreshSeconds);
+    }
+
+    /**
+     * Get the front pages configured from the Blackbox settings
+     */
+    public static LandingPages getDefault() {
+        return DEFAULT;
+    }
+
+    /**
+     * Write the metrics of the shared instance, see {@link Metrics}
+     */
+    private static void writeMetrics(MetricWriter out) throws IOException {
+        if (DEFAULT.isEnabled()) {
+            out.header("blackbox_landing_hits_total", "counter", "Front pages answered from memory");
+            out.sample("blackbox_landing_hits_total", DEFAULT.getHits());
+            out.header("blackbox_landing_variants", "gauge", "Variants of front pages held in memory");
+            out.sample("blackbox_landing_variants", DEFAULT.size());
+        }
+    }
+
+    public boolean isEnabled() {
+        return !pages.isEmpty();
+    }
+
+    /**
+     * Load the front pages in the background now, and then periodically. Does nothing if they are disabled.
+     *
+     * @param loader searches a variant of a front page
+     */
+    public void start(Loader loader) {
+        if (!isEnabled() || scheduler != null) {
+            return;
+        }
+        scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "blackbox-landing-refresh");
+            thread.setDaemon(true);
+            return thread;
+        });
+        scheduler.scheduleWithFixedDelay(() -> refresh(loader), 0, refreshSeconds, TimeUnit.SECONDS);
+        logger.info(pages.size() + " front pages with " + variants + " variants each, refreshed every "
+                + refreshSeconds + " seconds");
+    }
+
+    /**
+     * Stop refreshing
+     */
+    public void stop() {
+        ScheduledExecutorService running = scheduler;
+        if (running != null) {
+            running.shutdownNow();
+            scheduler = null;
+        }
+    }
+
+    /**
+     * Get a random variant of a front page
+     *
+     * @param params the parameters of a search
+     * @return a gzip compressed response body, or {@code null} if the search is not a front page that has been loaded
+     */
+    @Nullable
+    public byte[] get(SearchParameters params) {
+        if (!isEnabled() || StringUtils.hasText(params.getQueryString()) || params.getCursor() != null) {
+            return null;
+        }
+        byte[][] bodies = loaded.get(params.fingerprint());
+        if (bodies == null) {
+            return null;
+        }
+        int start = ThreadLocalRandom.current().nextInt(bodies.length);
+        for (int i = 0; i < bodies.length; i++) {
+            byte[] body = bodies[(start + i) % bodies.length];
+            if (body != null) {
+                hits.increment();
+                return body;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Search every variant of every front page. A variant that fails keeps its previous result.
+     */
+    void refresh(Loader loader) {
+        Map<String, byte[][]> previous = loaded;
+        Map<String, byte[][]> next = new HashMap<>();
+        for (SearchParameters page : pages) {
+            byte[][] old = previous.get(page.fingerprint());
+            byte[][] bodies = new byte[variants][];
+            for (int variant = 0; variant < variants; variant++) {
+                try {
+                    bodies[variant] = loader.load(page, variant);
+                } catch (IOException | RuntimeException e) {
+                    logger.log(Level.WARNING, "Unable to load front page [" + page + "], variant " + variant, e);
+                }
+                if (bodies[variant] == null && old != null) {
+                    bodies[variant] = old[variant];
+                }
+            }
+            next.put(page.fingerprint(), bodies);
+        }
+        loaded = Map.copyOf(next);
+    }
+
+    /**
+     * Get the number of front pages answered from memory
+     */
+    public long getHits() {
+        return hits.sum();
+    }
+
+    /**
+     * Get the number of variants held in memory
+     */
+    public int size() {
+        int size = 0;
+        for (byte[][] bodies : loaded.values()) {
+            size += (int) Arrays.stream(bodies).filter(body -> body != null).count();
+        }
+        return size;
+    }
+
+    /**
+     * Read front pages of Marcus, the only service that boosts random pictures
+     */
+    private static List<SearchParameters> parse(String pages) {
+        List<SearchParameters> result = new ArrayList<>();
+        for (String page : pages.split(";")) {
+            if (!StringUtils.hasText(page)) {
+                continue;
+            }
+            SearchParameters params = SearchParameters.ofQueryString(page.trim());
+            ServiceName service;
+            try {
+                service = ServiceName.toEnum(params.getService());
+            } catch (IllegalArgumentException e) {
+                continue;
+            }
+            if (StringUtils.hasText(params.getQueryString())
+                    || service != ServiceName.MARCUS && service != ServiceName.MARCUS_ADMIN) {
+                logger.warning("Ignoring front page [" + page + "], only Marcus searches without q are supported");
+                continue;
+            }
+            result.add(params);
+        }
+        return List.copyOf(result);
+    }
+}
@@ -0,0 +1,267 @@
+package no.uib.marcus.cache;
+
+import no.uib.marcus.common.ServiceName;
+import no.uib.marcus.common.Settings;
+import no.uib.marcus.metrics.MetricWriter;
+import no.uib.marcus.metrics.Metrics;
+
+import jakarta.annotation.Nullable;
+import java.io.IOException;
+import java.util.EnumMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.logging.Logger;
+
+/**
+ * A bounded, in-process cache of raw Elasticsearch response bodies, keyed by a canonical request fingerprint
+ * (see {@link no.uib.marcus.common.SearchParameters#fingerprint()}).
+ * <p>
+ * Entries are evicted in least-recently-used order once the total size exceeds the byte cap, and expire
+ * after a time-to-live that can be set per service. The default instance is configured with:
+ * <ul>
+ * <li>{@code BLACKBOX_CACHE_MAX_BYTES} - total size of cached bodies, default 0, i.e. caching is off until it is
+ * set, since cached responses can be up to a time-to-live old.</li>
+ * <li>{@code BLACKBOX_CACHE_TTL_SECONDS} - time-to-live, default 60 seconds.</li>
+ * <li>{@code BLACKBOX_CACHE_TTL_SECONDS_<SERVICE>} - time-to-live for one service, e.g.
+ * {@code BLACKBOX_CACHE_TTL_SECONDS_WAB}. 0 disables caching for that service. {@code MARCUS_ADMIN} defaults
+ * to 0, so cataloguers see their own edits right away.</li>
+ * </ul>
+ */
+public final class ResponseCache {
+    private static final Logger logger = Logger.getLogger(ResponseCache.class.getName());
+    //Rough per-entry bookkeeping cost (map node, entry object, array headers)
+    private static final int ENTRY_OVERHEAD = 96;
+    private static final long DEFAULT_MAX_BYTES = 0;
+    private static final long DEFAULT_TTL_SECONDS = 60;
+
+    private static final ResponseCache DEFAULT = fromSettings();
+
+    static {
+        Metrics.register(ResponseCache::writeMetrics);
+    }
+
+    private final long maxBytes;
+    private final long maxEntryBytes;
+    private final Map<ServiceName, Long> ttlNanos;
+    private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>(256, 0.75f, true);
+    private final ReentrantLock lock = new ReentrantLock();
+    private long currentBytes;
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+
+    /**
+     * Create a cache
+     *
+     * @param maxBytes   upper bound for the total size of cached entries
+     * @param ttlSeconds time-to-live per service, a missing or non-positive value disables caching for the service
+     */
+    public ResponseCache(long maxBytes, Map<ServiceName, Long> ttlSeconds) {
+        this.maxBytes = Math.max(0, maxBytes);
+        //A single response should never push out most of the cache
+        this.maxEntryBytes = this.maxBytes / 8;
+        this.ttlNanos = new EnumMap<>(ServiceName.class);
+        for (Map.Entry<ServiceName, Long> entry : ttlSeconds.entrySet()) {
+            if (entry.getValue() != null && entry.getValue() > 0) {
+                ttlNanos.put(entry.getKey(), TimeUnit.SECONDS.toNanos(entry.getValue()));
+            }
+        }
+    }
+
+    /**
+     * Get the cache configured from the Blackbox settings
+     */
+    public static ResponseCache getDefault() {
+        return DEFAULT;
+    }
+
+    /**
+     * Write the metrics of the shared instance, see {@link Metrics}
+     */
+    private static void writeMetrics(MetricWriter out) throws IOException {
+        out.header("blackbox_cache_hits_total", "counter", "Search responses served from the cache");
+        out.sample("blackbox_cache_hits_total", DEFAULT.getHits());
+        out.header("blackbox_cache_misses_total", "counter", "Cacheable search responses not found in the cache");
+        out.sample("blackbox_cache_misses_total", DEFAULT.getMisses());
+        out.header("blackbox_cache_evictions_total", "counter", "Search responses evicted from the cache");
+        out.sample("blackbox_cache_evictions_total", DEFAULT.getEvictions());
+        out.header("blackbox_cache_bytes", "gauge", "Approximate size of the cache");
+        out.sample("blackbox_cache_bytes", DEFAULT.sizeInBytes());
+    }
+
+    private static ResponseCache fromSettings() {
+        long maxBytes = Settings.getLong("BLACKBOX_CACHE_MAX_BYTES", DEFAULT_MAX_BYTES);
+        long defaultTtl = Settings.getLong("BLACKBOX_CACHE_TTL_SECONDS", DEFAULT_TTL_SECONDS);
+        Map<ServiceName, Long> ttl = new EnumMap<>(ServiceName.class);
+        for (ServiceName service : ServiceName.values()) {
+            ttl.put(service, Settings.getLong("BLACKBOX_CACHE_TTL_SECONDS_" + service.name(),
+                    service == ServiceName.MARCUS_ADMIN ? 0 : defaultTtl));
+        }
+        logger.info("Response cache: max bytes " + maxBytes + ", time-to-live (seconds) " + ttl);
+        return new ResponseCache(maxBytes, ttl);
+    }
+
+    /**
+     * Whether responses for the given service are cached at all
+     */
+    public boolean isEnabled(ServiceName service) {
+        return maxBytes > 0 && ttlNanos.containsKey(service);
+    }
+
+    /**
+     * Get a cached response body
+     *
+     * @param key a request fingerprint
+     * @return the cached body, or {@code null} if it is not cached or has expired
+     */
+    @Nullable
+    public byte[] get(String key) {
+        long now = System.nanoTime();
+        lock.lock();
+        try {
+            Entry entry = entries.get(key);
+            if (entry != null) {
+                if (now - entry.expiresAt < 0) {
+                    hits.increment();
+                    return entry.body;
+                }
+                remove(key, entry);
+            }
+        } finally {
+            lock.unlock();
+        }
+        misses.increment();
+        return null;
+    }
+
+    /**
+     * Cache a response body. The array must not be modified afterwards.
+     *
+     * @param key     a request fingerprint
+     * @param service the service the request was made for, decides the time-to-live
+     * @param body    a raw response body
+     */
+    public void put(String key, ServiceName service, byte[] body) {
+        Long ttl = ttlNanos.get(service);
+        long weight = weigh(key, body);
+        if (ttl == null || weight > maxEntryBytes) {
+            return;
+        }
+        Entry entry = new Entry(service, body, System.nanoTime() + ttl, weight);
+        lock.lock();
+        try {
+            Entry previous = entries.put(key, entry);
+            if (previous != null) {
+                currentBytes -= previous.weight;
+            }
+            currentBytes += weight;
+            //Least recently used entries come first
+            Iterator<Entry> it = entries.values().iterator();
+            while (currentBytes > maxBytes && it.hasNext()) {
+                Entry eldest = it.next();
+                it.remove();
+                currentBytes -= eldest.weight;
+                evictions.increment();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Remove all entries
+     *
+     * @return the number of removed entries
+     */
+    public int invalidateAll() {
+        lock.lock();
+        try {
+            int count = entries.size();
+            entries.clear();
+            currentBytes = 0;
+            return count;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Remove all entries for a service
+     *
+     * @return the number of removed entries
+     */
+    public int invalidate(ServiceName service) {
+        lock.lock();
+        try {
+            int count = 0;
+            for (Iterator<Entry> it = entries.values().iterator(); it.hasNext(); ) {
+                Entry entry = it.next();
+                if (entry.service == service) {
+                    it.remove();
+                    currentBytes -= entry.weight;
+                    count++;
+                }
+            }
+            return count;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public long getHits() {
+        return hits.sum();
+    }
+
+    public long getMisses() {
+        return misses.sum();
+    }
+
+    public long getEvictions() {
+        return evictions.sum();
+    }
+
+    public long getMaxBytes() {
+        return maxBytes;
+    }
+
+    /**
+     * Get the number of cached entries, including those that have expired but have not been removed yet
+     */
+    public int size() {
+        lock.lock();
+        try {
+            return entries.size();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Get the approximate size of the cached entries in bytes
+     */
+    public long sizeInBytes() {
+        lock.lock();
+        try {
+            return currentBytes;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void remove(String key, Entry entry) {
+        entries.remove(key);
+        currentBytes -= entry.weight;
+    }
+
+    private static long weigh(String key, byte[] body) {
+        return ENTRY_OVERHEAD + 2L * key.length() + body.length;
+    }
+
+    private record Entry(ServiceName service, byte[] body, long expiresAt, long weight) {
+    }
+}
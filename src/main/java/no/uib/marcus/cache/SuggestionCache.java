@@ -0,0 +1,226 @@
+package no.uib.marcus.cache;
+
+import no.uib.marcus.common.Settings;
+import no.uib.marcus.common.util.StringUtils;
+import no.uib.marcus.metrics.MetricWriter;
+import no.uib.marcus.metrics.Metrics;
+
+import jakarta.annotation.Nullable;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Set;
+import java.util.SortedSet;
+import java.util.TreeSet;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.logging.Logger;
+
+/**
+ * A bounded cache of completion suggestions for "/suggest", keyed by indices, text and size.
+ * <p>
+ * Type-ahead sends one request per keystroke, and a completion suggester result with fewer options than
+ * requested holds every completion of that prefix. Such a result can answer any longer prefix by filtering it locally,
+ * so "berg" and "berge" are served from the cached result for "ber" without asking Elasticsearch.
+ * Options are filtered with a case-insensitive prefix match on the option text, which is how the suggest field
+ * is analyzed (lower-cased) at index time.
+ * <p>
+ * The default instance is configured with {@code BLACKBOX_SUGGEST_CACHE_MAX_ENTRIES} (default 10000, 0 disables
+ * caching) and {@code BLACKBOX_SUGGEST_CACHE_TTL_SECONDS} (default 300).
+ */
+public final class SuggestionCache {
+    private static final Logger logger = Logger.getLogger(SuggestionCache.class.getName());
+    private static final char SEPARATOR = '\u0000';
+
+    private static final SuggestionCache DEFAULT = new SuggestionCache(
+            Settings.getInt("BLACKBOX_SUGGEST_CACHE_MAX_ENTRIES", 10_000),
+            Settings.getLong("BLACKBOX_SUGGEST_CACHE_TTL_SECONDS", 300));
+
+    static {
+        Metrics.register(SuggestionCache::writeMetrics);
+    }
+
+    private final int maxEntries;
+    private final long ttlNanos;
+    private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>(256, 0.75f, true);
+    private final ReentrantLock lock = new ReentrantLock();
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder prefixHits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+
+    /**
+     * Create a cache
+     *
+     * @param maxEntries maximum number of cached results, 0 disables caching
+     * @param ttlSeconds time-to-live of a result
+     */
+    public SuggestionCache(int maxEntries, long ttlSeconds) {
+        this.maxEntries = Math.max(0, maxEntries);
+        this.ttlNanos = TimeUnit.SECONDS.toNanos(Math.max(0, ttlSeconds));
+        logger.fine("Suggestion cache: max entries " + maxEntries + ", time-to-live (seconds) " + ttlSeconds);
+    }
+
+    /**
+     * Get the cache configured from the Blackbox settings
+     */
+    public static SuggestionCache getDefault() {
+        return DEFAULT;
+    }
+
+    /**
+     * Write the metrics of the shared instance, see {@link Metrics}
+     */
+    private static void writeMetrics(MetricWriter out) throws IOException {
+        out.header("blackbox_suggest_cache_requests_total", "counter", "Suggestion cache lookups by result");
+        out.sample("blackbox_suggest_cache_requests_total", "result", "hit", DEFAULT.getHits());
+        out.sample("blackbox_suggest_cache_requests_total", "result", "prefix_hit", DEFAULT.getPrefixHits());
+        out.sample("blackbox_suggest_cache_requests_total", "result", "miss", DEFAULT.getMisses());
+    }
+
+    /**
+     * Get cached suggestions, either for the text itself or filtered from a complete result for a shorter prefix
+     *
+     * @param text    a suggest text
+     * @param size    the number of suggestions requested
+     * @param indices indices, can be {@code null}
+     * @return a sorted, unmodifiable set of suggestions, or {@code null} if they are not cached
+     */
+    @Nullable
+    public Set<String> get(@Nullable String text, int size, @Nullable String... indices) {
+        if (!isEnabled() || !StringUtils.hasText(text)) {
+            return null;
+        }
+        String prefix = keyPrefix(size, indices);
+        long now = System.nanoTime();
+        Entry shorter = null;
+        lock.lock();
+        try {
+            Entry exact = live(prefix + text, now);
+            if (exact != null) {
+                hits.increment();
+                return exact.suggestions;
+            }
+            //Look for the longest shorter prefix with a complete result
+            for (int length = text.length() - 1; length > 0 && shorter == null; length--) {
+                Entry entry = live(prefix + text.substring(0, length), now);
+                if (entry != null && entry.complete) {
+                    shorter = entry;
+                }
+            }
+        } finally {
+            lock.unlock();
+        }
+        if (shorter != null) {
+            prefixHits.increment();
+            return filter(shorter.suggestions, text);
+        }
+        misses.increment();
+        return null;
+    }
+
+    /**
+     * Cache suggestions from Elasticsearch
+     *
+     * @param text        a suggest text
+     * @param size        the number of suggestions requested
+     * @param indices     indices, can be {@code null}
+     * @param suggestions the suggestions returned for the text
+     */
+    public void put(@Nullable String text, int size, @Nullable String[] indices, Set<String> suggestions) {
+        if (!isEnabled() || !StringUtils.hasText(text)) {
+            return;
+        }
+        Entry entry = new Entry(
+                Collections.unmodifiableSortedSet(new TreeSet<>(suggestions)),
+                suggestions.size() < size,
+                System.nanoTime() + ttlNanos);
+        lock.lock();
+        try {
+            entries.put(keyPrefix(size, indices) + text, entry);
+            if (entries.size() > maxEntries) {
+                //Least recently used entries come first
+                Iterator<Entry> it = entries.values().iterator();
+                it.next();
+                it.remove();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Remove all entries
+     */
+    public void invalidateAll() {
+        lock.lock();
+        try {
+            entries.clear();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public boolean isEnabled() {
+        return maxEntries > 0 && ttlNanos > 0;
+    }
+
+    public long getHits() {
+        return hits.sum();
+    }
+
+    public long getPrefixHits() {
+        return prefixHits.sum();
+    }
+
+    public long getMisses() {
+        return misses.sum();
+    }
+
+    public int size() {
+        lock.lock();
+        try {
+            return entries.size();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Nullable
+    private Entry live(String key, long now) {
+        Entry entry = entries.get(key);
+        if (entry != null && now - entry.expiresAt >= 0) {
+            entries.remove(key);
+            return null;
+        }
+        return entry;
+    }
+
+    private static SortedSet<String> filter(SortedSet<String> suggestions, String text) {
+        String lowerCaseText = text.toLowerCase(Locale.ROOT);
+        SortedSet<String> filtered = new TreeSet<>();
+        for (String suggestion : suggestions) {
+            if (suggestion.toLowerCase(Locale.ROOT).startsWith(lowerCaseText)) {
+                filtered.add(suggestion);
+            }
+        }
+        return Collections.unmodifiableSortedSet(filtered);
+    }
+
+    private static String keyPrefix(int size, @Nullable String[] indices) {
+        String[] sorted = indices == null ? new String[0] : indices.clone();
+        Arrays.sort(sorted);
+        return String.join(",", sorted) + SEPARATOR + size + SEPARATOR;
+    }
+
+    /**
+     * @param suggestions sorted suggestions
+     * @param complete    whether there were fewer suggestions than requested, i.e. all completions of the text
+     */
+    private record Entry(SortedSet<String> suggestions, boolean complete, long expiresAt) {
+    }
+}
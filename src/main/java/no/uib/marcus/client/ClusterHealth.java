@@ -0,0 +1,171 @@
+package no.uib.marcus.client;
+
+import co.elastic.clients.elasticsearch.cluster.HealthResponse;
+import jakarta.annotation.Nullable;
+import no.uib.marcus.common.Settings;
+import no.uib.marcus.metrics.MetricWriter;
+import no.uib.marcus.metrics.Metrics;
+
+import java.io.IOException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * The health of the Elasticsearch cluster, polled in the background every {@code BLACKBOX_HEALTH_POLL_SECONDS}
+ * (default 5) and kept as an immutable snapshot. Reading it never waits for Elasticsearch, so it can be served by
+ * "/health" as often as an orchestrator likes, and used by the search path without extra requests to the cluster.
+ */
+public final class ClusterHealth {
+    private static final Logger logger = Logger.getLogger(ClusterHealth.class.getName());
+    //Polls that must fail in a row before the cluster is considered unavailable
+    static final int UNAVAILABLE_AFTER_FAILURES = 3;
+
+    private static final ClusterHealth DEFAULT = new ClusterHealth(
+            Settings.getLong("BLACKBOX_HEALTH_POLL_SECONDS", 5));
+
+    static {
+        Metrics.register(ClusterHealth::writeMetrics);
+    }
+
+    /**
+     * Reads the health of the cluster
+     */
+    @FunctionalInterface
+    interface Probe {
+        Snapshot read() throws IOException;
+    }
+
+    /**
+     * The health of the cluster at one point in time
+     *
+     * @param clusterName  the name of the cluster, {@code null} if it has never answered
+     * @param status       {@code green}, {@code yellow}, {@code red}, or {@code unknown} if it has never answered
+     * @param nodes        the number of nodes
+     * @param dataNodes    the number of data nodes
+     * @param pendingTasks the number of cluster-level changes that have not been executed yet
+     * @param updated      when the cluster last answered, in milliseconds since the epoch, 0 if never
+     * @param failures     the number of polls that have failed since then
+     */
+    public record Snapshot(@Nullable String clusterName, String status, int nodes, int dataNodes, int pendingTasks,
+                           long updated, int failures) {
+        static final Snapshot UNKNOWN = new Snapshot(null, "unknown", 0, 0, 0, 0, 0);
+
+        static Snapshot of(HealthResponse health) {
+            return new Snapshot(health.clusterName(), health.status().jsonValue(), health.numberOfNodes(),
+                    health.numberOfDataNodes(), health.numberOfPendingTasks(), System.currentTimeMillis(), 0);
+        }
+
+        /**
+         * Whether the last few polls have all failed, in which case requests to the cluster are likely to fail too
+         */
+        public boolean isUnavailable() {
+            return failures >= UNAVAILABLE_AFTER_FAILURES;
+        }
+
+        Snapshot failed() {
+            return new Snapshot(clusterName, status, nodes, dataNodes, pendingTasks, updated, failures + 1);
+        }
+    }
+
+    private final long pollSeconds;
+    private volatile Snapshot snapshot = Snapshot.UNKNOWN;
+    private volatile ScheduledExecutorService scheduler;
+
+    /**
+     * Create a cluster health
+     *
+     * @param pollSeconds time between polls
+     */
+    ClusterHealth(long pollSeconds) {
+        this.pollSeconds = Math.max(1, pollSeconds);
+    }
+
+    /**
+     * Get the cluster health polled with the Blackbox settings
+     */
+    public static ClusterHealth getDefault() {
+        return DEFAULT;
+    }
+
+    /**
+     * Write the metrics of the shared instance, see {@link Metrics}
+     */
+    private static void writeMetrics(MetricWriter out) throws IOException {
+        Snapshot health = DEFAULT.snapshot();
+        out.header("blackbox_cluster_nodes", "gauge", "Nodes in the Elasticsearch cluster at the last health poll");
+        out.sample("blackbox_cluster_nodes", health.nodes());
+        out.header("blackbox_cluster_pending_tasks", "gauge", "Pending cluster tasks at the last health poll");
+        out.sample("blackbox_cluster_pending_tasks", health.pendingTasks());
+        out.header("blackbox_cluster_unavailable", "gauge", "1 while the last health polls have all failed");
+        out.sample("blackbox_cluster_unavailable", health.isUnavailable() ? 1 : 0);
+    }
+
+    /**
+     * Get the latest snapshot, {@code unknown} until the first poll
+     */
+    public Snapshot snapshot() {
+        return snapshot;
+    }
+
+    /**
+     * Get the time between polls, which is also how long a client should wait before trying again while the
+     * cluster is unavailable
+     */
+    public long getPollSeconds() {
+        return pollSeconds;
+    }
+
+    /**
+     * Poll the cluster in the background
+     */
+    public void start() {
+        if (scheduler != null) {
+            return;
+        }
+        scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "blackbox-cluster-health");
+            thread.setDaemon(true);
+            return thread;
+        });
+        scheduler.scheduleWithFixedDelay(() -> refresh(ClusterHealth::read), 0, pollSeconds, TimeUnit.SECONDS);
+        logger.info("Polling cluster health every " + pollSeconds + " seconds");
+    }
+
+    /**
+     * Stop polling
+     */
+    public void stop() {
+        ScheduledExecutorService running = scheduler;
+        if (running != null) {
+            running.shutdownNow();
+            scheduler = null;
+        }
+    }
+
+    /**
+     * Read the health once. A failed poll keeps the last known health and counts the failure.
+     */
+    void refresh(Probe probe) {
+        Snapshot previous = snapshot;
+        try {
+            snapshot = probe.read();
+            if (previous.isUnavailable()) {
+                logger.info("Elasticsearch cluster is available again");
+            }
+        } catch (IOException | RuntimeException e) {
+            snapshot = previous.failed();
+            if (snapshot.failures() == UNAVAILABLE_AFTER_FAILURES) {
+                logger.log(Level.WARNING, "Elasticsearch cluster is unavailable", e);
+            } else {
+                logger.log(Level.FINE, "Unable to read cluster health", e);
+            }
+        }
+    }
+
+    private static Snapshot read() throws IOException {
+        return Snapshot.of(ElasticsearchClientFactory.getElasticsearchClient().cluster().health());
+    }
+}
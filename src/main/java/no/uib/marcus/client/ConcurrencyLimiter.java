@@ -0,0 +1,273 @@
+package no.uib.marcus.client;
+
+import jakarta.annotation.Nullable;
+import no.uib.marcus.common.Settings;
+import no.uib.marcus.metrics.MetricWriter;
+import no.uib.marcus.metrics.Metrics;
+
+import java.io.IOException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Predicate;
+
+/**
+ * Limits the number of concurrent requests to Elasticsearch, and adapts the limit to the latency of the cluster.
+ * When the cluster slows down, requests beyond the limit are rejected right away instead of queueing up in both
+ * Tomcat and Elasticsearch, so the requests that are let through keep a good latency.
+ * <p>
+ * The limit follows the gradient between the long-term average latency, which stands for the latency without
+ * queueing, and the short-term average latency: it shrinks when recent requests are slower than usual and grows
+ * by about its square root while they are not. Failed and timed out requests shrink it by 10%.
+ * <p>
+ * "/search" and "/suggest" have their own limiters, enabled by setting their highest limit with
+ * {@code BLACKBOX_CONCURRENCY_LIMIT_SEARCH} and {@code BLACKBOX_CONCURRENCY_LIMIT_SUGGEST} (default 0, no limit).
+ */
+public final class ConcurrencyLimiter {
+    private static final ConcurrencyLimiter SEARCH = new ConcurrencyLimiter(
+            Settings.getInt("BLACKBOX_CONCURRENCY_LIMIT_SEARCH", 0));
+    private static final ConcurrencyLimiter SUGGEST = new ConcurrencyLimiter(
+            Settings.getInt("BLACKBOX_CONCURRENCY_LIMIT_SUGGEST", 0));
+
+    static {
+        Metrics.register(ConcurrencyLimiter::writeMetrics);
+    }
+
+    private static final int INITIAL_LIMIT = 20;
+    private static final int MIN_LIMIT = 2;
+    //Number of samples in the short-term and long-term latency averages
+    private static final int SHORT_WINDOW = 10;
+    private static final int LONG_WINDOW = 600;
+    //How much of a new limit is applied at once
+    private static final double SMOOTHING = 0.2;
+    private static final double MIN_GRADIENT = 0.5;
+    private static final double BACKOFF = 0.9;
+
+    private final int maxLimit;
+    private final int minLimit;
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private final LongAdder rejected = new LongAdder();
+    //Guards the latency averages and the updates of the limit, which are read without it
+    private final ReentrantLock lock = new ReentrantLock();
+    private volatile double limit;
+    private double shortRtt;
+    private double longRtt;
+    private long samples;
+
+    /**
+     * A permission to send one request, which must be released when the response or failure arrives
+     */
+    public static final class Permit {
+        private static final Permit UNLIMITED = new Permit(null, 0);
+
+        @Nullable
+        private final ConcurrencyLimiter limiter;
+        private final int inFlight;
+        private final long start = System.nanoTime();
+        private final AtomicBoolean released = new AtomicBoolean();
+
+        private Permit(@Nullable ConcurrencyLimiter limiter, int inFlight) {
+            this.limiter = limiter;
+            this.inFlight = inFlight;
+        }
+
+        /**
+         * Release the permit, only the first call counts
+         *
+         * @param failure the failure of the request, {@code null} if it succeeded
+         */
+        public void release(@Nullable Throwable failure) {
+            release(failure != null);
+        }
+
+        /**
+         * Release the permit, only the first call counts
+         *
+         * @param failed whether the request failed, also when a response came back, e.g. with an error status
+         */
+        public void release(boolean failed) {
+            if (limiter == null || !released.compareAndSet(false, true)) {
+                return;
+            }
+            limiter.inFlight.decrementAndGet();
+            if (failed) {
+                limiter.backOff();
+            } else {
+                limiter.sample(System.nanoTime() - start, inFlight);
+            }
+        }
+
+        /**
+         * Give the permit back without adapting the limit, when no request was sent or it failed for reasons that
+         * say nothing about the cluster. Only the first release or cancel counts.
+         */
+        public void cancel() {
+            if (limiter != null && released.compareAndSet(false, true)) {
+                limiter.inFlight.decrementAndGet();
+            }
+        }
+
+        /**
+         * Release the permit when a request completes
+         *
+         * @return the same future
+         */
+        public <T> CompletableFuture<T> releaseWhenComplete(CompletableFuture<T> future) {
+            return releaseWhenComplete(future, result -> false);
+        }
+
+        /**
+         * Release the permit when a request completes
+         *
+         * @param failed tells whether a result is a failure, e.g. an error status or a timed out search
+         * @return the same future
+         */
+        public <T> CompletableFuture<T> releaseWhenComplete(CompletableFuture<T> future,
+                                                            Predicate<? super T> failed) {
+            future.whenComplete((result, failure) -> release(failure != null || failed.test(result)));
+            return future;
+        }
+    }
+
+    /**
+     * Create a limiter
+     *
+     * @param maxLimit the highest limit, 0 or less disables the limiter
+     */
+    public ConcurrencyLimiter(int maxLimit) {
+        this.maxLimit = Math.max(0, maxLimit);
+        this.minLimit = Math.min(this.maxLimit, MIN_LIMIT);
+        this.limit = Math.min(this.maxLimit, INITIAL_LIMIT);
+    }
+
+    /**
+     * Get the limiter for "/search" requests
+     */
+    public static ConcurrencyLimiter search() {
+        return SEARCH;
+    }
+
+    /**
+     * Get the limiter for "/suggest" requests
+     */
+    public static ConcurrencyLimiter suggest() {
+        return SUGGEST;
+    }
+
+    /**
+     * Write the metrics of the "/search" and "/suggest" limiters, see {@link Metrics}
+     */
+    private static void writeMetrics(MetricWriter out) throws IOException {
+        if (!SEARCH.isEnabled() && !SUGGEST.isEnabled()) {
+            return;
+        }
+        out.header("blackbox_concurrency_limit", "gauge", "Current limit of concurrent requests to Elasticsearch");
+        out.sample("blackbox_concurrency_limit", "endpoint", "search", SEARCH.getLimit());
+        out.sample("blackbox_concurrency_limit", "endpoint", "suggest", SUGGEST.getLimit());
+        out.header("blackbox_concurrency_in_flight", "gauge", "Requests to Elasticsearch counted by the limiter");
+        out.sample("blackbox_concurrency_in_flight", "endpoint", "search", SEARCH.getInFlight());
+        out.sample("blackbox_concurrency_in_flight", "endpoint", "suggest", SUGGEST.getInFlight());
+        out.header("blackbox_concurrency_rejected_total", "counter",
+                "Requests rejected with 503 because the concurrency limit was reached");
+        out.sample("blackbox_concurrency_rejected_total", "endpoint", "search", SEARCH.getRejected());
+        out.sample("blackbox_concurrency_rejected_total", "endpoint", "suggest", SUGGEST.getRejected());
+    }
+
+    public boolean isEnabled() {
+        return maxLimit > 0;
+    }
+
+    /**
+     * Get permission to send a request
+     *
+     * @return a permit, or {@code null} if the limit is reached and the request should be rejected
+     */
+    @Nullable
+    public Permit tryAcquire() {
+        if (!isEnabled()) {
+            return Permit.UNLIMITED;
+        }
+        while (true) {
+            int current = inFlight.get();
+            if (current >= (int) limit) {
+                rejected.increment();
+                return null;
+            }
+            if (inFlight.compareAndSet(current, current + 1)) {
+                return new Permit(this, current + 1);
+            }
+        }
+    }
+
+    /**
+     * Adapt the limit to the latency of a successful request
+     *
+     * @param rttNanos the latency of the request
+     * @param inFlight the number of requests in flight when it was sent, including itself
+     */
+    void sample(long rttNanos, int inFlight) {
+        lock.lock();
+        try {
+            samples++;
+            if (samples == 1) {
+                shortRtt = rttNanos;
+                longRtt = rttNanos;
+            } else {
+                shortRtt += (rttNanos - shortRtt) / Math.min(samples, SHORT_WINDOW);
+                longRtt += (rttNanos - longRtt) / Math.min(samples, LONG_WINDOW);
+            }
+            //Latency has dropped for good, let the long-term average catch up faster
+            if (longRtt / shortRtt > 2) {
+                longRtt *= 0.95;
+            }
+            //With few requests in flight, the latency says nothing about how many the cluster can take
+            if (inFlight < limit / 2) {
+                return;
+            }
+            double gradient = Math.max(MIN_GRADIENT, Math.min(1.0, longRtt / shortRtt));
+            double next = limit * gradient + Math.sqrt(limit);
+            setLimit(limit * (1 - SMOOTHING) + next * SMOOTHING);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Shrink the limit after a failed or timed out request
+     */
+    void backOff() {
+        lock.lock();
+        try {
+            setLimit(limit * BACKOFF);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void setLimit(double next) {
+        limit = Math.max(minLimit, Math.min(maxLimit, next));
+    }
+
+    /**
+     * Get the current limit
+     */
+    public int getLimit() {
+        return (int) limit;
+    }
+
+    /**
+     * Get the number of requests in flight
+     */
+    public int getInFlight() {
+        return inFlight.get();
+    }
+
+    /**
+     * Get the number of requests rejected since the application started
+     */
+    public long getRejected() {
+        return rejected.sum();
+    }
+}
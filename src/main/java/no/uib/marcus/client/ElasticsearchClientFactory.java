@@ -10,16 +10,29 @@ import no.uib.marcus.common.util.BlackboxUtils;
 import org.apache.http.Header;
 import org.apache.http.HttpHost;
 
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
 import org.apache.http.message.BasicHeader;
 import org.elasticsearch.client.RestClient;
+import org.elasticsearch.client.sniff.ElasticsearchNodesSniffer;
+import org.elasticsearch.client.sniff.SniffOnFailureListener;
+import org.elasticsearch.client.sniff.Sniffer;
+
+import jakarta.annotation.Nullable;
 
 import java.io.IOException;
 import java.net.UnknownHostException;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.BooleanSupplier;
 
 
 /**
@@ -33,6 +46,19 @@ import java.util.Map;
 public final class ElasticsearchClientFactory {
     private static final Logger logger = Logger.getLogger(ElasticsearchClientFactory.class.getName());
     private static volatile ElasticsearchClient elasticsearchClient;
+    private static volatile LowLevelClient lowLevelClient;
+    private static Sniffer sniffer;
+    private static final int DEFAULT_PORT = 9200;
+    private static final String REST_CLIENT = "rest_client";
+    private static final String REST5_CLIENT = "rest5_client";
+    private static final long DEFAULT_SNIFF_INTERVAL_SECONDS = 300;
+    private static final long SNIFF_AFTER_FAILURE_DELAY_SECONDS = 60;
+    private static final long INITIAL_RETRY_MILLIS = 1000;
+    private static final long MAX_RETRY_MILLIS = 30_000;
+    private static final ReentrantLock lock = new ReentrantLock();
+    @Nullable
+    private static volatile CompletableFuture<ElasticsearchClient> initialization;
+    private static volatile boolean closed;
 
     /**
      * Prevent direct instantiation of this class
@@ -46,21 +72,33 @@ public final class ElasticsearchClientFactory {
     private static ElasticsearchClient createElasticsearchClient(Map<String, String> properties) {
         try {
 
-            Header[] defaultHeader = new Header[]{new BasicHeader("Authorization",
-                    "ApiKey " + BlackboxUtils.getValueAsString(properties, "api_key"))};
-            RestClient restClient = RestClient.builder(
-                            new HttpHost(
-                                BlackboxUtils.getValueAsString(properties, "host"),
-                                BlackboxUtils.getValueAsInt(properties, "port"),
-                                "https")
-                    ).setDefaultHeaders(defaultHeader)
-                    .build();
-
-            JacksonJsonpMapper jsonMapper = new JacksonJsonpMapper();
-            ElasticsearchTransport elasticsearchTransport = new RestClientTransport(restClient, jsonMapper);
+            String apiKey = BlackboxUtils.getValueAsString(properties, "api_key");
+            HttpHost[] hosts = parseHosts(optional(properties, "hosts") != null
+                            ? optional(properties, "hosts") : BlackboxUtils.getValueAsString(properties, "host"),
+                    optional(properties, "port") != null ? Integer.parseInt(optional(properties, "port")) : DEFAULT_PORT);
+            HttpClientSettings httpSettings = httpClientSettings(properties);
+            String transport = optional(properties, "transport") != null ? optional(properties, "transport") : REST_CLIENT;
+            logger.info("Elasticsearch hosts: " + Arrays.toString(hosts) + ", transport: " + transport);
+            logger.info("Elasticsearch connections: " + httpSettings);
+            if (REST5_CLIENT.equals(transport) && Boolean.parseBoolean(optional(properties, "sniff"))) {
+                logger.warning("Sniffing is only available with the " + REST_CLIENT + " transport, using the "
+                        + "configured hosts only");
+            }
+            ElasticsearchTransport elasticsearchTransport = switch (transport) {
+                case REST_CLIENT -> createRestClientTransport(hosts, apiKey, httpSettings, properties);
+                case REST5_CLIENT -> Rest5Transports.create(hosts, apiKey, httpSettings);
+                default -> throw new IllegalArgumentException("Unknown transport [" + transport + "], use "
+                        + REST_CLIENT + " or " + REST5_CLIENT);
+            };
             ElasticsearchClient client = new ElasticsearchClient(elasticsearchTransport);
-            HealthResponse hr = client.cluster().health();
-            logger.log(Level.INFO, "Connected to Elasticsearch cluster: " + hr);
+            try {
+                HealthResponse hr = client.cluster().health();
+                logger.log(Level.INFO, "Connected to Elasticsearch cluster: " + hr);
+            } catch (IOException | RuntimeException e) {
+                //Don't leave the connections open when the creation is retried
+                closeQuietly(elasticsearchTransport);
+                throw e;
+            }
             return client;
         } catch (UnknownHostException e) {
             logger.log(Level.SEVERE, "Unknown host: " + e.getMessage());
@@ -72,37 +110,271 @@ public final class ElasticsearchClientFactory {
 
     }
 
+    private static void closeQuietly(ElasticsearchTransport transport) {
+        if (sniffer != null) {
+            sniffer.close();
+            sniffer = null;
+        }
+        try {
+            transport.close();
+        } catch (IOException e) {
+            logger.log(Level.FINE, "Error closing Elasticsearch transport", e);
+        }
+    }
+
     /**
-     *  Synchronize the call so that different threads do not end up creating multiple instances
-     * Do we still need to synchronize after changing to use the java client which uses rest?
+     * Create a transport on the legacy {@link RestClient}, with latency-aware node selection and optional sniffing
+     */
+    private static ElasticsearchTransport createRestClientTransport(HttpHost[] hosts, String apiKey,
+                                                                    HttpClientSettings httpSettings,
+                                                                    Map<String, String> properties) {
+        Header[] defaultHeader = new Header[]{new BasicHeader("Authorization", "ApiKey " + apiKey)};
+        boolean sniff = Boolean.parseBoolean(optional(properties, "sniff"));
+        LatencyAwareNodeSelector nodeSelector = new LatencyAwareNodeSelector();
+        SniffOnFailureListener sniffOnFailure = sniff ? new SniffOnFailureListener() : null;
+        RestClient restClient = RestClient.builder(hosts)
+                .setDefaultHeaders(defaultHeader)
+                .setNodeSelector(nodeSelector)
+                .setFailureListener(nodeSelector.failureListener(sniffOnFailure))
+                .setHttpClientConfigCallback(builder -> nodeSelector.configure(httpSettings.configure(builder)))
+                .setCompressionEnabled(httpSettings.isCompression())
+                .build();
+        if (sniffOnFailure != null) {
+            sniffer = createSniffer(restClient, hosts[0].getSchemeName(), optional(properties, "sniff_interval_seconds"));
+            sniffOnFailure.setSniffer(sniffer);
+            logger.info("Sniffing Elasticsearch nodes");
+        }
+        return new RestClientTransport(restClient, new JacksonJsonpMapper());
+    }
+
+    /**
+     * Create a sniffer that keeps the hosts of the client up to date with the nodes of the cluster
+     */
+    private static Sniffer createSniffer(RestClient restClient, String scheme, @Nullable String intervalSeconds) {
+        long interval = intervalSeconds != null ? Long.parseLong(intervalSeconds) : DEFAULT_SNIFF_INTERVAL_SECONDS;
+        ElasticsearchNodesSniffer nodesSniffer = new ElasticsearchNodesSniffer(restClient,
+                ElasticsearchNodesSniffer.DEFAULT_SNIFF_REQUEST_TIMEOUT,
+                ElasticsearchNodesSniffer.Scheme.valueOf(scheme.toUpperCase(Locale.ROOT)));
+        return Sniffer.builder(restClient)
+                .setNodesSniffer(nodesSniffer)
+                .setSniffIntervalMillis((int) TimeUnit.SECONDS.toMillis(interval))
+                .setSniffAfterFailureDelayMillis((int) TimeUnit.SECONDS.toMillis(SNIFF_AFTER_FAILURE_DELAY_SECONDS))
+                .build();
+    }
+
+    /**
+     * Get the connection settings, falling back to the defaults for settings that are not given
+     */
+    private static HttpClientSettings httpClientSettings(Map<String, String> properties) {
+        HttpClientSettings defaults = HttpClientSettings.defaults();
+        String compression = optional(properties, "compression");
+        //0 or less is one per processor
+        int ioThreads = optionalInt(properties, "io_threads", 0);
+        return new HttpClientSettings(
+                optionalInt(properties, "max_connections", defaults.getMaxConnections()),
+                optionalInt(properties, "max_connections_per_node", defaults.getMaxConnectionsPerNode()),
+                ioThreads > 0 ? ioThreads : defaults.getIoThreads(),
+                optionalInt(properties, "keep_alive_seconds", (int) defaults.getKeepAliveSeconds()),
+                compression != null ? Boolean.parseBoolean(compression) : defaults.isCompression());
+    }
+
+    /**
+     * Parse a comma-separated list of hosts, e.g. "es1:9200, es2, http://localhost:9201".
+     * Hosts without a scheme use https, and hosts without a port use the default port.
+     */
+    static HttpHost[] parseHosts(String hosts, int defaultPort) {
+        List<HttpHost> parsed = new ArrayList<>();
+        for (String entry : hosts.split(",")) {
+            String host = entry.trim();
+            if (host.isEmpty()) {
+                continue;
+            }
+            HttpHost httpHost = HttpHost.create(host.contains("://") ? host : "https://" + host);
+            if (httpHost.getPort() < 0) {
+                httpHost = new HttpHost(httpHost.getHostName(), defaultPort, httpHost.getSchemeName());
+            }
+            parsed.add(httpHost);
+        }
+        if (parsed.isEmpty()) {
+            throw new IllegalArgumentException("No Elasticsearch hosts in [" + hosts + "]");
+        }
+        return parsed.toArray(new HttpHost[0]);
+    }
+
+    /**
+     * Get an optional setting. Values in the config template may be numbers or booleans rather than strings.
+     */
+    @Nullable
+    private static String optional(Map<String, ?> properties, String key) {
+        Object value = properties.get(key);
+        return value == null ? null : value.toString();
+    }
+
+    private static int optionalInt(Map<String, ?> properties, String key, int defaultValue) {
+        String value = optional(properties, key);
+        return value != null ? Integer.parseInt(value.trim()) : defaultValue;
+    }
+
+    /**
+     * Lock the creation so that different threads do not end up creating multiple instances.
+     * Once the client exists, this is a plain volatile read, and a {@link ReentrantLock} is used rather than
+     * {@code synchronized} so that virtual threads waiting for the first client are never pinned to their carrier.
+     * <p>
+     * If {@link #initialize()} has been called, the client is created in the background instead, and this fails
+     * fast until it exists, so that requests do not queue up behind a slow or unreachable cluster.
      */
     public static ElasticsearchClient getElasticsearchClient() throws IOException {
         if (elasticsearchClient == null) {
-          synchronized (ElasticsearchClientFactory.class) {
+          if (initialization != null) {
+            throw new IOException("The Elasticsearch client is not ready yet");
+          }
+          lock.lock();
+          try {
             if (elasticsearchClient == null) {
-              JsonFileLoader loader = new JsonFileLoader();
-              Map<String, String> properties;
-              String clusterName = System.getenv("ELASTICSEARCH_CLUSTER_NAME");
-              if (clusterName == null || clusterName.isEmpty()) {
-                properties = loader.loadBlackboxConfigFromResource();
-                logger.info("Loaded config template from: " + loader.getPathFromResource(
-                    JsonFileLoader.CONFIG_TEMPLATE));
-              } else {
-                properties = new HashMap<>();
-                properties.put("name", required("ELASTICSEARCH_CLUSTER_NAME"));
-                properties.put("node_name", required("ELASTICSEARCH_CLUSTER_NODE_NAME"));
-                properties.put("host", required("ELASTICSEARCH_CLUSTER_HOST"));
-                properties.put("port", required("ELASTICSEARCH_CLUSTER_PORT"));
-                properties.put("api_key", required("ELASTICSEARCH_CLUSTER_API_KEY"));
-                logger.info("configuration loaded from env variables");
-              }
-              elasticsearchClient = createElasticsearchClient(properties);
+              create();
             }
+          } finally {
+            lock.unlock();
           }
         }
         return elasticsearchClient;
     }
-    
+
+    /**
+     * Create the client in the background, retrying with backoff until the cluster can be reached.
+     * Calling this again returns the same future.
+     *
+     * @return a future that completes with the client, or fails if the client is closed before it was created
+     */
+    public static CompletableFuture<ElasticsearchClient> initialize() {
+        lock.lock();
+        try {
+            if (initialization == null) {
+                CompletableFuture<ElasticsearchClient> future = new CompletableFuture<>();
+                initialization = future;
+                Thread.ofVirtual().name("blackbox-client-init").start(() -> connect(future));
+            }
+            return initialization;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Whether the client has been created
+     */
+    public static boolean isInitialized() {
+        return elasticsearchClient != null;
+    }
+
+    private static void connect(CompletableFuture<ElasticsearchClient> future) {
+        retry(future, () -> {
+            if (elasticsearchClient == null) {
+                create();
+            }
+            return elasticsearchClient;
+        }, () -> closed, INITIAL_RETRY_MILLIS, MAX_RETRY_MILLIS);
+    }
+
+    /**
+     * Creates something that may fail, e.g. a client for a cluster that cannot be reached yet
+     */
+    @FunctionalInterface
+    interface Creator<T> {
+        T create() throws IOException;
+    }
+
+    /**
+     * Create something with the lock held, retrying with a doubling delay until it succeeds or it is no longer needed
+     *
+     * @param future        completed with the result, or exceptionally if it was stopped first
+     * @param creator       creates the result
+     * @param stopped       whether to stop retrying
+     * @param initialMillis delay before the first retry
+     * @param maxMillis     longest delay between retries
+     */
+    static <T> void retry(CompletableFuture<T> future, Creator<T> creator, BooleanSupplier stopped,
+                          long initialMillis, long maxMillis) {
+        long retryMillis = initialMillis;
+        while (!stopped.getAsBoolean()) {
+            lock.lock();
+            try {
+                if (stopped.getAsBoolean()) {
+                    break;
+                }
+                future.complete(creator.create());
+                return;
+            } catch (IOException | RuntimeException e) {
+                logger.log(Level.WARNING, "Unable to create the Elasticsearch client, retrying in "
+                        + retryMillis + " ms", e);
+            } finally {
+                lock.unlock();
+            }
+            try {
+                Thread.sleep(retryMillis);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            }
+            retryMillis = Math.min(maxMillis, retryMillis * 2);
+        }
+        future.completeExceptionally(new IOException("The Elasticsearch client was closed before it was created"));
+    }
+
+    /**
+     * Load the configuration and create the clients, with the lock held
+     */
+    private static void create() throws IOException {
+        JsonFileLoader loader = new JsonFileLoader();
+        Map<String, String> properties;
+        String clusterName = System.getenv("ELASTICSEARCH_CLUSTER_NAME");
+        if (clusterName == null || clusterName.isEmpty()) {
+          properties = loader.loadBlackboxConfigFromResource();
+          logger.info("Loaded config template from: " + loader.getPathFromResource(
+              JsonFileLoader.CONFIG_TEMPLATE));
+        } else {
+          properties = new HashMap<>();
+          properties.put("name", required("ELASTICSEARCH_CLUSTER_NAME"));
+          properties.put("node_name", required("ELASTICSEARCH_CLUSTER_NODE_NAME"));
+          //A list of hosts, or a single host and port
+          String hosts = System.getenv("ELASTICSEARCH_CLUSTER_HOSTS");
+          if (hosts != null && !hosts.isBlank()) {
+            properties.put("hosts", hosts);
+          } else {
+            properties.put("host", required("ELASTICSEARCH_CLUSTER_HOST"));
+          }
+          putIfSet(properties, "port", "ELASTICSEARCH_CLUSTER_PORT");
+          putIfSet(properties, "sniff", "ELASTICSEARCH_CLUSTER_SNIFF");
+          putIfSet(properties, "sniff_interval_seconds", "ELASTICSEARCH_CLUSTER_SNIFF_INTERVAL_SECONDS");
+          putIfSet(properties, "max_connections", "ELASTICSEARCH_CLUSTER_MAX_CONNECTIONS");
+          putIfSet(properties, "max_connections_per_node", "ELASTICSEARCH_CLUSTER_MAX_CONNECTIONS_PER_NODE");
+          putIfSet(properties, "io_threads", "ELASTICSEARCH_CLUSTER_IO_THREADS");
+          putIfSet(properties, "keep_alive_seconds", "ELASTICSEARCH_CLUSTER_KEEP_ALIVE_SECONDS");
+          putIfSet(properties, "compression", "ELASTICSEARCH_CLUSTER_COMPRESSION");
+          putIfSet(properties, "transport", "ELASTICSEARCH_CLUSTER_TRANSPORT");
+          properties.put("api_key", required("ELASTICSEARCH_CLUSTER_API_KEY"));
+          logger.info("configuration loaded from env variables");
+        }
+        ElasticsearchClient client = createElasticsearchClient(properties);
+        lowLevelClient = LowLevelClient.of(client._transport());
+        elasticsearchClient = client;
+    }
+
+    /**
+     * Get a client for sending raw requests through the same transport as {@link #getElasticsearchClient()}
+     */
+    public static LowLevelClient getLowLevelClient() throws IOException {
+        getElasticsearchClient();
+        return lowLevelClient;
+    }
+
+    private static void putIfSet(Map<String, String> properties, String key, String envVar) {
+        String value = System.getenv(envVar);
+        if (value != null && !value.isBlank()) {
+            properties.put(key, value.trim());
+        }
+    }
+
     private static String required(String envVar) {
         String value = System.getenv(envVar);
         if (value == null) {
@@ -119,16 +391,28 @@ public final class ElasticsearchClientFactory {
         throw new CloneNotSupportedException("Cloning for this object is not supported");
     }
 
-    public static synchronized void closeClient() {
-    if (elasticsearchClient != null) {
-      try {
-        elasticsearchClient._transport().close();
-        elasticsearchClient.close();
-      } catch (IOException e) {
-        logger.log(Level.WARNING, "Error closing Elasticsearch client: " + e.getMessage(), e);
-      } finally {
-        elasticsearchClient = null;
+    public static void closeClient() {
+    closed = true;
+    lock.lock();
+    try {
+      if (sniffer != null) {
+        //Before the client, which the sniffer uses
+        sniffer.close();
+        sniffer = null;
+      }
+      if (elasticsearchClient != null) {
+        try {
+          elasticsearchClient._transport().close();
+          elasticsearchClient.close();
+        } catch (IOException e) {
+          logger.log(Level.WARNING, "Error closing Elasticsearch client: " + e.getMessage(), e);
+        } finally {
+          elasticsearchClient = null;
+          lowLevelClient = null;
+        }
       }
+    } finally {
+      lock.unlock();
     }
   }
 }
@@ -0,0 +1,130 @@
+package no.uib.marcus.client;
+
+import jakarta.annotation.Nullable;
+import org.apache.http.Header;
+import org.apache.http.conn.ConnectionKeepAliveStrategy;
+import org.apache.http.impl.nio.client.HttpAsyncClientBuilder;
+import org.apache.http.impl.nio.reactor.IOReactorConfig;
+
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Connection settings for the HTTP client under the {@code RestClient}. The client defaults (10 connections per node,
+ * 30 in total) make requests queue for a connection long before Elasticsearch is busy, so the limits are raised and
+ * can be tuned in the config template or with {@code ELASTICSEARCH_CLUSTER_*} environment variables:
+ * <ul>
+ *     <li>{@code max_connections}: connections to all nodes, default 200</li>
+ *     <li>{@code max_connections_per_node}: connections to one node, default 100</li>
+ *     <li>{@code io_threads}: I/O reactor threads, default (or 0) the number of processors</li>
+ *     <li>{@code keep_alive_seconds}: how long an idle connection is kept, default 60, or less if Elasticsearch says so.
+ *     Should be below the idle timeout of any load balancer in front of the cluster.</li>
+ *     <li>{@code compression}: gzip request bodies and accept gzip responses, default false</li>
+ * </ul>
+ */
+public final class HttpClientSettings {
+    public static final String KEEP_ALIVE_HEADER = "Keep-Alive";
+    public static final int DEFAULT_MAX_CONNECTIONS = 200;
+    public static final int DEFAULT_MAX_CONNECTIONS_PER_NODE = 100;
+    public static final long DEFAULT_KEEP_ALIVE_SECONDS = 60;
+
+    private final int maxConnections;
+    private final int maxConnectionsPerNode;
+    private final int ioThreads;
+    private final long keepAliveSeconds;
+    private final boolean compression;
+
+    /**
+     * @param maxConnections        connections to all nodes
+     * @param maxConnectionsPerNode connections to one node
+     * @param ioThreads             I/O reactor threads
+     * @param keepAliveSeconds      the longest time an idle connection is kept
+     * @param compression           whether to gzip request bodies and accept gzip responses
+     */
+    public HttpClientSettings(int maxConnections, int maxConnectionsPerNode, int ioThreads,
+                              long keepAliveSeconds, boolean compression) {
+        this.maxConnections = Math.max(1, maxConnections);
+        this.maxConnectionsPerNode = Math.max(1, Math.min(maxConnectionsPerNode, this.maxConnections));
+        this.ioThreads = Math.max(1, ioThreads);
+        this.keepAliveSeconds = Math.max(0, keepAliveSeconds);
+        this.compression = compression;
+    }
+
+    /**
+     * Get the default settings
+     */
+    public static HttpClientSettings defaults() {
+        return new HttpClientSettings(DEFAULT_MAX_CONNECTIONS, DEFAULT_MAX_CONNECTIONS_PER_NODE,
+                Runtime.getRuntime().availableProcessors(), DEFAULT_KEEP_ALIVE_SECONDS, false);
+    }
+
+    /**
+     * Apply the connection settings to an HTTP client builder, see {@code RestClientBuilder.setHttpClientConfigCallback}.
+     * Compression is set on the {@code RestClientBuilder} instead, see {@link #isCompression()}.
+     */
+    public HttpAsyncClientBuilder configure(HttpAsyncClientBuilder builder) {
+        ConnectionKeepAliveStrategy keepAlive = (response, context) -> {
+            Header header = response.getFirstHeader(KEEP_ALIVE_HEADER);
+            return keepAliveMillis(header != null ? header.getValue() : null);
+        };
+        return builder
+                .setMaxConnTotal(maxConnections)
+                .setMaxConnPerRoute(maxConnectionsPerNode)
+                .setKeepAliveStrategy(keepAlive)
+                .setDefaultIOReactorConfig(IOReactorConfig.custom()
+                        .setIoThreadCount(ioThreads)
+                        .setSoKeepalive(true)
+                        .build());
+    }
+
+    /**
+     * Get how long an idle connection is kept: the configured time, or less if the server asks for less with a
+     * {@code Keep-Alive: timeout=<seconds>} header. Elasticsearch does not send one, a proxy in front of it might.
+     *
+     * @param keepAliveHeader the value of the {@code Keep-Alive} header of a response, {@code null} if there is none
+     */
+    public long keepAliveMillis(@Nullable String keepAliveHeader) {
+        long keepAliveMillis = TimeUnit.SECONDS.toMillis(keepAliveSeconds);
+        if (keepAliveHeader == null) {
+            return keepAliveMillis;
+        }
+        for (String parameter : keepAliveHeader.split(",")) {
+            String[] pair = parameter.trim().split("=", 2);
+            if (pair.length == 2 && "timeout".equals(pair[0].trim().toLowerCase(Locale.ROOT))) {
+                try {
+                    long suggested = Long.parseLong(pair[1].trim());
+                    return suggested > 0 ? Math.min(TimeUnit.SECONDS.toMillis(suggested), keepAliveMillis) : keepAliveMillis;
+                } catch (NumberFormatException e) {
+                    return keepAliveMillis;
+                }
+            }
+        }
+        return keepAliveMillis;
+    }
+
+    public int getMaxConnections() {
+        return maxConnections;
+    }
+
+    public int getMaxConnectionsPerNode() {
+        return maxConnectionsPerNode;
+    }
+
+    public int getIoThreads() {
+        return ioThreads;
+    }
+
+    public long getKeepAliveSeconds() {
+        return keepAliveSeconds;
+    }
+
+    public boolean isCompression() {
+        return compression;
+    }
+
+    @Override
+    public String toString() {
+        return "max connections " + maxConnections + " (" + maxConnectionsPerNode + " per node), "
+                + ioThreads + " I/O threads, keep-alive " + keepAliveSeconds + " s, compression " + compression;
+    }
+}
@@ -0,0 +1,147 @@
+package no.uib.marcus.client;
+
+import org.apache.http.HttpHost;
+import org.apache.http.HttpRequestInterceptor;
+import org.apache.http.HttpResponseInterceptor;
+import org.apache.http.client.protocol.HttpClientContext;
+import org.apache.http.impl.nio.client.HttpAsyncClientBuilder;
+import org.elasticsearch.client.Node;
+import org.elasticsearch.client.NodeSelector;
+import org.elasticsearch.client.RestClient;
+
+import jakarta.annotation.Nullable;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Sends requests to the Elasticsearch nodes that answered fastest recently, and away from nodes that failed.
+ * <p>
+ * The latency of every response (until its headers arrive) is kept per node as a moving average. A request may go to
+ * any node within {@link #SLOW_FACTOR} times the fastest average; the {@link RestClient} round-robins among them and
+ * retries on the next one if a node fails. Nodes that failed within {@link #FAILURE_PENALTY_MILLIS} are left out,
+ * unless all nodes failed. Averages older than {@link #STALE_MILLIS} are forgotten, so a slow node is tried again
+ * once in a while.
+ */
+public final class LatencyAwareNodeSelector implements NodeSelector {
+    static final double SLOW_FACTOR = 3.0;
+    static final long FAILURE_PENALTY_MILLIS = 10_000;
+    static final long STALE_MILLIS = 30_000;
+    //Weight of the latest response in the moving average
+    private static final double ALPHA = 0.3;
+    private static final String START_ATTRIBUTE = LatencyAwareNodeSelector.class.getName() + ".start";
+
+    private final Map<HttpHost, NodeStats> stats = new ConcurrentHashMap<>();
+
+    /**
+     * Measure the latency of every request sent by a client built with the given builder
+     */
+    public HttpAsyncClientBuilder configure(HttpAsyncClientBuilder builder) {
+        HttpRequestInterceptor start = (request, context) -> context.setAttribute(START_ATTRIBUTE, System.nanoTime());
+        HttpResponseInterceptor end = (response, context) -> {
+            Object started = context.getAttribute(START_ATTRIBUTE);
+            HttpHost host = HttpClientContext.adapt(context).getTargetHost();
+            //Server errors are failures, not answers
+            if (started instanceof Long nanos && host != null && response.getStatusLine().getStatusCode() < 500) {
+                recordLatency(host, System.nanoTime() - nanos);
+            }
+        };
+        return builder.addInterceptorLast(start).addInterceptorLast(end);
+    }
+
+    /**
+     * Record the time a node took to answer
+     */
+    public void recordLatency(HttpHost host, long nanos) {
+        stats.computeIfAbsent(host, h -> new NodeStats()).record(nanos, System.nanoTime());
+    }
+
+    /**
+     * Record that a node could not be reached or answered with a server error
+     */
+    public void recordFailure(HttpHost host) {
+        stats.computeIfAbsent(host, h -> new NodeStats()).failedAt = System.nanoTime();
+    }
+
+    @Override
+    public void select(Iterable<Node> nodes) {
+        long now = System.nanoTime();
+        List<Node> candidates = new ArrayList<>();
+        for (Node node : nodes) {
+            if (!hasFailedRecently(node.getHost(), now)) {
+                candidates.add(node);
+            }
+        }
+        if (candidates.isEmpty()) {
+            //Better to try a failed node than nothing
+            return;
+        }
+        double fastest = Double.MAX_VALUE;
+        for (Node node : candidates) {
+            fastest = Math.min(fastest, averageNanos(node.getHost(), now));
+        }
+        for (Iterator<Node> it = nodes.iterator(); it.hasNext(); ) {
+            Node node = it.next();
+            if (!candidates.contains(node) || averageNanos(node.getHost(), now) > fastest * SLOW_FACTOR) {
+                it.remove();
+            }
+        }
+    }
+
+    /**
+     * Get the average latency of a node, or 0 if it is not known (so the node is tried)
+     */
+    double averageNanos(HttpHost host, long now) {
+        NodeStats node = stats.get(host);
+        if (node == null || now - node.updatedAt > TimeUnit.MILLISECONDS.toNanos(STALE_MILLIS)) {
+            return 0;
+        }
+        return node.averageNanos;
+    }
+
+    private boolean hasFailedRecently(HttpHost host, long now) {
+        NodeStats node = stats.get(host);
+        return node != null && node.failedAt != 0
+                && now - node.failedAt < TimeUnit.MILLISECONDS.toNanos(FAILURE_PENALTY_MILLIS);
+    }
+
+    /**
+     * Get a listener that records failures, and then calls the given listener, e.g. one that sniffs on failure
+     */
+    public RestClient.FailureListener failureListener(@Nullable RestClient.FailureListener next) {
+        return new RestClient.FailureListener() {
+            @Override
+            public void onFailure(Node node) {
+                recordFailure(node.getHost());
+                if (next != null) {
+                    next.onFailure(node);
+                }
+            }
+        };
+    }
+
+    @Override
+    public String toString() {
+        return "LATENCY_AWARE";
+    }
+
+    /**
+     * Latency and failures of one node. Updates may race, which at worst loses one sample of an average.
+     */
+    private static final class NodeStats {
+        volatile double averageNanos;
+        volatile long updatedAt;
+        volatile long failedAt;
+
+        void record(long nanos, long now) {
+            boolean stale = averageNanos == 0 || now - updatedAt > TimeUnit.MILLISECONDS.toNanos(STALE_MILLIS);
+            averageNanos = stale ? nanos : ALPHA * nanos + (1 - ALPHA) * averageNanos;
+            updatedAt = now;
+            //A node that answers is no longer considered failed
+            failedAt = 0;
+        }
+    }
+}
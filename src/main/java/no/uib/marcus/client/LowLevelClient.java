@@ -0,0 +1,140 @@
+package no.uib.marcus.client;
+
+import co.elastic.clients.transport.ElasticsearchTransport;
+import co.elastic.clients.transport.rest5_client.Rest5ClientTransport;
+import co.elastic.clients.transport.rest_client.RestClientTransport;
+
+import jakarta.annotation.Nullable;
+import java.io.IOException;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.StringJoiner;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * A client for requests that were serialized by Blackbox (so that aggregation keys are not prefixed with type names),
+ * giving the raw response bytes back. It sends requests through the low-level client of the configured transport,
+ * see {@link #of(ElasticsearchTransport)}.
+ * <p>
+ * Error responses (4xx/5xx) are returned as a {@link RawResponse} with the corresponding status rather than
+ * thrown, so callers handle them in one place.
+ */
+public interface LowLevelClient {
+
+    /**
+     * Get a client that shares the connections of a transport
+     *
+     * @throws IllegalArgumentException if the transport has no low-level client
+     */
+    static LowLevelClient of(ElasticsearchTransport transport) {
+        if (transport instanceof RestClientTransport restClientTransport) {
+            return new RestClientLowLevelClient(restClientTransport.restClient());
+        }
+        if (transport instanceof Rest5ClientTransport rest5ClientTransport) {
+            return new Rest5LowLevelClient(rest5ClientTransport.restClient());
+        }
+        throw new IllegalArgumentException("Unsupported transport: " + transport.getClass().getName());
+    }
+
+    /**
+     * Get the search endpoint for the given indices
+     *
+     * @param indices indices, can be {@code null} to search all indices
+     * @return an endpoint, e.g. "/marcus,ska/_search"
+     * @throws IllegalArgumentException if an index name is not valid, since names are put in the path as they are
+     */
+    static String searchEndpoint(@Nullable String... indices) {
+        if (indices != null && indices.length > 0) {
+            for (String index : indices) {
+                if (index == null || index.contains("..") || index.contains("/")
+                        || index.startsWith("_") || index.contains("*")) {
+                    throw new IllegalArgumentException("Invalid index name: " + index);
+                }
+            }
+            return "/" + String.join(",", indices) + "/_search";
+        }
+        return "/_search";
+    }
+
+    /**
+     * Get the search endpoint for index names or patterns, e.g. "marcus-*" or "_all", which the typed client
+     * accepts. Each name is URL-encoded, so it cannot change the path.
+     *
+     * @param indices index names or patterns, can be {@code null} to search all indices
+     * @return an endpoint, e.g. "/marcus-*,ska/_search"
+     * @throws IllegalArgumentException if an index name is missing or a dot segment
+     */
+    static String searchEndpointForPatterns(@Nullable String... indices) {
+        if (indices != null && indices.length > 0) {
+            StringJoiner path = new StringJoiner(",", "/", "/_search");
+            for (String index : indices) {
+                if (index == null || index.isEmpty() || ".".equals(index) || "..".equals(index)) {
+                    throw new IllegalArgumentException("Invalid index name: " + index);
+                }
+                path.add(URLEncoder.encode(index, StandardCharsets.UTF_8).replace("+", "%20"));
+            }
+            return path.toString();
+        }
+        return "/_search";
+    }
+
+    /**
+     * Perform a request and block until the response has been received
+     *
+     * @param method     an HTTP method
+     * @param endpoint   an endpoint, e.g. "/marcus/_search"
+     * @param parameters URL parameters, can be {@code null}
+     * @param body       a JSON request body, can be {@code null}
+     * @return a raw response
+     * @throws IOException if the request could not be sent or the response could not be read
+     */
+    RawResponse perform(String method, String endpoint,
+                        @Nullable Map<String, String> parameters,
+                        @Nullable byte[] body) throws IOException;
+
+    /**
+     * Perform a request with a pooled body and block until the response has been received.
+     * The body is closed when the request has completed.
+     *
+     * @param method     an HTTP method
+     * @param endpoint   an endpoint, e.g. "/marcus/_search"
+     * @param parameters URL parameters, can be {@code null}
+     * @param body       a JSON request body
+     * @return a raw response
+     * @throws IOException if the request could not be sent or the response could not be read
+     */
+    RawResponse perform(String method, String endpoint,
+                        @Nullable Map<String, String> parameters,
+                        RequestBody body) throws IOException;
+
+    /**
+     * Perform a request without blocking the calling thread. The returned future is completed on one of
+     * the HTTP client's I/O threads, so callers should not block in dependent stages. Cancelling the future
+     * aborts the request.
+     *
+     * @param method     an HTTP method
+     * @param endpoint   an endpoint, e.g. "/marcus/_search"
+     * @param parameters URL parameters, can be {@code null}
+     * @param body       a JSON request body, can be {@code null}
+     * @return a future raw response
+     */
+    CompletableFuture<RawResponse> performAsync(String method, String endpoint,
+                                                @Nullable Map<String, String> parameters,
+                                                @Nullable byte[] body);
+
+    /**
+     * Perform a request with a pooled body without blocking the calling thread, see
+     * {@link #performAsync(String, String, Map, byte[])}. The body is closed when the request has completed
+     * or has been aborted, not when the future is cancelled, since the request may still be writing it.
+     *
+     * @param method     an HTTP method
+     * @param endpoint   an endpoint, e.g. "/marcus/_search"
+     * @param parameters URL parameters, can be {@code null}
+     * @param body       a JSON request body
+     * @return a future raw response
+     */
+    CompletableFuture<RawResponse> performAsync(String method, String endpoint,
+                                                @Nullable Map<String, String> parameters,
+                                                RequestBody body);
+}
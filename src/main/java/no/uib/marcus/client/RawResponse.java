@@ -0,0 +1,58 @@
+package no.uib.marcus.client;
+
+import no.uib.marcus.common.util.GzipUtils;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * A raw Elasticsearch response, i.e. the status code and the response body as it was sent by the cluster.
+ *
+ * @param status an HTTP status code
+ * @param body   the response body, an empty array if there was none
+ * @param gzip   whether the body is gzip compressed, as Elasticsearch sent it, so it can be passed on to clients
+ *               that accept gzip without being decompressed and compressed again
+ */
+public record RawResponse(int status, byte[] body, boolean gzip) {
+
+    /**
+     * A response with a body that is not compressed
+     */
+    public RawResponse(int status, byte[] body) {
+        this(status, body, false);
+    }
+
+    /**
+     * Whether the request was successful, i.e. has a 2xx status code
+     */
+    public boolean isSuccessful() {
+        return status >= 200 && status < 300;
+    }
+
+    /**
+     * Whether the cluster failed to handle the request, i.e. has a 5xx status code or 429 Too Many Requests.
+     * Other 4xx status codes are caused by the request itself, e.g. an invalid query or an expired point in time.
+     */
+    public boolean isServerError() {
+        return status >= 500 || status == 429;
+    }
+
+    /**
+     * Get the body, decompressed if needed
+     *
+     * @throws IOException if a compressed body is not valid gzip
+     */
+    public byte[] decodedBody() throws IOException {
+        return gzip ? GzipUtils.gunzip(body) : body;
+    }
+
+    /**
+     * Open a stream of the body, decompressed if needed
+     *
+     * @throws IOException if a compressed body is not valid gzip
+     */
+    public InputStream openBody() throws IOException {
+        return gzip ? GzipUtils.open(body) : new ByteArrayInputStream(body);
+    }
+}
@@ -0,0 +1,159 @@
+package no.uib.marcus.client;
+
+import co.elastic.clients.json.JsonpSerializable;
+import co.elastic.clients.json.jackson.JacksonJsonpGenerator;
+import co.elastic.clients.json.jackson.JacksonJsonpMapper;
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.json.JsonMapper;
+import no.uib.marcus.common.Settings;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * A JSON request body, serialized as UTF-8 straight into a pooled byte buffer that is then sent as is
+ * by the {@link LowLevelClient}. This avoids building the request as a {@code String} (and the char buffers behind it)
+ * only to encode it to bytes again.
+ * <p>
+ * A body is single use. {@link LowLevelClient} closes it once the request has completed, which returns the buffer
+ * to the pool, or discards it if the request was cancelled or failed while the body may still be being sent. The pool size is set with {@code BLACKBOX_BUFFER_POOL_SIZE} (default 64), and buffers that
+ * have grown large are left to the garbage collector instead of being pooled.
+ */
+public final class RequestBody implements Closeable {
+    private static final int INITIAL_CAPACITY = 4 * 1024;
+    private static final int MAX_POOLED_CAPACITY = 256 * 1024;
+    static final int POOL_SIZE = Math.max(1, Settings.getInt("BLACKBOX_BUFFER_POOL_SIZE", 64));
+    private static final BlockingQueue<Buffer> pool = new ArrayBlockingQueue<>(POOL_SIZE);
+
+    /**
+     * Shared mapper and factory, both are thread-safe
+     */
+    private static final JacksonJsonpMapper jsonpMapper = new JacksonJsonpMapper(new JsonMapper());
+    private static final JsonFactory jsonFactory = jsonpMapper.objectMapper().getFactory();
+
+    private final Buffer buffer;
+    private final AtomicBoolean released = new AtomicBoolean();
+
+    private RequestBody(Buffer buffer) {
+        this.buffer = buffer;
+    }
+
+    /**
+     * Serialize a request, e.g. a {@code SearchRequest}
+     *
+     * @param value  a request
+     * @param pretty whether to pretty print the JSON
+     * @return a request body, which must be closed (or passed to {@link LowLevelClient}, which closes it)
+     */
+    public static RequestBody of(JsonpSerializable value, boolean pretty) throws IOException {
+        Buffer buffer = pool.poll();
+        if (buffer == null) {
+            buffer = new Buffer(INITIAL_CAPACITY);
+        }
+        RequestBody body = new RequestBody(buffer);
+        try {
+            JsonGenerator generator = jsonFactory.createGenerator(buffer);
+            if (pretty) {
+                generator.useDefaultPrettyPrinter();
+            }
+            try (JacksonJsonpGenerator jsonpGenerator = new JacksonJsonpGenerator(generator)) {
+                value.serialize(jsonpGenerator, jsonpMapper);
+            }
+            return body;
+        } catch (IOException | RuntimeException e) {
+            body.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Get the mapper used for serialization
+     */
+    public static JacksonJsonpMapper jsonpMapper() {
+        return jsonpMapper;
+    }
+
+    /**
+     * Get the backing array, valid up to {@link #length()} and only until the body is closed
+     */
+    byte[] array() {
+        return buffer.bytes;
+    }
+
+    /**
+     * Get the number of bytes in the body
+     */
+    public int length() {
+        return buffer.count;
+    }
+
+    /**
+     * Copy the body, e.g. for logging
+     */
+    public byte[] toByteArray() {
+        return Arrays.copyOf(buffer.bytes, buffer.count);
+    }
+
+    /**
+     * Return the buffer to the pool. Calling this more than once has no effect.
+     */
+    @Override
+    public void close() {
+        if (released.compareAndSet(false, true) && buffer.bytes.length <= MAX_POOLED_CAPACITY) {
+            buffer.count = 0;
+            pool.offer(buffer);
+        }
+    }
+
+    /**
+     * Give up the buffer without returning it to the pool, for when a request may still be sending it,
+     * e.g. after it was cancelled. Has no effect if the body is already closed.
+     */
+    void discard() {
+        released.set(true);
+    }
+
+    /**
+     * Get the number of buffers in the pool
+     */
+    static int pooled() {
+        return pool.size();
+    }
+
+    /**
+     * An unsynchronized, growable output stream
+     */
+    private static final class Buffer extends OutputStream {
+        private byte[] bytes;
+        private int count;
+
+        Buffer(int capacity) {
+            this.bytes = new byte[capacity];
+        }
+
+        @Override
+        public void write(int b) {
+            ensureCapacity(count + 1);
+            bytes[count++] = (byte) b;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+            ensureCapacity(count + len);
+            System.arraycopy(b, off, bytes, count, len);
+            count += len;
+        }
+
+        private void ensureCapacity(int capacity) {
+            if (capacity > bytes.length) {
+                bytes = Arrays.copyOf(bytes, Math.max(capacity, bytes.length * 2));
+            }
+        }
+    }
+}
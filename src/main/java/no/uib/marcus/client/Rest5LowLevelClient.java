@@ -0,0 +1,158 @@
+package no.uib.marcus.client;
+
+import co.elastic.clients.transport.rest5_client.low_level.Cancellable;
+import co.elastic.clients.transport.rest5_client.low_level.Request;
+import co.elastic.clients.transport.rest5_client.low_level.Response;
+import co.elastic.clients.transport.rest5_client.low_level.ResponseException;
+import co.elastic.clients.transport.rest5_client.low_level.ResponseListener;
+import co.elastic.clients.transport.rest5_client.low_level.Rest5Client;
+import org.apache.hc.core5.http.ContentType;
+import org.apache.hc.core5.http.HttpEntity;
+import org.apache.hc.core5.http.io.entity.ByteArrayEntity;
+import org.apache.hc.core5.http.io.entity.EntityUtils;
+
+import jakarta.annotation.Nullable;
+import java.io.IOException;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * A {@link LowLevelClient} on the {@link Rest5Client} (Apache HttpClient 5), used by {@code Rest5ClientTransport}.
+ * <p>
+ * Unlike {@link RestClientLowLevelClient}, gzip bodies are not kept: responses are only compressed when
+ * {@code compression} is set, and are then decompressed by the {@link Rest5Client}, so {@link RawResponse#gzip()}
+ * is always false and Blackbox compresses responses for its clients itself.
+ */
+final class Rest5LowLevelClient implements LowLevelClient {
+    private static final byte[] EMPTY = new byte[0];
+    private final Rest5Client restClient;
+
+    Rest5LowLevelClient(Rest5Client restClient) {
+        this.restClient = restClient;
+    }
+
+    @Override
+    public RawResponse perform(String method, String endpoint,
+                               @Nullable Map<String, String> parameters,
+                               @Nullable byte[] body) throws IOException {
+        try {
+            return toRawResponse(restClient.performRequest(newRequest(method, endpoint, parameters, body)));
+        } catch (ResponseException e) {
+            return toRawResponse(e.getResponse());
+        }
+    }
+
+    @Override
+    public RawResponse perform(String method, String endpoint,
+                               @Nullable Map<String, String> parameters,
+                               RequestBody body) throws IOException {
+        Response response;
+        try {
+            response = restClient.performRequest(newRequest(method, endpoint, parameters, body));
+        } catch (ResponseException e) {
+            response = e.getResponse();
+        } catch (IOException | RuntimeException e) {
+            //The request may have been aborted while the body was being written, see performAsync
+            body.discard();
+            throw e;
+        }
+        body.close();
+        return toRawResponse(response);
+    }
+
+    @Override
+    public CompletableFuture<RawResponse> performAsync(String method, String endpoint,
+                                                       @Nullable Map<String, String> parameters,
+                                                       RequestBody body) {
+        try {
+            return performAsync(newRequest(method, endpoint, parameters, body), body);
+        } catch (RuntimeException e) {
+            body.close();
+            throw e;
+        }
+    }
+
+    @Override
+    public CompletableFuture<RawResponse> performAsync(String method, String endpoint,
+                                                       @Nullable Map<String, String> parameters,
+                                                       @Nullable byte[] body) {
+        return performAsync(newRequest(method, endpoint, parameters, body), null);
+    }
+
+    private CompletableFuture<RawResponse> performAsync(Request request, @Nullable RequestBody body) {
+        CompletableFuture<RawResponse> future = new CompletableFuture<>();
+        Cancellable cancellable = restClient.performRequestAsync(
+                request,
+                new ResponseListener() {
+                    @Override
+                    public void onSuccess(Response response) {
+                        release(body, true);
+                        complete(future, response);
+                    }
+
+                    @Override
+                    public void onFailure(Exception exception) {
+                        //Only a complete response shows that the body has been sent. After a cancellation
+                        //(called from cancel() itself) or a connection failure it may still be being written.
+                        release(body, exception instanceof ResponseException);
+                        if (exception instanceof ResponseException e) {
+                            complete(future, e.getResponse());
+                        } else {
+                            future.completeExceptionally(exception);
+                        }
+                    }
+                });
+        future.whenComplete((response, failure) -> {
+            if (future.isCancelled()) {
+                cancellable.cancel();
+            }
+        });
+        return future;
+    }
+
+    private static void release(@Nullable RequestBody body, boolean sent) {
+        if (body == null) {
+            return;
+        }
+        if (sent) {
+            body.close();
+        } else {
+            body.discard();
+        }
+    }
+
+    private static void complete(CompletableFuture<RawResponse> future, Response response) {
+        try {
+            future.complete(toRawResponse(response));
+        } catch (IOException e) {
+            future.completeExceptionally(e);
+        }
+    }
+
+    private static Request newRequest(String method, String endpoint,
+                                      @Nullable Map<String, String> parameters,
+                                      @Nullable byte[] body) {
+        Request request = new Request(method, endpoint);
+        if (parameters != null) {
+            request.addParameters(parameters);
+        }
+        if (body != null) {
+            request.setEntity(new ByteArrayEntity(body, ContentType.APPLICATION_JSON));
+        }
+        return request;
+    }
+
+    private static Request newRequest(String method, String endpoint,
+                                      @Nullable Map<String, String> parameters,
+                                      RequestBody body) {
+        Request request = newRequest(method, endpoint, parameters, (byte[]) null);
+        request.setEntity(new ByteArrayEntity(body.array(), 0, body.length(), ContentType.APPLICATION_JSON));
+        return request;
+    }
+
+    private static RawResponse toRawResponse(Response response) throws IOException {
+        HttpEntity entity = response.getEntity();
+        byte[] body = entity == null ? EMPTY : EntityUtils.toByteArray(entity);
+        return new RawResponse(response.getStatusCode(), body);
+    }
+}
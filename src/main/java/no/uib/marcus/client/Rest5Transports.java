@@ -0,0 +1,69 @@
+package no.uib.marcus.client;
+
+import co.elastic.clients.json.jackson.JacksonJsonpMapper;
+import co.elastic.clients.transport.ElasticsearchTransport;
+import co.elastic.clients.transport.rest5_client.Rest5ClientTransport;
+import co.elastic.clients.transport.rest5_client.low_level.Rest5Client;
+import org.apache.hc.client5.http.config.TlsConfig;
+import org.apache.hc.client5.http.impl.async.CloseableHttpAsyncClient;
+import org.apache.hc.client5.http.impl.async.HttpAsyncClients;
+import org.apache.hc.client5.http.impl.nio.PoolingAsyncClientConnectionManager;
+import org.apache.hc.client5.http.impl.nio.PoolingAsyncClientConnectionManagerBuilder;
+import org.apache.hc.core5.http.Header;
+import org.apache.hc.core5.http.HttpHost;
+import org.apache.hc.core5.http.message.BasicHeader;
+import org.apache.hc.core5.http2.HttpVersionPolicy;
+import org.apache.hc.core5.reactor.IOReactorConfig;
+import org.apache.hc.core5.util.TimeValue;
+
+import java.util.Arrays;
+
+/**
+ * Creates transports on the {@link Rest5Client} (Apache HttpClient 5). Connections negotiate HTTP/2 with TLS where
+ * the server offers it (e.g. a proxy in front of the cluster), so many requests share one connection, and fall back
+ * to HTTP/1.1 otherwise. Node selection is round-robin, latency-aware selection and sniffing are only available on
+ * the {@code RestClient} transport.
+ */
+final class Rest5Transports {
+
+    //Prevent this class from being initialized
+    private Rest5Transports() {
+    }
+
+    /**
+     * Create a transport
+     *
+     * @param hosts        Elasticsearch hosts
+     * @param apiKey       an API key
+     * @param httpSettings connection settings
+     */
+    static ElasticsearchTransport create(org.apache.http.HttpHost[] hosts, String apiKey, HttpClientSettings httpSettings) {
+        HttpHost[] rest5Hosts = Arrays.stream(hosts)
+                .map(host -> new HttpHost(host.getSchemeName(), host.getHostName(), host.getPort()))
+                .toArray(HttpHost[]::new);
+        PoolingAsyncClientConnectionManager connectionManager = PoolingAsyncClientConnectionManagerBuilder.create()
+                .setMaxConnTotal(httpSettings.getMaxConnections())
+                .setMaxConnPerRoute(httpSettings.getMaxConnectionsPerNode())
+                .setDefaultTlsConfig(TlsConfig.custom().setVersionPolicy(HttpVersionPolicy.NEGOTIATE).build())
+                .build();
+        CloseableHttpAsyncClient httpClient = HttpAsyncClients.custom()
+                .setConnectionManager(connectionManager)
+                .setIOReactorConfig(IOReactorConfig.custom()
+                        .setIoThreadCount(httpSettings.getIoThreads())
+                        .setSoKeepAlive(true)
+                        .build())
+                .setKeepAliveStrategy((response, context) -> {
+                    //The same as the RestClient transport, see HttpClientSettings.configure
+                    Header header = response.getFirstHeader(HttpClientSettings.KEEP_ALIVE_HEADER);
+                    return TimeValue.ofMilliseconds(httpSettings.keepAliveMillis(
+                            header != null ? header.getValue() : null));
+                })
+                .build();
+        Rest5Client restClient = Rest5Client.builder(rest5Hosts)
+                .setHttpClient(httpClient)
+                .setDefaultHeaders(new Header[]{new BasicHeader("Authorization", "ApiKey " + apiKey)})
+                .setCompressionEnabled(httpSettings.isCompression())
+                .build();
+        return new Rest5ClientTransport(restClient, new JacksonJsonpMapper());
+    }
+}
@@ -0,0 +1,199 @@
+package no.uib.marcus.client;
+
+import org.apache.http.Header;
+import org.apache.http.HttpEntity;
+import org.apache.http.HttpHeaders;
+import org.apache.http.HttpResponse;
+import org.apache.http.entity.ByteArrayEntity;
+import org.apache.http.entity.ContentType;
+import org.apache.http.protocol.HttpContext;
+import org.apache.http.util.EntityUtils;
+import org.elasticsearch.client.Cancellable;
+import org.elasticsearch.client.HeapBufferedAsyncResponseConsumer;
+import org.elasticsearch.client.HttpAsyncResponseConsumerFactory;
+import org.elasticsearch.client.Request;
+import org.elasticsearch.client.RequestOptions;
+import org.elasticsearch.client.Response;
+import org.elasticsearch.client.ResponseException;
+import org.elasticsearch.client.ResponseListener;
+import org.elasticsearch.client.RestClient;
+
+import jakarta.annotation.Nullable;
+import java.io.IOException;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * A {@link LowLevelClient} on the legacy {@link RestClient} (Apache HttpClient 4), used by {@code RestClientTransport}.
+ * <p>
+ * Responses are asked for with gzip, and gzip bodies are kept as they are (see {@link RawResponse#gzip()}):
+ * the {@link RestClient} would otherwise decompress every body, which Blackbox then compresses again for clients.
+ */
+final class RestClientLowLevelClient implements LowLevelClient {
+    private static final byte[] EMPTY = new byte[0];
+    //Set on responses whose gzip body was kept, in place of Content-Encoding
+    private static final String GZIP_BODY_HEADER = "X-Blackbox-Gzip-Body";
+    private static final RequestOptions GZIP_PASS_THROUGH = RequestOptions.DEFAULT.toBuilder()
+            .addHeader(HttpHeaders.ACCEPT_ENCODING, "gzip")
+            .setHttpAsyncResponseConsumerFactory(() -> new GzipKeepingResponseConsumer(
+                    HttpAsyncResponseConsumerFactory.DEFAULT_BUFFER_LIMIT))
+            .build();
+    private final RestClient restClient;
+
+    RestClientLowLevelClient(RestClient restClient) {
+        this.restClient = restClient;
+    }
+
+    @Override
+    public RawResponse perform(String method, String endpoint,
+                               @Nullable Map<String, String> parameters,
+                               @Nullable byte[] body) throws IOException {
+        try {
+            return toRawResponse(restClient.performRequest(newRequest(method, endpoint, parameters, body)));
+        } catch (ResponseException e) {
+            return toRawResponse(e.getResponse());
+        }
+    }
+
+    @Override
+    public RawResponse perform(String method, String endpoint,
+                               @Nullable Map<String, String> parameters,
+                               RequestBody body) throws IOException {
+        Response response;
+        try {
+            response = restClient.performRequest(newRequest(method, endpoint, parameters, body));
+        } catch (ResponseException e) {
+            response = e.getResponse();
+        } catch (IOException | RuntimeException e) {
+            //The request may have been aborted while the body was being written, see performAsync
+            body.discard();
+            throw e;
+        }
+        body.close();
+        return toRawResponse(response);
+    }
+
+    @Override
+    public CompletableFuture<RawResponse> performAsync(String method, String endpoint,
+                                                       @Nullable Map<String, String> parameters,
+                                                       RequestBody body) {
+        try {
+            return performAsync(newRequest(method, endpoint, parameters, body), body);
+        } catch (RuntimeException e) {
+            body.close();
+            throw e;
+        }
+    }
+
+    @Override
+    public CompletableFuture<RawResponse> performAsync(String method, String endpoint,
+                                                       @Nullable Map<String, String> parameters,
+                                                       @Nullable byte[] body) {
+        return performAsync(newRequest(method, endpoint, parameters, body), null);
+    }
+
+    private CompletableFuture<RawResponse> performAsync(Request request, @Nullable RequestBody body) {
+        CompletableFuture<RawResponse> future = new CompletableFuture<>();
+        Cancellable cancellable = restClient.performRequestAsync(
+                request,
+                new ResponseListener() {
+                    @Override
+                    public void onSuccess(Response response) {
+                        release(body, true);
+                        complete(future, response);
+                    }
+
+                    @Override
+                    public void onFailure(Exception exception) {
+                        //Only a complete response shows that the body has been sent. After a cancellation
+                        //(called from cancel() itself) or a connection failure it may still be being written.
+                        release(body, exception instanceof ResponseException);
+                        if (exception instanceof ResponseException e) {
+                            complete(future, e.getResponse());
+                        } else {
+                            future.completeExceptionally(exception);
+                        }
+                    }
+                });
+        future.whenComplete((response, failure) -> {
+            if (future.isCancelled()) {
+                cancellable.cancel();
+            }
+        });
+        return future;
+    }
+
+    private static void release(@Nullable RequestBody body, boolean sent) {
+        if (body == null) {
+            return;
+        }
+        if (sent) {
+            body.close();
+        } else {
+            body.discard();
+        }
+    }
+
+    private static void complete(CompletableFuture<RawResponse> future, Response response) {
+        try {
+            future.complete(toRawResponse(response));
+        } catch (IOException e) {
+            future.completeExceptionally(e);
+        }
+    }
+
+    private static Request newRequest(String method, String endpoint,
+                                      @Nullable Map<String, String> parameters,
+                                      @Nullable byte[] body) {
+        Request request = new Request(method, endpoint);
+        request.setOptions(GZIP_PASS_THROUGH);
+        if (parameters != null) {
+            request.addParameters(parameters);
+        }
+        if (body != null) {
+            request.setEntity(new ByteArrayEntity(body, ContentType.APPLICATION_JSON));
+        }
+        return request;
+    }
+
+    private static Request newRequest(String method, String endpoint,
+                                      @Nullable Map<String, String> parameters,
+                                      RequestBody body) {
+        Request request = newRequest(method, endpoint, parameters, (byte[]) null);
+        request.setEntity(new ByteArrayEntity(body.array(), 0, body.length(), ContentType.APPLICATION_JSON));
+        return request;
+    }
+
+    private static RawResponse toRawResponse(Response response) throws IOException {
+        HttpEntity entity = response.getEntity();
+        byte[] body = entity == null ? EMPTY : EntityUtils.toByteArray(entity);
+        return new RawResponse(response.getStatusLine().getStatusCode(), body,
+                response.getHeader(GZIP_BODY_HEADER) != null);
+    }
+
+    /**
+     * Buffers a response like the default consumer, but hides the gzip encoding of the body from the
+     * {@link RestClient}, so the body is not decompressed
+     */
+    private static final class GzipKeepingResponseConsumer extends HeapBufferedAsyncResponseConsumer {
+
+        GzipKeepingResponseConsumer(int bufferLimit) {
+            super(bufferLimit);
+        }
+
+        @Override
+        protected HttpResponse buildResult(HttpContext context) throws Exception {
+            HttpResponse response = super.buildResult(context);
+            HttpEntity entity = response.getEntity();
+            Header encoding = entity == null ? null : entity.getContentEncoding();
+            if (encoding != null && "gzip".equalsIgnoreCase(encoding.getValue())) {
+                ByteArrayEntity gzipped = new ByteArrayEntity(EntityUtils.toByteArray(entity));
+                gzipped.setContentType(entity.getContentType());
+                response.setEntity(gzipped);
+                response.removeHeaders(HttpHeaders.CONTENT_ENCODING);
+                response.setHeader(GZIP_BODY_HEADER, "true");
+            }
+            return response;
+        }
+    }
+}
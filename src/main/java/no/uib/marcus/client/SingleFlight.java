@@ -0,0 +1,181 @@
+package no.uib.marcus.client;
+
+import jakarta.annotation.Nullable;
+import no.uib.marcus.common.Settings;
+import no.uib.marcus.metrics.MetricWriter;
+import no.uib.marcus.metrics.Metrics;
+
+import java.io.IOException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+/**
+ * Coalesces identical concurrent calls: while a call for a key is in flight, callers with the same key wait for
+ * its result instead of making their own call. The first caller (the leader) makes the call, the others (followers)
+ * share its result, e.g. the same Elasticsearch response bytes.
+ * <p>
+ * Every caller gets its own copy of the shared future, so a caller that gives up (a client disconnect or a timeout)
+ * can cancel its copy without affecting the others. When every caller has given up, the call itself is cancelled.
+ * <p>
+ * The default instance is enabled unless {@code BLACKBOX_SINGLE_FLIGHT} is false.
+ */
+public final class SingleFlight<V> {
+    private static final SingleFlight<RawResponse> SEARCH = new SingleFlight<>(
+            Settings.getBoolean("BLACKBOX_SINGLE_FLIGHT", true));
+
+    static {
+        Metrics.register(SingleFlight::writeMetrics);
+    }
+
+    private final boolean enabled;
+    private final ConcurrentHashMap<String, Flight> inFlight = new ConcurrentHashMap<>();
+    private final LongAdder leaders = new LongAdder();
+    private final LongAdder followers = new LongAdder();
+
+    /**
+     * A call in flight and the callers waiting for it
+     */
+    private final class Flight {
+        private final String key;
+        private final CompletableFuture<V> shared = new CompletableFuture<>();
+        //Callers that have not given up, starting with the leader
+        private final AtomicInteger waiters = new AtomicInteger(1);
+        @Nullable
+        private volatile CompletableFuture<V> call;
+
+        Flight(String key) {
+            this.key = key;
+        }
+
+        /**
+         * Make the call and get the copy of the leader
+         */
+        CompletableFuture<V> start(Supplier<CompletableFuture<V>> supplier) {
+            try {
+                CompletableFuture<V> started = supplier.get();
+                call = started;
+                started.whenComplete((result, failure) -> {
+                    //Callers arriving from now on make a new call
+                    inFlight.remove(key, this);
+                    if (failure != null) {
+                        shared.completeExceptionally(failure);
+                    } else {
+                        shared.complete(result);
+                    }
+                });
+            } catch (RuntimeException e) {
+                inFlight.remove(key, this);
+                shared.completeExceptionally(e);
+            }
+            return waiter();
+        }
+
+        /**
+         * Wait for the call, unless every caller has already given up on it
+         *
+         * @return a copy for a follower, or {@code null} if the call is being cancelled
+         */
+        @Nullable
+        CompletableFuture<V> join() {
+            int current;
+            do {
+                current = waiters.get();
+                if (current == 0) {
+                    return null;
+                }
+            } while (!waiters.compareAndSet(current, current + 1));
+            return waiter();
+        }
+
+        private CompletableFuture<V> waiter() {
+            CompletableFuture<V> copy = shared.copy();
+            copy.whenComplete((result, failure) -> {
+                if (copy.isCancelled() && waiters.decrementAndGet() == 0) {
+                    inFlight.remove(key, this);
+                    CompletableFuture<V> started = call;
+                    if (started != null) {
+                        started.cancel(true);
+                    }
+                }
+            });
+            return copy;
+        }
+    }
+
+    public SingleFlight(boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    /**
+     * Get the instance shared by "/search" requests
+     */
+    public static SingleFlight<RawResponse> search() {
+        return SEARCH;
+    }
+
+    /**
+     * Write the metrics of the instance shared by "/search" requests, see {@link Metrics}
+     */
+    private static void writeMetrics(MetricWriter out) throws IOException {
+        out.header("blackbox_search_coalescing_total", "counter",
+                "Searches sent to Elasticsearch (leader) or sharing the response of an identical search in flight (follower)");
+        out.sample("blackbox_search_coalescing_total", "role", "leader", SEARCH.getLeaders());
+        out.sample("blackbox_search_coalescing_total", "role", "follower", SEARCH.getFollowers());
+    }
+
+    /**
+     * Make a call, or join an identical call already in flight
+     *
+     * @param key  identifies identical calls, e.g. a request fingerprint
+     * @param call makes the call, only invoked if there is no call in flight for the key
+     * @return a future result, owned by the caller
+     */
+    public CompletableFuture<V> execute(String key, Supplier<CompletableFuture<V>> call) {
+        if (!enabled) {
+            return call.get();
+        }
+        while (true) {
+            Flight flight = new Flight(key);
+            Flight existing = inFlight.putIfAbsent(key, flight);
+            if (existing == null) {
+                leaders.increment();
+                return flight.start(call);
+            }
+            CompletableFuture<V> waiter = existing.join();
+            if (waiter != null) {
+                followers.increment();
+                return waiter;
+            }
+            //Everyone gave up on the call in flight, make a new one
+            inFlight.remove(key, existing);
+        }
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Get the number of calls made
+     */
+    public long getLeaders() {
+        return leaders.sum();
+    }
+
+    /**
+     * Get the number of calls that shared the result of a call in flight
+     */
+    public long getFollowers() {
+        return followers.sum();
+    }
+
+    /**
+     * Get the number of calls in flight
+     */
+    public int size() {
+        return inFlight.size();
+    }
+}
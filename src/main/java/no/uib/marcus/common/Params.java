@@ -19,9 +19,14 @@ public class Params {
     public static final String SORT = "sort";
     public static final String PRETTY_PRINT = "pretty";
     public static final String INDEX_BOOST = "index_boost";
+    public static final String PROFILE = "profile";
+    public static final String FIELDS = "fields";
+    public static final String CURSOR = "cursor";
     public static final int DEFAULT_FROM = 0;
     public static final int DEFAULT_SIZE = 10;
     public static final int MAX_SIZE = 1000;
+    //Elasticsearch rejects from + size beyond index.max_result_window, deeper pages need a cursor
+    public static final int MAX_RESULT_WINDOW = 10_000;
     //Reject long query strings up front (cheap guard against boolean/clause explosion) (H1)
     public static final int MAX_QUERY_LENGTH = 512;
     //Per-shard, best-effort search time budget to bound slow/expensive queries (H1)
@@ -0,0 +1,280 @@
+package no.uib.marcus.common;
+
+import no.uib.marcus.common.util.StringUtils;
+
+import jakarta.annotation.Nullable;
+import java.net.URLDecoder;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * An immutable snapshot of the parameters of a "/search" request, with default values applied.
+ * <p>
+ * Two requests that would produce the same search have the same {@link #fingerprint()}, regardless of
+ * the order of repeated parameters such as {@code index} and {@code filter}.
+ */
+public final class SearchParameters {
+    private final String service;
+    private final String[] indices;
+    @Nullable
+    private final String queryString;
+    private final String[] selectedFilters;
+    @Nullable
+    private final String aggregations;
+    @Nullable
+    private final String fromDate;
+    @Nullable
+    private final String toDate;
+    @Nullable
+    private final String sort;
+    @Nullable
+    private final String indexToBoost;
+    @Nullable
+    private final String profile;
+    private final String[] fields;
+    @Nullable
+    private final String cursor;
+    private final int from;
+    private final int size;
+    private final boolean pretty;
+    //Computed lazily, the instance is otherwise immutable
+    private String fingerprint;
+
+    private SearchParameters(Map<String, String[]> parameters) {
+        this.service = normalizeService(first(parameters, Params.SERVICE));
+        this.indices = values(parameters, Params.INDICES);
+        this.queryString = first(parameters, Params.QUERY_STRING);
+        this.selectedFilters = values(parameters, Params.SELECTED_FILTERS);
+        this.aggregations = first(parameters, Params.AGGREGATIONS);
+        this.fromDate = first(parameters, Params.FROM_DATE);
+        this.toDate = first(parameters, Params.TO_DATE);
+        this.sort = first(parameters, Params.SORT);
+        this.indexToBoost = first(parameters, Params.INDEX_BOOST);
+        this.profile = first(parameters, Params.PROFILE);
+        this.fields = Arrays.stream(values(parameters, Params.FIELDS))
+                .flatMap(value -> Arrays.stream(value.split(",")))
+                .map(String::trim)
+                .filter(StringUtils::hasText)
+                .distinct()
+                .toArray(String[]::new);
+        this.size = StringUtils.parseIntWithDefault(
+                first(parameters, Params.SIZE), Params.DEFAULT_SIZE, 1, Params.MAX_SIZE);
+        //Deep pages with from make every shard collect from + size documents, so from is capped
+        this.from = StringUtils.parseIntWithDefault(
+                first(parameters, Params.FROM), Params.DEFAULT_FROM, 0, Params.MAX_RESULT_WINDOW - size);
+        this.cursor = first(parameters, Params.CURSOR);
+        this.pretty = Boolean.parseBoolean(first(parameters, Params.PRETTY_PRINT));
+    }
+
+    /**
+     * Create search parameters from a servlet parameter map
+     *
+     * @param parameters a map of parameter names to values, e.g. {@code request.getParameterMap()}
+     * @return search parameters with default values applied
+     */
+    public static SearchParameters of(Map<String, String[]> parameters) {
+        return new SearchParameters(parameters);
+    }
+
+    /**
+     * Create search parameters from a query string, e.g. a {@link #fingerprint()}
+     *
+     * @param queryString a URL-encoded query string, without the leading "?"
+     * @return search parameters with default values applied
+     */
+    public static SearchParameters ofQueryString(String queryString) {
+        Map<String, List<String>> values = new LinkedHashMap<>();
+        for (String pair : queryString.split("&")) {
+            if (pair.isEmpty()) {
+                continue;
+            }
+            int eq = pair.indexOf('=');
+            String name = URLDecoder.decode(eq < 0 ? pair : pair.substring(0, eq), StandardCharsets.UTF_8);
+            String value = eq < 0 ? "" : URLDecoder.decode(pair.substring(eq + 1), StandardCharsets.UTF_8);
+            values.computeIfAbsent(name, n -> new ArrayList<>()).add(value);
+        }
+        Map<String, String[]> parameters = new LinkedHashMap<>();
+        values.forEach((name, list) -> parameters.put(name, list.toArray(String[]::new)));
+        return new SearchParameters(parameters);
+    }
+
+    /**
+     * Get the upper-cased service name, defaults to MARCUS
+     */
+    public String getService() {
+        return service;
+    }
+
+    /**
+     * Get indices, or an empty array if not set
+     */
+    public String[] getIndices() {
+        return indices.clone();
+    }
+
+    @Nullable
+    public String getQueryString() {
+        return queryString;
+    }
+
+    /**
+     * Get selected filters in the form of "field#value", or an empty array if not set
+     */
+    public String[] getSelectedFilters() {
+        return selectedFilters.clone();
+    }
+
+    @Nullable
+    public String getAggregations() {
+        return aggregations;
+    }
+
+    @Nullable
+    public String getFromDate() {
+        return fromDate;
+    }
+
+    @Nullable
+    public String getToDate() {
+        return toDate;
+    }
+
+    @Nullable
+    public String getSort() {
+        return sort;
+    }
+
+    @Nullable
+    public String getIndexToBoost() {
+        return indexToBoost;
+    }
+
+    /**
+     * Get the response profile, or {@code null} if not set
+     */
+    @Nullable
+    public String getProfile() {
+        return profile;
+    }
+
+    /**
+     * Get the source fields asked for, from repeated or comma-separated {@code fields}, or an empty array if not set
+     */
+    public String[] getFields() {
+        return fields.clone();
+    }
+
+    /**
+     * Get the cursor to page from, "*" for the first page, or {@code null} if paging with from and size
+     */
+    @Nullable
+    public String getCursor() {
+        return StringUtils.hasText(cursor) ? cursor.trim() : null;
+    }
+
+    public int getFrom() {
+        return from;
+    }
+
+    public int getSize() {
+        return size;
+    }
+
+    public boolean isPretty() {
+        return pretty;
+    }
+
+    /**
+     * Get a canonical representation of the parameters that affect the search results. Repeated parameters
+     * are sorted, so "index=a&amp;index=b" and "index=b&amp;index=a" give the same fingerprint.
+     * The fingerprint is a query string and can be used as a cache key.
+     */
+    public String fingerprint() {
+        String result = fingerprint;
+        if (result == null) {
+            StringBuilder sb = appendMatching(new StringBuilder(128));
+            append(sb, Params.SORT, sort);
+            append(sb, Params.INDEX_BOOST, indexToBoost);
+            append(sb, Params.FIELDS, sorted(fields));
+            append(sb, Params.FROM, String.valueOf(from));
+            append(sb, Params.SIZE, String.valueOf(size));
+            append(sb, Params.CURSOR, cursor);
+            result = sb.toString();
+            fingerprint = result;
+        }
+        return result;
+    }
+
+    /**
+     * Get a canonical representation of the parameters that affect the aggregations, i.e. the fingerprint without
+     * the parameters that only change which hits are returned and how: from, size, sort, index boost, fields
+     * and cursor. Pages and sort orders of the same search share it.
+     */
+    public String aggregationFingerprint() {
+        return appendMatching(new StringBuilder(128)).toString();
+    }
+
+    /**
+     * Append the parameters that decide which documents match, and the aggregations
+     */
+    private StringBuilder appendMatching(StringBuilder sb) {
+        append(sb, Params.SERVICE, service);
+        append(sb, Params.INDICES, sorted(indices));
+        append(sb, Params.QUERY_STRING, queryString);
+        append(sb, Params.SELECTED_FILTERS, sorted(selectedFilters));
+        append(sb, Params.AGGREGATIONS, aggregations);
+        append(sb, Params.FROM_DATE, fromDate);
+        append(sb, Params.TO_DATE, toDate);
+        append(sb, Params.PROFILE, profile == null ? null : profile.toLowerCase(Locale.ROOT));
+        return sb;
+    }
+
+    private static void append(StringBuilder sb, String name, String... values) {
+        for (String value : values) {
+            if (StringUtils.hasText(value)) {
+                if (!sb.isEmpty()) {
+                    sb.append('&');
+                }
+                sb.append(name).append('=').append(URLEncoder.encode(value.trim(), StandardCharsets.UTF_8));
+            }
+        }
+    }
+
+    private static String[] sorted(String[] values) {
+        String[] copy = values.clone();
+        Arrays.sort(copy);
+        return copy;
+    }
+
+    private static String normalizeService(@Nullable String service) {
+        if (!StringUtils.hasText(service)) {
+            return ServiceName.MARCUS.name();
+        }
+        return service.trim().toUpperCase(Locale.ROOT);
+    }
+
+    @Nullable
+    private static String first(Map<String, String[]> parameters, String name) {
+        String[] values = parameters.get(name);
+        return values == null || values.length == 0 ? null : values[0];
+    }
+
+    private static String[] values(Map<String, String[]> parameters, String name) {
+        String[] values = parameters.get(name);
+        if (values == null) {
+            return new String[0];
+        }
+        return Arrays.stream(values).filter(v -> v != null).toArray(String[]::new);
+    }
+
+    @Override
+    public String toString() {
+        return fingerprint();
+    }
+}
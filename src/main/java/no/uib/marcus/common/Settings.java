@@ -0,0 +1,68 @@
+package no.uib.marcus.common;
+
+import no.uib.marcus.common.util.StringUtils;
+
+import jakarta.annotation.Nullable;
+import java.util.logging.Logger;
+
+/**
+ * Tunable Blackbox settings. A setting is looked up as a system property first (e.g. {@code -DBLACKBOX_CACHE_TTL_SECONDS=30})
+ * and then as an environment variable with the same name, which is how the Docker image is configured.
+ * Elasticsearch cluster settings are still loaded by the client factory, see {@code ElasticsearchClientFactory}.
+ */
+public final class Settings {
+    private static final Logger logger = Logger.getLogger(Settings.class.getName());
+
+    //Prevent this class from being initialized
+    private Settings() {
+    }
+
+    /**
+     * Get a setting as a string
+     *
+     * @param name         a setting name, e.g. BLACKBOX_CACHE_MAX_BYTES
+     * @param defaultValue a value to return if the setting is not set
+     */
+    @Nullable
+    public static String get(String name, @Nullable String defaultValue) {
+        String value = System.getProperty(name);
+        if (!StringUtils.hasText(value)) {
+            value = System.getenv(name);
+        }
+        return StringUtils.hasText(value) ? value.trim() : defaultValue;
+    }
+
+    /**
+     * Get a setting as an integer, falling back to the default value if it is missing or not a number
+     */
+    public static int getInt(String name, int defaultValue) {
+        return (int) getLong(name, defaultValue);
+    }
+
+    /**
+     * Get a setting as a long, falling back to the default value if it is missing or not a number
+     */
+    public static long getLong(String name, long defaultValue) {
+        String value = get(name, null);
+        if (value == null) {
+            return defaultValue;
+        }
+        try {
+            return Long.parseLong(value);
+        } catch (NumberFormatException e) {
+            logger.warning("Setting " + name + " is not a number [" + value + "], using " + defaultValue);
+            return defaultValue;
+        }
+    }
+
+    /**
+     * Get a setting as a boolean. Values such as "true", "1" and "on" are considered true.
+     */
+    public static boolean getBoolean(String name, boolean defaultValue) {
+        String value = get(name, null);
+        if (value == null) {
+            return defaultValue;
+        }
+        return value.equalsIgnoreCase("true") || value.equals("1") || value.equalsIgnoreCase("on");
+    }
+}
@@ -12,11 +12,11 @@ import co.elastic.clients.elasticsearch.core.SearchRequest;
 
 import co.elastic.clients.util.NamedValue;
 
-import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.databind.JsonNode;
-import com.fasterxml.jackson.databind.json.JsonMapper;
 
 import java.util.logging.Level;
+import no.uib.marcus.facet.Facet;
+import no.uib.marcus.facet.FacetSpec;
 import no.uib.marcus.search.IllegalParameterException;
 
 import java.util.logging.Logger;
@@ -43,7 +43,6 @@ public final class AggregationUtils {
 
   private static final Logger logger = Logger.getLogger(AggregationUtils.class.getName());
   private static final String AGGS_FILTER_KEY = "aggs_filter";
-  private static final JsonMapper JSON_MAPPER = new JsonMapper();
 
   // Sorting Constants
   private static final String ORDER_COUNT_ASC = "count_asc";
@@ -52,9 +51,6 @@ public final class AggregationUtils {
   private static final String ORDER_TERM_DESC = "term_desc";
   private static final String KEY_COUNT = "_count";
   private static final String KEY_TERM = "_key"; // Elastic 8+ uses _key instead of _term
-  private static final String FIELD = "field"; // Elastic 8+ uses _key instead of _term
-  private static final String MIN_DOC_COUNT = "min_doc_count";
-  private static final String ORDER = "order";
 
   //Enforce non-instability
   private AggregationUtils() {
@@ -70,18 +66,12 @@ public final class AggregationUtils {
    * array
    **/
   public static void validateAggregations(String jsonString) {
-    // rewrite from AI assistant using Jackson
-    try {
-      JsonNode node = JSON_MAPPER.readTree(jsonString);
-      if (!node.isArray()) {
-        throw new IllegalParameterException(
-            "Aggregations must be valid JSON. Expected JSON Array of objects but found : ["
-                + jsonString + "]");
-      }
-    } catch (JsonProcessingException e) {
+    if (!StringUtils.hasText(jsonString)) {
       throw new IllegalParameterException(
-          "Aggregations must be valid JSON. Could not parse: [" + jsonString + "]", e);
+          "Aggregations must be valid JSON. Expected JSON Array of objects but found : ["
+              + jsonString + "]");
     }
+    FacetSpec.parse(jsonString);
   }
 
   /**
@@ -96,25 +86,7 @@ public final class AggregationUtils {
    * @return <code>true</code> if the key, in that field, has a specified value
    */
   public static boolean contains(String aggregations, String field, String key, String value) {
-    //If there are no aggregations, no need to continue.
-    if (!StringUtils.hasText(aggregations)) {
-      return false;
-    }
-    try {
-      JsonNode facets = JSON_MAPPER.readTree(aggregations);
-      for (JsonNode facet : facets) {
-        if (facet.has(FIELD) && facet.has(key)) {
-          String currentField = facet.path(FIELD).asText();
-          String currentValue = facet.path(key).asText();
-          if (currentField.equals(field) && currentValue.equalsIgnoreCase(value)) {
-            return true;
-          }
-        }
-      }
-    } catch (JsonProcessingException e) {
-      throw new RuntimeException(e);
-    }
-    return false;
+    return FacetSpec.parse(aggregations).contains(field, key, value);
   }
 
   /**
@@ -139,59 +111,54 @@ public final class AggregationUtils {
   public static SearchRequest.Builder addAggregations(SearchRequest.Builder searchRequest,
       String aggregations,
       Map<String, List<String>> selectedFacets) {
+    return addAggregations(searchRequest, FacetSpec.parse(aggregations), selectedFacets);
+  }
+
+  /**
+   * A method to append aggregations to the search request builder.
+   *
+   * @param searchRequest  a search request builder
+   * @param facets         compiled aggregations
+   * @param selectedFacets a map that contains selected facets
+   * @return the same search request where aggregations have been added to it.
+   */
+  public static SearchRequest.Builder addAggregations(SearchRequest.Builder searchRequest,
+      FacetSpec facets,
+      Map<String, List<String>> selectedFacets) {
     //Guard the single-arg overload (and any caller) that passes null
     if (selectedFacets == null) {
       selectedFacets = Collections.emptyMap();
     }
-    JsonNode facets;
-    try {
-      facets = JSON_MAPPER.readTree(aggregations);
-    } catch (JsonProcessingException e) {
-      throw new IllegalParameterException(
-          "Aggregations must be valid JSON. Could not parse: [" + aggregations + "]", e);
-    }
     Map<String, Aggregation> aggregationMap = new HashMap<>();
-    BoolQuery.Builder aggsFilter = FilterUtils.getPostFilter(selectedFacets, aggregations);
-    for (JsonNode facet : facets) {
-      if (facet.has(FIELD)) {
-        //Add DateHistogram aggregations
-        //@todo add map of Map<String, Aggregation> and send once
-        if (facet.has("type") && facet.path("type").asText().equals("date_histogram")) {
-
-          aggregationMap.put(facet.path(FIELD).asText(),
-              AggregationUtils.getDateHistogramAggregation(facet).build()._toAggregation());
-        } else {
-          Aggregation agg;
-          ContainerBuilder termsAggs = constructTermsAggregation(facet);
-          logger.log(Level.FINE, "key for termsAggs: {0}", facet.path(FIELD).asText());
-
-          if (selectedFacets != null && !selectedFacets.isEmpty()) {
-            //Get the current field
-            String facetField = facet.path(FIELD).asText();
-            // Logic: Whenever a user selects the value from an "OR" aggregation,
-            // you add a corresponding filter (here aggs_filter) to all aggregations as sub aggregation
-            // EXCEPT for the aggregation in which the selection was performed in.
-            if (selectedFacets.containsKey(facetField)) {
-              //Make a copy of the map
-              Map<String, List<String>> selectedFacetCopy = new HashMap<>(
-                  selectedFacets);
-              //Remove the facet that aggregation was performed in from the map
-              selectedFacetCopy.remove(facetField);
-
-              //Build bool_filter for the copy of the selected facets.
-              //We build the subaggregation filter only for "OR" facets
-              if (aggsFilter.hasClauses()) {
-                BoolQuery.Builder aggsFilter2 = FilterUtils.getPostFilter(selectedFacetCopy,
-                    aggregations);
-                logger.log(Level.FINE, "Aggregations aggsfilter added to search request: {0} ",
-                    aggsFilter2);
-                agg = addSubAggregationFilter(aggsFilter2);
-                termsAggs.aggregations(AGGS_FILTER_KEY, agg);
-              }
-            }
-          }
-          aggregationMap.put(facet.path(FIELD).asText(), termsAggs.build());
+    //Sub aggregation filters are only needed if a value has been selected from an "OR" facet
+    boolean hasORSelection = FilterUtils.hasORSelection(selectedFacets, facets);
+    for (Facet facet : facets.getFacets()) {
+      String facetField = facet.getField();
+      //Add DateHistogram aggregations
+      if (facet.isDateHistogram()) {
+        aggregationMap.put(facetField,
+            AggregationUtils.getDateHistogramAggregation(facet).build()._toAggregation());
+      } else {
+        ContainerBuilder termsAggs = constructTermsAggregation(facet);
+        logger.log(Level.FINE, "key for termsAggs: {0}", facetField);
+
+        // Logic: Whenever a user selects the value from an "OR" aggregation,
+        // you add a corresponding filter (here aggs_filter) to all aggregations as sub aggregation
+        // EXCEPT for the aggregation in which the selection was performed in.
+        if (hasORSelection && selectedFacets.containsKey(facetField)) {
+          //Make a copy of the map
+          Map<String, List<String>> selectedFacetCopy = new HashMap<>(selectedFacets);
+          //Remove the facet that aggregation was performed in from the map
+          selectedFacetCopy.remove(facetField);
+
+          //Build bool_filter for the copy of the selected facets.
+          //We build the subaggregation filter only for "OR" facets
+          BoolQuery.Builder aggsFilter = FilterUtils.getPostFilter(selectedFacetCopy, facets);
+          logger.log(Level.FINE, "Aggregations aggsfilter added to search request: {0} ",
+              aggsFilter);
+          termsAggs.aggregations(AGGS_FILTER_KEY, addSubAggregationFilter(aggsFilter));
         }
+        aggregationMap.put(facetField, termsAggs.build());
       }
     }
     logger.log(Level.FINE, "Aggregations added to search request: {0}", aggregationMap);
@@ -214,36 +181,46 @@ public final class AggregationUtils {
    * @return a date histogram builder
    */
   public static DateHistogramAggregation.Builder getDateHistogramAggregation(JsonNode facet) {
-    String field = facet.path(FIELD).asText();
+    return getDateHistogramAggregation(Facet.of(facet));
+  }
+
+  /**
+   * A method to build a date histogram aggregation
+   *
+   * @param facet a compiled facet
+   * @return a date histogram builder
+   */
+  public static DateHistogramAggregation.Builder getDateHistogramAggregation(Facet facet) {
+    String field = facet.getField();
     //Create the date histogram
     DateHistogramAggregation.Builder dateHistBuilder = new DateHistogramAggregation.Builder();
 
     dateHistBuilder.field(field);
 
     //Set date format
-    if (facet.has("format")) {
+    if (facet.has(Facet.FORMAT)) {
       logger.fine("datehistogram has format");
-      dateHistBuilder.format(facet.path("format").asText());
+      dateHistBuilder.format(facet.get(Facet.FORMAT));
     }
     //Set interval
-    if (facet.has("interval")) {
+    if (facet.has(Facet.INTERVAL)) {
       logger.fine("datehistogram has interval");
       dateHistBuilder.fixedInterval(
-          new Time.Builder().time(facet.path("interval").asText()).build());
+          new Time.Builder().time(facet.get(Facet.INTERVAL)).build());
     }
     //Set the number of minimum documents that should be returned
-    if (facet.has(MIN_DOC_COUNT)) {
-      dateHistBuilder.minDocCount(facet.path(MIN_DOC_COUNT).asInt());
+    if (facet.getMinDocCount() != null) {
+      dateHistBuilder.minDocCount(facet.getMinDocCount());
     }
     //Set order
-    if (facet.has(ORDER)) {
+    if (facet.getOrder() != null) {
       NamedValue<SortOrder> order;
 
-      if (facet.path(ORDER).asText().equalsIgnoreCase(ORDER_COUNT_ASC)) {
+      if (facet.getOrder().equalsIgnoreCase(ORDER_COUNT_ASC)) {
         order = new NamedValue<>(KEY_COUNT, SortOrder.Asc);
-      } else if (facet.path(ORDER).asText().equalsIgnoreCase(ORDER_COUNT_DESC)) {
+      } else if (facet.getOrder().equalsIgnoreCase(ORDER_COUNT_DESC)) {
         order = new NamedValue<>(KEY_COUNT, SortOrder.Desc);
-      } else if (facet.path(ORDER).asText().equalsIgnoreCase(ORDER_TERM_DESC)) {
+      } else if (facet.getOrder().equalsIgnoreCase(ORDER_TERM_DESC)) {
         order = new NamedValue<>(KEY_TERM, SortOrder.Desc);
       } else {
         order = new NamedValue<>(KEY_TERM, SortOrder.Asc);
@@ -263,7 +240,20 @@ public final class AggregationUtils {
    **/
   public static ContainerBuilder constructTermsAggregation(JsonNode facet,
       boolean sortBySubAggregation) {
-    String field = facet.path(FIELD).asText();
+    return constructTermsAggregation(Facet.of(facet), sortBySubAggregation);
+  }
+
+  /**
+   * Builds terms aggregations and their corresponding sort options
+   *
+   * @param facet                a compiled facet
+   * @param sortBySubAggregation a flag whether to sort by sub aggregation filter
+   * @return a term builder
+   *
+   **/
+  public static ContainerBuilder constructTermsAggregation(Facet facet,
+      boolean sortBySubAggregation) {
+    String field = facet.getField();
 
     Aggregation.Builder termsBuilder = new Aggregation.Builder();
     TermsAggregation.Builder termsAggregationBuilder = new TermsAggregation.Builder();
@@ -272,22 +262,21 @@ public final class AggregationUtils {
     termsAggregationBuilder.field(field);
 
     //Set size
-    if (facet.has("size")) {
-      int size = facet.path("size").asInt();
-      termsAggregationBuilder.size(size);
+    if (facet.getSize() != null) {
+      termsAggregationBuilder.size(facet.getSize());
     }
     //Set order
 
     NamedValue<SortOrder> subAggregationOrder = new NamedValue<>(KEY_COUNT, SortOrder.Asc);
-    if (facet.has(ORDER)) {
+    if (facet.getOrder() != null) {
 
       NamedValue<SortOrder> order = new NamedValue<>(KEY_COUNT,
           SortOrder.Desc);//default order (count descending)
-      if (facet.path(ORDER).asText().equalsIgnoreCase(ORDER_COUNT_ASC)) {
+      if (facet.getOrder().equalsIgnoreCase(ORDER_COUNT_ASC)) {
         order = new NamedValue<>(KEY_COUNT, SortOrder.Asc);
-      } else if (facet.path(ORDER).asText().equalsIgnoreCase(ORDER_TERM_ASC)) {
+      } else if (facet.getOrder().equalsIgnoreCase(ORDER_TERM_ASC)) {
         order = new NamedValue<>(KEY_TERM, SortOrder.Asc);
-      } else if (facet.path(ORDER).asText().equalsIgnoreCase(ORDER_TERM_DESC)) {
+      } else if (facet.getOrder().equalsIgnoreCase(ORDER_TERM_DESC)) {
         order = new NamedValue<>(KEY_TERM, SortOrder.Desc);
       }
       if (sortBySubAggregation) {//Sort using sub aggregation
@@ -302,9 +291,8 @@ public final class AggregationUtils {
       }
     }
     //Set the number of minimum documents that should be returned
-    if (facet.has(MIN_DOC_COUNT)) {
-      int minDocCount = facet.path(MIN_DOC_COUNT).asInt();
-      termsAggregationBuilder.minDocCount(minDocCount);
+    if (facet.getMinDocCount() != null) {
+      termsAggregationBuilder.minDocCount(facet.getMinDocCount());
     }
 
     return termsBuilder.terms(termsAggregationBuilder.build());
@@ -320,4 +308,14 @@ public final class AggregationUtils {
     return constructTermsAggregation(facet, false);
   }
 
+  /**
+   * A method to build terms aggregations and sort options on the parent aggregations
+   *
+   * @param facet a compiled facet
+   * @return a term builder
+   */
+  public static ContainerBuilder constructTermsAggregation(Facet facet) {
+    return constructTermsAggregation(facet, false);
+  }
+
 }
@@ -9,6 +9,7 @@ import co.elastic.clients.elasticsearch._types.query_dsl.TermsQueryField;
 
 import java.util.logging.Level;
 import no.uib.marcus.common.Params;
+import no.uib.marcus.facet.FacetSpec;
 import no.uib.marcus.range.DateRange;
 
 import java.util.logging.Logger;
@@ -42,15 +43,21 @@ public final class FilterUtils {
      * A wrapper for building filter without dates
      ***/
     public static Map<String, BoolQuery.Builder> buildBoolFilter(@NotNull Map<String, List<String>> filterMap, String aggs) {
-        return buildBoolFilter(filterMap, aggs, null);
+        return buildBoolFilter(filterMap, FacetSpec.parse(aggs), null);
     }
 
     /**
      * Gets the top filter from the given filter map or empty filter if it does not exist
      */
     public static BoolQuery.Builder getTopFilter(@NotNull Map<String, List<String>> selectedFacets, String aggs, DateRange dateRange) {
+        return getTopFilter(selectedFacets, FacetSpec.parse(aggs), dateRange);
+    }
 
-        Map<String, BoolQuery.Builder> filter = FilterUtils.buildBoolFilter(selectedFacets, aggs, dateRange);
+    /**
+     * Gets the top filter from the given filter map or empty filter if it does not exist
+     */
+    public static BoolQuery.Builder getTopFilter(@NotNull Map<String, List<String>> selectedFacets, FacetSpec facets, DateRange dateRange) {
+        Map<String, BoolQuery.Builder> filter = FilterUtils.buildBoolFilter(selectedFacets, facets, dateRange);
         return filter.getOrDefault(TOP_FILTER, QueryBuilders.bool());
     }
 
@@ -58,23 +65,30 @@ public final class FilterUtils {
      * Gets post-filter from the given filter map or empty filter if it does not exist
      */
     public static BoolQuery.Builder getPostFilter(@NotNull Map<String, List<String>> selectedFacets, String aggs) {
-        Map<String, BoolQuery.Builder> filter = FilterUtils.buildBoolFilter(selectedFacets, aggs);
+        return getPostFilter(selectedFacets, FacetSpec.parse(aggs));
+    }
+
+    /**
+     * Gets post-filter from the given filter map or empty filter if it does not exist
+     */
+    public static BoolQuery.Builder getPostFilter(@NotNull Map<String, List<String>> selectedFacets, FacetSpec facets) {
+        Map<String, BoolQuery.Builder> filter = FilterUtils.buildBoolFilter(selectedFacets, facets, null);
         return filter.getOrDefault(POST_FILTER, QueryBuilders.bool());
     }
 
     /**
      * A method for building BoolFilter based on the aggregation settings.
      *
-     * @param filterMap    a map of selected facets with keys as fields and values as terms.
-     * @param aggregations aggregations
-     * @param dateRange    a date range to be applied to a range filter
+     * @param filterMap a map of selected facets with keys as fields and values as terms.
+     * @param facets    compiled aggregations
+     * @param dateRange a date range to be applied to a range filter
      * @return a map which contains AND and OR bool filters based on the aggregations, with the keys
      * "top_filter" and "post_filter" respectively
      */
     private static Map<String, BoolQuery.Builder> buildBoolFilter(
             @NotNull Map<String, List<String>> filterMap,
-            @Nullable String aggregations,
-            DateRange dateRange
+            FacetSpec facets,
+            @Nullable DateRange dateRange
     ) {
         Map<String, BoolQuery.Builder> boolFilterMap = new HashMap<>();
         BoolQuery.Builder topFilter = QueryBuilders.bool();
@@ -88,7 +102,7 @@ public final class FilterUtils {
                             .value(entry.getValue().stream().map(FieldValue::of).toList())
                         .build();
 
-                    if (hasOROperator(aggregations, entry.getKey())) {
+                    if (facets.hasOROperator(entry.getKey())) {
                         //Building "OR" filter that will be used as post_filter.
                         //post_filter only affects search results but NOT aggregations.
                         postFilter.must(QueryBuilders.terms().field(entry.getKey()).terms(entryTerms).build()._toQuery());
@@ -248,10 +262,17 @@ public final class FilterUtils {
     }
 
     /**
-     * Checks if an aggregation key has the OR operator
+     * Checks if a value has been selected from any of the "OR" facets, i.e. whether
+     * a post_filter would have clauses.
      */
-    private static boolean hasOROperator(String aggregations, String key) {
-        return AggregationUtils.contains(aggregations, key, "operator", "OR");
+    public static boolean hasORSelection(@NotNull Map<String, List<String>> selectedFacets, FacetSpec facets) {
+        for (Map.Entry<String, List<String>> entry : selectedFacets.entrySet()) {
+            if (entry.getValue() != null && !entry.getValue().isEmpty()
+                    && facets.hasOROperator(entry.getKey())) {
+                return true;
+            }
+        }
+        return false;
     }
 
     /**
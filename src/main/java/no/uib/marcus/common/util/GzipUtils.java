@@ -0,0 +1,101 @@
+package no.uib.marcus.common.util;
+
+import jakarta.annotation.Nullable;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Helpers for gzip bodies, and for the {@code Accept-Encoding} header of a client.
+ */
+public final class GzipUtils {
+    private static final int BUFFER_SIZE = 8192;
+
+    //Prevent this class from being initialized
+    private GzipUtils() {
+    }
+
+    /**
+     * Whether a client accepts gzip, i.e. the {@code Accept-Encoding} header lists "gzip" or "*"
+     * without {@code q=0}, e.g. "gzip, deflate, br"
+     *
+     * @param acceptEncoding the header value, can be {@code null}
+     */
+    public static boolean acceptsGzip(@Nullable String acceptEncoding) {
+        if (acceptEncoding == null) {
+            return false;
+        }
+        for (String coding : acceptEncoding.split(",")) {
+            String[] parts = coding.split(";");
+            String name = parts[0].trim();
+            if (name.equalsIgnoreCase("gzip") || name.equals("*")) {
+                return !hasZeroQuality(parts);
+            }
+        }
+        return false;
+    }
+
+    private static boolean hasZeroQuality(String[] parameters) {
+        for (int i = 1; i < parameters.length; i++) {
+            String parameter = parameters[i].trim();
+            if (parameter.startsWith("q=")) {
+                try {
+                    return Double.parseDouble(parameter.substring(2)) <= 0;
+                } catch (NumberFormatException e) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Compress bytes
+     */
+    public static byte[] gzip(byte[] bytes) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(Math.max(64, bytes.length / 4));
+        try (GZIPOutputStream gzip = new GZIPOutputStream(out, BUFFER_SIZE)) {
+            gzip.write(bytes);
+        } catch (IOException e) {
+            //Not expected in memory
+            throw new UncheckedIOException(e);
+        }
+        return out.toByteArray();
+    }
+
+    /**
+     * Decompress gzip bytes
+     *
+     * @throws IOException if the bytes are not valid gzip
+     */
+    public static byte[] gunzip(byte[] gzipped) throws IOException {
+        try (InputStream in = open(gzipped)) {
+            return in.readAllBytes();
+        }
+    }
+
+    /**
+     * Decompress the beginning of gzip bytes, e.g. to look at the first fields of a JSON response
+     *
+     * @param length the most bytes to decompress
+     * @throws IOException if the bytes are not valid gzip
+     */
+    public static byte[] gunzipHead(byte[] gzipped, int length) throws IOException {
+        try (InputStream in = open(gzipped)) {
+            return in.readNBytes(length);
+        }
+    }
+
+    /**
+     * Open a stream that decompresses gzip bytes
+     *
+     * @throws IOException if the bytes do not start with a gzip header
+     */
+    public static InputStream open(byte[] gzipped) throws IOException {
+        return new GZIPInputStream(new ByteArrayInputStream(gzipped), BUFFER_SIZE);
+    }
+}
@@ -0,0 +1,152 @@
+package no.uib.marcus.facet;
+
+import com.fasterxml.jackson.databind.JsonNode;
+
+import jakarta.annotation.Nullable;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * An immutable, typed representation of a single facet from the {@code aggs} parameter, e.g.
+ * <pre>
+ *  {"field": "type", "size": 30, "operator": "OR", "order": "count_desc", "min_doc_count": 0}
+ * </pre>
+ * Values are read once when the facet is compiled, so that filter and aggregation builders
+ * do not have to walk the JSON tree again.
+ */
+public final class Facet {
+    public static final String FIELD = "field";
+    public static final String TYPE = "type";
+    public static final String SIZE = "size";
+    public static final String OPERATOR = "operator";
+    public static final String ORDER = "order";
+    public static final String MIN_DOC_COUNT = "min_doc_count";
+    public static final String FORMAT = "format";
+    public static final String INTERVAL = "interval";
+    public static final String DATE_HISTOGRAM = "date_histogram";
+    public static final String OR = "OR";
+
+    private final String field;
+    private final Map<String, String> properties;
+    @Nullable
+    private final Integer size;
+    @Nullable
+    private final Integer minDocCount;
+
+    private Facet(String field, Map<String, String> properties, Integer size, Integer minDocCount) {
+        this.field = field;
+        this.properties = properties;
+        this.size = size;
+        this.minDocCount = minDocCount;
+    }
+
+    /**
+     * Compile a facet from a JSON object.
+     *
+     * @param node a JSON object, expected to have a "field" key
+     * @return a facet, or {@code null} if the node is not an object with a "field" key
+     */
+    @Nullable
+    public static Facet of(JsonNode node) {
+        if (node == null || !node.isObject() || !node.has(FIELD)) {
+            return null;
+        }
+        Map<String, String> properties = new HashMap<>();
+        for (Map.Entry<String, JsonNode> entry : node.properties()) {
+            properties.put(entry.getKey(), entry.getValue().asText());
+        }
+        return new Facet(
+                node.path(FIELD).asText(),
+                Collections.unmodifiableMap(properties),
+                node.has(SIZE) ? node.path(SIZE).asInt() : null,
+                node.has(MIN_DOC_COUNT) ? node.path(MIN_DOC_COUNT).asInt() : null);
+    }
+
+    /**
+     * Get the field this facet aggregates on
+     */
+    public String getField() {
+        return field;
+    }
+
+    /**
+     * Get the text value of a facet key or {@code null} if the key is not present
+     */
+    @Nullable
+    public String get(String key) {
+        return properties.get(key);
+    }
+
+    /**
+     * Check whether this facet has a given key
+     */
+    public boolean has(String key) {
+        return properties.containsKey(key);
+    }
+
+    /**
+     * Check whether a facet key has the given value, ignoring case
+     */
+    public boolean hasValue(String key, String value) {
+        String current = properties.get(key);
+        return current != null && current.equalsIgnoreCase(value);
+    }
+
+    /**
+     * Whether this facet is a date histogram rather than a terms aggregation
+     */
+    public boolean isDateHistogram() {
+        return DATE_HISTOGRAM.equals(properties.get(TYPE));
+    }
+
+    /**
+     * Whether selections in this facet should be combined with "OR"
+     */
+    public boolean isOROperator() {
+        return hasValue(OPERATOR, OR);
+    }
+
+    /**
+     * Get the size or {@code null} if not set
+     */
+    @Nullable
+    public Integer getSize() {
+        return size;
+    }
+
+    /**
+     * Get the minimum document count or {@code null} if not set
+     */
+    @Nullable
+    public Integer getMinDocCount() {
+        return minDocCount;
+    }
+
+    /**
+     * Get the order or {@code null} if not set
+     */
+    @Nullable
+    public String getOrder() {
+        return properties.get(ORDER);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+        Facet facet = (Facet) o;
+        return field.equals(facet.field) && properties.equals(facet.properties);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(field, properties);
+    }
+
+    @Override
+    public String toString() {
+        return "Facet" + properties;
+    }
+}
@@ -0,0 +1,152 @@
+package no.uib.marcus.facet;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.json.JsonMapper;
+import no.uib.marcus.common.util.StringUtils;
+import no.uib.marcus.search.IllegalParameterException;
+
+import jakarta.annotation.Nullable;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * A compiled, immutable model of the {@code aggs} parameter. The JSON string is parsed once per
+ * request (and memoized across requests, since clients send the same few facet configurations
+ * over and over), after which filters, aggregations and search builders only consult this model.
+ */
+public final class FacetSpec {
+    /**
+     * A spec without facets, used when no aggregations are given
+     */
+    public static final FacetSpec EMPTY = new FacetSpec(null, Collections.emptyList());
+
+    private static final JsonMapper JSON_MAPPER = new JsonMapper();
+    //Upper bound for memoized specs. The map is simply cleared when it is full,
+    //since the set of facet configurations used by the clients is small.
+    private static final int MAX_CACHED_SPECS = 256;
+    private static final Map<String, FacetSpec> CACHE = new ConcurrentHashMap<>();
+
+    @Nullable
+    private final String source;
+    private final List<Facet> facets;
+    private final Set<String> orFields;
+
+    private FacetSpec(@Nullable String source, List<Facet> facets) {
+        this.source = source;
+        this.facets = Collections.unmodifiableList(facets);
+        Set<String> or = new HashSet<>();
+        for (Facet facet : facets) {
+            if (facet.isOROperator()) {
+                or.add(facet.getField());
+            }
+        }
+        this.orFields = Collections.unmodifiableSet(or);
+    }
+
+    /**
+     * Get a compiled spec for the given aggregations, parsing them only if they have not been seen before.
+     *
+     * @param aggregations aggregations as a JSON array string, can be {@code null} or empty
+     * @return a compiled spec, or {@link #EMPTY} if there are no aggregations
+     * @throws IllegalParameterException if the aggregations are not a valid JSON array
+     */
+    public static FacetSpec parse(@Nullable String aggregations) {
+        if (!StringUtils.hasText(aggregations)) {
+            return EMPTY;
+        }
+        FacetSpec spec = CACHE.get(aggregations);
+        if (spec == null) {
+            spec = compile(aggregations);
+            if (CACHE.size() >= MAX_CACHED_SPECS) {
+                CACHE.clear();
+            }
+            CACHE.put(aggregations, spec);
+        }
+        return spec;
+    }
+
+    /**
+     * Parse aggregations without consulting the memoized specs
+     *
+     * @throws IllegalParameterException if the aggregations are not a valid JSON array
+     */
+    static FacetSpec compile(String aggregations) {
+        JsonNode node;
+        try {
+            node = JSON_MAPPER.readTree(aggregations);
+        } catch (JsonProcessingException e) {
+            throw new IllegalParameterException(
+                    "Aggregations must be valid JSON. Could not parse: [" + aggregations + "]", e);
+        }
+        if (node == null || !node.isArray()) {
+            throw new IllegalParameterException(
+                    "Aggregations must be valid JSON. Expected JSON Array of objects but found : ["
+                            + aggregations + "]");
+        }
+        List<Facet> facets = new ArrayList<>(node.size());
+        for (JsonNode element : node) {
+            Facet facet = Facet.of(element);
+            if (facet != null) {
+                facets.add(facet);
+            }
+        }
+        return new FacetSpec(aggregations, facets);
+    }
+
+    /**
+     * Get the JSON string this spec was compiled from, or {@code null} for the empty spec
+     */
+    @Nullable
+    public String getSource() {
+        return source;
+    }
+
+    /**
+     * Get facets in the order they were given
+     */
+    public List<Facet> getFacets() {
+        return facets;
+    }
+
+    /**
+     * Whether there are no facets to aggregate on
+     */
+    public boolean isEmpty() {
+        return facets.isEmpty();
+    }
+
+    /**
+     * Checks if the facet for a given field has the "OR" operator
+     */
+    public boolean hasOROperator(String field) {
+        return orFields.contains(field);
+    }
+
+    /**
+     * Checks if any facet for a given field has a key with the specified value, ignoring case.
+     *
+     * @param field field in which key-value exists
+     * @param key   a facet key
+     * @param value a value of the specified key
+     * @return <code>true</code> if the key, in that field, has a specified value
+     */
+    public boolean contains(String field, String key, String value) {
+        for (Facet facet : facets) {
+            if (facet.getField().equals(field) && facet.hasValue(key, value)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    @Override
+    public String toString() {
+        return "FacetSpec" + facets;
+    }
+}
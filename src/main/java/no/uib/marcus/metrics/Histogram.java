@@ -0,0 +1,107 @@
+package no.uib.marcus.metrics;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A lock-free histogram with fixed log-linear buckets: each power of ten is split into 9 linear steps
+ * (1, 2, ... 9 times the power), which keeps the relative error below 100% at every scale with few buckets.
+ * Recording a value is a binary search and two {@link LongAdder} increments, and allocates nothing.
+ */
+public final class Histogram {
+    private final long[] bounds;
+    private final LongAdder[] counts;
+    private final LongAdder sum = new LongAdder();
+
+    /**
+     * Create a histogram with the given inclusive upper bounds. Values above the last bound are
+     * counted in an extra overflow bucket.
+     *
+     * @param bounds ascending upper bounds
+     */
+    public Histogram(long[] bounds) {
+        for (int i = 1; i < bounds.length; i++) {
+            if (bounds[i] <= bounds[i - 1]) {
+                throw new IllegalArgumentException("Bounds must be ascending");
+            }
+        }
+        this.bounds = bounds.clone();
+        this.counts = new LongAdder[bounds.length + 1];
+        for (int i = 0; i < counts.length; i++) {
+            counts[i] = new LongAdder();
+        }
+    }
+
+    /**
+     * Create a histogram with log-linear buckets
+     *
+     * @param min the first bound, a power of ten
+     * @param max the last bound, a power of ten
+     */
+    public static Histogram logLinear(long min, long max) {
+        return new Histogram(logLinearBounds(min, max));
+    }
+
+    static long[] logLinearBounds(long min, long max) {
+        if (min <= 0 || max < min) {
+            throw new IllegalArgumentException("Invalid range [" + min + ", " + max + "]");
+        }
+        List<Long> bounds = new ArrayList<>();
+        for (long power = min; power < max; power *= 10) {
+            for (int step = 1; step < 10; step++) {
+                bounds.add(power * step);
+            }
+        }
+        bounds.add(max);
+        return bounds.stream().mapToLong(Long::longValue).toArray();
+    }
+
+    /**
+     * Record a value
+     */
+    public void record(long value) {
+        int index = Arrays.binarySearch(bounds, value);
+        counts[index >= 0 ? index : -index - 1].increment();
+        sum.add(value);
+    }
+
+    /**
+     * Get the upper bounds, not including the overflow bucket
+     */
+    public long[] getBounds() {
+        return bounds.clone();
+    }
+
+    /**
+     * Get the cumulative counts for each bound, with the total count last
+     */
+    public long[] getCumulativeCounts() {
+        long[] cumulative = new long[counts.length];
+        long total = 0;
+        for (int i = 0; i < counts.length; i++) {
+            total += counts[i].sum();
+            cumulative[i] = total;
+        }
+        return cumulative;
+    }
+
+    /**
+     * Get the sum of all recorded values
+     */
+    public long getSum() {
+        return sum.sum();
+    }
+
+    /**
+     * Get the number of recorded values
+     */
+    public long getCount() {
+        long total = 0;
+        for (LongAdder count : counts) {
+            total += count.sum();
+        }
+        return total;
+    }
+}
@@ -0,0 +1,14 @@
+package no.uib.marcus.metrics;
+
+import java.io.IOException;
+
+/**
+ * Something that exposes its own metrics on "/metrics", registered with {@link Metrics#register(MetricSource)}
+ */
+@FunctionalInterface
+public interface MetricSource {
+    /**
+     * Write the current metrics, leaving out those that do not apply, e.g. because the feature is disabled
+     */
+    void writeMetrics(MetricWriter out) throws IOException;
+}
@@ -0,0 +1,46 @@
+package no.uib.marcus.metrics;
+
+import java.io.IOException;
+import java.io.Writer;
+
+/**
+ * Writes metrics in the Prometheus text exposition format: a header for each metric, followed by its samples.
+ */
+public final class MetricWriter {
+    private final Writer out;
+
+    MetricWriter(Writer out) {
+        this.out = out;
+    }
+
+    /**
+     * Write the help text and type of a metric, before its samples
+     *
+     * @param type "counter", "gauge" or "histogram"
+     */
+    public void header(String name, String type, String help) throws IOException {
+        out.write("# HELP " + name + " " + help + "\n");
+        out.write("# TYPE " + name + " " + type + "\n");
+    }
+
+    /**
+     * Write a sample without labels
+     */
+    public void sample(String name, Number value) throws IOException {
+        out.write(name + " " + value + "\n");
+    }
+
+    /**
+     * Write a sample with one label
+     */
+    public void sample(String name, String label, String labelValue, Number value) throws IOException {
+        out.write(name + "{" + label + "=\"" + labelValue + "\"} " + value + "\n");
+    }
+
+    /**
+     * Write a line as it is, for samples with several labels
+     */
+    void line(String line) throws IOException {
+        out.write(line + "\n");
+    }
+}
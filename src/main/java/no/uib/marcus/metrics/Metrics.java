@@ -0,0 +1,135 @@
+package no.uib.marcus.metrics;
+
+import no.uib.marcus.common.ServiceName;
+
+import jakarta.annotation.Nullable;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.Function;
+
+/**
+ * The Blackbox metrics, written in the Prometheus text exposition format by the "/metrics" endpoint.
+ * Metrics are created up front for every endpoint and service, so looking them up on the hot path is an array read.
+ * <p>
+ * Caches, limiters and background jobs expose their own metrics by registering a {@link MetricSource} when their
+ * class is loaded, so their metrics show up once they are first used.
+ */
+public final class Metrics {
+    public static final String CONTENT_TYPE = "text/plain; version=0.0.4; charset=utf-8";
+    private static final String SEARCH = "search";
+    private static final String SUGGEST = "suggest";
+    private static final double NANOS_PER_SECOND = 1e9;
+
+    //One per service, and one last for requests with an unknown service
+    private static final RequestMetrics[] searchMetrics = new RequestMetrics[ServiceName.values().length + 1];
+    private static final RequestMetrics suggestMetrics = new RequestMetrics(SUGGEST, "none");
+    private static final List<MetricSource> sources = new CopyOnWriteArrayList<>();
+
+    static {
+        for (ServiceName service : ServiceName.values()) {
+            searchMetrics[service.ordinal()] = new RequestMetrics(SEARCH, service.name().toLowerCase(Locale.ROOT));
+        }
+        searchMetrics[searchMetrics.length - 1] = new RequestMetrics(SEARCH, "unknown");
+    }
+
+    //Prevent this class from being initialized
+    private Metrics() {
+    }
+
+    /**
+     * Get the "/search" metrics for a service
+     *
+     * @param service a service, or {@code null} if the service parameter is not valid
+     */
+    public static RequestMetrics search(@Nullable ServiceName service) {
+        return searchMetrics[service == null ? searchMetrics.length - 1 : service.ordinal()];
+    }
+
+    /**
+     * Get the "/suggest" metrics
+     */
+    public static RequestMetrics suggest() {
+        return suggestMetrics;
+    }
+
+    /**
+     * Add metrics to those written by {@link #write(Writer)}
+     */
+    public static void register(MetricSource source) {
+        sources.add(source);
+    }
+
+    /**
+     * Write all metrics in the Prometheus text exposition format
+     */
+    public static void write(Writer writer) throws IOException {
+        MetricWriter out = new MetricWriter(writer);
+        List<RequestMetrics> all = new ArrayList<>(List.of(searchMetrics));
+        all.add(suggestMetrics);
+
+        out.header("blackbox_requests_total", "counter", "Completed requests by HTTP status");
+        for (RequestMetrics metrics : all) {
+            String labels = labels(metrics);
+            for (int status : metrics.getStatuses()) {
+                out.line("blackbox_requests_total{" + labels + ",code=\"" + status + "\"} "
+                        + metrics.getStatusCount(status));
+            }
+        }
+
+        out.header("blackbox_requests_in_flight", "gauge", "Requests currently being processed");
+        for (RequestMetrics metrics : all) {
+            out.line("blackbox_requests_in_flight{" + labels(metrics) + "} " + metrics.getInFlight());
+        }
+
+        histogram(out, all, "blackbox_request_duration_seconds",
+                "Time from a request arrived until the response was complete", RequestMetrics::getDuration, true);
+        histogram(out, all, "blackbox_elasticsearch_duration_seconds",
+                "Time from a request was sent to Elasticsearch until the response was available",
+                RequestMetrics::getElasticsearchDuration, true);
+        histogram(out, all, "blackbox_build_duration_seconds",
+                "Time spent building the Elasticsearch request", RequestMetrics::getBuildDuration, true);
+        histogram(out, all, "blackbox_serialize_duration_seconds",
+                "Time spent serializing the Elasticsearch request", RequestMetrics::getSerializeDuration, true);
+        histogram(out, all, "blackbox_response_bytes",
+                "Size of response bodies as sent, after compression", RequestMetrics::getResponseBytes, false);
+        histogram(out, all, "blackbox_compression_duration_seconds",
+                "Time spent compressing or decompressing response bodies", RequestMetrics::getCompressionDuration, true);
+
+        for (MetricSource source : sources) {
+            source.writeMetrics(out);
+        }
+    }
+
+    private static void histogram(MetricWriter out, List<RequestMetrics> all, String name, String help,
+                                  Function<RequestMetrics, Histogram> histogram, boolean nanos) throws IOException {
+        out.header(name, "histogram", help);
+        for (RequestMetrics metrics : all) {
+            Histogram h = histogram.apply(metrics);
+            long[] counts = h.getCumulativeCounts();
+            long total = counts[counts.length - 1];
+            if (total == 0) {
+                continue;
+            }
+            String labels = labels(metrics);
+            long[] bounds = h.getBounds();
+            for (int i = 0; i < bounds.length; i++) {
+                out.line(name + "_bucket{" + labels + ",le=\"" + format(bounds[i], nanos) + "\"} " + counts[i]);
+            }
+            out.line(name + "_bucket{" + labels + ",le=\"+Inf\"} " + total);
+            out.line(name + "_sum{" + labels + "} " + format(h.getSum(), nanos));
+            out.line(name + "_count{" + labels + "} " + total);
+        }
+    }
+
+    private static String labels(RequestMetrics metrics) {
+        return "endpoint=\"" + metrics.getEndpoint() + "\",service=\"" + metrics.getService() + "\"";
+    }
+
+    private static String format(long value, boolean nanos) {
+        return nanos ? Double.toString(value / NANOS_PER_SECOND) : Long.toString(value);
+    }
+}
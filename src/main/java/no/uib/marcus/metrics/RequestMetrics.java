@@ -0,0 +1,143 @@
+package no.uib.marcus.metrics;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.stream.IntStream;
+
+/**
+ * Metrics for the requests of one endpoint and service, e.g. "/search" for WAB. All methods are lock-free
+ * and allocation-free, so they can be called on every request.
+ */
+public final class RequestMetrics {
+    //Latencies are recorded in nanoseconds, from 100 microseconds (1 microsecond for CPU work) to 100 seconds
+    private static final long MIN_NANOS = 100_000L;
+    private static final long MAX_NANOS = 100_000_000_000L;
+    private static final long MIN_CPU_NANOS = 1_000L;
+    private static final int MIN_STATUS = 100;
+    private static final int MAX_STATUS = 599;
+
+    private final String endpoint;
+    private final String service;
+    //Indexed by status code - 100, any other status is counted as 0
+    private final AtomicLongArray statusCounts = new AtomicLongArray(MAX_STATUS - MIN_STATUS + 2);
+    private final LongAdder inFlight = new LongAdder();
+    private final Histogram duration = Histogram.logLinear(MIN_NANOS, MAX_NANOS);
+    private final Histogram elasticsearchDuration = Histogram.logLinear(MIN_NANOS, MAX_NANOS);
+    //Building, serializing and compressing a request or response take from a few microseconds
+    private final Histogram buildDuration = Histogram.logLinear(MIN_CPU_NANOS, MAX_NANOS);
+    private final Histogram serializeDuration = Histogram.logLinear(MIN_CPU_NANOS, MAX_NANOS);
+    private final Histogram responseBytes = Histogram.logLinear(100, 100_000_000);
+    private final Histogram compressionDuration = Histogram.logLinear(MIN_CPU_NANOS, MAX_NANOS);
+
+    RequestMetrics(String endpoint, String service) {
+        this.endpoint = endpoint;
+        this.service = service;
+    }
+
+    /**
+     * Count a request as in flight
+     */
+    public void started() {
+        inFlight.increment();
+    }
+
+    /**
+     * Count a request as completed
+     *
+     * @param status        the HTTP status of the response
+     * @param durationNanos the time from the request arrived until the response was complete
+     */
+    public void completed(int status, long durationNanos) {
+        inFlight.decrement();
+        statusCounts.incrementAndGet(status >= MIN_STATUS && status <= MAX_STATUS ? status - MIN_STATUS + 1 : 0);
+        duration.record(durationNanos);
+    }
+
+    /**
+     * Record the time from a request was sent to Elasticsearch until the response was available
+     */
+    public void recordElasticsearch(long nanos) {
+        elasticsearchDuration.record(nanos);
+    }
+
+    /**
+     * Record the time spent building a request (query, filters and aggregations)
+     */
+    public void recordBuild(long nanos) {
+        buildDuration.record(nanos);
+    }
+
+    /**
+     * Record the time spent serializing a request to JSON
+     */
+    public void recordSerialize(long nanos) {
+        serializeDuration.record(nanos);
+    }
+
+    /**
+     * Record the size of a response body sent to the client, i.e. after compression
+     */
+    public void recordResponseBytes(long bytes) {
+        responseBytes.record(bytes);
+    }
+
+    /**
+     * Record the time spent compressing or decompressing a response body
+     */
+    public void recordCompression(long nanos) {
+        compressionDuration.record(nanos);
+    }
+
+    public String getEndpoint() {
+        return endpoint;
+    }
+
+    public String getService() {
+        return service;
+    }
+
+    public long getInFlight() {
+        return inFlight.sum();
+    }
+
+    /**
+     * Get the number of completed requests with the given status
+     */
+    public long getStatusCount(int status) {
+        return statusCounts.get(status >= MIN_STATUS && status <= MAX_STATUS ? status - MIN_STATUS + 1 : 0);
+    }
+
+    public Histogram getDuration() {
+        return duration;
+    }
+
+    public Histogram getElasticsearchDuration() {
+        return elasticsearchDuration;
+    }
+
+    public Histogram getBuildDuration() {
+        return buildDuration;
+    }
+
+    public Histogram getSerializeDuration() {
+        return serializeDuration;
+    }
+
+    public Histogram getResponseBytes() {
+        return responseBytes;
+    }
+
+    public Histogram getCompressionDuration() {
+        return compressionDuration;
+    }
+
+    /**
+     * Get the statuses with a non-zero count, 0 stands for unexpected codes
+     */
+    public int[] getStatuses() {
+        return IntStream.range(0, statusCounts.length())
+                .filter(i -> statusCounts.get(i) > 0)
+                .map(i -> i == 0 ? 0 : i + MIN_STATUS - 1)
+                .toArray();
+    }
+}
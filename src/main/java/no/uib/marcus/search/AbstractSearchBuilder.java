@@ -4,12 +4,14 @@ import co.elastic.clients.elasticsearch.ElasticsearchClient;
 import co.elastic.clients.elasticsearch._types.SortOptions;
 import co.elastic.clients.elasticsearch._types.query_dsl.BoolQuery;
 
+import co.elastic.clients.elasticsearch.core.SearchRequest;
 import co.elastic.clients.elasticsearch.core.SearchResponse;
 import co.elastic.clients.util.ObjectBuilder;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import java.util.logging.Level;
-import no.uib.marcus.common.util.AggregationUtils;
+import no.uib.marcus.facet.FacetSpec;
 
+import java.io.IOException;
 import java.util.Arrays;
 import java.util.logging.Logger;
 import com.fasterxml.jackson.databind.node.ObjectNode;
@@ -40,9 +42,12 @@ public abstract class AbstractSearchBuilder<T extends AbstractSearchBuilder<T>>
     private BoolQuery filter;
   private BoolQuery postFilter;
     private Map<String, List<String>> selectedFacets;
-    private String aggregations;
+    private FacetSpec facetSpec = FacetSpec.EMPTY;
     private ObjectBuilder<SortOptions> sortBuilder;
     private String indexToBoost;
+    private ResponseProfile responseProfile = ResponseProfile.defaultProfile();
+    @Nullable
+    private Cursor cursor;
     private int from = 0;
     private int size = 10;
 
@@ -77,7 +82,7 @@ public abstract class AbstractSearchBuilder<T extends AbstractSearchBuilder<T>>
      * Get aggregations or {@code null} if not set
      */
     public String getAggregations() {
-        return aggregations;
+        return facetSpec.getSource();
     }
 
     /**
@@ -86,11 +91,27 @@ public abstract class AbstractSearchBuilder<T extends AbstractSearchBuilder<T>>
      * @param aggregations a JSON string of aggregations
      * @return this object where aggregations have been set
      */
-    @SuppressWarnings("unchecked")
     public T setAggregations(String aggregations) {
-        if (aggregations != null) {
-            AggregationUtils.validateAggregations(aggregations);
-            this.aggregations = aggregations;
+        return setFacetSpec(FacetSpec.parse(aggregations));
+    }
+
+    /**
+     * Get compiled aggregations, never {@code null}
+     */
+    public FacetSpec getFacetSpec() {
+        return facetSpec;
+    }
+
+    /**
+     * Set aggregations that have already been compiled
+     *
+     * @param facetSpec compiled aggregations
+     * @return this object where aggregations have been set
+     */
+    @SuppressWarnings("unchecked")
+    public T setFacetSpec(FacetSpec facetSpec) {
+        if (facetSpec != null) {
+            this.facetSpec = facetSpec;
         }
         return (T) this;
     }
@@ -155,6 +176,83 @@ public abstract class AbstractSearchBuilder<T extends AbstractSearchBuilder<T>>
         return (T) this;
     }
 
+    /**
+     * Get the response profile, never {@code null}
+     */
+    public ResponseProfile getResponseProfile() {
+        return responseProfile;
+    }
+
+    /**
+     * Set which parts of the response are returned. Builders apply its source filtering
+     * in {@link #constructSearchRequest()}, see {@link ResponseProfile#applyTo(SearchRequest.Builder)}
+     *
+     * @param responseProfile a response profile
+     * @return this object where the response profile has been set
+     */
+    @SuppressWarnings("unchecked")
+    public T setResponseProfile(ResponseProfile responseProfile) {
+        if (responseProfile != null) {
+            this.responseProfile = responseProfile;
+        }
+        return (T) this;
+    }
+
+    /**
+     * Get the cursor to page from, or {@code null} if paging with from and size
+     */
+    @Nullable
+    public Cursor getCursor() {
+        return cursor;
+    }
+
+    /**
+     * Set a cursor to page from. The point in time of the cursor decides which indices are searched,
+     * and from (offset) is not used.
+     *
+     * @param cursor a cursor, or {@code null} to page with from and size
+     * @return this object where the cursor has been set
+     */
+    @SuppressWarnings("unchecked")
+    public T setCursor(@Nullable Cursor cursor) {
+        this.cursor = cursor;
+        return (T) this;
+    }
+
+    /**
+     * Open a point in time on the indices of this service, or on all indices if none are set
+     *
+     * @return a cursor for the first page
+     * @throws IOException if the point in time could not be opened
+     */
+    @Override
+    public Cursor openCursor() throws IOException {
+        List<String> index = isNeitherNullNorEmpty(indices) ? List.of(indices) : List.of("_all");
+        return Cursor.start(client.openPointInTime(o -> o.index(index)
+                .keepAlive(k -> k.time(Cursor.KEEP_ALIVE))).id());
+    }
+
+    /**
+     * Set the indices, unless a cursor is set, since a point in time search must not name indices
+     */
+    protected void applyIndices(SearchRequest.Builder searchRequest) {
+        if (cursor == null && isNeitherNullNorEmpty(getIndices())) {
+            searchRequest.index(List.of(getIndices()));
+        }
+    }
+
+    /**
+     * Set the page to get, from the cursor if set, and otherwise with from and size
+     */
+    protected void applyPaging(SearchRequest.Builder searchRequest) {
+        if (cursor != null) {
+            cursor.applyTo(searchRequest);
+        } else {
+            searchRequest.from(getFrom());
+        }
+        searchRequest.size(getSize());
+    }
+
     public String getIndexToBoost() {
         return indexToBoost;
     }
@@ -298,6 +396,14 @@ public abstract class AbstractSearchBuilder<T extends AbstractSearchBuilder<T>>
         return (T) this;
     }
 
+    /**
+     * Search builders are deterministic by default. Builders that randomize the request must override this.
+     */
+    @Override
+    public boolean isCacheable() {
+        return true;
+    }
+
     /**
      * Get all documents based on the service settings.
      *
@@ -333,6 +439,7 @@ public abstract class AbstractSearchBuilder<T extends AbstractSearchBuilder<T>>
         jsonObj = jsonObj.put("indices",  getIndices() == null || getIndices().length == 0   ?  "" : Arrays.toString(getIndices()))
                 .put("from", getFrom())
                 .put("size", getSize())
+                .put("profile", getResponseProfile().toString())
                 .put("aggregations", getAggregations() == null ? "" : getAggregations());
 
         return jsonObj.toString();
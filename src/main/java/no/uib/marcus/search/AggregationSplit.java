@@ -0,0 +1,154 @@
+package no.uib.marcus.search;
+
+import co.elastic.clients.elasticsearch.core.SearchRequest;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.json.JsonMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import jakarta.annotation.Nullable;
+import no.uib.marcus.client.RequestBody;
+import no.uib.marcus.common.Settings;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+
+/**
+ * A search split in two requests that are sent in parallel: one for the hits, without aggregations, and one for the
+ * aggregations, with {@code size: 0}. Going to page 2 or changing the sort does not change the aggregations, so
+ * their request stays the same and is answered from the shard request cache ({@code request_cache=true}), and
+ * from the Blackbox response cache under a key without from, size and sort, see
+ * {@link no.uib.marcus.common.SearchParameters#aggregationFingerprint()}. The two responses are merged into the
+ * response of a single search.
+ * <p>
+ * Enabled with {@code BLACKBOX_SPLIT_AGGREGATIONS=true}.
+ */
+public final class AggregationSplit {
+    private static final JsonMapper jsonMapper = new JsonMapper();
+    private static final boolean ENABLED = Settings.getBoolean("BLACKBOX_SPLIT_AGGREGATIONS", false);
+    private static final String AGGREGATIONS = "aggregations";
+    //Parts of a search that only affect the hits
+    private static final List<String> HITS_ONLY = List.of("from", "size", "sort", "highlight", "_source",
+            "post_filter", "indices_boost", "search_after", "track_scores", "stored_fields", "docvalue_fields");
+
+    private final byte[] hitsBody;
+    private final byte[] aggregationsBody;
+
+    private AggregationSplit(byte[] hitsBody, byte[] aggregationsBody) {
+        this.hitsBody = hitsBody;
+        this.aggregationsBody = aggregationsBody;
+    }
+
+    /**
+     * Whether searches with aggregations are split, read once from the settings
+     */
+    public static boolean isEnabled() {
+        return ENABLED;
+    }
+
+    /**
+     * Split a search request with aggregations
+     *
+     * @param searchRequest a search request from a search builder
+     */
+    public static AggregationSplit of(SearchRequest searchRequest) throws IOException {
+        ObjectNode hits;
+        try (RequestBody body = RequestBody.of(searchRequest, false)) {
+            hits = (ObjectNode) jsonMapper.readTree(body.toByteArray());
+        }
+        ObjectNode aggregations = hits.deepCopy();
+        hits.remove(List.of(AGGREGATIONS, "aggs"));
+        aggregations.remove(HITS_ONLY);
+        aggregations.put("size", 0);
+        aggregations.put("track_total_hits", false);
+        return new AggregationSplit(jsonMapper.writeValueAsBytes(hits), jsonMapper.writeValueAsBytes(aggregations));
+    }
+
+    /**
+     * Get the body of the request for the hits
+     */
+    public byte[] getHitsBody() {
+        return hitsBody;
+    }
+
+    /**
+     * Get the body of the request for the aggregations
+     */
+    public byte[] getAggregationsBody() {
+        return aggregationsBody;
+    }
+
+    /**
+     * Get the URL parameters of the request for the aggregations: the shard request cache, and the
+     * aggregation part of the {@code filter_path} of the search, if any
+     *
+     * @param parameters the URL parameters of the search, can be {@code null}
+     */
+    public static Map<String, String> aggregationParameters(@Nullable Map<String, String> parameters) {
+        Map<String, String> result = new HashMap<>();
+        result.put("request_cache", "true");
+        String filterPath = parameters == null ? null : parameters.get("filter_path");
+        if (filterPath != null) {
+            String aggregations = Arrays.stream(filterPath.split(","))
+                    .filter(path -> path.startsWith(AGGREGATIONS))
+                    .collect(Collectors.joining(","));
+            result.put("filter_path", "timed_out" + (aggregations.isEmpty() ? "" : "," + aggregations));
+        }
+        return result;
+    }
+
+    /**
+     * Read the aggregations from the response of the aggregation request
+     *
+     * @param body a response body
+     * @return the aggregations, or {@code null} if the search timed out on a shard, since they may be incomplete
+     */
+    @Nullable
+    public static byte[] aggregationsOf(byte[] body) throws IOException {
+        JsonNode response = jsonMapper.readTree(body);
+        if (response.path("timed_out").asBoolean()) {
+            return null;
+        }
+        JsonNode aggregations = response.get(AGGREGATIONS);
+        return aggregations == null ? new byte[0] : jsonMapper.writeValueAsBytes(aggregations);
+    }
+
+    /**
+     * Put aggregations into the response for the hits, so the result looks like the response of one search.
+     * The hits are not parsed, the aggregations are added at the end of the response object.
+     *
+     * @param hits         the body of the response for the hits
+     * @param aggregations aggregations from {@link #aggregationsOf(byte[])}, {@code null} if they timed out,
+     *                     empty if there are none
+     */
+    public static byte[] merge(byte[] hits, @Nullable byte[] aggregations) throws IOException {
+        if (aggregations == null) {
+            //Rare, so the hits are parsed to mark the whole response as timed out, which keeps it out of the cache
+            ObjectNode response = (ObjectNode) jsonMapper.readTree(hits);
+            response.put("timed_out", true);
+            return jsonMapper.writeValueAsBytes(response);
+        }
+        int end = hits.length - 1;
+        while (end >= 0 && Character.isWhitespace(hits[end])) {
+            end--;
+        }
+        if (aggregations.length == 0 || end < 0 || hits[end] != '}') {
+            return hits;
+        }
+        int last = end - 1;
+        while (last >= 0 && Character.isWhitespace(hits[last])) {
+            last--;
+        }
+        ByteArrayOutputStream out = new ByteArrayOutputStream(end + aggregations.length + 32);
+        out.write(hits, 0, end);
+        out.write((last >= 0 && hits[last] == '{' ? "" : ",").getBytes(StandardCharsets.UTF_8));
+        out.write(("\"" + AGGREGATIONS + "\":").getBytes(StandardCharsets.UTF_8));
+        out.write(aggregations);
+        out.write('}');
+        return out.toByteArray();
+    }
+}
@@ -0,0 +1,200 @@
+package no.uib.marcus.search;
+
+import co.elastic.clients.elasticsearch._types.FieldValue;
+import co.elastic.clients.elasticsearch.core.SearchRequest;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.json.JsonMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import jakarta.annotation.Nullable;
+import no.uib.marcus.common.util.StringUtils;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.List;
+import java.util.regex.Pattern;
+
+/**
+ * A position in the results of a search, for paging with a point in time and {@code search_after} instead of
+ * {@code from}. Every page costs the same however deep it is, since shards only collect the next {@code size}
+ * documents after the sort values of the last hit, and the point in time keeps the results stable between pages.
+ * <p>
+ * Clients see cursors as opaque strings: {@code cursor=*} opens a point in time and gives the first page, and the
+ * next page is asked for with the cursor of the previous response. A point in time is kept for
+ * {@link #KEEP_ALIVE} after each page, and expires if the client stops paging.
+ * <p>
+ * A cursor may also carry the variant of a query that is otherwise picked at random, see
+ * {@link MarcusSearchBuilder#setRandomPicture(int)}, so that every page is scored the same way.
+ */
+public final class Cursor {
+    /**
+     * The cursor parameter that starts paging
+     */
+    public static final String START = "*";
+    public static final String KEEP_ALIVE = "2m";
+    private static final JsonMapper jsonMapper = new JsonMapper();
+    private static final Pattern HIT_SORT = Pattern.compile("/hits/hits/\\d+/sort");
+
+    private final String pitId;
+    //Sort values of the last hit of the previous page, empty for the first page
+    private final ArrayNode searchAfter;
+    //-1 if the query has no variants
+    private final int variant;
+
+    private Cursor(String pitId, ArrayNode searchAfter, int variant) {
+        this.pitId = pitId;
+        this.searchAfter = searchAfter;
+        this.variant = variant;
+    }
+
+    /**
+     * Get a cursor for the first page of a point in time
+     */
+    public static Cursor start(String pitId) {
+        return new Cursor(pitId, jsonMapper.createArrayNode(), -1);
+    }
+
+    /**
+     * Decode a cursor sent by a client
+     *
+     * @throws IllegalParameterException if the cursor was not made by {@link #encode()}
+     */
+    public static Cursor decode(String cursor) {
+        try {
+            JsonNode node = jsonMapper.readTree(Base64.getUrlDecoder().decode(cursor));
+            JsonNode pit = node == null ? null : node.get("pit");
+            JsonNode after = node == null ? null : node.get("after");
+            if (pit == null || !StringUtils.hasText(pit.asText()) || !(after instanceof ArrayNode array)) {
+                throw new IllegalParameterException("Invalid cursor");
+            }
+            JsonNode variant = node.get("variant");
+            return new Cursor(pit.asText(), array, variant != null && variant.canConvertToInt() ? variant.asInt() : -1);
+        } catch (IllegalArgumentException | IOException e) {
+            throw new IllegalParameterException("Invalid cursor", e);
+        }
+    }
+
+    /**
+     * Get the cursor for the page after a search response, or {@code null} if it was the last page,
+     * i.e. it had fewer hits than asked for
+     *
+     * @param body the body of a response to a search with a cursor
+     * @param size the number of hits that was asked for
+     * @throws IOException if the body can not be read
+     */
+    @Nullable
+    public static Cursor next(InputStream body, int size) throws IOException {
+        String pitId = null;
+        ArrayNode last = null;
+        int hits = 0;
+        try (JsonParser parser = jsonMapper.createParser(body)) {
+            JsonToken token;
+            while ((token = parser.nextToken()) != null) {
+                if (token != JsonToken.FIELD_NAME) {
+                    continue;
+                }
+                String name = parser.currentName();
+                if ("pit_id".equals(name) && parser.getParsingContext().getParent().inRoot()) {
+                    parser.nextToken();
+                    pitId = parser.getValueAsString();
+                } else if ("sort".equals(name) && HIT_SORT.matcher(parser.getParsingContext().pathAsPointer().toString()).matches()
+                        && parser.nextToken() == JsonToken.START_ARRAY) {
+                    last = jsonMapper.readTree(parser);
+                    hits++;
+                } else if ("_source".equals(name) || "aggregations".equals(name) || "highlight".equals(name)) {
+                    parser.nextToken();
+                    parser.skipChildren();
+                }
+            }
+        }
+        if (pitId == null || last == null || size <= 0 || hits < size) {
+            return null;
+        }
+        return new Cursor(pitId, last, -1);
+    }
+
+    /**
+     * Encode this cursor for a client, as URL-safe base64
+     */
+    public String encode() {
+        ObjectNode node = jsonMapper.createObjectNode();
+        node.put("pit", pitId);
+        node.set("after", searchAfter);
+        if (variant >= 0) {
+            node.put("variant", variant);
+        }
+        try {
+            return Base64.getUrlEncoder().withoutPadding().encodeToString(jsonMapper.writeValueAsBytes(node));
+        } catch (IOException e) {
+            //Not expected for a tree
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Search the point in time from this position. The request must not name indices, and Elasticsearch
+     * adds a tiebreaker to the sort by itself.
+     */
+    public SearchRequest.Builder applyTo(SearchRequest.Builder searchRequest) {
+        searchRequest.pit(p -> p.id(pitId).keepAlive(k -> k.time(KEEP_ALIVE)));
+        if (!searchAfter.isEmpty()) {
+            searchRequest.searchAfter(getSearchAfter());
+        }
+        return searchRequest;
+    }
+
+    public String getPitId() {
+        return pitId;
+    }
+
+    /**
+     * Get the variant of the query to search every page with, or -1 if there is none
+     */
+    public int getVariant() {
+        return variant;
+    }
+
+    /**
+     * Get the same position with a variant of the query
+     */
+    public Cursor withVariant(int variant) {
+        return new Cursor(pitId, searchAfter, variant);
+    }
+
+    /**
+     * Get the sort values to search after, empty for the first page
+     */
+    public List<FieldValue> getSearchAfter() {
+        List<FieldValue> values = new ArrayList<>(searchAfter.size());
+        for (JsonNode value : searchAfter) {
+            values.add(toFieldValue(value));
+        }
+        return values;
+    }
+
+    private static FieldValue toFieldValue(JsonNode value) {
+        if (value.isIntegralNumber()) {
+            //unsigned_long values may not fit in a long
+            return value.canConvertToLong() ? FieldValue.of(value.longValue()) : FieldValue.of(value.asText());
+        }
+        if (value.isNumber()) {
+            return FieldValue.of(value.doubleValue());
+        }
+        if (value.isBoolean()) {
+            return FieldValue.of(value.booleanValue());
+        }
+        if (value.isNull()) {
+            return FieldValue.NULL;
+        }
+        return FieldValue.of(value.asText());
+    }
+
+    @Override
+    public String toString() {
+        return encode();
+    }
+}
@@ -21,8 +21,11 @@ import java.util.logging.Logger;
 
 import no.uib.marcus.common.util.StringUtils;
 
+import jakarta.annotation.Nullable;
 import jakarta.validation.constraints.NotNull;
 
+import java.io.IOException;
+
 
 /**
  * Builder for Marcus search service
@@ -37,7 +40,7 @@ public class MarcusSearchBuilder extends AbstractSearchBuilder<MarcusSearchBuild
 
     //A list of images that will be randomly
     // loaded at the front page on page load if nothing is specified
-    private final String[] randomPictures = {
+    private static final String[] randomPictures = {
             "Knud Knudsen",
             "Postkort",
             "Marcus Selmer",
@@ -49,10 +52,11 @@ public class MarcusSearchBuilder extends AbstractSearchBuilder<MarcusSearchBuild
     private static final String TYPE = "type";
     private static final int TRACK_HINT_SIZE = 500000;
 
-  private final TrackHits trackHits = new TrackHits.Builder().count(TRACK_HINT_SIZE).build();
-
+    private final TrackHits trackHits = new TrackHits.Builder().count(TRACK_HINT_SIZE).build();
+    //The random picture to boost without a query string, -1 to pick one for every request
+    private int randomPicture = -1;
 
-  /**
+    /**
      * Build Marcus search service
      *
      * @param client Elasticsearch client to communicate with a cluster.
@@ -69,96 +73,137 @@ public class MarcusSearchBuilder extends AbstractSearchBuilder<MarcusSearchBuild
         return SignatureUtils.appendWildcardIfUBBSignature(super.getQueryString());
     }
 
+    /**
+     * Get the number of random pictures that requests without a query string can boost
+     */
+    public static int getRandomPictureCount() {
+        return randomPictures.length;
+    }
+
+    /**
+     * Boost a given random picture instead of picking one, e.g. to compute every variant of the front page
+     *
+     * @param randomPicture an index below {@link #getRandomPictureCount()}, or -1 to pick one for every request
+     * @return this builder where the random picture has been set
+     */
+    public MarcusSearchBuilder setRandomPicture(int randomPicture) {
+        if (randomPicture >= -1 && randomPicture < randomPictures.length) {
+            this.randomPicture = randomPicture;
+        }
+        return this;
+    }
+
+    /**
+     * Requests without a query string boost a random picture, and are therefore not cacheable,
+     * unless the picture has been set
+     */
+    @Override
+    public boolean isCacheable() {
+        return StringUtils.hasText(getQueryString()) || randomPicture >= 0;
+    }
+
+    /**
+     * Open a point in time with a random picture that every page boosts, since search_after only works on
+     * results that are scored the same way on every page
+     */
+    @Override
+    public Cursor openCursor() throws IOException {
+        return super.openCursor().withVariant(randomPicture >= 0
+                ? randomPicture : ThreadLocalRandom.current().nextInt(randomPictures.length));
+    }
+
+    /**
+     * Set a cursor, and boost the random picture of its first page
+     */
+    @Override
+    public MarcusSearchBuilder setCursor(@Nullable Cursor cursor) {
+        if (cursor != null && cursor.getVariant() >= 0) {
+            setRandomPicture(cursor.getVariant());
+        }
+        return super.setCursor(cursor);
+    }
+
     /**
      * Construct the search request based on the service settings.
      */
     @Override
     public SearchRequest.Builder constructSearchRequest() {
-            Query query;
-            FunctionScoreQuery.Builder functionScoreQueryBuilder;
-            SearchRequest.Builder searchRequest = new SearchRequest.Builder();
-
-            try {
-                //Set indices
-                if (isNeitherNullNorEmpty(getIndices())) {
-                    searchRequest.index(List.of(getIndices()));
-                }
-
-                //Set from and size
-                searchRequest.from(getFrom());
-                searchRequest.size(getSize());
-
-              searchRequest.trackTotalHits(trackHits);
-              //Bound query execution time and per-shard collection so a single slow/expensive
-              //query can't tie up a shard (H1)
-              searchRequest.timeout(Params.SEARCH_TIMEOUT);
-              searchRequest.terminateAfter(Params.TERMINATE_AFTER);
-
-
-              FunctionScore fotoFs = new FunctionScore.Builder().filter(QueryBuilders.term().value(BoostType.FOTOGRAFI).field(TYPE).build()._toQuery()).weight(3.0).build();
-
-              //Set query
-                if (StringUtils.hasText(getQueryString())) {
-                    //Use query_string query with AND operator
-                    functionScoreQueryBuilder = QueryBuilders.functionScore().query(QueryUtils.buildMarcusQueryString(getQueryString()).build()._toQuery());
-                } else {
-                    //Boost documents inside the "random list" of places because they beautify the front page.
-                    //This is just for coolness, and it has no effect if the query yields no results
-                    String randomQueryString = randomPictures[ThreadLocalRandom.current().nextInt(randomPictures.length)];
-                    functionScoreQueryBuilder = QueryBuilders.functionScore().query(QueryBuilders.matchAll().build()._toQuery()).functions(
-                            List.of(fotoFs,new FunctionScore.Builder().filter(QueryBuilders.simpleQueryString().query(randomQueryString).build()._toQuery()).weight(2.0).build()));
-                }
-                 query = functionScoreQueryBuilder.functions(List.of(fotoFs)).build()._toQuery();
-                //Set the filtered query with top_filter
-                if (getFilter() != null) {
-
-                  logger.fine("setting filter");
-                  BoolQuery filterQuery = getFilter();
-                  logger.log(Level.FINE, "sizes: {0}", filterQuery.filter().size());
-                  searchRequest
-                      .query(QueryBuilders.bool().must(query)
-                          .filter(List.of(filterQuery._toQuery())).build()._toQuery());
-                } else {
-                    searchRequest.query(query);
-                }
-                //Set post filter if available
-                if (getPostFilter() != null) {
-                  logger.log(Level.FINE, "postfilter hasClauses: {0}", getPostFilter().hasClauses());
-                  searchRequest.postFilter(getPostFilter());
-                }
-                //Set index to boost
-                if (getIndexToBoost() != null) {
-                    searchRequest.indicesBoost(NamedValue.of(getIndexToBoost(), 5.0));
-                }
-
-
-                //Set options
-                if (getSortBuilder() != null) {
-                    searchRequest.sort(List.of(getSortBuilder().build()));
-                }
-                //Append aggregations to the request builder
-                if (StringUtils.hasText(getAggregations())) {
-                    AggregationUtils.addAggregations(searchRequest, getAggregations(), getSelectedFacets());
-                }
-
-
-
-            } catch (Exception e) {
-                throw new RuntimeException("Marcus search query builder exception:", e);
+        Query query;
+        FunctionScoreQuery.Builder functionScoreQueryBuilder;
+        SearchRequest.Builder searchRequest = new SearchRequest.Builder();
+
+        try {
+            //Set indices
+            applyIndices(searchRequest);
+
+            //Set from and size, or the cursor
+            applyPaging(searchRequest);
+            getResponseProfile().applyTo(searchRequest);
+
+            searchRequest.trackTotalHits(trackHits);
+            //Bound query execution time and per-shard collection so a single slow/expensive
+            //query can't tie up a shard (H1)
+            searchRequest.timeout(Params.SEARCH_TIMEOUT);
+            searchRequest.terminateAfter(Params.TERMINATE_AFTER);
+
+            FunctionScore fotoFs = new FunctionScore.Builder().filter(QueryBuilders.term().value(BoostType.FOTOGRAFI).field(TYPE).build()._toQuery()).weight(3.0).build();
+
+            //Set query
+            if (StringUtils.hasText(getQueryString())) {
+                //Use query_string query with AND operator
+                functionScoreQueryBuilder = QueryBuilders.functionScore().query(QueryUtils.buildMarcusQueryString(getQueryString()).build()._toQuery());
+            } else {
+                //Boost documents inside the "random list" of places because they beautify the front page.
+                //This is just for coolness, and it has no effect if the query yields no results
+                String randomQueryString = randomPictures[randomPicture >= 0
+                        ? randomPicture : ThreadLocalRandom.current().nextInt(randomPictures.length)];
+                functionScoreQueryBuilder = QueryBuilders.functionScore().query(QueryBuilders.matchAll().build()._toQuery()).functions(
+                        List.of(fotoFs, new FunctionScore.Builder().filter(QueryBuilders.simpleQueryString().query(randomQueryString).build()._toQuery()).weight(2.0).build()));
+            }
+            query = functionScoreQueryBuilder.functions(List.of(fotoFs)).build()._toQuery();
+            //Set the filtered query with top_filter
+            if (getFilter() != null) {
+                logger.fine("setting filter");
+                BoolQuery filterQuery = getFilter();
+                logger.log(Level.FINE, "sizes: {0}", filterQuery.filter().size());
+                searchRequest.query(QueryBuilders.bool().must(query)
+                        .filter(List.of(filterQuery._toQuery())).build()._toQuery());
+            } else {
+                searchRequest.query(query);
+            }
+            //Set post filter if available
+            if (getPostFilter() != null) {
+                logger.log(Level.FINE, "postfilter hasClauses: {0}", getPostFilter().hasClauses());
+                searchRequest.postFilter(getPostFilter());
+            }
+            //Set index to boost
+            if (getIndexToBoost() != null) {
+                searchRequest.indicesBoost(NamedValue.of(getIndexToBoost(), 5.0));
             }
-            return searchRequest;
 
-   // Type to be boosted if nothing is specified
+            //Set options
+            if (getSortBuilder() != null) {
+                searchRequest.sort(List.of(getSortBuilder().build()));
+            }
+            //Append aggregations to the request builder
+            if (!getFacetSpec().isEmpty()) {
+                AggregationUtils.addAggregations(searchRequest, getFacetSpec(), getSelectedFacets());
+            }
+        } catch (Exception e) {
+            throw new RuntimeException("Marcus search query builder exception:", e);
+        }
+        return searchRequest;
+    }
 
-}
-  static class BoostType {
-    static final String FOTOGRAFI = "fotografi";
-    // why english, should it use "nummer" instead?
-    static final String ISSUE = "issue";
+    /**
+     * Type to be boosted if nothing is specified
+     */
+    static class BoostType {
+        static final String FOTOGRAFI = "fotografi";
+        // why english, should it use "nummer" instead?
+        static final String ISSUE = "issue";
 
-    private BoostType() {
+        private BoostType() {
+        }
     }
-  }
-
 }
-
@@ -0,0 +1,276 @@
+package no.uib.marcus.search;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.json.JsonMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import jakarta.annotation.Nullable;
+import no.uib.marcus.common.Settings;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.logging.Logger;
+
+/**
+ * A batch of searches that are sent to Elasticsearch as one {@code _msearch} request, so a page that needs
+ * several searches (hits, facet panels, counts for other tabs) pays for one round trip instead of one each.
+ * <p>
+ * Each search is given with the parameters of "/search", as a JSON object. The responses come back in the
+ * order of the searches, as {@code {"responses":[...]}}, and a search that is invalid or fails gets an error
+ * in its place without failing the others. At most {@code BLACKBOX_MSEARCH_MAX_SEARCHES} (default 10)
+ * searches are accepted in a batch.
+ */
+public final class MultiSearch {
+    private static final Logger logger = Logger.getLogger(MultiSearch.class.getName());
+    private static final JsonMapper jsonMapper = new JsonMapper();
+    private static final int DEFAULT_MAX_SEARCHES = 10;
+    //Kept in every response, so that errors of single searches are not filtered away
+    private static final String ITEM_FILTER_PATH = "responses.status,responses.error";
+
+    private final List<Item> items = new ArrayList<>();
+
+    /**
+     * Get the maximum number of searches in a batch from the settings
+     */
+    public static int maxSearches() {
+        return Math.max(1, Settings.getInt("BLACKBOX_MSEARCH_MAX_SEARCHES", DEFAULT_MAX_SEARCHES));
+    }
+
+    /**
+     * Read the searches of a batch, each a JSON object of "/search" parameters. A value can be a string, a number,
+     * a boolean or an array of these for repeated parameters such as {@code index} and {@code filter}, and
+     * {@code aggs} can also be given as JSON rather than a string.
+     *
+     * @param body        a JSON array of searches, or an object with the array in {@code searches}
+     * @param maxSearches the maximum number of searches
+     * @return the parameter map of each search in order, {@code null} for a search that is not a JSON object
+     * @throws IllegalParameterException if the body is not a batch of searches, or has too many
+     */
+    public static List<Map<String, String[]>> parse(InputStream body, int maxSearches) {
+        JsonNode root;
+        try {
+            root = jsonMapper.readTree(body);
+        } catch (IOException e) {
+            throw new IllegalParameterException("Invalid JSON in batch", e);
+        }
+        JsonNode searches = root != null && root.isObject() ? root.get("searches") : root;
+        if (searches == null || !searches.isArray() || searches.isEmpty()) {
+            throw new IllegalParameterException("Expected a non-empty JSON array of searches");
+        }
+        if (searches.size() > maxSearches) {
+            throw new IllegalParameterException("A batch can have at most " + maxSearches + " searches");
+        }
+        List<Map<String, String[]>> result = new ArrayList<>(searches.size());
+        for (JsonNode search : searches) {
+            result.add(search.isObject() ? toParameterMap(search) : null);
+        }
+        return result;
+    }
+
+    /**
+     * Turn one search into a servlet-style parameter map
+     */
+    private static Map<String, String[]> toParameterMap(JsonNode search) {
+        Map<String, String[]> parameters = new LinkedHashMap<>();
+        for (Map.Entry<String, JsonNode> field : search.properties()) {
+            JsonNode value = field.getValue();
+            if (value.isArray()) {
+                List<String> values = new ArrayList<>(value.size());
+                for (JsonNode element : value) {
+                    values.add(element.isValueNode() ? element.asText() : element.toString());
+                }
+                //A JSON array of aggregations is one value, not repeated ones
+                parameters.put(field.getKey(), "aggs".equals(field.getKey())
+                        ? new String[]{value.toString()} : values.toArray(String[]::new));
+            } else if (!value.isNull()) {
+                parameters.put(field.getKey(), new String[]{value.isValueNode() ? value.asText() : value.toString()});
+            }
+        }
+        return parameters;
+    }
+
+    /**
+     * Add a search to send
+     *
+     * @param indices    indices to search, all indices if empty
+     * @param body       the serialized search request
+     * @param filterPath the {@code filter_path} of the search, {@code null} for the whole response
+     */
+    public MultiSearch add(String[] indices, byte[] body, @Nullable String filterPath) {
+        items.add(new Item(String.join(",", indices), body, filterPath, 0, null));
+        return this;
+    }
+
+    /**
+     * Add a search that will not be sent, since it is invalid, and answer it with an error
+     *
+     * @param status  the status of the error, e.g. 400
+     * @param message the error message for the client
+     */
+    public MultiSearch addError(int status, String message) {
+        items.add(new Item(null, null, null, status, message));
+        return this;
+    }
+
+    /**
+     * Get the number of searches in the batch
+     */
+    public int size() {
+        return items.size();
+    }
+
+    /**
+     * Get the number of searches to send to Elasticsearch, i.e. the valid ones
+     */
+    public int sent() {
+        return (int) items.stream().filter(Item::isSent).count();
+    }
+
+    /**
+     * Get the body of the {@code _msearch} request: a header line and a body line for every valid search
+     */
+    public byte[] toNdjson() throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(1024 * items.size());
+        for (Item item : items) {
+            if (!item.isSent()) {
+                continue;
+            }
+            ObjectNode header = jsonMapper.createObjectNode();
+            if (!item.indices().isEmpty()) {
+                header.put("index", item.indices());
+            }
+            jsonMapper.writeValue(out, header);
+            out.write('\n');
+            //Compact JSON has no line breaks, they are escaped in strings
+            out.write(item.body());
+            out.write('\n');
+        }
+        return out.toByteArray();
+    }
+
+    /**
+     * Get the URL parameters of the {@code _msearch} request, or {@code null} if there are none. Elasticsearch
+     * filters the whole batch at once, so a response profile is only applied when all searches share it.
+     */
+    @Nullable
+    public Map<String, String> getParameters() {
+        List<String> filterPaths = items.stream().filter(Item::isSent).map(Item::filterPath).distinct().toList();
+        if (filterPaths.size() != 1 || filterPaths.getFirst() == null) {
+            return null;
+        }
+        StringBuilder filterPath = new StringBuilder(ITEM_FILTER_PATH);
+        for (String path : filterPaths.getFirst().split(",")) {
+            filterPath.append(",responses.").append(path);
+        }
+        return Map.of("filter_path", filterPath.toString());
+    }
+
+    /**
+     * Write the responses of the batch, reading the {@code _msearch} response one search at a time and
+     * flushing after each, so the first results reach the client while the rest are being written.
+     * Errors from Elasticsearch are logged and replaced by a generic error, so its internals are not leaked.
+     *
+     * @param responses the body of a successful {@code _msearch} response, {@code null} if none were sent
+     * @param out       where the responses are written
+     */
+    public void writeResponses(@Nullable InputStream responses, OutputStream out) throws IOException {
+        try (JsonGenerator generator = jsonMapper.createGenerator(out);
+             JsonParser parser = responses == null ? null : jsonMapper.createParser(responses)) {
+            boolean found = parser != null && toResponses(parser);
+            generator.writeStartObject();
+            generator.writeArrayFieldStart("responses");
+            for (Item item : items) {
+                if (!item.isSent()) {
+                    writeError(generator, item.status(), item.message());
+                } else if (found && parser.nextToken() == JsonToken.START_OBJECT) {
+                    writeResponse(generator, jsonMapper.readTree(parser));
+                } else {
+                    //Not expected, Elasticsearch answers every search
+                    found = false;
+                    writeError(generator, 500, "Search request failed");
+                }
+                generator.flush();
+            }
+            generator.writeEndArray();
+            generator.writeEndObject();
+        }
+    }
+
+    /**
+     * Write the batch when the {@code _msearch} request itself failed: every search that was sent gets the error
+     *
+     * @param status  the status of the error, e.g. 504 if the request timed out
+     * @param message the error message for the client
+     */
+    public void writeFailure(int status, String message, OutputStream out) throws IOException {
+        List<Item> failed = new ArrayList<>(items.size());
+        for (Item item : items) {
+            failed.add(item.isSent() ? new Item(null, null, null, status, message) : item);
+        }
+        items.clear();
+        items.addAll(failed);
+        writeResponses(null, out);
+    }
+
+    /**
+     * Move the parser to the start of the "responses" array
+     *
+     * @return false if the response has no such array
+     */
+    private static boolean toResponses(JsonParser parser) throws IOException {
+        if (parser.nextToken() != JsonToken.START_OBJECT) {
+            return false;
+        }
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String name = parser.currentName();
+            JsonToken value = parser.nextToken();
+            if ("responses".equals(name) && value == JsonToken.START_ARRAY) {
+                return true;
+            }
+            parser.skipChildren();
+        }
+        return false;
+    }
+
+    private static void writeResponse(JsonGenerator generator, JsonNode response) throws IOException {
+        JsonNode error = response.get("error");
+        if (error == null) {
+            generator.writeTree(response);
+            return;
+        }
+        int status = response.path("status").asInt(500);
+        logger.warning("ES returned " + status + " for a search in a batch: " + error);
+        writeError(generator, status, status == 400 ? "Invalid search request" : "Search request failed");
+    }
+
+    private static void writeError(JsonGenerator generator, int status, String message) throws IOException {
+        generator.writeStartObject();
+        generator.writeStringField("error", message);
+        generator.writeNumberField("status", status);
+        generator.writeEndObject();
+    }
+
+    /**
+     * A search of the batch: either one to send, or an error for one that is not sent
+     */
+    private record Item(@Nullable String indices, @Nullable byte[] body, @Nullable String filterPath,
+                        int status, @Nullable String message) {
+        boolean isSent() {
+            return body != null;
+        }
+
+        @Override
+        public String indices() {
+            return Objects.requireNonNullElse(indices, "");
+        }
+    }
+}
@@ -29,6 +29,14 @@ public class NaturenSearchBuilder extends MarcusSearchBuilder {
         super(client);
     }
 
+    /**
+     * Naturen replaces the randomized front page query of Marcus, so it is always cacheable
+     */
+    @Override
+    public boolean isCacheable() {
+        return true;
+    }
+
     @Override
     public SearchRequest.Builder constructSearchRequest() {
         Query query;
@@ -0,0 +1,172 @@
+package no.uib.marcus.search;
+
+import co.elastic.clients.elasticsearch.core.SearchRequest;
+import co.elastic.clients.elasticsearch.core.search.SourceConfig;
+import jakarta.annotation.Nullable;
+import no.uib.marcus.common.ServiceName;
+import no.uib.marcus.common.Settings;
+import no.uib.marcus.common.util.StringUtils;
+
+import java.util.Arrays;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+/**
+ * Which parts of a search response are sent back, chosen with the {@code profile} parameter. Profiles trim the
+ * response in Elasticsearch (with {@code filter_path} and {@code _source} filtering), so less is transferred and
+ * parsed all the way to the browser:
+ * <ul>
+ *     <li>{@code full}: the whole response, the default</li>
+ *     <li>{@code list}: totals, the {@code _id} and {@code _source} of each hit, highlights, and the keys and counts
+ *     of aggregation buckets. No {@code _shards}, {@code _index} or {@code _score}. The source fields can be set per
+ *     service with {@code BLACKBOX_PROFILE_LIST_INCLUDES_<SERVICE>} and {@code BLACKBOX_PROFILE_LIST_EXCLUDES_<SERVICE>},
+ *     e.g. Naturen leaves out {@code textContent}.</li>
+ *     <li>{@code ids}: totals, the {@code _id} of each hit and the aggregation buckets, without sources</li>
+ * </ul>
+ * The {@code fields} parameter replaces the source fields of {@code full} and {@code list}. Each field must be in the
+ * allowlist of the service, {@code BLACKBOX_FIELDS_<SERVICE>}.
+ */
+public final class ResponseProfile {
+    public static final String FULL = "full";
+    public static final String LIST = "list";
+    public static final String IDS = "ids";
+    static final String BUCKETS_FILTER_PATH = "aggregations.**.key,aggregations.**.key_as_string,aggregations.**.doc_count";
+    //The point in time and sort values are kept for cursors, see Cursor
+    static final String LIST_FILTER_PATH = "took,timed_out,pit_id,hits.total,hits.hits._id,hits.hits._source,"
+            + "hits.hits.highlight,hits.hits.sort," + BUCKETS_FILTER_PATH;
+    static final String IDS_FILTER_PATH = "took,timed_out,pit_id,hits.total,hits.hits._id,hits.hits.sort,"
+            + BUCKETS_FILTER_PATH;
+    private static final String DEFAULT_FIELDS = "identifier,label,type,subject,available,created,madeAfter,madeBefore";
+    private static final Map<ServiceName, Set<String>> allowedFields = new EnumMap<>(ServiceName.class);
+    private static final Map<ServiceName, List<String>> listIncludes = new EnumMap<>(ServiceName.class);
+    private static final Map<ServiceName, List<String>> listExcludes = new EnumMap<>(ServiceName.class);
+    private static final ResponseProfile DEFAULT = new ResponseProfile(FULL, null, true, List.of(), List.of());
+
+    static {
+        for (ServiceName service : ServiceName.values()) {
+            String defaultExcludes = service == ServiceName.NATUREN ? "textContent" : "";
+            allowedFields.put(service, Set.copyOf(split(Settings.get("BLACKBOX_FIELDS_" + service.name(), DEFAULT_FIELDS))));
+            listIncludes.put(service, split(Settings.get("BLACKBOX_PROFILE_LIST_INCLUDES_" + service.name(), "")));
+            listExcludes.put(service, split(Settings.get("BLACKBOX_PROFILE_LIST_EXCLUDES_" + service.name(), defaultExcludes)));
+        }
+    }
+
+    private final String name;
+    @Nullable
+    private final String filterPath;
+    private final boolean fetchSource;
+    private final List<String> includes;
+    private final List<String> excludes;
+
+    private ResponseProfile(String name, @Nullable String filterPath, boolean fetchSource,
+                            List<String> includes, List<String> excludes) {
+        this.name = name;
+        this.filterPath = filterPath;
+        this.fetchSource = fetchSource;
+        this.includes = includes;
+        this.excludes = excludes;
+    }
+
+    /**
+     * Get the {@code full} profile, which leaves the response as it is
+     */
+    public static ResponseProfile defaultProfile() {
+        return DEFAULT;
+    }
+
+    /**
+     * Get a profile for a service
+     *
+     * @param service a service
+     * @param name    a profile name, {@code null} for {@code full}
+     * @param fields  source fields asked for by the client, can be empty
+     * @throws IllegalParameterException if the profile is not known, or a field is not allowed
+     */
+    public static ResponseProfile of(ServiceName service, @Nullable String name, List<String> fields) {
+        String profile = StringUtils.hasText(name) ? name.trim().toLowerCase(Locale.ROOT) : FULL;
+        for (String field : fields) {
+            if (!allowedFields.get(service).contains(field)) {
+                throw new IllegalParameterException("Field [" + field + "] is not allowed for " + service.name()
+                        + ", expected one of " + allowedFields.get(service).stream().sorted().toList());
+            }
+        }
+        switch (profile) {
+            case FULL -> {
+                return fields.isEmpty() ? DEFAULT : new ResponseProfile(FULL, null, true, List.copyOf(fields), List.of());
+            }
+            case LIST -> {
+                List<String> includes = fields.isEmpty() ? listIncludes.get(service) : List.copyOf(fields);
+                return new ResponseProfile(LIST, LIST_FILTER_PATH, true, includes, listExcludes.get(service));
+            }
+            case IDS -> {
+                if (!fields.isEmpty()) {
+                    throw new IllegalParameterException("Fields can not be used with profile [" + IDS + "]");
+                }
+                return new ResponseProfile(IDS, IDS_FILTER_PATH, false, List.of(), List.of());
+            }
+            default -> throw new IllegalParameterException("Unknown profile [" + name + "], expected one of "
+                    + List.of(FULL, LIST, IDS));
+        }
+    }
+
+    /**
+     * Set the source filtering of this profile on a search request
+     */
+    public SearchRequest.Builder applyTo(SearchRequest.Builder searchRequest) {
+        if (!fetchSource) {
+            searchRequest.source(SourceConfig.of(sc -> sc.fetch(false)));
+        } else if (!includes.isEmpty() || !excludes.isEmpty()) {
+            searchRequest.source(SourceConfig.of(sc -> sc.filter(f -> {
+                if (!includes.isEmpty()) {
+                    f.includes(includes);
+                }
+                if (!excludes.isEmpty()) {
+                    f.excludes(excludes);
+                }
+                return f;
+            })));
+        }
+        return searchRequest;
+    }
+
+    /**
+     * Get the URL parameters of this profile, i.e. {@code filter_path}, or {@code null} if there are none
+     */
+    @Nullable
+    public Map<String, String> getParameters() {
+        return filterPath == null ? null : Map.of("filter_path", filterPath);
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    @Nullable
+    public String getFilterPath() {
+        return filterPath;
+    }
+
+    public List<String> getIncludes() {
+        return includes;
+    }
+
+    public List<String> getExcludes() {
+        return excludes;
+    }
+
+    private static List<String> split(String value) {
+        return Arrays.stream(value.split(","))
+                .map(String::trim)
+                .filter(StringUtils::hasText)
+                .collect(Collectors.toUnmodifiableList());
+    }
+
+    @Override
+    public String toString() {
+        return name + (includes.isEmpty() ? "" : " " + includes);
+    }
+}
@@ -9,9 +9,11 @@ import co.elastic.clients.elasticsearch._types.SortOptions;
 import co.elastic.clients.util.ObjectBuilder;
 import jakarta.annotation.Nullable;
 import jakarta.validation.constraints.NotNull;
+import no.uib.marcus.facet.FacetSpec;
 
 import com.fasterxml.jackson.databind.node.ObjectNode;
 
+import java.io.IOException;
 import java.util.List;
 import java.util.Map;
 
@@ -66,6 +68,11 @@ public interface SearchBuilder<S> {
      */
     S setAggregations(@Nullable String aggs);
 
+    /**
+     * Sets aggregations that have already been compiled, so that they are not parsed again
+     */
+    S setFacetSpec(FacetSpec facetSpec);
+
 
     /**
      * Sets selected facets for this search builder.
@@ -91,6 +98,30 @@ public interface SearchBuilder<S> {
      */
     S setFilter(BoolQuery filter);
 
+    /**
+     * Sets which parts of the response are returned, default to the whole response
+     */
+    S setResponseProfile(ResponseProfile responseProfile);
+
+    /**
+     * Sets a position to page from with a point in time instead of from (offset), default to <code>null</code>
+     *
+     * @param cursor a cursor from {@link #openCursor()} or a previous response
+     */
+    S setCursor(@Nullable Cursor cursor);
+
+    /**
+     * Open a point in time on the indices of the service, for paging with cursors
+     *
+     * @return a cursor for the first page
+     */
+    Cursor openCursor() throws IOException;
+
+
+    /**
+     * Whether the same settings always construct the same search request, so that responses can be cached
+     */
+    boolean isCacheable();
 
     /**
      * Construct the search request based on the service settings
@@ -10,7 +10,6 @@ import no.uib.marcus.common.util.AggregationUtils;
 import no.uib.marcus.common.util.QueryUtils;
 import no.uib.marcus.common.util.SignatureUtils;
 
-import java.util.Arrays;
 import java.util.List;
 import java.util.logging.Logger;
 
@@ -53,9 +52,7 @@ public class WabSearchBuilder extends AbstractSearchBuilder<WabSearchBuilder> {
         SearchRequest.Builder searchRequest = new SearchRequest.Builder();
         try {
             //Set indices
-            if (isNeitherNullNorEmpty(getIndices())) {
-                searchRequest.index(Arrays.asList(getIndices()));
-            }
+            applyIndices(searchRequest);
 
 
             //Set query
@@ -85,15 +82,15 @@ public class WabSearchBuilder extends AbstractSearchBuilder<WabSearchBuilder> {
                 searchRequest.sort(List.of(getSortBuilder().build()));
             }
             //Append aggregations to the request builder
-            if (StringUtils.hasText(getAggregations())) {
+            if (!getFacetSpec().isEmpty()) {
                 logger.fine("adding aggregations");
-                searchRequest = AggregationUtils.addAggregations(searchRequest, getAggregations(), getSelectedFacets());
+                searchRequest = AggregationUtils.addAggregations(searchRequest, getFacetSpec(), getSelectedFacets());
             }
 
-            //Set from and size
-            searchRequest.from(getFrom());
-            searchRequest.size(getSize());
+            //Set from and size, or the cursor
+            applyPaging(searchRequest);
 
+            getResponseProfile().applyTo(searchRequest);
             searchRequest.trackTotalHits(trackHits);
             //Bound query execution time and per-shard collection so a single slow/expensive
             //query can't tie up a shard (H1)
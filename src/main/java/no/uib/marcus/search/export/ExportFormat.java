@@ -0,0 +1,139 @@
+package no.uib.marcus.search.export;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.json.JsonMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import jakarta.annotation.Nullable;
+import no.uib.marcus.common.util.StringUtils;
+import no.uib.marcus.search.IllegalParameterException;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Formats of exported documents. Each hit becomes one record: a JSON line with the {@code _id} and the source
+ * fields for {@code ndjson}, or a row of the given fields for {@code csv}.
+ */
+public enum ExportFormat {
+    NDJSON("application/x-ndjson;charset=UTF-8", "ndjson"),
+    CSV("text/csv;charset=UTF-8", "csv");
+
+    private static final JsonMapper jsonMapper = new JsonMapper();
+    //Values of array fields in one CSV cell
+    private static final String CSV_ARRAY_SEPARATOR = "|";
+
+    private final String contentType;
+    private final String extension;
+
+    ExportFormat(String contentType, String extension) {
+        this.contentType = contentType;
+        this.extension = extension;
+    }
+
+    /**
+     * Get a format from its name, default to {@code ndjson}
+     *
+     * @throws IllegalParameterException if the format is not known
+     */
+    public static ExportFormat of(@Nullable String name) {
+        if (!StringUtils.hasText(name)) {
+            return NDJSON;
+        }
+        try {
+            return valueOf(name.trim().toUpperCase(Locale.ROOT));
+        } catch (IllegalArgumentException e) {
+            throw new IllegalParameterException("Unknown format [" + name + "], expected ndjson or csv");
+        }
+    }
+
+    public String getContentType() {
+        return contentType;
+    }
+
+    public String getExtension() {
+        return extension;
+    }
+
+    /**
+     * Get what comes before the records, the header row for CSV
+     *
+     * @param fields exported fields
+     */
+    public byte[] header(List<String> fields) {
+        if (this != CSV) {
+            return new byte[0];
+        }
+        StringBuilder row = new StringBuilder("_id");
+        for (String field : fields) {
+            row.append(',').append(escape(field));
+        }
+        return row.append("\r\n").toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Write a hit as one record
+     *
+     * @param hit    a hit with {@code _id} and {@code _source}
+     * @param fields exported fields, all source fields for {@code ndjson} if empty
+     * @param out    where the record is written
+     */
+    public void write(JsonNode hit, List<String> fields, ByteArrayOutputStream out) throws IOException {
+        JsonNode source = hit.path("_source");
+        if (this == NDJSON) {
+            ObjectNode record = jsonMapper.createObjectNode();
+            record.set("_id", hit.get("_id"));
+            if (source.isObject()) {
+                record.setAll((ObjectNode) source);
+            }
+            jsonMapper.writeValue(out, record);
+            out.write('\n');
+            return;
+        }
+        StringBuilder row = new StringBuilder(escape(hit.path("_id").asText()));
+        for (String field : fields) {
+            row.append(',').append(escape(cell(value(source, field))));
+        }
+        out.write(row.append("\r\n").toString().getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Get a source field, also a nested one such as "madeBy.label"
+     */
+    private static JsonNode value(JsonNode source, String field) {
+        JsonNode value = source.get(field);
+        if (value == null && field.indexOf('.') > 0) {
+            value = source.at("/" + field.replace('.', '/'));
+        }
+        return value;
+    }
+
+    private static String cell(@Nullable JsonNode value) {
+        if (value == null || value.isMissingNode() || value.isNull()) {
+            return "";
+        }
+        if (value.isArray()) {
+            StringBuilder cell = new StringBuilder();
+            for (JsonNode element : value) {
+                if (!cell.isEmpty()) {
+                    cell.append(CSV_ARRAY_SEPARATOR);
+                }
+                cell.append(element.isValueNode() ? element.asText() : element.toString());
+            }
+            return cell.toString();
+        }
+        return value.isValueNode() ? value.asText() : value.toString();
+    }
+
+    /**
+     * Quote a CSV value if needed, see RFC 4180
+     */
+    static String escape(String value) {
+        if (value.indexOf(',') < 0 && value.indexOf('"') < 0 && value.indexOf('\n') < 0 && value.indexOf('\r') < 0) {
+            return value;
+        }
+        return '"' + value.replace("\"", "\"\"") + '"';
+    }
+}
@@ -0,0 +1,320 @@
+package no.uib.marcus.search.export;
+
+import co.elastic.clients.elasticsearch.core.SearchRequest;
+import co.elastic.clients.json.jackson.JacksonJsonpGenerator;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.json.JsonMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.fasterxml.jackson.databind.util.TokenBuffer;
+import jakarta.annotation.Nullable;
+import no.uib.marcus.client.LowLevelClient;
+import no.uib.marcus.client.RawResponse;
+import no.uib.marcus.client.RequestBody;
+import no.uib.marcus.common.Settings;
+import no.uib.marcus.metrics.MetricWriter;
+import no.uib.marcus.metrics.Metrics;
+import no.uib.marcus.search.Cursor;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.logging.Logger;
+
+/**
+ * Exports every document of a search by scanning a point in time in parallel slices. Each slice pages with
+ * {@code search_after} on its own virtual thread, and hands every page, already formatted, to the calling thread,
+ * which writes it to the client as soon as it arrives.
+ * <p>
+ * At most two pages per slice wait to be written, so memory is bounded by the page size, and a slow client slows
+ * down the scan instead of filling the heap. Documents come out in no particular order. Slices and page size are set
+ * with {@code BLACKBOX_EXPORT_SLICES} (default the number of processors, at most 8) and
+ * {@code BLACKBOX_EXPORT_PAGE_SIZE} (default 1000).
+ */
+public final class SlicedExport {
+    private static final Logger logger = Logger.getLogger(SlicedExport.class.getName());
+    private static final JsonMapper jsonMapper = new JsonMapper();
+    private static final Map<String, String> PAGE_FILTER_PATH =
+            Map.of("filter_path", "pit_id,timed_out,_shards.failed,hits.hits._id,hits.hits._source,hits.hits.sort");
+    //Marks the end of a slice in the queue of pages
+    private static final byte[] END = new byte[0];
+    private static final int DEFAULT_PAGE_SIZE = 1000;
+    private static final long OFFER_MILLIS = 200;
+    private static final LongAdder running = new LongAdder();
+    private static final LongAdder exported = new LongAdder();
+
+    static {
+        Metrics.register(SlicedExport::writeMetrics);
+    }
+
+    private final LowLevelClient client;
+    private final ObjectNode request;
+    private final String pitId;
+    private final int slices;
+    private final int pageSize;
+    private final ExportFormat format;
+    private final List<String> fields;
+
+    /**
+     * @param client   a client to send the pages with
+     * @param request  a search request from {@link #prepare(SearchRequest, int, List)}
+     * @param pitId    an open point in time
+     * @param slices   the number of slices to scan in parallel
+     * @param format   the format of the records
+     * @param fields   exported fields, all source fields if empty
+     */
+    public SlicedExport(LowLevelClient client, ObjectNode request, String pitId, int slices,
+                        ExportFormat format, List<String> fields) {
+        this.client = client;
+        this.request = request;
+        this.pitId = pitId;
+        this.slices = Math.max(1, slices);
+        this.pageSize = request.path("size").asInt(DEFAULT_PAGE_SIZE);
+        this.format = format;
+        this.fields = List.copyOf(fields);
+    }
+
+    /**
+     * Get the number of slices from the settings
+     */
+    public static int defaultSlices() {
+        return Math.max(1, Settings.getInt("BLACKBOX_EXPORT_SLICES",
+                Math.min(8, Runtime.getRuntime().availableProcessors())));
+    }
+
+    /**
+     * Get the number of documents per page from the settings
+     */
+    public static int defaultPageSize() {
+        return Math.max(1, Settings.getInt("BLACKBOX_EXPORT_PAGE_SIZE", DEFAULT_PAGE_SIZE));
+    }
+
+    /**
+     * Turn a search request into the request for every page: no aggregations, highlighting or total count,
+     * sorted in index order (which is cheapest), and only the exported fields. Timeouts and early termination are
+     * dropped too, they would end the export with only part of the documents.
+     *
+     * @param searchRequest a search request from a search builder
+     * @param pageSize      documents per page
+     * @param fields        exported fields, all source fields if empty
+     */
+    public static ObjectNode prepare(SearchRequest searchRequest, int pageSize, List<String> fields) throws IOException {
+        //Serialized straight into a tree, no need for JSON text that would only be parsed again
+        TokenBuffer tokens = TokenBuffer.forGeneration();
+        searchRequest.serialize(new JacksonJsonpGenerator(tokens), RequestBody.jsonpMapper());
+        ObjectNode request = jsonMapper.readTree(tokens.asParser(jsonMapper));
+        request.remove(List.of("from", "aggregations", "aggs", "highlight", "pit", "search_after", "sort",
+                "timeout", "terminate_after"));
+        request.put("size", pageSize);
+        request.put("track_total_hits", false);
+        request.putArray("sort").addObject().put("_shard_doc", "asc");
+        if (!fields.isEmpty()) {
+            ArrayNode includes = request.putObject("_source").putArray("includes");
+            fields.forEach(includes::add);
+        }
+        return request;
+    }
+
+    /**
+     * Scan all slices and write the records to a stream. Returns when every slice is done, or throws when a slice
+     * failed or the stream could not be written to, in which case the other slices are stopped.
+     *
+     * @param out where the records are written, usually the response
+     * @return the number of exported documents
+     * @throws IOException if a page could not be read from Elasticsearch or written to the stream
+     */
+    public long run(OutputStream out) throws IOException {
+        BlockingQueue<byte[]> pages = new ArrayBlockingQueue<>(slices * 2);
+        AtomicBoolean stopped = new AtomicBoolean();
+        AtomicReference<Exception> failure = new AtomicReference<>();
+        LongAdder documents = new LongAdder();
+        running.increment();
+        try (ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor()) {
+            for (int slice = 0; slice < slices; slice++) {
+                int id = slice;
+                executor.execute(() -> {
+                    try {
+                        scan(id, pages, stopped, documents);
+                    } catch (Exception e) {
+                        failure.compareAndSet(null, e);
+                        stopped.set(true);
+                    } finally {
+                        offer(pages, END, stopped);
+                    }
+                });
+            }
+            try {
+                out.write(format.header(fields));
+                int done = 0;
+                while (done < slices && !stopped.get()) {
+                    byte[] page = pages.poll(OFFER_MILLIS, TimeUnit.MILLISECONDS);
+                    if (page == END) {
+                        done++;
+                    } else if (page != null) {
+                        out.write(page);
+                        out.flush();
+                    }
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Export was interrupted");
+            } finally {
+                //Let slices that wait to hand over a page, or have a page on the way, give up
+                stopped.set(true);
+                pages.clear();
+            }
+        } finally {
+            running.decrement();
+        }
+        Exception e = failure.get();
+        if (e != null) {
+            throw e instanceof IOException io ? io : new IOException("Export failed", e);
+        }
+        long count = documents.sum();
+        exported.add(count);
+        return count;
+    }
+
+    /**
+     * Page through one slice until it is done or the export is stopped
+     */
+    private void scan(int slice, BlockingQueue<byte[]> pages, AtomicBoolean stopped, LongAdder documents)
+            throws IOException {
+        String pit = pitId;
+        JsonNode searchAfter = null;
+        while (!stopped.get()) {
+            ObjectNode page = request.deepCopy();
+            if (slices > 1) {
+                page.putObject("slice").put("id", slice).put("max", slices);
+            }
+            page.putObject("pit").put("id", pit).put("keep_alive", Cursor.KEEP_ALIVE);
+            if (searchAfter != null) {
+                page.set("search_after", searchAfter);
+            }
+            RawResponse response = client.perform("POST", LowLevelClient.searchEndpoint(), PAGE_FILTER_PATH,
+                    jsonMapper.writeValueAsBytes(page));
+            if (!response.isSuccessful()) {
+                logger.warning("Export of slice " + slice + " failed with status " + response.status() + ": "
+                        + new String(response.decodedBody(), StandardCharsets.UTF_8));
+                throw new IOException("Elasticsearch responded with status " + response.status());
+            }
+            Page result = read(response);
+            if (result.count() > 0) {
+                documents.add(result.count());
+                if (!offer(pages, result.records(), stopped)) {
+                    return;
+                }
+            }
+            if (result.count() < pageSize || result.lastSort() == null) {
+                return;
+            }
+            searchAfter = result.lastSort();
+            if (result.pitId() != null) {
+                pit = result.pitId();
+            }
+        }
+    }
+
+    /**
+     * Read the hits of a page into formatted records, streaming through the response
+     *
+     * @throws IOException if the page timed out or some shards failed, since it may miss documents
+     */
+    private Page read(RawResponse response) throws IOException {
+        ByteArrayOutputStream records = new ByteArrayOutputStream(pageSize * 256);
+        String pit = null;
+        JsonNode lastSort = null;
+        int count = 0;
+        boolean timedOut = false;
+        int failedShards = 0;
+        try (JsonParser parser = jsonMapper.createParser(response.openBody())) {
+            JsonToken token;
+            while ((token = parser.nextToken()) != null) {
+                if (token != JsonToken.FIELD_NAME) {
+                    continue;
+                }
+                String name = parser.currentName();
+                if ("pit_id".equals(name)) {
+                    parser.nextToken();
+                    pit = parser.getValueAsString();
+                } else if ("timed_out".equals(name)) {
+                    parser.nextToken();
+                    timedOut = parser.getValueAsBoolean();
+                } else if ("_shards".equals(name) && parser.nextToken() == JsonToken.START_OBJECT) {
+                    failedShards = jsonMapper.readTree(parser).path("failed").asInt();
+                } else if ("hits".equals(name) && parser.nextToken() == JsonToken.START_ARRAY) {
+                    while (parser.nextToken() == JsonToken.START_OBJECT) {
+                        JsonNode hit = jsonMapper.readTree(parser);
+                        format.write(hit, fields, records);
+                        lastSort = hit.get("sort");
+                        count++;
+                    }
+                }
+            }
+        }
+        if (timedOut || failedShards > 0) {
+            throw new IOException("Export page is incomplete, timed out: " + timedOut
+                    + ", failed shards: " + failedShards);
+        }
+        return new Page(records.toByteArray(), count, lastSort, pit);
+    }
+
+    /**
+     * Hand a page over to the writing thread, waiting while the queue is full
+     *
+     * @return false if the export was stopped first
+     */
+    private static boolean offer(BlockingQueue<byte[]> pages, byte[] page, AtomicBoolean stopped) {
+        try {
+            while (!stopped.get()) {
+                if (pages.offer(page, OFFER_MILLIS, TimeUnit.MILLISECONDS)) {
+                    return true;
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        return false;
+    }
+
+    /**
+     * Get the number of exports running now
+     */
+    public static long getRunning() {
+        return running.sum();
+    }
+
+    /**
+     * Get the number of documents in completed exports
+     */
+    public static long getExported() {
+        return exported.sum();
+    }
+
+    /**
+     * Write the metrics of all exports, see {@link Metrics}
+     */
+    private static void writeMetrics(MetricWriter out) throws IOException {
+        out.header("blackbox_exports_running", "gauge", "Exports running now");
+        out.sample("blackbox_exports_running", running.sum());
+        out.header("blackbox_export_documents_total", "counter", "Documents in completed exports");
+        out.sample("blackbox_export_documents_total", exported.sum());
+    }
+
+    private record Page(byte[] records, int count, @Nullable JsonNode lastSort, @Nullable String pitId) {
+    }
+}
@@ -0,0 +1,164 @@
+package no.uib.marcus.search.suggestion;
+
+import com.fasterxml.jackson.databind.JsonNode;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.TreeSet;
+
+/**
+ * An immutable, in-memory index of the completion inputs of one Elasticsearch index.
+ * <p>
+ * Inputs are kept in three parallel arrays sorted by their lower-cased text, so all completions of a prefix
+ * are one contiguous range found by a binary search. Within the range the inputs with the highest weight win,
+ * as with the completion suggester, and ties are broken by text.
+ */
+final class CompletionIndex {
+    private static final Comparator<Input> BY_WEIGHT_THEN_TEXT = Comparator
+            .comparingInt(Input::weight)
+            .thenComparing(Input::text, Comparator.reverseOrder());
+
+    private final String[] keys;
+    private final String[] texts;
+    private final int[] weights;
+
+    private CompletionIndex(String[] keys, String[] texts, int[] weights) {
+        this.keys = keys;
+        this.texts = texts;
+        this.weights = weights;
+    }
+
+    /**
+     * Build an index from completion inputs. Repeated texts are kept once, with their highest weight.
+     */
+    static CompletionIndex of(Collection<Input> inputs) {
+        Map<String, Input> unique = new HashMap<>(inputs.size() * 2);
+        for (Input input : inputs) {
+            unique.merge(input.text(), input, (a, b) -> a.weight() >= b.weight() ? a : b);
+        }
+        Keyed[] sorted = unique.values().stream()
+                .map(input -> new Keyed(input.text().toLowerCase(Locale.ROOT), input))
+                .sorted(Comparator.comparing(Keyed::key).thenComparing(keyed -> keyed.input().text()))
+                .toArray(Keyed[]::new);
+        String[] keys = new String[sorted.length];
+        String[] texts = new String[sorted.length];
+        int[] weights = new int[sorted.length];
+        for (int i = 0; i < sorted.length; i++) {
+            keys[i] = sorted[i].key();
+            texts[i] = sorted[i].input().text();
+            weights[i] = sorted[i].input().weight();
+        }
+        return new CompletionIndex(keys, texts, weights);
+    }
+
+    /**
+     * Get the completions of a text from one or more indices
+     *
+     * @param text    a prefix, matched case-insensitively
+     * @param size    the maximum number of completions
+     * @param indices indices to look in
+     * @return a sorted set of at most {@code size} completions
+     */
+    static Set<String> suggest(String text, int size, Collection<CompletionIndex> indices) {
+        Set<String> suggestions = new TreeSet<>();
+        if (size <= 0) {
+            return suggestions;
+        }
+        String prefix = text.toLowerCase(Locale.ROOT);
+        //The lowest ranked of the best inputs so far is at the head
+        PriorityQueue<Input> best = new PriorityQueue<>(size + 1, BY_WEIGHT_THEN_TEXT);
+        for (CompletionIndex index : indices) {
+            index.collect(prefix, size, best);
+        }
+        for (Input input : best) {
+            suggestions.add(input.text());
+        }
+        return suggestions;
+    }
+
+    private void collect(String prefix, int size, PriorityQueue<Input> best) {
+        int from = Arrays.binarySearch(keys, prefix);
+        if (from < 0) {
+            from = -from - 1;
+        }
+        for (int i = from; i < keys.length && keys[i].startsWith(prefix); i++) {
+            if ((best.size() < size || outranks(i, best.peek())) && !contains(best, texts[i])) {
+                if (best.size() == size) {
+                    best.poll();
+                }
+                best.add(new Input(texts[i], weights[i]));
+            }
+        }
+    }
+
+    private boolean outranks(int i, Input lowest) {
+        return weights[i] > lowest.weight()
+                || (weights[i] == lowest.weight() && texts[i].compareTo(lowest.text()) < 0);
+    }
+
+    //The same text may come from several indices
+    private static boolean contains(PriorityQueue<Input> best, String text) {
+        for (Input input : best) {
+            if (input.text().equals(text)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Get the number of distinct inputs
+     */
+    int size() {
+        return keys.length;
+    }
+
+    /**
+     * Collect the inputs of a completion field value from a document source. The value can be a string,
+     * an object with "input" and an optional "weight", or an array of either.
+     */
+    static void addInputs(JsonNode value, List<Input> inputs) {
+        if (value == null || value.isNull()) {
+            return;
+        }
+        if (value.isArray()) {
+            for (JsonNode element : value) {
+                addInputs(element, inputs);
+            }
+        } else if (value.isTextual()) {
+            addInput(value.asText(), 1, inputs);
+        } else if (value.isObject()) {
+            JsonNode input = value.get("input");
+            int weight = value.path("weight").asInt(1);
+            if (input != null && input.isArray()) {
+                for (JsonNode element : input) {
+                    addInput(element.asText(), weight, inputs);
+                }
+            } else if (input != null) {
+                addInput(input.asText(), weight, inputs);
+            }
+        }
+    }
+
+    private static void addInput(String text, int weight, List<Input> inputs) {
+        if (!text.isBlank()) {
+            inputs.add(new Input(text, weight));
+        }
+    }
+
+    /**
+     * A completion input and its weight
+     */
+    record Input(String text, int weight) {
+    }
+
+    private record Keyed(String key, Input input) {
+    }
+}
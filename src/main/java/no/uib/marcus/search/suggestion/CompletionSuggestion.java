@@ -1,19 +1,25 @@
 package no.uib.marcus.search.suggestion;
 
-import co.elastic.clients.elasticsearch.ElasticsearchClient;
-import co.elastic.clients.elasticsearch.core.SearchResponse;
 import co.elastic.clients.elasticsearch.core.search.*;
 
-import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
 
 import java.util.logging.Level;
+import no.uib.marcus.cache.SuggestionCache;
 import no.uib.marcus.client.ElasticsearchClientFactory;
+import no.uib.marcus.client.LowLevelClient;
+import no.uib.marcus.client.RawResponse;
+import no.uib.marcus.client.RequestBody;
 import co.elastic.clients.elasticsearch.core.SearchRequest.Builder;
 
 import jakarta.annotation.Nullable;
 import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.util.logging.Logger;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
 
 /**
  * A class for handling Completion suggestion (auto-suggestion).
@@ -25,65 +31,143 @@ public class CompletionSuggestion {
 
     private static final Logger logger = Logger.getLogger(CompletionSuggestion.class.getName());
     private static final String SUGGEST_FIELD = "suggest";
+    private static final SuggestionCache suggestionCache = SuggestionCache.getDefault();
+    private static final LocalCompletionIndex localIndex = LocalCompletionIndex.getDefault();
+    private static final JsonFactory jsonFactory = new JsonFactory();
+    //Only the option texts are sent back, see toSuggestionTexts
+    private static final Map<String, String> TEXTS_ONLY = Map.of("filter_path", "suggest." + SUGGEST_FIELD + ".options.text");
 
   // Private constructor to prevent instantiation
    private CompletionSuggestion() {
     throw new IllegalStateException("Utility class");
   }
 
-    /**A method to get a list of suggestions.
+    /**A method to get a list of suggestions from the local completion index or the suggestion cache.
      * @param text input text
      * @param size Sets the maximum suggestions to be returned per suggest text term.
      * @param indices array of one or more setIndices, can be <code>null</code>
-     * @return a set of suggestion texts.
+     * @return a set of suggestion texts, or <code>null</code> if Elasticsearch must be asked.
      **/
-    public static Set<String> getSuggestions(String text, int size, @Nullable String... indices) {
-        Set<String> suggestValues = new HashSet<>();
-        try {
-            SearchResponse<ObjectNode> suggestResponse = getSuggestionResponse(text, size, indices);
-            List<Suggestion<ObjectNode>> suggestions = suggestResponse.suggest().get(SUGGEST_FIELD);
-
-            //Add each option(value) to a set to ensure no repetition
-            for ( Suggestion<ObjectNode> suggestion : suggestions) {
-              List<CompletionSuggestOption<ObjectNode>> options = suggestion.completion().options();
-              for (CompletionSuggestOption<ObjectNode> option : options) {
-                logger.log(Level.FINE,"completion: {0}", option.text());
-                suggestValues.add(option.text());
-              }
-            }
-        } catch (Exception e) {
-            logger.severe("Unable to perform suggestion for text: [" + text + "]. Message: " + e.getLocalizedMessage()) ;
+    @Nullable
+    public static Set<String> getSuggestionsFromMemory(String text, int size, @Nullable String... indices) {
+        Set<String> local = localIndex.suggest(text, size, indices);
+        if (local != null) {
+            return local;
         }
-        //We want suggestion values to be sorted, hence we put them in a tree set
-        return new TreeSet<>(suggestValues);
+        return suggestionCache.get(text, size, indices);
     }
 
-    /**A method to get a list of suggestions.
+    /**A method to get a list of suggestions from Elasticsearch, and cache them.
      * @param text input text
      * @param size Sets the maximum suggestions to be returned per suggest text term.
      * @param indices array of one or more setIndices, can be <code>null</code>
-     * @return a suggestion response.
+     * @return a set of suggestion texts, empty if Elasticsearch rejected the request.
+     * @throws IOException if Elasticsearch could not be reached or responded with a server error
      **/
-    public static SearchResponse<ObjectNode> getSuggestionResponse(String text, int size, @Nullable String... indices) throws IOException {
+    public static Set<String> searchSuggestions(String text, int size, @Nullable String... indices) throws IOException {
+        RawResponse response = ElasticsearchClientFactory.getLowLevelClient().perform("POST",
+                LowLevelClient.searchEndpointForPatterns(indices), TEXTS_ONLY, RequestBody.of(buildSuggestionRequest(text, size).build(), false));
+        return readSuggestions(response, text, size, indices);
+    }
+
+    /**A method to get a list of suggestions from Elasticsearch without blocking the calling thread, and cache them.
+     * @param text input text
+     * @param size Sets the maximum suggestions to be returned per suggest text term.
+     * @param indices array of one or more setIndices, can be <code>null</code>
+     * @return a future set of suggestion texts, empty if Elasticsearch rejected the request, completed exceptionally
+     * if Elasticsearch could not be reached or responded with a server error.
+     **/
+    public static CompletableFuture<Set<String>> searchSuggestionsAsync(String text, int size, @Nullable String... indices) {
+        CompletableFuture<RawResponse> future;
+        try {
+            future = ElasticsearchClientFactory.getLowLevelClient().performAsync("POST",
+                    LowLevelClient.searchEndpointForPatterns(indices), TEXTS_ONLY, RequestBody.of(buildSuggestionRequest(text, size).build(), false));
+        } catch (IOException | IllegalArgumentException e) {
+            return CompletableFuture.failedFuture(e);
+        }
+        return future.thenApply(response -> {
+            try {
+                return readSuggestions(response, text, size, indices);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        });
+    }
+
+    /**
+     * Read and cache the suggestions in a response. A request that Elasticsearch rejects, e.g. without a text,
+     * gives no suggestions, as it always has, and is not cached.
+     * @throws IOException if Elasticsearch responded with a server error, or the response is not valid JSON
+     */
+    private static Set<String> readSuggestions(RawResponse response, String text, int size,
+                                               @Nullable String... indices) throws IOException {
+        if (!response.isSuccessful() && !response.isServerError()) {
+            logger.warning("Suggestion for text: [" + text + "] was rejected with status " + response.status());
+            return new TreeSet<>();
+        }
+        Set<String> suggestions = toSuggestionTexts(response);
+        suggestionCache.put(text, size, indices, suggestions);
+        return suggestions;
+    }
+
+    /**
+     * Pull the option texts out of a raw suggestion response, without building a response object
+     * @return a sorted set of suggestion texts.
+     * @throws IOException if Elasticsearch responded with an error, or the response is not valid JSON
+     */
+    static Set<String> toSuggestionTexts(RawResponse response) throws IOException {
+        if (!response.isSuccessful()) {
+            throw new IOException("Elasticsearch responded with status " + response.status());
+        }
+        //We want suggestion values to be sorted and without repetition, hence we put them in a tree set
+        Set<String> suggestValues = new TreeSet<>();
+        try (JsonParser parser = jsonFactory.createParser(response.openBody())) {
+            JsonToken token;
+            while ((token = parser.nextToken()) != null) {
+                if (token == JsonToken.FIELD_NAME && "options".equals(parser.currentName())
+                        && parser.nextToken() == JsonToken.START_ARRAY) {
+                    while (parser.nextToken() == JsonToken.START_OBJECT) {
+                        addOptionText(parser, suggestValues);
+                    }
+                }
+            }
+        }
+        return suggestValues;
+    }
+
+    /**
+     * Read one option object, the parser is at its start
+     */
+    private static void addOptionText(JsonParser parser, Set<String> suggestValues) throws IOException {
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String field = parser.currentName();
+            if (parser.nextToken() == JsonToken.VALUE_STRING && "text".equals(field)) {
+                suggestValues.add(parser.getText());
+            } else {
+                parser.skipChildren();
+            }
+        }
+    }
+
+    /**
+     * Build a completion suggestion request, without hits or sources. Indices are left to the caller,
+     * since the raw request puts them in the endpoint.
+     */
+    private static Builder buildSuggestionRequest(String text, int size) {
         Map<String, FieldSuggester> map = new HashMap<>();
         map.put(SUGGEST_FIELD,FieldSuggester.of(fs -> fs
             .completion(cs -> cs.skipDuplicates(true)
                 .size(size)
                 .field(SUGGEST_FIELD)
                 .analyzer("keyword"))));
-        logger.log(Level.FINE, "getSuggestionResponse: {0}", map);
+        logger.log(Level.FINE, "buildSuggestionRequest: {0}", map);
 
         Suggester suggester = Suggester.of(sf -> sf.suggesters(map).text(text));
         Builder builder = new Builder();
         builder.suggest(suggester);
-        ElasticsearchClient client = ElasticsearchClientFactory.getElasticsearchClient();
-        if (indices != null && indices.length > 0) {
-            builder.index(List.of(indices));
-        }
         builder.size(0);
-        SearchResponse<ObjectNode> response = client.search(builder.build(), ObjectNode.class);
-        logger.log(Level.FINE, "getSuggestionResponse: {0}", response.suggest().get(SUGGEST_FIELD));
-        return response;
+        builder.source(SourceConfig.of(sc -> sc.fetch(false)));
+        return builder;
     }
 
 }
@@ -0,0 +1,244 @@
+package no.uib.marcus.search.suggestion;
+
+import co.elastic.clients.elasticsearch.ElasticsearchClient;
+import co.elastic.clients.elasticsearch._types.FieldValue;
+import co.elastic.clients.elasticsearch.core.SearchResponse;
+import co.elastic.clients.elasticsearch.core.search.Hit;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import no.uib.marcus.client.ElasticsearchClientFactory;
+import no.uib.marcus.common.Settings;
+import no.uib.marcus.common.util.StringUtils;
+import no.uib.marcus.metrics.MetricWriter;
+import no.uib.marcus.metrics.Metrics;
+
+import jakarta.annotation.Nullable;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Completion suggestions answered from memory, without asking Elasticsearch.
+ * <p>
+ * The inputs of the "suggest" field of each configured index are read with a point in time and {@code search_after},
+ * and kept in a sorted {@link CompletionIndex}. Indices are read when the application starts and then
+ * refreshed in the background; a failed refresh keeps the previous index, so suggestions keep working while
+ * the cluster is degraded. Until an index has been read, suggestions for it come from Elasticsearch.
+ * <p>
+ * Enabled by listing the indices in {@code BLACKBOX_SUGGEST_LOCAL_INDICES} (comma separated).
+ * Requests without indices are answered from all of them. {@code BLACKBOX_SUGGEST_LOCAL_REFRESH_SECONDS}
+ * (default 900) sets the time between refreshes.
+ */
+public final class LocalCompletionIndex {
+    private static final Logger logger = Logger.getLogger(LocalCompletionIndex.class.getName());
+    private static final String SUGGEST_FIELD = "suggest";
+    private static final String KEEP_ALIVE = "1m";
+    private static final int PAGE_SIZE = 1000;
+
+    private static final LocalCompletionIndex DEFAULT = new LocalCompletionIndex(
+            Settings.get("BLACKBOX_SUGGEST_LOCAL_INDICES", "").split(","),
+            Settings.getLong("BLACKBOX_SUGGEST_LOCAL_REFRESH_SECONDS", 900));
+
+    static {
+        Metrics.register(LocalCompletionIndex::writeMetrics);
+    }
+
+    private final List<String> indices;
+    private final long refreshSeconds;
+    private volatile Map<String, CompletionIndex> loaded = Map.of();
+    private volatile ScheduledExecutorService scheduler;
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder fallbacks = new LongAdder();
+
+    /**
+     * Create a local index
+     *
+     * @param indices        indices to read completion inputs from, none disables the local index
+     * @param refreshSeconds time between refreshes
+     */
+    public LocalCompletionIndex(String[] indices, long refreshSeconds) {
+        this.indices = Arrays.stream(indices).map(String::trim).filter(StringUtils::hasText).toList();
+        this.refreshSeconds = Math.max(1, refreshSeconds);
+    }
+
+    /**
+     * Get the local index configured from the Blackbox settings
+     */
+    public static LocalCompletionIndex getDefault() {
+        return DEFAULT;
+    }
+
+    /**
+     * Write the metrics of the shared instance, see {@link Metrics}
+     */
+    private static void writeMetrics(MetricWriter out) throws IOException {
+        if (DEFAULT.isEnabled()) {
+            out.header("blackbox_suggest_local_requests_total", "counter",
+                    "Suggestions answered from memory, or sent to Elasticsearch because an index was not read yet");
+            out.sample("blackbox_suggest_local_requests_total", "result", "hit", DEFAULT.getHits());
+            out.sample("blackbox_suggest_local_requests_total", "result", "fallback", DEFAULT.getFallbacks());
+            out.header("blackbox_suggest_local_inputs", "gauge", "Completion inputs held in memory");
+            for (Map.Entry<String, Integer> entry : DEFAULT.getSizes().entrySet()) {
+                out.sample("blackbox_suggest_local_inputs", "index", entry.getKey(), entry.getValue());
+            }
+        }
+    }
+
+    public boolean isEnabled() {
+        return !indices.isEmpty();
+    }
+
+    /**
+     * Read the indices in the background now, and then periodically. Does nothing if the local index is disabled.
+     */
+    public void start() {
+        if (!isEnabled() || scheduler != null) {
+            return;
+        }
+        scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "blackbox-suggest-refresh");
+            thread.setDaemon(true);
+            return thread;
+        });
+        scheduler.scheduleWithFixedDelay(this::refresh, 0, refreshSeconds, TimeUnit.SECONDS);
+        logger.info("Local suggestions for " + indices + ", refreshed every " + refreshSeconds + " seconds");
+    }
+
+    /**
+     * Stop refreshing
+     */
+    public void stop() {
+        ScheduledExecutorService running = scheduler;
+        if (running != null) {
+            running.shutdownNow();
+            scheduler = null;
+        }
+    }
+
+    /**
+     * Get suggestions from memory
+     *
+     * @param text    a suggest text
+     * @param size    the number of suggestions requested
+     * @param indices indices, can be {@code null} for all configured indices
+     * @return a sorted set of suggestions, or {@code null} if any of the indices is not held in memory
+     */
+    @Nullable
+    public Set<String> suggest(@Nullable String text, int size, @Nullable String... indices) {
+        if (!isEnabled() || !StringUtils.hasText(text)) {
+            return null;
+        }
+        List<String> names = indices == null || indices.length == 0 ? this.indices : Arrays.asList(indices);
+        Map<String, CompletionIndex> current = loaded;
+        List<CompletionIndex> selected = new ArrayList<>(names.size());
+        for (String name : names) {
+            CompletionIndex index = current.get(name);
+            if (index == null) {
+                fallbacks.increment();
+                return null;
+            }
+            selected.add(index);
+        }
+        hits.increment();
+        return CompletionIndex.suggest(text, size, selected);
+    }
+
+    /**
+     * Read all indices again, keeping the previous inputs of an index that could not be read
+     */
+    void refresh() {
+        for (String index : indices) {
+            try {
+                long start = System.nanoTime();
+                CompletionIndex completions = CompletionIndex.of(readInputs(index));
+                Map<String, CompletionIndex> updated = new HashMap<>(loaded);
+                updated.put(index, completions);
+                loaded = Map.copyOf(updated);
+                logger.info("Read " + completions.size() + " completion inputs from [" + index + "] in "
+                        + TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) + " ms");
+            } catch (Exception e) {
+                logger.log(Level.WARNING, "Unable to read completion inputs from [" + index + "]", e);
+            }
+        }
+    }
+
+    /**
+     * Read the completion inputs of every document in an index, a page at a time
+     */
+    private static List<CompletionIndex.Input> readInputs(String index) throws IOException {
+        ElasticsearchClient client = ElasticsearchClientFactory.getElasticsearchClient();
+        String pitId = client.openPointInTime(o -> o.index(index).keepAlive(k -> k.time(KEEP_ALIVE))).id();
+        List<CompletionIndex.Input> inputs = new ArrayList<>();
+        try {
+            List<FieldValue> searchAfter = null;
+            while (true) {
+                String id = pitId;
+                List<FieldValue> after = searchAfter;
+                SearchResponse<ObjectNode> response = client.search(s -> {
+                    s.pit(p -> p.id(id).keepAlive(k -> k.time(KEEP_ALIVE)))
+                            .size(PAGE_SIZE)
+                            .sort(so -> so.field(f -> f.field("_shard_doc")))
+                            .source(src -> src.filter(f -> f.includes(SUGGEST_FIELD)))
+                            .trackTotalHits(t -> t.enabled(false));
+                    if (after != null) {
+                        s.searchAfter(after);
+                    }
+                    return s;
+                }, ObjectNode.class);
+                List<Hit<ObjectNode>> hits = response.hits().hits();
+                for (Hit<ObjectNode> hit : hits) {
+                    if (hit.source() != null) {
+                        CompletionIndex.addInputs(hit.source().get(SUGGEST_FIELD), inputs);
+                    }
+                }
+                if (response.pitId() != null) {
+                    pitId = response.pitId();
+                }
+                if (hits.size() < PAGE_SIZE) {
+                    return inputs;
+                }
+                searchAfter = hits.get(hits.size() - 1).sort();
+            }
+        } finally {
+            String id = pitId;
+            try {
+                client.closePointInTime(c -> c.id(id));
+            } catch (IOException e) {
+                logger.fine("Unable to close point in time: " + e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Get the number of suggestions answered from memory
+     */
+    public long getHits() {
+        return hits.sum();
+    }
+
+    /**
+     * Get the number of suggestions sent to Elasticsearch because an index was not held in memory
+     */
+    public long getFallbacks() {
+        return fallbacks.sum();
+    }
+
+    /**
+     * Get the number of inputs held in memory per index
+     */
+    public Map<String, Integer> getSizes() {
+        Map<String, Integer> sizes = new HashMap<>();
+        loaded.forEach((name, index) -> sizes.put(name, index.size()));
+        return sizes;
+    }
+}
@@ -3,19 +3,22 @@ package no.uib.marcus.servlet;
 import jakarta.servlet.ServletContextEvent;
 import jakarta.servlet.ServletContextListener;
 import jakarta.servlet.annotation.WebListener;
+import no.uib.marcus.cache.CacheWarmer;
+import no.uib.marcus.cache.LandingPages;
+import no.uib.marcus.client.ClusterHealth;
 import no.uib.marcus.client.ElasticsearchClientFactory;
+import no.uib.marcus.search.suggestion.LocalCompletionIndex;
 
 @WebListener
 public class ApplicationShutdownListener implements ServletContextListener {
 
-  @Override
-  public void contextInitialized(ServletContextEvent sce) {
-    // Called when application starts or is deployed.
-  }
-
   @Override
   public void contextDestroyed(ServletContextEvent sce) {
-    // Called on shutdown or undeploy.
+    // Called on shutdown or undeploy. The background jobs are started by ClientInitializationListener.
+    LocalCompletionIndex.getDefault().stop();
+    LandingPages.getDefault().stop();
+    CacheWarmer.getDefault().stop();
+    ClusterHealth.getDefault().stop();
     ElasticsearchClientFactory.closeClient(); // Gracefully close resources here
   }
 }
@@ -0,0 +1,283 @@
+package no.uib.marcus.servlet;
+
+import jakarta.servlet.AsyncContext;
+import jakarta.servlet.AsyncEvent;
+import jakarta.servlet.AsyncListener;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import no.uib.marcus.client.ConcurrencyLimiter;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.UncheckedIOException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Predicate;
+import java.util.function.Supplier;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Helpers for finishing servlet requests asynchronously, see {@link ExecutionMode}.
+ */
+final class AsyncSupport {
+    private static final Logger logger = Logger.getLogger(AsyncSupport.class.getName());
+
+    /**
+     * Writes a response once the result (or failure) is known
+     */
+    @FunctionalInterface
+    interface ResponseHandler<T> {
+        /**
+         * @param response a servlet response
+         * @param result   the result, {@code null} if there is a failure
+         * @param failure  the failure, a {@link TimeoutException} if the request timed out, otherwise {@code null}
+         */
+        void handle(HttpServletResponse response, T result, Throwable failure) throws IOException;
+    }
+
+    /**
+     * Blocking work to run on a virtual thread
+     */
+    @FunctionalInterface
+    interface BlockingSupplier<T> {
+        T get() throws IOException;
+    }
+
+    //Unbounded, one cheap virtual thread per request. Created lazily so that other modes never start one.
+    private static final class VirtualThreads {
+        static final ExecutorService EXECUTOR = Executors.newThreadPerTaskExecutor(
+                Thread.ofVirtual().name("blackbox-virtual-", 0).factory());
+    }
+
+    //Prevent this class from being initialized
+    private AsyncSupport() {
+    }
+
+    /**
+     * Run blocking work on a new virtual thread, see {@link ExecutionMode#VIRTUAL}
+     *
+     * @param supplier blocking work, e.g. a call to {@code LowLevelClient.perform}
+     * @return a future result, completed on the virtual thread
+     */
+    static <T> CompletableFuture<T> supplyOnVirtualThread(BlockingSupplier<T> supplier) {
+        return CompletableFuture.supplyAsync(() -> {
+            try {
+                return supplier.get();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }, VirtualThreads.EXECUTOR);
+    }
+
+    /**
+     * Block until a future completes, e.g. to run non-blocking work in blocking or virtual thread mode
+     *
+     * @return the result
+     * @throws IOException the failure of the future, wrapped if it is not an {@link IOException}
+     */
+    static <T> T await(CompletableFuture<T> future) throws IOException {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            future.cancel(true);
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for a response");
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException cause) {
+                throw cause;
+            }
+            throw new IOException(e.getCause());
+        }
+    }
+
+    /**
+     * Respond with the result of blocking work, using the configured execution mode. In {@link ExecutionMode#BLOCKING}
+     * mode the work and the handler run on the request thread, otherwise the request is put in asynchronous mode.
+     *
+     * @param request  a servlet request that supports asynchronous mode
+     * @param response the servlet response
+     * @param blocking blocking work, used in blocking and virtual thread mode
+     * @param async    a non-blocking variant of the same work, used in asynchronous mode
+     * @param handler  a handler writing the response
+     */
+    static <T> void respond(HttpServletRequest request, HttpServletResponse response,
+                            BlockingSupplier<T> blocking,
+                            Supplier<CompletableFuture<T>> async,
+                            ResponseHandler<T> handler) throws IOException {
+        respond(ExecutionMode.current(), request, response, blocking, async, handler);
+    }
+
+    /**
+     * Respond in a given execution mode instead of the configured one
+     */
+    static <T> void respond(ExecutionMode mode, HttpServletRequest request, HttpServletResponse response,
+                            BlockingSupplier<T> blocking,
+                            Supplier<CompletableFuture<T>> async,
+                            ResponseHandler<T> handler) throws IOException {
+        switch (mode) {
+            case ASYNC -> respondWhenComplete(request, async.get(), handler);
+            case VIRTUAL -> {
+                //Write from the virtual thread too, so a slow client does not hold a container thread either
+                AsyncContext context = startAsync(request);
+                CompletableFuture<T> future = supplyOnVirtualThread(blocking);
+                respondWhenComplete(context, future, handler, VirtualThreads.EXECUTOR);
+            }
+            default -> {
+                T result;
+                try {
+                    result = blocking.get();
+                } catch (IOException | RuntimeException e) {
+                    handler.handle(response, null, e);
+                    return;
+                }
+                handler.handle(response, result, null);
+            }
+        }
+    }
+
+    /**
+     * Respond as {@link #respond(HttpServletRequest, HttpServletResponse, BlockingSupplier, Supplier, ResponseHandler)},
+     * and release a permit of a {@link ConcurrencyLimiter} as soon as the work is done, also if the client has gone.
+     *
+     * @param permit a permit for the work
+     * @param failed tells whether a result is a failure for the limiter, e.g. an error status
+     */
+    static <T> void respond(HttpServletRequest request, HttpServletResponse response,
+                            ConcurrencyLimiter.Permit permit,
+                            Predicate<? super T> failed,
+                            BlockingSupplier<T> blocking,
+                            Supplier<CompletableFuture<T>> async,
+                            ResponseHandler<T> handler) throws IOException {
+        respond(ExecutionMode.current(), request, response, permit, failed, blocking, async, handler);
+    }
+
+    /**
+     * Respond with a permit in a given execution mode instead of the configured one
+     */
+    static <T> void respond(ExecutionMode mode, HttpServletRequest request, HttpServletResponse response,
+                            ConcurrencyLimiter.Permit permit,
+                            Predicate<? super T> failed,
+                            BlockingSupplier<T> blocking,
+                            Supplier<CompletableFuture<T>> async,
+                            ResponseHandler<T> handler) throws IOException {
+        respond(mode, request, response,
+                () -> {
+                    try {
+                        T result = blocking.get();
+                        permit.release(failed.test(result));
+                        return result;
+                    } catch (Throwable e) {
+                        permit.release(e);
+                        throw e;
+                    }
+                },
+                () -> {
+                    try {
+                        return permit.releaseWhenComplete(async.get(), failed);
+                    } catch (Throwable e) {
+                        permit.release(e);
+                        throw e;
+                    }
+                },
+                handler);
+    }
+
+    /**
+     * Puts the request in asynchronous mode, so that the calling thread can return to the container, and
+     * writes the response from a container thread when the future completes. If the servlet timeout
+     * is reached first, the future is cancelled and the handler is called with a {@link TimeoutException}.
+     *
+     * @param request a servlet request that supports asynchronous mode
+     * @param future  a future result
+     * @param handler a handler writing the response, called exactly once
+     */
+    static <T> void respondWhenComplete(HttpServletRequest request,
+                                        CompletableFuture<T> future,
+                                        ResponseHandler<T> handler) {
+        AsyncContext context = startAsync(request);
+        respondWhenComplete(context, future, handler, context::start);
+    }
+
+    private static AsyncContext startAsync(HttpServletRequest request) {
+        AsyncContext context = request.startAsync();
+        context.setTimeout(ExecutionMode.asyncTimeoutMillis());
+        return context;
+    }
+
+    private static <T> void respondWhenComplete(AsyncContext context,
+                                                CompletableFuture<T> future,
+                                                ResponseHandler<T> handler,
+                                                Executor executor) {
+        AtomicBoolean done = new AtomicBoolean();
+
+        context.addListener(new AsyncListener() {
+            @Override
+            public void onTimeout(AsyncEvent event) {
+                if (done.compareAndSet(false, true)) {
+                    future.cancel(true);
+                    handle(context, handler, null, new TimeoutException("Request timed out"));
+                }
+            }
+
+            @Override
+            public void onError(AsyncEvent event) {
+                //The container completes the request, just stop waiting for the result
+                if (done.compareAndSet(false, true)) {
+                    future.cancel(true);
+                }
+            }
+
+            @Override
+            public void onComplete(AsyncEvent event) {
+            }
+
+            @Override
+            public void onStartAsync(AsyncEvent event) {
+            }
+        });
+
+        future.whenCompleteAsync((result, failure) -> {
+            if (done.compareAndSet(false, true)) {
+                handle(context, handler, result, failure);
+            }
+        }, executor);
+    }
+
+    private static <T> void handle(AsyncContext context, ResponseHandler<T> handler, T result, Throwable failure) {
+        //Failures from dependent stages are wrapped, the handler gets the original cause
+        if (failure instanceof CompletionException && failure.getCause() != null) {
+            failure = failure.getCause();
+        }
+        if (failure instanceof UncheckedIOException && failure.getCause() != null) {
+            failure = failure.getCause();
+        }
+        try {
+            handler.handle((HttpServletResponse) context.getResponse(), result, failure);
+        } catch (IOException e) {
+            if (isClientDisconnect(e)) {
+                logger.log(Level.INFO, "Client disconnected before response was complete");
+            } else {
+                logger.log(Level.SEVERE, "Unable to write asynchronous response", e);
+            }
+        } catch (RuntimeException e) {
+            logger.log(Level.SEVERE, "Unable to write asynchronous response", e);
+        } finally {
+            context.complete();
+        }
+    }
+
+    /**
+     * Checks whether an I/O error was caused by the client going away
+     */
+    static boolean isClientDisconnect(IOException e) {
+        return e.getMessage() != null && e.getMessage().contains("Broken pipe")
+                || e.getCause() instanceof IOException c && c.getMessage() != null && c.getMessage().contains("Broken pipe");
+    }
+}
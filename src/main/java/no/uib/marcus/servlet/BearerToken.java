@@ -0,0 +1,28 @@
+package no.uib.marcus.servlet;
+
+import jakarta.servlet.http.HttpServletRequest;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+
+/**
+ * Checks {@code Authorization: Bearer <token>} headers for the admin endpoints
+ */
+final class BearerToken {
+    private static final String BEARER = "Bearer ";
+
+    //Prevent this class from being initialized
+    private BearerToken() {
+    }
+
+    /**
+     * Checks whether the request carries the given token, in constant time
+     */
+    static boolean matches(HttpServletRequest request, String token) {
+        String header = request.getHeader("Authorization");
+        return header != null && header.startsWith(BEARER)
+                && MessageDigest.isEqual(
+                        token.getBytes(StandardCharsets.UTF_8),
+                        header.substring(BEARER.length()).trim().getBytes(StandardCharsets.UTF_8));
+    }
+}
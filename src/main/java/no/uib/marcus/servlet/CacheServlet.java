@@ -0,0 +1,112 @@
+package no.uib.marcus.servlet;
+
+import com.fasterxml.jackson.databind.json.JsonMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import jakarta.servlet.annotation.WebServlet;
+import jakarta.servlet.http.HttpServlet;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import no.uib.marcus.cache.ResponseCache;
+import no.uib.marcus.cache.SuggestionCache;
+import no.uib.marcus.common.Params;
+import no.uib.marcus.common.ServiceName;
+import no.uib.marcus.common.Settings;
+import no.uib.marcus.common.util.StringUtils;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.Serial;
+import java.util.logging.Logger;
+
+/**
+ * Admin endpoint for the search response cache. {@code GET} shows cache statistics and {@code DELETE}
+ * evicts all entries (including cached suggestions), or only those of one service if the {@code service}
+ * parameter is given.
+ * <p>
+ * The endpoint is disabled (404) unless {@code BLACKBOX_ADMIN_TOKEN} is set, and requests must then carry the
+ * token in an {@code Authorization: Bearer <token>} header.
+ */
+@WebServlet(
+        name = "CacheServlet",
+        urlPatterns = {"/admin/cache"},
+        description = "Admin servlet for the search response cache")
+public class CacheServlet extends HttpServlet {
+    private static final Logger logger = Logger.getLogger(CacheServlet.class.getName());
+    private static final JsonMapper jsonMapper = new JsonMapper();
+
+    @Serial
+    private static final long serialVersionUID = 1L;
+
+    @Override
+    protected void doGet(HttpServletRequest request, HttpServletResponse response) throws IOException {
+        if (!isAuthorized(request, response)) {
+            return;
+        }
+        ResponseCache cache = ResponseCache.getDefault();
+        ObjectNode stats = jsonMapper.createObjectNode();
+        stats.put("entries", cache.size());
+        stats.put("size_in_bytes", cache.sizeInBytes());
+        stats.put("max_bytes", cache.getMaxBytes());
+        stats.put("hits", cache.getHits());
+        stats.put("misses", cache.getMisses());
+        stats.put("evictions", cache.getEvictions());
+        SuggestionCache suggestionCache = SuggestionCache.getDefault();
+        ObjectNode suggest = stats.putObject("suggest");
+        suggest.put("entries", suggestionCache.size());
+        suggest.put("hits", suggestionCache.getHits());
+        suggest.put("prefix_hits", suggestionCache.getPrefixHits());
+        suggest.put("misses", suggestionCache.getMisses());
+        write(response, stats);
+    }
+
+    @Override
+    protected void doDelete(HttpServletRequest request, HttpServletResponse response) throws IOException {
+        if (!isAuthorized(request, response)) {
+            return;
+        }
+        String service = request.getParameter(Params.SERVICE);
+        ResponseCache cache = ResponseCache.getDefault();
+        ObjectNode result = jsonMapper.createObjectNode();
+        try {
+            int evicted;
+            if (StringUtils.hasText(service)) {
+                evicted = cache.invalidate(ServiceName.toEnum(service));
+            } else {
+                evicted = cache.invalidateAll();
+                SuggestionCache.getDefault().invalidateAll();
+            }
+            logger.info("Evicted " + evicted + " cached responses" + (StringUtils.hasText(service) ? " for " + service : ""));
+            result.put("evicted", evicted);
+        } catch (IllegalArgumentException e) {
+            response.setStatus(HttpServletResponse.SC_BAD_REQUEST);
+            result.put("error", "Unknown service parameter");
+        }
+        write(response, result);
+    }
+
+    private static boolean isAuthorized(HttpServletRequest request, HttpServletResponse response) throws IOException {
+        String token = Settings.get("BLACKBOX_ADMIN_TOKEN", null);
+        if (token == null) {
+            response.sendError(HttpServletResponse.SC_NOT_FOUND);
+            return false;
+        }
+        if (!BearerToken.matches(request, token)) {
+            logger.warning("Rejected unauthorized cache admin request from " + request.getRemoteAddr());
+            response.sendError(HttpServletResponse.SC_UNAUTHORIZED);
+            return false;
+        }
+        return true;
+    }
+
+    private static void write(HttpServletResponse response, ObjectNode node) throws IOException {
+        response.setContentType("application/json;charset=UTF-8");
+        try (OutputStream out = response.getOutputStream()) {
+            out.write(jsonMapper.writeValueAsBytes(node));
+        }
+    }
+
+    @Override
+    public String getServletInfo() {
+        return "Cache admin servlet";
+    }
+}
@@ -0,0 +1,49 @@
+package no.uib.marcus.servlet;
+
+import jakarta.servlet.ServletContextEvent;
+import jakarta.servlet.ServletContextListener;
+import jakarta.servlet.annotation.WebListener;
+import no.uib.marcus.cache.CacheWarmer;
+import no.uib.marcus.cache.LandingPages;
+import no.uib.marcus.client.ClusterHealth;
+import no.uib.marcus.client.ElasticsearchClientFactory;
+import no.uib.marcus.search.suggestion.LocalCompletionIndex;
+
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Creates the Elasticsearch client in the background when the application starts, so that neither the startup
+ * nor the first requests wait for the cluster. The background jobs that search are started once the client is
+ * ready, and the node reports ready on "/ready" when they have warmed up, see {@link ReadyServlet}.
+ */
+@WebListener
+public class ClientInitializationListener implements ServletContextListener {
+  private static final Logger logger = Logger.getLogger(ClientInitializationListener.class.getName());
+
+  @Override
+  public void contextInitialized(ServletContextEvent sce) {
+    ElasticsearchClientFactory.initialize()
+        .thenRun(() -> {
+          logger.info("Elasticsearch client is ready, starting background jobs");
+          //One job failing to start must not keep the others from starting
+          start("cluster health checks", () -> ClusterHealth.getDefault().start());
+          start("local completion index", () -> LocalCompletionIndex.getDefault().start());
+          start("landing pages", () -> LandingPages.getDefault().start(SearchServlet::loadLandingPage));
+          start("cache warmer", () -> CacheWarmer.getDefault().start(SearchServlet::warm));
+        })
+        .whenComplete((ignored, e) -> {
+          if (e != null) {
+            logger.log(Level.SEVERE, "Background jobs were not started", e);
+          }
+        });
+  }
+
+  private static void start(String job, Runnable start) {
+    try {
+      start.run();
+    } catch (RuntimeException e) {
+      logger.log(Level.SEVERE, "Unable to start the " + job, e);
+    }
+  }
+}
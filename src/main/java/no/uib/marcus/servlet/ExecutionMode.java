@@ -0,0 +1,60 @@
+package no.uib.marcus.servlet;
+
+import no.uib.marcus.common.Settings;
+
+import java.util.Locale;
+import java.util.logging.Logger;
+
+/**
+ * How the "/search" and "/suggest" servlets wait for Elasticsearch, set with {@code BLACKBOX_EXECUTION_MODE}.
+ */
+public enum ExecutionMode {
+    /**
+     * The request thread blocks for the whole Elasticsearch round trip. This is the default.
+     */
+    BLOCKING,
+
+    /**
+     * The request is put in asynchronous mode and the request thread is released while Elasticsearch
+     * is working. The response is written from a container thread once the Elasticsearch response has arrived,
+     * or a 504 is sent after {@code BLACKBOX_ASYNC_TIMEOUT_MS} (default 30 seconds).
+     */
+    ASYNC,
+
+    /**
+     * The request is put in asynchronous mode and handed to a new virtual thread, which makes the same
+     * blocking Elasticsearch call and writes the response. The container thread is released right away,
+     * and the same timeout as {@link #ASYNC} applies.
+     */
+    VIRTUAL;
+
+    private static final Logger logger = Logger.getLogger(ExecutionMode.class.getName());
+    private static final ExecutionMode CURRENT = fromSettings();
+    private static final long ASYNC_TIMEOUT_MS = Settings.getLong("BLACKBOX_ASYNC_TIMEOUT_MS", 30_000);
+
+    /**
+     * Get the configured execution mode
+     */
+    public static ExecutionMode current() {
+        return CURRENT;
+    }
+
+    /**
+     * Get the timeout for asynchronous requests in milliseconds
+     */
+    public static long asyncTimeoutMillis() {
+        return ASYNC_TIMEOUT_MS;
+    }
+
+    private static ExecutionMode fromSettings() {
+        String mode = Settings.get("BLACKBOX_EXECUTION_MODE", BLOCKING.name());
+        try {
+            ExecutionMode executionMode = ExecutionMode.valueOf(mode.toUpperCase(Locale.ROOT));
+            logger.info("Execution mode: " + executionMode);
+            return executionMode;
+        } catch (IllegalArgumentException e) {
+            logger.severe("Unknown execution mode [" + mode + "], using " + BLOCKING);
+            return BLOCKING;
+        }
+    }
+}
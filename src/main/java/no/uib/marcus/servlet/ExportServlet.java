@@ -0,0 +1,156 @@
+package no.uib.marcus.servlet;
+
+import co.elastic.clients.elasticsearch.ElasticsearchClient;
+import co.elastic.clients.elasticsearch._types.ElasticsearchException;
+import com.fasterxml.jackson.databind.json.JsonMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import jakarta.servlet.annotation.WebServlet;
+import jakarta.servlet.http.HttpServlet;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import no.uib.marcus.client.ElasticsearchClientFactory;
+import no.uib.marcus.common.Params;
+import no.uib.marcus.common.SearchParameters;
+import no.uib.marcus.common.ServiceName;
+import no.uib.marcus.common.Settings;
+import no.uib.marcus.common.util.FilterUtils;
+import no.uib.marcus.facet.FacetSpec;
+import no.uib.marcus.search.Cursor;
+import no.uib.marcus.search.IllegalParameterException;
+import no.uib.marcus.search.ResponseProfile;
+import no.uib.marcus.search.SearchBuilder;
+import no.uib.marcus.search.SearchBuilderFactory;
+import no.uib.marcus.search.export.ExportFormat;
+import no.uib.marcus.search.export.SlicedExport;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.Serial;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Semaphore;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Exports every document matching a search, for researchers who want a whole result set rather than pages.
+ * It takes the parameters of "/search" (except paging, sorting and aggregations), plus {@code format}
+ * ({@code ndjson}, the default, or {@code csv}) and {@code fields}, which CSV needs for its columns.
+ * Records are streamed as the slices of a point in time are scanned, see {@link SlicedExport}.
+ * <p>
+ * Exports are long-running and keep Elasticsearch busy, so only {@code BLACKBOX_EXPORT_MAX_CONCURRENT}
+ * (default 2) run at a time, and further requests get 503.
+ */
+@WebServlet(
+        name = "ExportServlet",
+        urlPatterns = {"/export"},
+        description = "Servlet for exporting all documents of a search")
+public class ExportServlet extends HttpServlet {
+    private static final Logger logger = Logger.getLogger(ExportServlet.class.getName());
+    private static final JsonMapper jsonMapper = new JsonMapper();
+    private static final Semaphore exports = new Semaphore(Math.max(1, Settings.getInt("BLACKBOX_EXPORT_MAX_CONCURRENT", 2)));
+    private static final String FORMAT = "format";
+
+    @Serial
+    private static final long serialVersionUID = 1L;
+
+    @Override
+    protected void doGet(HttpServletRequest request, HttpServletResponse response) throws IOException {
+        request.setCharacterEncoding("UTF-8");
+        SearchParameters params = SearchParameters.of(request.getParameterMap());
+        String queryString = params.getQueryString();
+        if (queryString != null && queryString.length() > Params.MAX_QUERY_LENGTH) {
+            writeError(response, HttpServletResponse.SC_BAD_REQUEST, "Query parameter 'q' exceeds the maximum length of "
+                    + Params.MAX_QUERY_LENGTH + " characters");
+            return;
+        }
+
+        ExportFormat format;
+        List<String> fields;
+        SearchBuilder<? extends SearchBuilder<?>> builder;
+        try {
+            format = ExportFormat.of(request.getParameter(FORMAT));
+            ServiceName serviceName = ServiceName.toEnum(params.getService());
+            fields = List.of(params.getFields());
+            //Checks the fields against the allowlist of the service
+            ResponseProfile.of(serviceName, null, fields);
+            if (format == ExportFormat.CSV && fields.isEmpty()) {
+                throw new IllegalParameterException("CSV export needs the fields to export, e.g. fields=identifier,label");
+            }
+            FacetSpec facets = FacetSpec.parse(params.getAggregations());
+            Map<String, List<String>> selectedFacets = FilterUtils.buildFilterMap(params.getSelectedFilters());
+            ElasticsearchClient client = ElasticsearchClientFactory.getElasticsearchClient();
+            //Aggregations are only used to tell "AND" and "OR" filters apart, they are not exported
+            builder = SearchBuilderFactory.getSearchBuilder(params.getService(), client)
+                    .setIndices(params.getIndices())
+                    .setQueryString(queryString)
+                    .setSelectedFacets(selectedFacets);
+            SearchServlet.setFilters(builder, params, selectedFacets, facets);
+        } catch (IllegalArgumentException | IllegalParameterException e) {
+            logger.warning("Bad export request: " + e.getMessage());
+            writeError(response, HttpServletResponse.SC_BAD_REQUEST, e.getMessage());
+            return;
+        }
+
+        if (!exports.tryAcquire()) {
+            response.setHeader("Retry-After", "60");
+            writeError(response, HttpServletResponse.SC_SERVICE_UNAVAILABLE, "Too many exports are running, try again later");
+            return;
+        }
+        Cursor cursor = null;
+        try {
+            cursor = builder.openCursor();
+            ObjectNode pageRequest = SlicedExport.prepare(builder.constructSearchRequest().build(),
+                    SlicedExport.defaultPageSize(), fields);
+            SlicedExport export = new SlicedExport(ElasticsearchClientFactory.getLowLevelClient(), pageRequest,
+                    cursor.getPitId(), SlicedExport.defaultSlices(), format, fields);
+
+            response.setContentType(format.getContentType());
+            response.setHeader("Content-Disposition", "attachment; filename=\"export." + format.getExtension() + "\"");
+            long start = System.nanoTime();
+            long count;
+            try (OutputStream out = response.getOutputStream()) {
+                count = export.run(out);
+            }
+            logger.info("Exported " + count + " documents for [" + params.fingerprint() + "] in "
+                    + (System.nanoTime() - start) / 1_000_000 + " ms");
+        } catch (IOException | ElasticsearchException e) {
+            if (e instanceof IOException io && AsyncSupport.isClientDisconnect(io)) {
+                logger.log(Level.INFO, "Client disconnected during export");
+            } else {
+                logger.log(Level.SEVERE, "Export failed", e);
+                //Once records have been sent, the client only sees the response end early
+                if (!response.isCommitted()) {
+                    response.reset();
+                    writeError(response, HttpServletResponse.SC_INTERNAL_SERVER_ERROR, "Export failed");
+                }
+            }
+        } finally {
+            exports.release();
+            if (cursor != null) {
+                closePointInTime(cursor.getPitId());
+            }
+        }
+    }
+
+    /**
+     * Close the point in time now rather than when it expires, since an export keeps many segments alive
+     */
+    private static void closePointInTime(String pitId) {
+        try {
+            ElasticsearchClientFactory.getElasticsearchClient().closePointInTime(c -> c.id(pitId));
+        } catch (IOException | ElasticsearchException e) {
+            logger.log(Level.WARNING, "Could not close point in time, it expires by itself", e);
+        }
+    }
+
+    private static void writeError(HttpServletResponse response, int status, String message) throws IOException {
+        response.setStatus(status);
+        response.setContentType("application/json;charset=UTF-8");
+        ObjectNode error = jsonMapper.createObjectNode();
+        error.put("error", message);
+        try (OutputStream out = response.getOutputStream()) {
+            out.write(jsonMapper.writeValueAsBytes(error));
+        }
+    }
+}
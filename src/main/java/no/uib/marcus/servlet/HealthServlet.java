@@ -0,0 +1,54 @@
+package no.uib.marcus.servlet;
+
+import com.fasterxml.jackson.databind.json.JsonMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import jakarta.servlet.annotation.WebServlet;
+import jakarta.servlet.http.HttpServlet;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import no.uib.marcus.client.ClusterHealth;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.Serial;
+
+/**
+ * Liveness check that also reports the last known health of the Elasticsearch cluster, see {@link ClusterHealth}.
+ * It always answers {@code 200} while Blackbox itself is running, and never waits for Elasticsearch, so it can be
+ * polled often without adding load to the cluster.
+ */
+@WebServlet(
+        name = "HealthServlet",
+        urlPatterns = {"/health"},
+        description = "Servlet for liveness checks and cluster health")
+public class HealthServlet extends HttpServlet {
+    private static final JsonMapper jsonMapper = new JsonMapper();
+
+    @Serial
+    private static final long serialVersionUID = 1L;
+
+    @Override
+    protected void doGet(HttpServletRequest request, HttpServletResponse response) throws IOException {
+        ClusterHealth.Snapshot health = ClusterHealth.getDefault().snapshot();
+        ObjectNode body = jsonMapper.createObjectNode();
+        body.put("status", "up");
+        ObjectNode cluster = body.putObject("cluster");
+        cluster.put("name", health.clusterName());
+        cluster.put("status", health.isUnavailable() ? "unavailable" : health.status());
+        cluster.put("number_of_nodes", health.nodes());
+        cluster.put("number_of_data_nodes", health.dataNodes());
+        cluster.put("number_of_pending_tasks", health.pendingTasks());
+        cluster.put("age_ms", health.updated() > 0 ? System.currentTimeMillis() - health.updated() : -1);
+        cluster.put("failed_polls", health.failures());
+        response.setContentType("application/json;charset=UTF-8");
+        response.setHeader("Cache-Control", "no-store");
+        try (OutputStream out = response.getOutputStream()) {
+            out.write(jsonMapper.writeValueAsBytes(body));
+        }
+    }
+
+    @Override
+    public String getServletInfo() {
+        return "Health servlet";
+    }
+}
@@ -0,0 +1,79 @@
+package no.uib.marcus.servlet;
+
+import jakarta.servlet.AsyncEvent;
+import jakarta.servlet.AsyncListener;
+import jakarta.servlet.FilterChain;
+import jakarta.servlet.ServletException;
+import jakarta.servlet.annotation.WebFilter;
+import jakarta.servlet.http.HttpFilter;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import no.uib.marcus.common.Params;
+import no.uib.marcus.common.ServiceName;
+import no.uib.marcus.metrics.Metrics;
+import no.uib.marcus.metrics.RequestMetrics;
+
+import java.io.IOException;
+import java.io.Serial;
+
+/**
+ * Counts requests, their status and duration, and the requests in flight for "/search" and "/suggest".
+ * Requests in asynchronous mode are counted when the asynchronous request completes.
+ */
+@WebFilter(
+        filterName = "MetricsFilter",
+        urlPatterns = {"/search", "/suggest"},
+        asyncSupported = true)
+public class MetricsFilter extends HttpFilter {
+    @Serial
+    private static final long serialVersionUID = 1L;
+
+    @Override
+    protected void doFilter(HttpServletRequest request, HttpServletResponse response, FilterChain chain)
+            throws IOException, ServletException {
+        long start = System.nanoTime();
+        RequestMetrics metrics = metricsFor(request);
+        metrics.started();
+        try {
+            chain.doFilter(request, response);
+        } catch (IOException | ServletException | RuntimeException e) {
+            metrics.completed(HttpServletResponse.SC_INTERNAL_SERVER_ERROR, System.nanoTime() - start);
+            throw e;
+        }
+        if (request.isAsyncStarted()) {
+            //Listeners added before this dispatch returns are notified even if the response is already complete
+            request.getAsyncContext().addListener(new AsyncListener() {
+                @Override
+                public void onComplete(AsyncEvent event) {
+                    metrics.completed(response.getStatus(), System.nanoTime() - start);
+                }
+
+                @Override
+                public void onTimeout(AsyncEvent event) {
+                }
+
+                @Override
+                public void onError(AsyncEvent event) {
+                }
+
+                @Override
+                public void onStartAsync(AsyncEvent event) {
+                }
+            });
+        } else {
+            metrics.completed(response.getStatus(), System.nanoTime() - start);
+        }
+    }
+
+    private static RequestMetrics metricsFor(HttpServletRequest request) {
+        if (request.getServletPath().startsWith("/suggest")) {
+            return Metrics.suggest();
+        }
+        String service = request.getParameter(Params.SERVICE);
+        try {
+            return Metrics.search(ServiceName.toEnum(service));
+        } catch (IllegalArgumentException e) {
+            return Metrics.search(null);
+        }
+    }
+}
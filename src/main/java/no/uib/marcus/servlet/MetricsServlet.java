@@ -0,0 +1,47 @@
+package no.uib.marcus.servlet;
+
+import jakarta.servlet.annotation.WebServlet;
+import jakarta.servlet.http.HttpServlet;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import no.uib.marcus.common.Settings;
+import no.uib.marcus.metrics.Metrics;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.Serial;
+import java.util.logging.Logger;
+
+/**
+ * Exposes the Blackbox metrics in the Prometheus text exposition format. If {@code BLACKBOX_METRICS_TOKEN}
+ * is set, requests must carry the token in an {@code Authorization: Bearer <token>} header.
+ */
+@WebServlet(
+        name = "MetricsServlet",
+        urlPatterns = {"/metrics"},
+        description = "Servlet for Prometheus metrics")
+public class MetricsServlet extends HttpServlet {
+    private static final Logger logger = Logger.getLogger(MetricsServlet.class.getName());
+
+    @Serial
+    private static final long serialVersionUID = 1L;
+
+    @Override
+    protected void doGet(HttpServletRequest request, HttpServletResponse response) throws IOException {
+        String token = Settings.get("BLACKBOX_METRICS_TOKEN", null);
+        if (token != null && !BearerToken.matches(request, token)) {
+            logger.warning("Rejected unauthorized metrics request from " + request.getRemoteAddr());
+            response.sendError(HttpServletResponse.SC_UNAUTHORIZED);
+            return;
+        }
+        response.setContentType(Metrics.CONTENT_TYPE);
+        try (PrintWriter out = response.getWriter()) {
+            Metrics.write(out);
+        }
+    }
+
+    @Override
+    public String getServletInfo() {
+        return "Metrics servlet";
+    }
+}
@@ -0,0 +1,217 @@
+package no.uib.marcus.servlet;
+
+import co.elastic.clients.elasticsearch.ElasticsearchClient;
+import com.fasterxml.jackson.databind.json.JsonMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import jakarta.annotation.Nullable;
+import jakarta.servlet.annotation.WebServlet;
+import jakarta.servlet.http.HttpServlet;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import no.uib.marcus.client.ElasticsearchClientFactory;
+import no.uib.marcus.client.LowLevelClient;
+import no.uib.marcus.client.RawResponse;
+import no.uib.marcus.client.RequestBody;
+import no.uib.marcus.common.Params;
+import no.uib.marcus.common.SearchParameters;
+import no.uib.marcus.common.ServiceName;
+import no.uib.marcus.common.util.FilterUtils;
+import no.uib.marcus.common.util.GzipUtils;
+import no.uib.marcus.facet.FacetSpec;
+import no.uib.marcus.search.IllegalParameterException;
+import no.uib.marcus.search.MultiSearch;
+import no.uib.marcus.search.ResponseProfile;
+import no.uib.marcus.search.SearchBuilder;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.Serial;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeoutException;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Runs a batch of searches in one request, sent to Elasticsearch as a single {@code _msearch} call, see
+ * {@link MultiSearch}. The body is a JSON array of searches with the parameters of "/search", e.g.
+ * {@code [{"service":"marcus","q":"bergen"},{"service":"marcus","q":"bergen","size":0,"aggs":[...]}]}.
+ * <p>
+ * The batch only fails as a whole if its body is invalid. Cursors are not supported in a batch, and the response
+ * cache is not used, since the responses are written as they are read.
+ */
+@WebServlet(
+        name = "MultiSearchServlet",
+        urlPatterns = {"/msearch"},
+        asyncSupported = true,
+        description = "Servlet for handling batches of search requests")
+public class MultiSearchServlet extends HttpServlet {
+    private static final Logger logger = Logger.getLogger(MultiSearchServlet.class.getName());
+    private static final JsonMapper jsonMapper = new JsonMapper();
+    private static final int MAX_BODY_BYTES = 256 * 1024;
+    private static final String ENDPOINT = "/_msearch";
+
+    @Serial
+    private static final long serialVersionUID = 1L;
+
+    @Override
+    protected void doPost(HttpServletRequest request, HttpServletResponse response) throws IOException {
+        request.setCharacterEncoding("UTF-8");
+        response.setContentType("application/json;charset=UTF-8");
+        response.addHeader("Vary", "Accept-Encoding");
+        boolean acceptsGzip = GzipUtils.acceptsGzip(request.getHeader("Accept-Encoding"));
+
+        List<Map<String, String[]>> searches;
+        try (InputStream in = request.getInputStream()) {
+            byte[] body = in.readNBytes(MAX_BODY_BYTES + 1);
+            if (body.length > MAX_BODY_BYTES) {
+                writeError(response, HttpServletResponse.SC_REQUEST_ENTITY_TOO_LARGE,
+                        "A batch can be at most " + MAX_BODY_BYTES + " bytes");
+                return;
+            }
+            searches = MultiSearch.parse(new ByteArrayInputStream(body), MultiSearch.maxSearches());
+        } catch (IllegalParameterException e) {
+            logger.warning("Bad batch request: " + e.getMessage());
+            writeError(response, HttpServletResponse.SC_BAD_REQUEST, e.getMessage());
+            return;
+        }
+
+        MultiSearch multiSearch = new MultiSearch();
+        byte[] body;
+        LowLevelClient lowLevelClient;
+        try {
+            ElasticsearchClient client = ElasticsearchClientFactory.getElasticsearchClient();
+            for (Map<String, String[]> search : searches) {
+                try {
+                    add(multiSearch, client, search);
+                } catch (IllegalArgumentException | IllegalParameterException e) {
+                    //Only this search fails, the others are still sent
+                    logger.warning("Bad search in batch: " + e.getMessage());
+                    multiSearch.addError(HttpServletResponse.SC_BAD_REQUEST, e.getMessage());
+                }
+            }
+            body = multiSearch.toNdjson();
+            lowLevelClient = ElasticsearchClientFactory.getLowLevelClient();
+        } catch (IOException e) {
+            logger.log(Level.SEVERE, "Unexpected error processing batch request", e);
+            writeError(response, HttpServletResponse.SC_INTERNAL_SERVER_ERROR, "Search request failed");
+            return;
+        }
+        if (multiSearch.sent() == 0) {
+            writeResponses(response, multiSearch, null, acceptsGzip);
+            return;
+        }
+
+        Map<String, String> parameters = multiSearch.getParameters();
+        try {
+            AsyncSupport.respond(request, response,
+                    () -> lowLevelClient.perform("POST", ENDPOINT, parameters, body),
+                    () -> lowLevelClient.performAsync("POST", ENDPOINT, parameters, body),
+                    (out, result, failure) -> {
+                        if (failure != null) {
+                            writeFailure(out, multiSearch, failure, acceptsGzip);
+                        } else {
+                            writeResponses(out, multiSearch, result, acceptsGzip);
+                        }
+                    });
+        } catch (IOException e) {
+            if (AsyncSupport.isClientDisconnect(e)) {
+                logger.log(Level.INFO, "Client disconnected before response was complete");
+            } else {
+                logger.log(Level.SEVERE, "Unexpected error processing batch request", e);
+                throw e;
+            }
+        }
+    }
+
+    /**
+     * Build one search of the batch the same way as "/search", and add it
+     *
+     * @throws IllegalParameterException if a parameter is not valid
+     */
+    private static void add(MultiSearch multiSearch, ElasticsearchClient client,
+                            @Nullable Map<String, String[]> search) throws IOException {
+        if (search == null) {
+            throw new IllegalParameterException("A search must be a JSON object of search parameters");
+        }
+        SearchParameters params = SearchParameters.of(search);
+        String queryString = params.getQueryString();
+        if (queryString != null && queryString.length() > Params.MAX_QUERY_LENGTH) {
+            throw new IllegalParameterException("Query parameter 'q' exceeds the maximum length of "
+                    + Params.MAX_QUERY_LENGTH + " characters");
+        }
+        if (params.getCursor() != null) {
+            throw new IllegalParameterException("Cursors can not be used in a batch");
+        }
+        String[] indices = params.getIndices();
+        //Index names are checked the same way as for a single search
+        LowLevelClient.searchEndpoint(indices);
+        ServiceName serviceName = ServiceName.toEnum(params.getService());
+        ResponseProfile responseProfile = ResponseProfile.of(serviceName, params.getProfile(), List.of(params.getFields()));
+        FacetSpec facets = FacetSpec.parse(params.getAggregations());
+        Map<String, List<String>> selectedFacets = FilterUtils.buildFilterMap(params.getSelectedFilters());
+        SearchBuilder<? extends SearchBuilder<?>> builder = SearchServlet.newSearchBuilder(
+                client, params, facets, selectedFacets, responseProfile);
+        SearchServlet.setFilters(builder, params, selectedFacets, facets);
+        try (RequestBody requestBody = RequestBody.of(builder.constructSearchRequest().build(), false)) {
+            multiSearch.add(indices, requestBody.toByteArray(), responseProfile.getFilterPath());
+        }
+    }
+
+    private static void writeResponses(HttpServletResponse response, MultiSearch multiSearch,
+                                       @Nullable RawResponse result, boolean acceptsGzip) throws IOException {
+        if (result != null && !result.isSuccessful()) {
+            //The batch was refused as a whole, e.g. the cluster is overloaded
+            logger.warning("ES returned " + result.status() + " for a batch: "
+                    + new String(result.decodedBody(), StandardCharsets.UTF_8));
+            try (OutputStream out = open(response, acceptsGzip)) {
+                multiSearch.writeFailure(result.status(), "Search request failed", out);
+            }
+            return;
+        }
+        try (OutputStream out = open(response, acceptsGzip)) {
+            multiSearch.writeResponses(result == null ? null : result.openBody(), out);
+        }
+    }
+
+    /**
+     * Write the batch when Elasticsearch gave no response, every search that was sent gets the error
+     */
+    private static void writeFailure(HttpServletResponse response, MultiSearch multiSearch, Throwable failure,
+                                     boolean acceptsGzip) throws IOException {
+        try (OutputStream out = open(response, acceptsGzip)) {
+            if (failure instanceof TimeoutException) {
+                logger.warning("Batch of " + multiSearch.size() + " searches timed out");
+                multiSearch.writeFailure(HttpServletResponse.SC_GATEWAY_TIMEOUT, "Search request timed out", out);
+            } else {
+                logger.log(Level.SEVERE, "Unexpected error processing batch request", failure);
+                multiSearch.writeFailure(HttpServletResponse.SC_INTERNAL_SERVER_ERROR, "Search request failed", out);
+            }
+        }
+    }
+
+    /**
+     * Open the response for streaming, compressed on the fly if the client accepts gzip
+     */
+    private static OutputStream open(HttpServletResponse response, boolean acceptsGzip) throws IOException {
+        if (!acceptsGzip) {
+            return response.getOutputStream();
+        }
+        response.setHeader("Content-Encoding", "gzip");
+        //Sync flush, so every response is sent as soon as it is written
+        return new GZIPOutputStream(response.getOutputStream(), 8192, true);
+    }
+
+    private static void writeError(HttpServletResponse response, int status, String message) throws IOException {
+        response.setStatus(status);
+        ObjectNode error = jsonMapper.createObjectNode();
+        error.put("error", message);
+        try (OutputStream out = response.getOutputStream()) {
+            out.write(jsonMapper.writeValueAsBytes(error));
+        }
+    }
+}
@@ -0,0 +1,44 @@
+package no.uib.marcus.servlet;
+
+import jakarta.servlet.annotation.WebServlet;
+import jakarta.servlet.http.HttpServlet;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import no.uib.marcus.cache.CacheWarmer;
+import no.uib.marcus.client.ElasticsearchClientFactory;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.Serial;
+
+/**
+ * Readiness check for the load balancer. Answers {@code 503} until the Elasticsearch client has been created and
+ * the most common searches have been replayed, so no traffic is sent to a cold node. Never waits for Elasticsearch.
+ */
+@WebServlet(
+        name = "ReadyServlet",
+        urlPatterns = {"/ready"},
+        description = "Servlet for readiness checks")
+public class ReadyServlet extends HttpServlet {
+
+    @Serial
+    private static final long serialVersionUID = 1L;
+
+    @Override
+    protected void doGet(HttpServletRequest request, HttpServletResponse response) throws IOException {
+        boolean client = ElasticsearchClientFactory.isInitialized();
+        boolean warm = CacheWarmer.getDefault().isWarm();
+        boolean ready = client && warm;
+        response.setStatus(ready ? HttpServletResponse.SC_OK : HttpServletResponse.SC_SERVICE_UNAVAILABLE);
+        response.setContentType("application/json;charset=UTF-8");
+        response.setHeader("Cache-Control", "no-store");
+        try (PrintWriter out = response.getWriter()) {
+            out.write("{\"ready\":" + ready + ",\"client\":" + client + ",\"warm\":" + warm + "}");
+        }
+    }
+
+    @Override
+    public String getServletInfo() {
+        return "Readiness servlet";
+    }
+}
@@ -1,33 +1,47 @@
 package no.uib.marcus.servlet;
 
 import co.elastic.clients.elasticsearch.ElasticsearchClient;
+import co.elastic.clients.elasticsearch._types.ElasticsearchException;
 import co.elastic.clients.elasticsearch._types.query_dsl.BoolQuery;
 import co.elastic.clients.elasticsearch._types.query_dsl.QueryBuilders;
-import co.elastic.clients.json.jackson.JacksonJsonpGenerator;
-import co.elastic.clients.json.jackson.JacksonJsonpMapper;
-import co.elastic.clients.transport.rest_client.RestClientTransport;
-import com.fasterxml.jackson.core.JsonFactory;
+import co.elastic.clients.elasticsearch.core.SearchRequest;
 import com.fasterxml.jackson.databind.json.JsonMapper;
 import com.fasterxml.jackson.databind.node.ObjectNode;
-import jakarta.json.stream.JsonGenerator;
+import jakarta.annotation.Nullable;
 import java.io.OutputStream;
 import java.io.Serial;
-import java.io.StringWriter;
+import java.nio.charset.StandardCharsets;
+import no.uib.marcus.cache.CacheWarmer;
+import no.uib.marcus.cache.LandingPages;
+import no.uib.marcus.cache.ResponseCache;
+import no.uib.marcus.client.ClusterHealth;
+import no.uib.marcus.client.ConcurrencyLimiter;
 import no.uib.marcus.client.ElasticsearchClientFactory;
+import no.uib.marcus.client.LowLevelClient;
+import no.uib.marcus.client.RawResponse;
+import no.uib.marcus.client.RequestBody;
+import no.uib.marcus.client.SingleFlight;
 import no.uib.marcus.common.Params;
-import no.uib.marcus.common.util.AggregationUtils;
+import no.uib.marcus.common.SearchParameters;
+import no.uib.marcus.common.ServiceName;
 import no.uib.marcus.common.util.FilterUtils;
+import no.uib.marcus.common.util.GzipUtils;
 import no.uib.marcus.common.util.SortUtils;
+import no.uib.marcus.facet.FacetSpec;
+import no.uib.marcus.metrics.Metrics;
+import no.uib.marcus.metrics.RequestMetrics;
 import no.uib.marcus.range.DateRange;
+import no.uib.marcus.search.AggregationSplit;
+import no.uib.marcus.search.Cursor;
 import no.uib.marcus.search.IllegalParameterException;
+import no.uib.marcus.search.MarcusSearchBuilder;
+import no.uib.marcus.search.ResponseProfile;
 import no.uib.marcus.search.SearchBuilder;
 import no.uib.marcus.search.SearchBuilderFactory;
 
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
-import no.uib.marcus.common.util.StringUtils;
-
 import jakarta.servlet.annotation.WebServlet;
 import jakarta.servlet.http.HttpServlet;
 import jakarta.servlet.http.HttpServletRequest;
@@ -36,13 +50,12 @@ import java.io.IOException;
 import java.io.PrintWriter;
 import java.util.List;
 import java.util.Map;
-
-import org.elasticsearch.client.Request;
-import org.elasticsearch.client.RequestOptions;
-import org.elasticsearch.client.Response;
-import org.elasticsearch.client.ResponseException;
-import org.elasticsearch.client.RestClient;
-
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Supplier;
 
 /**
  * This servlet processes all HTTP requests coming from the "/search" endpoint
@@ -55,12 +68,24 @@ import org.elasticsearch.client.RestClient;
 @WebServlet(
         name = "SearchServlet",
         urlPatterns = {"/search"},
+        asyncSupported = true,
         description = "Servlet for handling search requests")
 
 public class SearchServlet extends HttpServlet {
     private static final Logger logger = Logger.getLogger(SearchServlet.class.getName());
     private static final JsonMapper jsonMapper = new JsonMapper();
-    private static final JacksonJsonpMapper jacksonJsonpMapper = new JacksonJsonpMapper(jsonMapper);
+    private static final ResponseCache responseCache = ResponseCache.getDefault();
+    private static final LandingPages landingPages = LandingPages.getDefault();
+    private static final CacheWarmer cacheWarmer = CacheWarmer.getDefault();
+    private static final SingleFlight<RawResponse> singleFlight = SingleFlight.search();
+    private static final ClusterHealth clusterHealth = ClusterHealth.getDefault();
+    private static final ConcurrencyLimiter limiter = ConcurrencyLimiter.search();
+    private static final String CACHE_HEADER = "X-Blackbox-Cache";
+    private static final String NEXT_CURSOR_HEADER = "X-Blackbox-Next-Cursor";
+    //Keeps cached aggregations apart from cached search responses
+    private static final String AGGREGATIONS_KEY_PREFIX = "aggregations:";
+    //Smaller bodies are sent as they are, gzip would save little and may even grow them
+    private static final int MIN_GZIP_BYTES = 1024;
 
     @Serial
     private static final long serialVersionUID = 1L;
@@ -79,158 +104,497 @@ public class SearchServlet extends HttpServlet {
             throws IOException {
         request.setCharacterEncoding("UTF-8");
         response.setContentType("application/json;charset=UTF-8");
+        //The body depends on whether the client accepts gzip, so shared caches must keep both
+        response.addHeader("Vary", "Accept-Encoding");
+        boolean acceptsGzip = GzipUtils.acceptsGzip(request.getHeader("Accept-Encoding"));
 
         //Get parameters from the request
-        String queryString = request.getParameter(Params.QUERY_STRING);
-        String aggs = request.getParameter(Params.AGGREGATIONS);
-        String[] indices = request.getParameterValues(Params.INDICES);
-        String from = request.getParameter(Params.FROM);
-        String size = request.getParameter(Params.SIZE);
-        String fromDate = request.getParameter(Params.FROM_DATE);
-        String toDate = request.getParameter(Params.TO_DATE);
-        String sortString = request.getParameter(Params.SORT);
-        String isPretty = request.getParameter(Params.PRETTY_PRINT);
-        String[] selectedFilters = request.getParameterValues(Params.SELECTED_FILTERS);
-        String service = request.getParameter(Params.SERVICE);
-        String indexToBoost = request.getParameter(Params.INDEX_BOOST);
-
-        try ( OutputStream out = response.getOutputStream()) {
-            //Reject over-length query strings up front (H1)
-            if (queryString != null && queryString.length() > Params.MAX_QUERY_LENGTH) {
-                logger.warning("Rejected over-length q (" + queryString.length() + " chars)");
-                response.setStatus(HttpServletResponse.SC_BAD_REQUEST);
-                ObjectNode error = jsonMapper.createObjectNode();
-                error.put("error", "Query parameter 'q' exceeds the maximum length of "
-                        + Params.MAX_QUERY_LENGTH + " characters");
-                out.write(jsonMapper.writeValueAsBytes(error));
+        SearchParameters params = SearchParameters.of(request.getParameterMap());
+        String queryString = params.getQueryString();
+        String[] indices = params.getIndices();
+        String service = params.getService();
+
+        //Reject over-length query strings up front (H1)
+        if (queryString != null && queryString.length() > Params.MAX_QUERY_LENGTH) {
+            logger.warning("Rejected over-length q (" + queryString.length() + " chars)");
+            writeError(response, HttpServletResponse.SC_BAD_REQUEST, "Query parameter 'q' exceeds the maximum length of "
+                    + Params.MAX_QUERY_LENGTH + " characters");
+            return;
+        }
+        //Reject malformed aggregations early with a 400 JSON body instead of a later 500/HTML.
+        //Aggregations are compiled once here and shared by the filters and the search builder.
+        FacetSpec facets;
+        try {
+            facets = FacetSpec.parse(params.getAggregations());
+        } catch (IllegalParameterException e) {
+            logger.warning("Invalid aggregations parameter: " + e.getMessage());
+            writeError(response, HttpServletResponse.SC_BAD_REQUEST, e.getMessage());
+            return;
+        }
+
+        String endpoint;
+        RequestBody requestBody;
+        Map<String, String> parameters;
+        ServiceName serviceName;
+        RequestMetrics metrics;
+        String cacheKey = null;
+        String flightKey = null;
+        boolean cursorPaging = false;
+        Cursor position = null;
+        AggregationSplit split = null;
+        String aggregationsKey = null;
+        ConcurrencyLimiter.Permit permit = null;
+        try {
+            serviceName = ServiceName.toEnum(service);
+            metrics = Metrics.search(serviceName);
+            //Front pages boost a random picture, and are answered with a random variant searched in the background
+            byte[] landing = landingPages.get(params);
+            if (landing != null) {
+                response.setHeader(CACHE_HEADER, "HIT");
+                writeBody(response, landing, true, acceptsGzip, metrics);
                 return;
             }
-            //Reject malformed aggregations early with a 400 JSON body instead of a later 500/HTML
-            if (StringUtils.hasText(aggs)) {
-                try {
-                    AggregationUtils.validateAggregations(aggs);
-                } catch (IllegalParameterException e) {
-                    logger.warning("Invalid aggregations parameter: " + e.getMessage());
-                    response.setStatus(HttpServletResponse.SC_BAD_REQUEST);
-                    ObjectNode error = jsonMapper.createObjectNode();
-                    error.put("error", e.getMessage());
-                    out.write(jsonMapper.writeValueAsBytes(error));
-                    return;
-                }
-            }
+            long buildStart = System.nanoTime();
             ElasticsearchClient client = ElasticsearchClientFactory.getElasticsearchClient();
-            RestClientTransport restClientTransport = (RestClientTransport) client._transport();
-            RestClient restClient = restClientTransport.restClient();
-
-
-
-
-          //Assign default values, if needs be
-            int _from = StringUtils.parseIntWithDefault(from, Params.DEFAULT_FROM, 0, Integer.MAX_VALUE);
-            int _size = StringUtils.parseIntWithDefault(size, Params.DEFAULT_SIZE, 1, Params.MAX_SIZE);
+            ResponseProfile responseProfile = ResponseProfile.of(serviceName, params.getProfile(), List.of(params.getFields()));
 
             //Build a facet map based on selected filters.
             //E.g. {"subject.exact" = ["Flyfoto" , "Birkeland"], "type" = ["Brev"]}
-            Map<String, List<String>> selectedFacets = FilterUtils.buildFilterMap(selectedFilters);
-
+            Map<String, List<String>> selectedFacets = FilterUtils.buildFilterMap(params.getSelectedFilters());
 
             logger.log(Level.FINE, "service: {0}", service);
-            //Get and build the corresponding search builder based on the "service" parameter
-            SearchBuilder<? extends SearchBuilder<?>> builder = SearchBuilderFactory
-                    .getSearchBuilder(service, client)
-                    .setIndices(indices)
-                    .setQueryString(queryString)
-                    .setAggregations(aggs)
-                    .setFrom(_from)
-                    .setSize(_size)
-                    .setSelectedFacets(selectedFacets)
-                    .setSortBuilder(SortUtils.getSort(sortString))
-                    .setIndexToBoost(indexToBoost);
-
-            //Add top level filter, for "AND" aggregations
-            BoolQuery.Builder topFilter = FilterUtils.getTopFilter(
-                    selectedFacets, aggs, DateRange.of(fromDate, toDate)
-            );
-            if (topFilter.hasClauses()) {
-                builder.setFilter(topFilter.build());
+            SearchBuilder<? extends SearchBuilder<?>> builder = newSearchBuilder(
+                    client, params, facets, selectedFacets, responseProfile);
+
+            //Page with a point in time and search_after instead of from, see Cursor
+            String cursor = params.getCursor();
+            cursorPaging = cursor != null;
+            //Pages of a point in time are neither shared nor cached, each cursor is used once
+            boolean cacheable = !cursorPaging && builder.isCacheable();
+            if (cacheable) {
+                cacheWarmer.record(params);
             }
-            //Add post-filter for "OR" aggregations if any
-            BoolQuery.Builder postFilter = FilterUtils.getPostFilter(selectedFacets, aggs);
-            if (postFilter.hasClauses()) {
-              logger.log(Level.FINE, "postfilter hasClauses in SearchServlet:  {0}", postFilter.hasClauses());
-              builder.setPostFilter(QueryBuilders.bool().must(postFilter.build()._toQuery()).build());
+            //Identical requests in flight at the same time share one Elasticsearch call
+            if (cacheable && singleFlight.isEnabled()) {
+                flightKey = params.fingerprint();
             }
+            //Serve popular requests from memory instead of asking the cluster again
+            if (cacheable && responseCache.isEnabled(serviceName)) {
+                cacheKey = params.fingerprint();
+                byte[] cached = responseCache.get(cacheKey);
+                if (cached != null) {
+                    response.setHeader(CACHE_HEADER, "HIT");
+                    writeBody(response, cached, true, acceptsGzip, metrics);
+                    return;
+                }
+                response.setHeader(CACHE_HEADER, "MISS");
+            }
+
+            //Fail fast while the cluster is known to be down, instead of waiting for the request to fail
+            if (clusterHealth.snapshot().isUnavailable()) {
+                logger.warning("Rejected search while the Elasticsearch cluster is unavailable");
+                response.setHeader("Retry-After", String.valueOf(clusterHealth.getPollSeconds()));
+                writeError(response, HttpServletResponse.SC_SERVICE_UNAVAILABLE, "Search is temporarily unavailable");
+                return;
+            }
+            //Shed load while the cluster is slow, see ConcurrencyLimiter. Opening a point in time counts too.
+            permit = limiter.tryAcquire();
+            if (permit == null) {
+                logger.fine("Rejected search over the concurrency limit of " + limiter.getLimit());
+                response.setHeader("Retry-After", "1");
+                writeError(response, HttpServletResponse.SC_SERVICE_UNAVAILABLE, "Too many searches, try again later");
+                return;
+            }
+            if (cursorPaging) {
+                position = Cursor.START.equals(cursor) ? builder.openCursor() : Cursor.decode(cursor);
+                builder.setCursor(position);
+            }
+            setFilters(builder, params, selectedFacets, facets);
+            //A point in time search must not name indices
+            endpoint = cursorPaging ? LowLevelClient.searchEndpoint() : LowLevelClient.searchEndpoint(indices);
+            parameters = responseProfile.getParameters();
             //Serialize SearchBuilder request to JSON to skip serialization and deserialization
             // and properly serialize aggregations without type names in
             // the key e.g., not "sterms#related.exact": but "related:exact"
-            try (StringWriter writer = new StringWriter()) {
-                JsonFactory jsonFactory = new JsonFactory();
-                com.fasterxml.jackson.core.JsonGenerator jacksonGenerator = jsonFactory.createGenerator(writer);
-                if (Boolean.parseBoolean(isPretty)) {
-                    jacksonGenerator.useDefaultPrettyPrinter();
-                }
-                JsonGenerator generator = new JacksonJsonpGenerator(jacksonGenerator);
-                builder.constructSearchRequest().build().serialize(generator, jacksonJsonpMapper );
-
-                generator.close();
-
-                // Execute the request built by the high-level client via the low-level REST client,
-                // so aggregation keys are serialized without ES type-name prefixes (e.g. "related.exact"
-                // rather than "sterms#related.exact").
-                // also avoids packing/unpacking
-                String requestAsJson = writer.toString();
-                Request request1 = new Request("POST", buildEndpoint(indices));
-                request1.setJsonEntity(requestAsJson);
-                request1.setOptions(RequestOptions.DEFAULT.toBuilder());
-                Response response1 = restClient.performRequest(request1);
-                response1.getEntity().writeTo(out);
-
-            } catch (ResponseException e) {
-                int status = e.getResponse().getStatusLine().getStatusCode();
-                //Log the full ES error server-side, but return a generic body so ES internals
-                //(mappings, field names, stack traces) are not leaked to the client (H2 / item 3)
-                logger.warning("ES returned " + status + " for query [" + queryString + "]: " + e.getMessage());
-                response.setStatus(status);
-                ObjectNode error = jsonMapper.createObjectNode();
-                error.put("error", status == HttpServletResponse.SC_BAD_REQUEST
-                        ? "Invalid search request" : "Search request failed");
-                error.put("status", status);
-                out.write(jsonMapper.writeValueAsBytes(error));
-            } catch (IllegalArgumentException e) {
-                logger.warning("Bad request: " + e.getMessage());
-                response.setStatus(HttpServletResponse.SC_BAD_REQUEST);
-                ObjectNode error = jsonMapper.createObjectNode();
-                error.put("error", e.getMessage());
-                out.write(jsonMapper.writeValueAsBytes(error));
-            } catch (IOException e) {
-                if (e.getMessage() != null && e.getMessage().contains("Broken pipe")
-                        || e.getCause() instanceof IOException c && c.getMessage() != null && c.getMessage().contains("Broken pipe")) {
-                    logger.log(Level.INFO, "Client disconnected before response was complete");
-                } else {
-                    logger.log(Level.SEVERE, "Unexpected error processing search request", e);
-                    throw e;
+            SearchRequest searchRequest = builder.constructSearchRequest().build();
+            long built = System.nanoTime();
+            metrics.recordBuild(built - buildStart);
+            //Aggregations do not change with the page or the sort, so they can be asked for and cached on their own
+            if (!cursorPaging && !facets.isEmpty() && AggregationSplit.isEnabled()) {
+                split = AggregationSplit.of(searchRequest);
+                requestBody = null;
+                if (cacheable && responseCache.isEnabled(serviceName)) {
+                    aggregationsKey = AGGREGATIONS_KEY_PREFIX + params.aggregationFingerprint();
                 }
-            } catch (Exception e) {
+            } else {
+                requestBody = RequestBody.of(searchRequest, params.isPretty());
+            }
+            metrics.recordSerialize(System.nanoTime() - built);
+        } catch (IllegalArgumentException | IllegalParameterException e) {
+            if (permit != null) {
+                permit.cancel();
+            }
+            logger.warning("Bad request: " + e.getMessage());
+            writeError(response, HttpServletResponse.SC_BAD_REQUEST, e.getMessage());
+            return;
+        } catch (IOException | ElasticsearchException e) {
+            //The point in time could not be opened
+            if (permit != null) {
+                permit.release(!(e instanceof ElasticsearchException ee) || ee.status() >= 500 || ee.status() == 429);
+            }
+            writeFailure(response, queryString, e);
+            return;
+        } catch (RuntimeException e) {
+            if (permit != null) {
+                permit.cancel();
+            }
+            throw e;
+        }
+
+        // Execute the request built by the high-level client via the low-level REST client,
+        // so aggregation keys are serialized without ES type-name prefixes (e.g. "related.exact"
+        // rather than "sterms#related.exact").
+        // also avoids packing/unpacking
+        LowLevelClient lowLevelClient = ElasticsearchClientFactory.getLowLevelClient();
+        String key = cacheKey;
+        Cursor paging = position;
+        int size = params.getSize();
+        AsyncSupport.BlockingSupplier<RawResponse> blocking;
+        Supplier<CompletableFuture<RawResponse>> async;
+        if (split != null) {
+            AggregationSplit searches = split;
+            String coalesceKey = flightKey;
+            String aggregationsCacheKey = aggregationsKey;
+            Supplier<CompletableFuture<RawResponse>> send = () -> performSplit(lowLevelClient, endpoint, parameters,
+                    searches, aggregationsCacheKey, serviceName);
+            Supplier<CompletableFuture<RawResponse>> shared = coalesceKey == null
+                    ? send : () -> singleFlight.execute(coalesceKey, send);
+            async = shared;
+            blocking = () -> AsyncSupport.await(shared.get());
+        } else if (flightKey != null) {
+            String coalesceKey = flightKey;
+            async = () -> coalesce(coalesceKey, lowLevelClient, endpoint, parameters, requestBody);
+            blocking = () -> AsyncSupport.await(coalesce(coalesceKey, lowLevelClient, endpoint, parameters, requestBody));
+        } else {
+            async = () -> lowLevelClient.performAsync("POST", endpoint, parameters, requestBody);
+            blocking = () -> lowLevelClient.perform("POST", endpoint, parameters, requestBody);
+        }
+        long sent = System.nanoTime();
+        try {
+            AsyncSupport.respond(request, response, permit, SearchServlet::isFailed, blocking, async,
+                    (out, result, failure) -> {
+                        metrics.recordElasticsearch(System.nanoTime() - sent);
+                        if (failure != null) {
+                            writeFailure(out, queryString, failure);
+                        } else {
+                            writeSearchResponse(out, queryString, key, serviceName, result, acceptsGzip, metrics,
+                                    paging, size);
+                        }
+                    });
+        } catch (IOException e) {
+            if (AsyncSupport.isClientDisconnect(e)) {
+                logger.log(Level.INFO, "Client disconnected before response was complete");
+            } else {
                 logger.log(Level.SEVERE, "Unexpected error processing search request", e);
                 throw e;
             }
+        }
+    }
+
+    /**
+     * Get and build the corresponding search builder based on the "service" parameter, without filters,
+     * see {@link #setFilters(SearchBuilder, SearchParameters, Map, FacetSpec)}
+     *
+     * @throws IllegalArgumentException if the service is not known
+     */
+    static SearchBuilder<? extends SearchBuilder<?>> newSearchBuilder(ElasticsearchClient client,
+                                                                     SearchParameters params, FacetSpec facets,
+                                                                     Map<String, List<String>> selectedFacets,
+                                                                     ResponseProfile responseProfile) {
+        return SearchBuilderFactory
+                .getSearchBuilder(params.getService(), client)
+                .setIndices(params.getIndices())
+                .setQueryString(params.getQueryString())
+                .setFacetSpec(facets)
+                .setFrom(params.getFrom())
+                .setSize(params.getSize())
+                .setSelectedFacets(selectedFacets)
+                .setSortBuilder(SortUtils.getSort(params.getSort()))
+                .setIndexToBoost(params.getIndexToBoost())
+                .setResponseProfile(responseProfile);
+    }
+
+    /**
+     * Search one variant of a front page, see {@link LandingPages}
+     *
+     * @param params  the parameters of a front page
+     * @param variant the random picture to boost
+     * @return the gzip compressed response body, or {@code null} if the search failed or timed out
+     */
+    @Nullable
+    static byte[] loadLandingPage(SearchParameters params, int variant) throws IOException {
+        return search(params, variant);
+    }
+
+    /**
+     * Replay a search to warm up the node, and cache the response, see {@link CacheWarmer}
+     *
+     * @param params the parameters of a common search
+     */
+    static void warm(SearchParameters params) throws IOException {
+        ServiceName serviceName = ServiceName.toEnum(params.getService());
+        byte[] body = search(params, -1);
+        if (body != null && responseCache.isEnabled(serviceName)) {
+            responseCache.put(params.fingerprint(), serviceName, body);
+        }
+    }
+
+    /**
+     * Run a search outside of a request, the same way as "/search" does
+     *
+     * @param randomPicture the random picture to boost on a Marcus front page, -1 to pick one
+     * @return the gzip compressed response body, or {@code null} if the search failed or timed out
+     */
+    @Nullable
+    private static byte[] search(SearchParameters params, int randomPicture) throws IOException {
+        ServiceName serviceName = ServiceName.toEnum(params.getService());
+        ResponseProfile responseProfile = ResponseProfile.of(serviceName, params.getProfile(), List.of(params.getFields()));
+        FacetSpec facets = FacetSpec.parse(params.getAggregations());
+        Map<String, List<String>> selectedFacets = FilterUtils.buildFilterMap(params.getSelectedFilters());
+        SearchBuilder<? extends SearchBuilder<?>> builder = newSearchBuilder(
+                ElasticsearchClientFactory.getElasticsearchClient(), params, facets, selectedFacets, responseProfile);
+        if (builder instanceof MarcusSearchBuilder marcus) {
+            marcus.setRandomPicture(randomPicture);
+        }
+        setFilters(builder, params, selectedFacets, facets);
+        RawResponse result = ElasticsearchClientFactory.getLowLevelClient().perform("POST",
+                LowLevelClient.searchEndpoint(params.getIndices()), responseProfile.getParameters(),
+                RequestBody.of(builder.constructSearchRequest().build(), false));
+        if (!result.isSuccessful() || isTimedOut(result)) {
+            logger.warning("ES returned " + result.status() + " for [" + params + "]"
+                    + (result.isSuccessful() ? " (timed out)" : ""));
+            return null;
+        }
+        return result.gzip() ? result.body() : GzipUtils.gzip(result.body());
+    }
+
+    /**
+     * Set the top-level filter and the post-filter of a search builder from the selected filters and dates
+     *
+     * @param selectedFacets selected filters, see {@link FilterUtils#buildFilterMap(String[])}
+     * @param facets         compiled aggregations, which decide whether a filter is "AND" or "OR"
+     */
+    static void setFilters(SearchBuilder<?> builder, SearchParameters params,
+                           Map<String, List<String>> selectedFacets, FacetSpec facets) {
+        //Add top level filter, for "AND" aggregations
+        BoolQuery.Builder topFilter = FilterUtils.getTopFilter(
+                selectedFacets, facets, DateRange.of(params.getFromDate(), params.getToDate())
+        );
+        if (topFilter.hasClauses()) {
+            builder.setFilter(topFilter.build());
+        }
+        //Add post-filter for "OR" aggregations if any
+        BoolQuery.Builder postFilter = FilterUtils.getPostFilter(selectedFacets, facets);
+        if (postFilter.hasClauses()) {
+            logger.log(Level.FINE, "postfilter hasClauses in SearchServlet:  {0}", postFilter.hasClauses());
+            builder.setPostFilter(QueryBuilders.bool().must(postFilter.build()._toQuery()).build());
+        }
+    }
+
+    /**
+     * Send a search, or share the response of an identical search in flight. Every waiter writes
+     * the shared response bytes to its own client.
+     */
+    private static CompletableFuture<RawResponse> coalesce(String key, LowLevelClient lowLevelClient, String endpoint,
+                                                           @Nullable Map<String, String> parameters,
+                                                           RequestBody requestBody) {
+        AtomicBoolean sent = new AtomicBoolean();
+        CompletableFuture<RawResponse> result = singleFlight.execute(key, () -> {
+            sent.set(true);
+            return lowLevelClient.performAsync("POST", endpoint, parameters, requestBody);
+        });
+        if (!sent.get()) {
+            //Another request is sending the same body
+            requestBody.close();
+        }
+        return result;
+    }
+
+    /**
+     * Send the hits and the aggregations of a split search in parallel, see {@link AggregationSplit}, and merge
+     * the responses. The aggregations are taken from the response cache if they are there, and put in it if not.
+     *
+     * @param aggregationsKey the cache key of the aggregations, {@code null} if they are not cached
+     */
+    private static CompletableFuture<RawResponse> performSplit(LowLevelClient lowLevelClient, String endpoint,
+                                                               @Nullable Map<String, String> parameters,
+                                                               AggregationSplit split, @Nullable String aggregationsKey,
+                                                               ServiceName serviceName) {
+        CompletableFuture<RawResponse> hits = lowLevelClient.performAsync("POST", endpoint, parameters,
+                split.getHitsBody());
+        byte[] cached = aggregationsKey == null ? null : responseCache.get(aggregationsKey);
+        CompletableFuture<RawResponse> aggregations = cached != null
+                ? CompletableFuture.completedFuture(new RawResponse(HttpServletResponse.SC_OK, cached, true))
+                : lowLevelClient.performAsync("POST", endpoint, AggregationSplit.aggregationParameters(parameters),
+                split.getAggregationsBody());
+        String putKey = cached == null ? aggregationsKey : null;
+        CompletableFuture<RawResponse> merged = hits.thenCombine(aggregations, (hitsResponse, aggregationsResponse) -> {
+            try {
+                return merge(hitsResponse, aggregationsResponse, putKey, serviceName);
+            } catch (IOException e) {
+                throw new CompletionException(e);
+            }
+        });
+        //A timed out request must not leave the other one running
+        merged.whenComplete((result, failure) -> {
+            if (failure instanceof CancellationException) {
+                hits.cancel(true);
+                aggregations.cancel(true);
             }
+        });
+        return merged;
+    }
+
+    /**
+     * Merge the responses of a split search into the response of one search, or give the failed one back
+     *
+     * @param aggregationsKey the key to cache the aggregations under, {@code null} to not cache them
+     */
+    private static RawResponse merge(RawResponse hits, RawResponse aggregations, @Nullable String aggregationsKey,
+                                     ServiceName serviceName) throws IOException {
+        if (!hits.isSuccessful()) {
+            return hits;
         }
+        if (!aggregations.isSuccessful()) {
+            return aggregations;
+        }
+        byte[] aggregationsBody = aggregations.decodedBody();
+        byte[] aggregationsJson = AggregationSplit.aggregationsOf(aggregationsBody);
+        //Incomplete aggregations of a timed out search are never cached
+        if (aggregationsKey != null && aggregationsJson != null) {
+            responseCache.put(aggregationsKey, serviceName, aggregations.gzip() ? aggregations.body()
+                    : GzipUtils.gzip(aggregationsBody));
+        }
+        return new RawResponse(hits.status(), AggregationSplit.merge(hits.decodedBody(), aggregationsJson));
+    }
 
-    private static String buildEndpoint(String[] indices) {
-        if (indices != null && indices.length > 0) {
-          for (String index : indices) {
-            if (index == null || index.contains("..") || index.contains("/")
-                || index.startsWith("_") || index.contains("*")) {
-              throw new IllegalArgumentException("Invalid index name: " + index);
+    /**
+     * Write an Elasticsearch response to the client, and cache it if a cache key is given.
+     * Cached bodies are always gzip compressed, which makes them several times smaller.
+     * The cursor of the next page, if any, is sent in a header so the body is passed on as it is.
+     *
+     * @param cursor the cursor of this page, {@code null} if not paging with a cursor
+     */
+    private static void writeSearchResponse(HttpServletResponse response, String queryString,
+                                            @Nullable String cacheKey, ServiceName serviceName,
+                                            RawResponse result, boolean acceptsGzip, RequestMetrics metrics,
+                                            @Nullable Cursor cursor, int size) throws IOException {
+        if (!result.isSuccessful()) {
+            int status = result.status();
+            //Log the full ES error server-side, but return a generic body so ES internals
+            //(mappings, field names, stack traces) are not leaked to the client (H2 / item 3)
+            logger.warning("ES returned " + status + " for query [" + queryString + "]: "
+                    + new String(result.decodedBody(), StandardCharsets.UTF_8));
+            ObjectNode error = jsonMapper.createObjectNode();
+            error.put("error", status == HttpServletResponse.SC_BAD_REQUEST
+                    ? "Invalid search request" : "Search request failed");
+            error.put("status", status);
+            response.setStatus(status);
+            write(response, jsonMapper.writeValueAsBytes(error));
+            return;
+        }
+        if (cursor != null) {
+            Cursor next = Cursor.next(result.openBody(), size);
+            if (next != null) {
+                //Every page is searched with the variant of the first
+                response.setHeader(NEXT_CURSOR_HEADER, next.withVariant(cursor.getVariant()).encode());
             }
-          }
-            return "/" + String.join(",", indices) + "/_search";
         }
-        return "/_search";
+        //Partial results from a timed out search are returned, but never cached
+        boolean cache = cacheKey != null && !isTimedOut(result);
+        byte[] body = result.body();
+        boolean gzipped = result.gzip();
+        if (!gzipped && (cache || acceptsGzip && body.length >= MIN_GZIP_BYTES)) {
+            long start = System.nanoTime();
+            body = GzipUtils.gzip(body);
+            gzipped = true;
+            metrics.recordCompression(System.nanoTime() - start);
+        }
+        if (cache) {
+            responseCache.put(cacheKey, serviceName, body);
+        }
+        writeBody(response, body, gzipped, acceptsGzip, metrics);
+    }
+
+    /**
+     * Write a response body, passing gzip on to clients that accept it and decompressing it for the others
+     *
+     * @param gzipped whether the body is gzip compressed
+     */
+    private static void writeBody(HttpServletResponse response, byte[] body, boolean gzipped, boolean acceptsGzip,
+                                  RequestMetrics metrics) throws IOException {
+        if (gzipped && !acceptsGzip) {
+            long start = System.nanoTime();
+            body = GzipUtils.gunzip(body);
+            gzipped = false;
+            metrics.recordCompression(System.nanoTime() - start);
+        }
+        if (gzipped) {
+            response.setHeader("Content-Encoding", "gzip");
+        }
+        response.setContentLength(body.length);
+        metrics.recordResponseBytes(body.length);
+        write(response, body);
+    }
+
+    /**
+     * Write an error for a search that never got a response from Elasticsearch
+     */
+    private static void writeFailure(HttpServletResponse response, String queryString, Throwable failure)
+            throws IOException {
+        if (failure instanceof TimeoutException) {
+            logger.warning("Search timed out for query [" + queryString + "]");
+            writeError(response, HttpServletResponse.SC_GATEWAY_TIMEOUT, "Search request timed out");
+        } else {
+            logger.log(Level.SEVERE, "Unexpected error processing search request", failure);
+            writeError(response, HttpServletResponse.SC_INTERNAL_SERVER_ERROR, "Search request failed");
+        }
+    }
+
+    private static void writeError(HttpServletResponse response, int status, String message) throws IOException {
+        response.setStatus(status);
+        ObjectNode error = jsonMapper.createObjectNode();
+        error.put("error", message);
+        write(response, jsonMapper.writeValueAsBytes(error));
     }
 
+    private static void write(HttpServletResponse response, byte[] body) throws IOException {
+        try (OutputStream out = response.getOutputStream()) {
+            out.write(body);
+        }
+    }
+
+    /**
+     * Checks whether the search timed out on any shard, i.e. whether a response has partial results.
+     * The flag is near the beginning of the response body, e.g. {"took":5,"timed_out":false, ...}
+     */
+    private static boolean isTimedOut(RawResponse result) throws IOException {
+        byte[] body = result.gzip() ? GzipUtils.gunzipHead(result.body(), 64) : result.body();
+        String head = new String(body, 0, Math.min(body.length, 64), StandardCharsets.UTF_8);
+        return head.contains("\"timed_out\":true");
+    }
 
+    /**
+     * Whether a response counts as a failure for the concurrency limiter: a server error or a timed out search.
+     * Bad requests say nothing about the load on the cluster.
+     */
+    static boolean isFailed(RawResponse result) {
+        try {
+            return result.isServerError() || isTimedOut(result);
+        } catch (IOException e) {
+            return true;
+        }
+    }
 
     /**
      * Handles the HTTP <code>POST</code> method.
@@ -247,7 +611,6 @@ public class SearchServlet extends HttpServlet {
         objectNode.put("field", 405);
         objectNode.put("message","Method Not Allowed");
 
-
         request.setCharacterEncoding("UTF-8");
         response.setContentType("application/json;charset=UTF-8");
         response.setStatus(HttpServletResponse.SC_METHOD_NOT_ALLOWED);
@@ -2,8 +2,11 @@ package no.uib.marcus.servlet;
 
 import com.fasterxml.jackson.databind.json.JsonMapper;
 import com.fasterxml.jackson.databind.node.ObjectNode;
+import no.uib.marcus.client.ConcurrencyLimiter;
 import no.uib.marcus.common.Params;
 import no.uib.marcus.common.util.StringUtils;
+import no.uib.marcus.metrics.Metrics;
+import no.uib.marcus.metrics.RequestMetrics;
 import no.uib.marcus.search.suggestion.CompletionSuggestion;
 
 import jakarta.servlet.ServletException;
@@ -12,7 +15,9 @@ import jakarta.servlet.http.HttpServlet;
 import jakarta.servlet.http.HttpServletRequest;
 import jakarta.servlet.http.HttpServletResponse;
 import java.io.IOException;
+import java.io.OutputStream;
 import java.io.PrintWriter;
+import java.util.Set;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -23,7 +28,8 @@ import java.util.logging.Logger;
  */
 @WebServlet(
         name = "SuggestionServlet",
-        urlPatterns = {"/suggest"}
+        urlPatterns = {"/suggest"},
+        asyncSupported = true
 )
 public class SuggestionServlet extends HttpServlet {
     private static final Logger logger = Logger.getLogger(SuggestionServlet.class.getName());
@@ -31,6 +37,7 @@ public class SuggestionServlet extends HttpServlet {
     private static final int DEFAULT_SIZE = 5;
     private static final int SUGGESTION_MAX_SIZE = 15;
     private static final JsonMapper jsonMapper = new JsonMapper(); // Reusable, thread-safe
+    private static final ConcurrencyLimiter limiter = ConcurrencyLimiter.suggest();
 
 
   private void processRequest(HttpServletRequest request, HttpServletResponse response)
@@ -41,31 +48,64 @@ public class SuggestionServlet extends HttpServlet {
         String suggestText = request.getParameter(Params.QUERY_STRING);
         String[] indices = request.getParameterValues(Params.INDICES);
         int suggestSize = StringUtils.parseIntWithDefault(request.getParameter(Params.SIZE),DEFAULT_SIZE,1,SUGGESTION_MAX_SIZE);
-        String jsonString;
 
-        try (PrintWriter out = response.getWriter()) {
-          //Reject over-length query strings up front (H1)
-          if (suggestText != null && suggestText.length() > Params.MAX_QUERY_LENGTH) {
+        //Reject over-length query strings up front (H1)
+        if (suggestText != null && suggestText.length() > Params.MAX_QUERY_LENGTH) {
+          try (PrintWriter out = response.getWriter()) {
             response.setStatus(HttpServletResponse.SC_BAD_REQUEST);
             ObjectNode error = jsonMapper.createObjectNode();
             error.put("error", "Query parameter 'q' exceeds the maximum length of "
                 + Params.MAX_QUERY_LENGTH + " characters");
             out.write(error.toString());
-            return;
           }
-          try {
-            jsonString = jsonMapper.writeValueAsString(
-                CompletionSuggestion.getSuggestions(suggestText, suggestSize, indices));
-            out.write(jsonString);
-          } catch (Exception e) {
-            response.setStatus(HttpServletResponse.SC_INTERNAL_SERVER_ERROR);
-            ObjectNode errorNode = jsonMapper.createObjectNode();
-            errorNode.put("code", 500);
-            errorNode.put("message", "An error occurred while fetching suggestions");
+          return;
+        }
+        RequestMetrics metrics = Metrics.suggest();
+        //Answered from memory, without asking Elasticsearch or counting against the concurrency limit
+        Set<String> inMemory = CompletionSuggestion.getSuggestionsFromMemory(suggestText, suggestSize, indices);
+        if (inMemory != null) {
+          writeSuggestions(response, inMemory, metrics);
+          return;
+        }
+        //Shed load while the cluster is slow, see ConcurrencyLimiter
+        ConcurrencyLimiter.Permit permit = limiter.tryAcquire();
+        if (permit == null) {
+          response.setHeader("Retry-After", "1");
+          writeError(response, HttpServletResponse.SC_SERVICE_UNAVAILABLE);
+          return;
+        }
+        long sent = System.nanoTime();
+        AsyncSupport.respond(request, response, permit, suggestions -> false,
+            () -> CompletionSuggestion.searchSuggestions(suggestText, suggestSize, indices),
+            () -> CompletionSuggestion.searchSuggestionsAsync(suggestText, suggestSize, indices),
+            (out, suggestions, failure) -> {
+              metrics.recordElasticsearch(System.nanoTime() - sent);
+              //The failure counts against the limiter, but clients get no suggestions, as they always have
+              if (failure != null) {
+                logger.log(Level.SEVERE, "Suggestion error", failure);
+                writeSuggestions(out, Set.of(), metrics);
+              } else {
+                writeSuggestions(out, suggestions, metrics);
+              }
+            });
+    }
+
+    private static void writeSuggestions(HttpServletResponse response, Set<String> suggestions,
+                                         RequestMetrics metrics) throws IOException {
+        byte[] body = jsonMapper.writeValueAsBytes(suggestions);
+        metrics.recordResponseBytes(body.length);
+        try (OutputStream stream = response.getOutputStream()) {
+          stream.write(body);
+        }
+    }
+
+    private static void writeError(HttpServletResponse response, int status) throws IOException {
+        response.setStatus(status);
+        ObjectNode errorNode = jsonMapper.createObjectNode();
+        errorNode.put("code", status);
+        errorNode.put("message", "An error occurred while fetching suggestions");
+        try (PrintWriter out = response.getWriter()) {
             out.write(errorNode.toString());
-           logger.log(Level.SEVERE, "Suggestion error", e);
-           throw e;
-          }
         }
     }
 
@@ -0,0 +1,89 @@
+package no.uib.marcus.cache;
+
+import no.uib.marcus.common.SearchParameters;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.Assert.*;
+
+public class CacheWarmerTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testDisabledIsWarm() {
+        CacheWarmer warmer = new CacheWarmer("", 10, 5);
+        assertFalse(warmer.isEnabled());
+        assertTrue(warmer.isWarm());
+        warmer.record(params("q=bergen"));
+        assertTrue(warmer.top().isEmpty());
+    }
+
+    @Test
+    public void testMostCommonFirst() {
+        CacheWarmer warmer = warmer(2);
+        for (int i = 0; i < 3; i++) {
+            warmer.record(params("q=nordnes"));
+        }
+        warmer.record(params("q=bergen"));
+        warmer.record(params("q=bergen"));
+        warmer.record(params("q=oslo"));
+        assertEquals(List.of(params("q=nordnes").fingerprint(), params("q=bergen").fingerprint()), warmer.top());
+        assertFalse(warmer.isWarm());
+    }
+
+    @Test
+    public void testSaveAndReplay() throws IOException {
+        CacheWarmer warmer = warmer(10);
+        warmer.record(params("q=nordnes&size=20"));
+        warmer.record(params("service=wab&q=brev"));
+        warmer.save();
+
+        CacheWarmer restarted = warmer(10);
+        List<String> saved = restarted.read();
+        assertEquals(2, saved.size());
+        List<String> loaded = new ArrayList<>();
+        int done = restarted.replay(params -> {
+            if ("WAB".equals(params.getService())) {
+                throw new IOException("Failed");
+            }
+            loaded.add(params.fingerprint());
+        }, saved);
+        assertEquals(1, done);
+        assertEquals(List.of(params("q=nordnes&size=20").fingerprint()), loaded);
+        assertEquals(1, restarted.getReplayed());
+    }
+
+    @Test
+    public void testNothingToRead() throws IOException {
+        assertTrue(warmer(10).read().isEmpty());
+    }
+
+    @Test
+    public void testOnlyIndicesOfSearchesAreWatched() {
+        assertEquals(Set.of("admin", "ska"), CacheWarmer.indexNames(
+                List.of("index=ska&q=nordnes", "index=admin&index=ska")));
+    }
+
+    @Test
+    public void testSearchesWithoutIndicesWatchAll() {
+        assertEquals(Set.of(CacheWarmer.ALL_INDICES), CacheWarmer.indexNames(List.of("index=ska", "q=bergen")));
+        assertEquals(Set.of(CacheWarmer.ALL_INDICES), CacheWarmer.indexNames(List.of("index=ska", "index=log*")));
+        assertEquals(Set.of(CacheWarmer.ALL_INDICES), CacheWarmer.indexNames(List.of("index=_all")));
+    }
+
+    private CacheWarmer warmer(int size) {
+        return new CacheWarmer(folder.getRoot().toPath().resolve("warmup.txt").toString(), size, 1000);
+    }
+
+    private static SearchParameters params(String queryString) {
+        return SearchParameters.ofQueryString(queryString);
+    }
+}
@@ -0,0 +1,54 @@
+package no.uib.marcus.cache;
+
+import no.uib.marcus.common.SearchParameters;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.HashSet;
+import java.util.Set;
+
+import static org.junit.Assert.*;
+
+public class LandingPagesTest {
+
+    @Test
+    public void testOnlyMarcusFrontPages() {
+        assertFalse(new LandingPages("", 7, 60).isEnabled());
+        assertFalse(new LandingPages("service=wab;service=marcus&q=bergen", 7, 60).isEnabled());
+        assertTrue(new LandingPages("service=marcus", 7, 60).isEnabled());
+    }
+
+    @Test
+    public void testRandomVariants() {
+        LandingPages landingPages = new LandingPages("service=marcus&size=20", 3, 60);
+        landingPages.refresh((params, variant) -> new byte[]{(byte) variant});
+        assertEquals(3, landingPages.size());
+
+        SearchParameters frontPage = params("service=marcus&size=20");
+        Set<Byte> seen = new HashSet<>();
+        for (int i = 0; i < 200; i++) {
+            seen.add(landingPages.get(frontPage)[0]);
+        }
+        assertEquals(Set.of((byte) 0, (byte) 1, (byte) 2), seen);
+        assertEquals(200, landingPages.getHits());
+
+        assertNull(landingPages.get(params("service=marcus")));
+        assertNull(landingPages.get(params("service=marcus&size=20&q=bergen")));
+    }
+
+    @Test
+    public void testFailedRefreshKeepsPreviousResults() {
+        LandingPages landingPages = new LandingPages("service=marcus", 2, 60);
+        landingPages.refresh((params, variant) -> variant == 0 ? new byte[]{1} : null);
+        assertEquals(1, landingPages.size());
+        landingPages.refresh((params, variant) -> {
+            throw new IOException("Cluster is down");
+        });
+        assertEquals(1, landingPages.size());
+        assertArrayEquals(new byte[]{1}, landingPages.get(params("service=marcus")));
+    }
+
+    private static SearchParameters params(String queryString) {
+        return SearchParameters.ofQueryString(queryString);
+    }
+}
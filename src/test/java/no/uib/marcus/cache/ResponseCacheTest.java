@@ -0,0 +1,76 @@
+package no.uib.marcus.cache;
+
+import no.uib.marcus.common.ServiceName;
+import org.junit.Test;
+
+import java.util.EnumMap;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+public class ResponseCacheTest {
+
+    private static ResponseCache newCache(long maxBytes) {
+        Map<ServiceName, Long> ttl = new EnumMap<>(ServiceName.class);
+        ttl.put(ServiceName.MARCUS, 60L);
+        ttl.put(ServiceName.WAB, 60L);
+        ttl.put(ServiceName.NATUREN, 0L);
+        return new ResponseCache(maxBytes, ttl);
+    }
+
+    @Test
+    public void testHitsAndMisses() {
+        ResponseCache cache = newCache(1024 * 1024);
+        assertNull(cache.get("q=a"));
+        cache.put("q=a", ServiceName.MARCUS, new byte[]{1, 2, 3});
+        assertArrayEquals(new byte[]{1, 2, 3}, cache.get("q=a"));
+        assertEquals(1, cache.getHits());
+        assertEquals(1, cache.getMisses());
+    }
+
+    @Test
+    public void testServicesWithoutTimeToLiveAreNotCached() {
+        ResponseCache cache = newCache(1024 * 1024);
+        assertFalse(cache.isEnabled(ServiceName.NATUREN));
+        assertFalse(cache.isEnabled(ServiceName.MARCUS_ADMIN));
+        cache.put("q=a", ServiceName.NATUREN, new byte[]{1});
+        assertNull(cache.get("q=a"));
+    }
+
+    @Test
+    public void testLeastRecentlyUsedIsEvicted() {
+        //Each entry weighs a bit more than 1000 bytes, so only a few fit
+        ResponseCache cache = newCache(8 * 1100);
+        cache.put("a", ServiceName.MARCUS, new byte[1000 - 200]);
+        cache.put("b", ServiceName.MARCUS, new byte[1000 - 200]);
+        assertNotNull(cache.get("a"));
+        for (int i = 0; i < 20; i++) {
+            cache.put("key" + i, ServiceName.MARCUS, new byte[1000 - 200]);
+            cache.get("a");
+        }
+        assertNotNull(cache.get("a"));
+        assertNull(cache.get("b"));
+        assertTrue(cache.sizeInBytes() <= cache.getMaxBytes());
+        assertTrue(cache.getEvictions() > 0);
+    }
+
+    @Test
+    public void testLargeEntriesAreNotCached() {
+        ResponseCache cache = newCache(8 * 1024);
+        cache.put("big", ServiceName.MARCUS, new byte[2 * 1024]);
+        assertNull(cache.get("big"));
+    }
+
+    @Test
+    public void testInvalidate() {
+        ResponseCache cache = newCache(1024 * 1024);
+        cache.put("a", ServiceName.MARCUS, new byte[]{1});
+        cache.put("b", ServiceName.WAB, new byte[]{2});
+        assertEquals(1, cache.invalidate(ServiceName.WAB));
+        assertNull(cache.get("b"));
+        assertNotNull(cache.get("a"));
+        assertEquals(1, cache.invalidateAll());
+        assertEquals(0, cache.size());
+        assertEquals(0, cache.sizeInBytes());
+    }
+}
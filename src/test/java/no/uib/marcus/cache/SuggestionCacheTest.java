@@ -0,0 +1,59 @@
+package no.uib.marcus.cache;
+
+import org.junit.Test;
+
+import java.util.Set;
+
+import static org.junit.Assert.*;
+
+public class SuggestionCacheTest {
+
+    @Test
+    public void testExactHit() {
+        SuggestionCache cache = new SuggestionCache(100, 60);
+        cache.put("berg", 5, new String[]{"marcus", "ska"}, Set.of("Bergen", "Bergsdalen"));
+        assertEquals(Set.of("Bergen", "Bergsdalen"), cache.get("berg", 5, "ska", "marcus"));
+        assertEquals(1, cache.getHits());
+    }
+
+    @Test
+    public void testCompleteResultAnswersLongerPrefix() {
+        SuggestionCache cache = new SuggestionCache(100, 60);
+        cache.put("ber", 5, null, Set.of("Bergen", "Bergsdalen", "Berlin"));
+        assertEquals(Set.of("Bergen", "Bergsdalen"), cache.get("berg", 5));
+        assertEquals(Set.of("Bergen"), cache.get("berge", 5));
+        assertTrue(cache.get("bergx", 5).isEmpty());
+        assertEquals(3, cache.getPrefixHits());
+    }
+
+    @Test
+    public void testIncompleteResultIsNotFiltered() {
+        SuggestionCache cache = new SuggestionCache(100, 60);
+        //As many suggestions as requested, there may be more completions for "berg" than these
+        cache.put("ber", 2, null, Set.of("Bergen", "Berlin"));
+        assertNull(cache.get("berg", 2));
+        assertNull(cache.get("ber", 3));
+        assertNull(cache.get("ber", 2, "marcus"));
+        assertEquals(3, cache.getMisses());
+    }
+
+    @Test
+    public void testEviction() {
+        SuggestionCache cache = new SuggestionCache(2, 60);
+        cache.put("a", 5, null, Set.of("a1"));
+        cache.put("b", 5, null, Set.of("b1"));
+        cache.get("a", 5);
+        cache.put("c", 5, null, Set.of("c1"));
+        assertEquals(2, cache.size());
+        assertNotNull(cache.get("a", 5));
+        assertNull(cache.get("b", 5));
+    }
+
+    @Test
+    public void testDisabled() {
+        SuggestionCache cache = new SuggestionCache(0, 60);
+        cache.put("ber", 5, null, Set.of("Bergen"));
+        assertNull(cache.get("ber", 5));
+        assertNull(new SuggestionCache(100, 60).get(null, 5));
+    }
+}
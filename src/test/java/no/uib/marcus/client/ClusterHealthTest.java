@@ -0,0 +1,42 @@
+package no.uib.marcus.client;
+
+import org.junit.Test;
+
+import java.io.IOException;
+
+import static org.junit.Assert.*;
+
+public class ClusterHealthTest {
+
+    @Test
+    public void testUnknownUntilFirstPoll() {
+        ClusterHealth.Snapshot snapshot = new ClusterHealth(5).snapshot();
+        assertEquals("unknown", snapshot.status());
+        assertEquals(0, snapshot.updated());
+        assertFalse(snapshot.isUnavailable());
+    }
+
+    @Test
+    public void testFailedPollsKeepLastKnownHealth() {
+        ClusterHealth health = new ClusterHealth(5);
+        health.refresh(() -> new ClusterHealth.Snapshot("ub", "green", 3, 2, 1, 1000, 0));
+        for (int i = 1; i < ClusterHealth.UNAVAILABLE_AFTER_FAILURES; i++) {
+            health.refresh(ClusterHealthTest::fail);
+            assertFalse(health.snapshot().isUnavailable());
+        }
+        health.refresh(ClusterHealthTest::fail);
+        ClusterHealth.Snapshot snapshot = health.snapshot();
+        assertTrue(snapshot.isUnavailable());
+        assertEquals("green", snapshot.status());
+        assertEquals(3, snapshot.nodes());
+        assertEquals(1000, snapshot.updated());
+
+        health.refresh(() -> new ClusterHealth.Snapshot("ub", "yellow", 2, 1, 0, 2000, 0));
+        assertFalse(health.snapshot().isUnavailable());
+        assertEquals("yellow", health.snapshot().status());
+    }
+
+    private static ClusterHealth.Snapshot fail() throws IOException {
+        throw new IOException("Connection refused");
+    }
+}
@@ -0,0 +1,101 @@
+package no.uib.marcus.client;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+import static org.junit.Assert.*;
+
+public class ConcurrencyLimiterTest {
+    private static final long MILLIS = 1_000_000L;
+
+    @Test
+    public void testDisabledNeverRejects() {
+        ConcurrencyLimiter limiter = new ConcurrencyLimiter(0);
+        assertFalse(limiter.isEnabled());
+        for (int i = 0; i < 100; i++) {
+            assertNotNull(limiter.tryAcquire());
+        }
+        assertEquals(0, limiter.getRejected());
+        assertEquals(0, limiter.getInFlight());
+    }
+
+    @Test
+    public void testRejectsOverTheLimit() {
+        ConcurrencyLimiter limiter = new ConcurrencyLimiter(3);
+        List<ConcurrencyLimiter.Permit> permits = new ArrayList<>();
+        for (int i = 0; i < 3; i++) {
+            permits.add(limiter.tryAcquire());
+        }
+        assertNull(limiter.tryAcquire());
+        assertEquals(1, limiter.getRejected());
+
+        permits.getFirst().release(null);
+        //Only the first release counts
+        permits.getFirst().release(null);
+        assertEquals(2, limiter.getInFlight());
+        assertNotNull(limiter.tryAcquire());
+    }
+
+    @Test
+    public void testLimitFollowsLatency() {
+        ConcurrencyLimiter limiter = new ConcurrencyLimiter(100);
+        for (int i = 0; i < 100; i++) {
+            limiter.sample(10 * MILLIS, limiter.getLimit());
+        }
+        int steady = limiter.getLimit();
+        assertTrue("Grows while latency is stable: " + steady, steady > 20);
+
+        for (int i = 0; i < 20; i++) {
+            limiter.sample(50 * MILLIS, limiter.getLimit());
+        }
+        assertTrue("Shrinks when latency goes up: " + limiter.getLimit(), limiter.getLimit() < steady);
+    }
+
+    @Test
+    public void testFewRequestsInFlightDoNotChangeTheLimit() {
+        ConcurrencyLimiter limiter = new ConcurrencyLimiter(100);
+        for (int i = 0; i < 100; i++) {
+            limiter.sample(10 * MILLIS, 1);
+        }
+        assertEquals(20, limiter.getLimit());
+    }
+
+    @Test
+    public void testCancelLeavesLimitUnchanged() {
+        ConcurrencyLimiter limiter = new ConcurrencyLimiter(100);
+        ConcurrencyLimiter.Permit permit = limiter.tryAcquire();
+        permit.cancel();
+        permit.release(true);
+        assertEquals(0, limiter.getInFlight());
+        assertEquals(20, limiter.getLimit());
+    }
+
+    @Test
+    public void testFailedResponsesBackOff() {
+        ConcurrencyLimiter limiter = new ConcurrencyLimiter(100);
+        CompletableFuture<Integer> future = new CompletableFuture<>();
+        limiter.tryAcquire().releaseWhenComplete(future, status -> status >= 500);
+        future.complete(503);
+        assertEquals(0, limiter.getInFlight());
+        assertEquals(18, limiter.getLimit());
+    }
+
+    @Test
+    public void testFailuresBackOff() {
+        ConcurrencyLimiter limiter = new ConcurrencyLimiter(100);
+        CompletableFuture<String> future = new CompletableFuture<>();
+        limiter.tryAcquire().releaseWhenComplete(future);
+        assertEquals(1, limiter.getInFlight());
+        future.completeExceptionally(new IOException("Connection refused"));
+        assertEquals(0, limiter.getInFlight());
+        assertEquals(18, limiter.getLimit());
+        for (int i = 0; i < 100; i++) {
+            limiter.backOff();
+        }
+        assertEquals(2, limiter.getLimit());
+    }
+}
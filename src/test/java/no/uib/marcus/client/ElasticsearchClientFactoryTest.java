@@ -0,0 +1,59 @@
+package no.uib.marcus.client;
+
+import org.apache.http.HttpHost;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+public class ElasticsearchClientFactoryTest {
+
+    @Test
+    public void testParseHosts() {
+        HttpHost[] hosts = ElasticsearchClientFactory.parseHosts("es1:9201, es2,http://localhost:9202,", 9200);
+        assertArrayEquals(new HttpHost[]{
+                new HttpHost("es1", 9201, "https"),
+                new HttpHost("es2", 9200, "https"),
+                new HttpHost("localhost", 9202, "http")}, hosts);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testParseNoHosts() {
+        ElasticsearchClientFactory.parseHosts(" , ", 9200);
+    }
+
+    @Test
+    public void testRetryUntilCreated() throws Exception {
+        AtomicInteger attempts = new AtomicInteger();
+        CompletableFuture<String> future = new CompletableFuture<>();
+        ElasticsearchClientFactory.retry(future, () -> {
+            if (attempts.incrementAndGet() < 3) {
+                throw new IOException("Connection refused");
+            }
+            return "client";
+        }, () -> false, 1, 2);
+        assertEquals("client", future.get());
+        assertEquals(3, attempts.get());
+    }
+
+    @Test
+    public void testRetryStopsWhenClosed() throws InterruptedException {
+        AtomicInteger attempts = new AtomicInteger();
+        CompletableFuture<String> future = new CompletableFuture<>();
+        ElasticsearchClientFactory.retry(future, () -> {
+            attempts.incrementAndGet();
+            throw new IOException("Connection refused");
+        }, () -> attempts.get() >= 2, 1, 2);
+        assertEquals(2, attempts.get());
+        try {
+            future.get();
+            fail("The future should fail when closed");
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof IOException);
+        }
+    }
+}
@@ -0,0 +1,43 @@
+package no.uib.marcus.client;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class HttpClientSettingsTest {
+    private static final HttpClientSettings SETTINGS = new HttpClientSettings(200, 100, 4, 60, false);
+
+    @Test
+    public void testLimits() {
+        HttpClientSettings settings = new HttpClientSettings(50, 100, 0, -1, true);
+        assertEquals(50, settings.getMaxConnections());
+        //No more per node than in total
+        assertEquals(50, settings.getMaxConnectionsPerNode());
+        assertEquals(1, settings.getIoThreads());
+        assertEquals(0, settings.getKeepAliveSeconds());
+        assertTrue(settings.isCompression());
+    }
+
+    @Test
+    public void testKeepAliveWithoutHeader() {
+        assertEquals(60_000, SETTINGS.keepAliveMillis(null));
+    }
+
+    @Test
+    public void testShorterKeepAliveFromServer() {
+        assertEquals(5_000, SETTINGS.keepAliveMillis("timeout=5, max=1000"));
+        assertEquals(5_000, SETTINGS.keepAliveMillis("max=1000, Timeout=5"));
+    }
+
+    @Test
+    public void testLongerKeepAliveFromServerIsCapped() {
+        assertEquals(60_000, SETTINGS.keepAliveMillis("timeout=300"));
+    }
+
+    @Test
+    public void testInvalidKeepAliveHeader() {
+        assertEquals(60_000, SETTINGS.keepAliveMillis("timeout=soon"));
+        assertEquals(60_000, SETTINGS.keepAliveMillis("timeout=0"));
+        assertEquals(60_000, SETTINGS.keepAliveMillis("max=1000"));
+    }
+}
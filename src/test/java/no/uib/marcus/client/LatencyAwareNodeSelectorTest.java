@@ -0,0 +1,136 @@
+package no.uib.marcus.client;
+
+import com.sun.net.httpserver.HttpServer;
+import org.apache.http.HttpHost;
+import org.elasticsearch.client.Node;
+import org.elasticsearch.client.Request;
+import org.elasticsearch.client.Response;
+import org.elasticsearch.client.RestClient;
+import org.junit.After;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+public class LatencyAwareNodeSelectorTest {
+    private final List<HttpServer> servers = new ArrayList<>();
+
+    @After
+    public void tearDown() {
+        servers.forEach(server -> server.stop(0));
+    }
+
+    private static List<Node> nodes(String... hosts) {
+        List<Node> nodes = new ArrayList<>();
+        for (String host : hosts) {
+            nodes.add(new Node(HttpHost.create(host)));
+        }
+        return nodes;
+    }
+
+    private static List<String> hosts(List<Node> nodes) {
+        return nodes.stream().map(node -> node.getHost().toHostString()).toList();
+    }
+
+    @Test
+    public void testUnknownNodesAreKept() {
+        List<Node> nodes = nodes("http://es1:9200", "http://es2:9200");
+        new LatencyAwareNodeSelector().select(nodes);
+        assertEquals(2, nodes.size());
+    }
+
+    @Test
+    public void testSlowNodesAreLeftOut() {
+        LatencyAwareNodeSelector selector = new LatencyAwareNodeSelector();
+        selector.recordLatency(HttpHost.create("http://es1:9200"), TimeUnit.MILLISECONDS.toNanos(5));
+        selector.recordLatency(HttpHost.create("http://es2:9200"), TimeUnit.MILLISECONDS.toNanos(8));
+        selector.recordLatency(HttpHost.create("http://es3:9200"), TimeUnit.MILLISECONDS.toNanos(100));
+        List<Node> nodes = nodes("http://es1:9200", "http://es2:9200", "http://es3:9200");
+        selector.select(nodes);
+        assertEquals(List.of("es1:9200", "es2:9200"), hosts(nodes));
+    }
+
+    @Test
+    public void testFailedNodesAreLeftOutUnlessAllFailed() {
+        LatencyAwareNodeSelector selector = new LatencyAwareNodeSelector();
+        selector.recordFailure(HttpHost.create("http://es1:9200"));
+        List<Node> nodes = nodes("http://es1:9200", "http://es2:9200");
+        selector.select(nodes);
+        assertEquals(List.of("es2:9200"), hosts(nodes));
+
+        selector.recordFailure(HttpHost.create("http://es2:9200"));
+        nodes = nodes("http://es1:9200", "http://es2:9200");
+        selector.select(nodes);
+        assertEquals(2, nodes.size());
+    }
+
+    @Test
+    public void testAnswerClearsFailure() {
+        LatencyAwareNodeSelector selector = new LatencyAwareNodeSelector();
+        HttpHost host = HttpHost.create("http://es1:9200");
+        selector.recordFailure(host);
+        selector.recordLatency(host, TimeUnit.MILLISECONDS.toNanos(5));
+        List<Node> nodes = nodes("http://es1:9200", "http://es2:9200");
+        selector.select(nodes);
+        assertEquals(2, nodes.size());
+    }
+
+    /**
+     * A stand-in cluster of local HTTP servers: one fast node, one slow node and one that is down
+     */
+    @Test
+    public void testStandInCluster() throws IOException {
+        AtomicInteger fastRequests = new AtomicInteger();
+        AtomicInteger slowRequests = new AtomicInteger();
+        HttpHost fast = start(fastRequests, 0);
+        HttpHost slow = start(slowRequests, 50);
+        HttpHost down;
+        try (ServerSocket socket = new ServerSocket(0)) {
+            down = new HttpHost("localhost", socket.getLocalPort(), "http");
+        }
+
+        LatencyAwareNodeSelector selector = new LatencyAwareNodeSelector();
+        try (RestClient client = RestClient.builder(fast, slow, down)
+                .setNodeSelector(selector)
+                .setFailureListener(selector.failureListener(null))
+                .setHttpClientConfigCallback(selector::configure)
+                .build()) {
+            for (int i = 0; i < 40; i++) {
+                Response response = client.performRequest(new Request("GET", "/"));
+                assertEquals(200, response.getStatusLine().getStatusCode());
+            }
+        }
+        assertEquals(40, fastRequests.get() + slowRequests.get());
+        assertTrue("Slow node got " + slowRequests.get() + " requests", slowRequests.get() <= 2);
+    }
+
+    private HttpHost start(AtomicInteger requests, long delayMillis) throws IOException {
+        HttpServer server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        server.createContext("/", exchange -> {
+            requests.incrementAndGet();
+            try {
+                Thread.sleep(delayMillis);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            byte[] body = "{}".getBytes(StandardCharsets.UTF_8);
+            exchange.getResponseHeaders().add("Content-Type", "application/json");
+            exchange.sendResponseHeaders(200, body.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(body);
+            }
+        });
+        server.start();
+        servers.add(server);
+        return new HttpHost("localhost", server.getAddress().getPort(), "http");
+    }
+}
@@ -0,0 +1,56 @@
+package no.uib.marcus.client;
+
+import co.elastic.clients.json.jackson.JacksonJsonpMapper;
+import co.elastic.clients.transport.ElasticsearchTransport;
+import co.elastic.clients.transport.rest_client.RestClientTransport;
+import org.apache.http.HttpHost;
+import org.elasticsearch.client.RestClient;
+import org.junit.Test;
+
+import java.io.IOException;
+
+import static org.junit.Assert.*;
+
+public class LowLevelClientTest {
+    private static final HttpHost LOCALHOST = new HttpHost("localhost", 9200, "http");
+
+    @Test
+    public void testRestClientTransport() throws IOException {
+        //Nothing is sent until a request is made
+        try (ElasticsearchTransport transport = new RestClientTransport(RestClient.builder(LOCALHOST).build(),
+                new JacksonJsonpMapper())) {
+            assertTrue(LowLevelClient.of(transport) instanceof RestClientLowLevelClient);
+        }
+    }
+
+    @Test
+    public void testRest5ClientTransport() throws IOException {
+        try (ElasticsearchTransport transport = Rest5Transports.create(new HttpHost[]{LOCALHOST}, "key",
+                HttpClientSettings.defaults())) {
+            assertTrue(LowLevelClient.of(transport) instanceof Rest5LowLevelClient);
+        }
+    }
+
+    @Test
+    public void testSearchEndpoint() {
+        assertEquals("/_search", LowLevelClient.searchEndpoint());
+        assertEquals("/marcus,ska/_search", LowLevelClient.searchEndpoint("marcus", "ska"));
+    }
+
+    @Test
+    public void testSearchEndpointForPatterns() {
+        assertEquals("/_search", LowLevelClient.searchEndpointForPatterns());
+        assertEquals("/marcus-*,_all/_search", LowLevelClient.searchEndpointForPatterns("marcus-*", "_all"));
+        assertEquals("/marcus%2F_doc%3F/_search", LowLevelClient.searchEndpointForPatterns("marcus/_doc?"));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testSearchEndpointForPatternsRejectsDotSegments() {
+        LowLevelClient.searchEndpointForPatterns("..");
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testSearchEndpointRejectsPaths() {
+        LowLevelClient.searchEndpoint("marcus/_doc");
+    }
+}
@@ -0,0 +1,77 @@
+package no.uib.marcus.client;
+
+import co.elastic.clients.elasticsearch.core.SearchRequest;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class RequestBodyTest {
+    private static final SearchRequest REQUEST = SearchRequest.of(s -> s.size(10));
+
+    @Test
+    public void testSerializes() throws IOException {
+        try (RequestBody body = RequestBody.of(REQUEST, false)) {
+            assertEquals("{\"size\":10}", new String(body.toByteArray(), StandardCharsets.UTF_8));
+            assertEquals(body.toByteArray().length, body.length());
+        }
+    }
+
+    @Test
+    public void testDiscardedBufferIsNotReused() throws IOException {
+        RequestBody inFlight = RequestBody.of(REQUEST, false);
+        byte[] sending = inFlight.array();
+        inFlight.discard();
+        //A late close, e.g. from a completion racing with a cancellation, must not pool it either
+        inFlight.close();
+
+        List<RequestBody> bodies = new ArrayList<>();
+        try {
+            //More than the pool holds, so every pooled buffer is taken
+            for (int i = 0; i <= RequestBody.POOL_SIZE; i++) {
+                RequestBody body = RequestBody.of(REQUEST, false);
+                assertNotSame(sending, body.array());
+                bodies.add(body);
+            }
+        } finally {
+            bodies.forEach(RequestBody::close);
+        }
+    }
+
+    @Test
+    public void testPoolIsCapped() throws IOException {
+        List<RequestBody> bodies = new ArrayList<>();
+        for (int i = 0; i < RequestBody.POOL_SIZE + 10; i++) {
+            bodies.add(RequestBody.of(REQUEST, false));
+        }
+        bodies.forEach(RequestBody::close);
+        assertEquals(RequestBody.POOL_SIZE, RequestBody.pooled());
+    }
+
+    @Test
+    public void testClosedBufferIsReused() throws IOException {
+        List<RequestBody> bodies = new ArrayList<>();
+        for (int i = 0; i < RequestBody.POOL_SIZE; i++) {
+            bodies.add(RequestBody.of(REQUEST, false));
+        }
+        bodies.forEach(RequestBody::close);
+        RequestBody last = bodies.getLast();
+        byte[] pooled = last.array();
+        //Closing again does not pool the buffer twice
+        last.close();
+
+        List<RequestBody> reused = new ArrayList<>();
+        try {
+            for (int i = 0; i < RequestBody.POOL_SIZE; i++) {
+                reused.add(RequestBody.of(REQUEST, false));
+            }
+            assertEquals(1, reused.stream().filter(body -> body.array() == pooled).count());
+        } finally {
+            reused.forEach(RequestBody::close);
+        }
+    }
+}
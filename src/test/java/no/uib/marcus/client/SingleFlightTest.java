@@ -0,0 +1,112 @@
+package no.uib.marcus.client;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+public class SingleFlightTest {
+
+    @Test
+    public void testIdenticalCallsShareOneCall() throws Exception {
+        SingleFlight<String> flight = new SingleFlight<>(true);
+        AtomicInteger calls = new AtomicInteger();
+        CompletableFuture<String> call = new CompletableFuture<>();
+
+        CompletableFuture<String> leader = flight.execute("q=bergen", () -> {
+            calls.incrementAndGet();
+            return call;
+        });
+        CompletableFuture<String> follower = flight.execute("q=bergen", () -> {
+            calls.incrementAndGet();
+            return new CompletableFuture<>();
+        });
+        assertEquals(1, flight.size());
+        call.complete("response");
+
+        assertEquals("response", leader.get());
+        assertEquals("response", follower.get());
+        assertEquals(1, calls.get());
+        assertEquals(1, flight.getLeaders());
+        assertEquals(1, flight.getFollowers());
+        assertEquals(0, flight.size());
+    }
+
+    @Test
+    public void testCallAfterCompletionIsNewCall() {
+        SingleFlight<String> flight = new SingleFlight<>(true);
+        flight.execute("q=bergen", () -> CompletableFuture.completedFuture("first"));
+        assertEquals("second", flight.execute("q=bergen", () -> CompletableFuture.completedFuture("second")).join());
+        assertEquals(2, flight.getLeaders());
+    }
+
+    @Test
+    public void testDifferentKeysAreNotShared() {
+        SingleFlight<String> flight = new SingleFlight<>(true);
+        CompletableFuture<String> bergen = flight.execute("q=bergen", CompletableFuture::new);
+        CompletableFuture<String> oslo = flight.execute("q=oslo", CompletableFuture::new);
+        assertNotSame(bergen, oslo);
+        assertEquals(2, flight.getLeaders());
+        assertEquals(0, flight.getFollowers());
+    }
+
+    @Test
+    public void testCancelledWaiterDoesNotAffectOthers() throws Exception {
+        SingleFlight<String> flight = new SingleFlight<>(true);
+        CompletableFuture<String> call = new CompletableFuture<>();
+        CompletableFuture<String> leader = flight.execute("q=bergen", () -> call);
+        CompletableFuture<String> follower = flight.execute("q=bergen", () -> call);
+
+        leader.cancel(true);
+        assertFalse(call.isCancelled());
+        call.complete("response");
+        assertEquals("response", follower.get());
+    }
+
+    @Test
+    public void testCallIsCancelledWhenEveryWaiterGivesUp() {
+        SingleFlight<String> flight = new SingleFlight<>(true);
+        CompletableFuture<String> call = new CompletableFuture<>();
+        CompletableFuture<String> leader = flight.execute("q=bergen", () -> call);
+        CompletableFuture<String> follower = flight.execute("q=bergen", () -> call);
+
+        leader.cancel(true);
+        follower.cancel(true);
+        assertTrue(call.isCancelled());
+        assertEquals(0, flight.size());
+        //The next caller makes a new call
+        assertEquals("second", flight.execute("q=bergen", () -> CompletableFuture.completedFuture("second")).join());
+        assertEquals(2, flight.getLeaders());
+    }
+
+    @Test
+    public void testFailureIsShared() throws InterruptedException {
+        SingleFlight<String> flight = new SingleFlight<>(true);
+        CompletableFuture<String> call = new CompletableFuture<>();
+        CompletableFuture<String> leader = flight.execute("q=bergen", () -> call);
+        CompletableFuture<String> follower = flight.execute("q=bergen", () -> call);
+        call.completeExceptionally(new IOException("Connection refused"));
+        for (CompletableFuture<String> waiter : List.of(leader, follower)) {
+            try {
+                waiter.get();
+                fail("Expected the failure to be shared");
+            } catch (ExecutionException e) {
+                assertTrue(e.getCause() instanceof IOException);
+            }
+        }
+        assertEquals(0, flight.size());
+    }
+
+    @Test
+    public void testDisabled() {
+        SingleFlight<String> flight = new SingleFlight<>(false);
+        CompletableFuture<String> call = new CompletableFuture<>();
+        assertSame(call, flight.execute("q=bergen", () -> call));
+        assertEquals(0, flight.getLeaders());
+    }
+}
@@ -0,0 +1,117 @@
+package no.uib.marcus.common;
+
+import org.junit.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+public class SearchParametersTest {
+
+    @Test
+    public void testDefaults() {
+        SearchParameters params = SearchParameters.of(new HashMap<>());
+        assertEquals("MARCUS", params.getService());
+        assertEquals(Params.DEFAULT_FROM, params.getFrom());
+        assertEquals(Params.DEFAULT_SIZE, params.getSize());
+        assertEquals(0, params.getIndices().length);
+        assertFalse(params.isPretty());
+    }
+
+    @Test
+    public void testOfQueryString() {
+        SearchParameters params = SearchParameters.ofQueryString(
+                "service=wab&filter=type%23Brev&filter=subject.exact%23Nordnes&aggs=%5B%7B%22field%22%3A%22type%22%7D%5D&size=20");
+        assertEquals("WAB", params.getService());
+        assertArrayEquals(new String[]{"type#Brev", "subject.exact#Nordnes"}, params.getSelectedFilters());
+        assertEquals("[{\"field\":\"type\"}]", params.getAggregations());
+        assertEquals(20, params.getSize());
+        //A fingerprint gives the same search back
+        assertEquals(params.fingerprint(), SearchParameters.ofQueryString(params.fingerprint()).fingerprint());
+    }
+
+    @Test
+    public void testFingerprintIgnoresParameterOrder() {
+        Map<String, String[]> a = new HashMap<>();
+        a.put(Params.INDICES, new String[]{"marcus", "ska"});
+        a.put(Params.SELECTED_FILTERS, new String[]{"type#Brev", "subject.exact#Flyfoto"});
+        a.put(Params.QUERY_STRING, new String[]{"nordnes"});
+        a.put(Params.SERVICE, new String[]{"marcus"});
+
+        Map<String, String[]> b = new HashMap<>();
+        b.put(Params.SELECTED_FILTERS, new String[]{"subject.exact#Flyfoto", "type#Brev"});
+        b.put(Params.INDICES, new String[]{"ska", "marcus"});
+        b.put(Params.QUERY_STRING, new String[]{"nordnes"});
+        b.put(Params.SIZE, new String[]{"10"});
+        b.put(Params.PRETTY_PRINT, new String[]{"true"});
+
+        assertEquals(SearchParameters.of(a).fingerprint(), SearchParameters.of(b).fingerprint());
+    }
+
+    @Test
+    public void testFingerprintDiffersForDifferentSearches() {
+        Map<String, String[]> a = new HashMap<>();
+        a.put(Params.QUERY_STRING, new String[]{"nordnes"});
+        Map<String, String[]> b = new HashMap<>(a);
+        b.put(Params.FROM, new String[]{"10"});
+        Map<String, String[]> c = new HashMap<>(a);
+        c.put(Params.SERVICE, new String[]{"wab"});
+
+        String fingerprint = SearchParameters.of(a).fingerprint();
+        assertNotEquals(fingerprint, SearchParameters.of(b).fingerprint());
+        assertNotEquals(fingerprint, SearchParameters.of(c).fingerprint());
+    }
+
+    @Test
+    public void testAggregationFingerprintIgnoresPagingAndSort() {
+        Map<String, String[]> a = new HashMap<>();
+        a.put(Params.QUERY_STRING, new String[]{"nordnes"});
+        a.put(Params.AGGREGATIONS, new String[]{"[{\"field\":\"type\"}]"});
+        Map<String, String[]> b = new HashMap<>(a);
+        b.put(Params.FROM, new String[]{"20"});
+        b.put(Params.SIZE, new String[]{"50"});
+        b.put(Params.SORT, new String[]{"label:asc"});
+        Map<String, String[]> c = new HashMap<>(a);
+        c.put(Params.SELECTED_FILTERS, new String[]{"type#Brev"});
+
+        assertEquals(SearchParameters.of(a).aggregationFingerprint(), SearchParameters.of(b).aggregationFingerprint());
+        assertNotEquals(SearchParameters.of(a).fingerprint(), SearchParameters.of(b).fingerprint());
+        assertNotEquals(SearchParameters.of(a).aggregationFingerprint(), SearchParameters.of(c).aggregationFingerprint());
+    }
+
+    @Test
+    public void testFingerprintIncludesProfileAndFields() {
+        Map<String, String[]> a = new HashMap<>();
+        a.put(Params.QUERY_STRING, new String[]{"nordnes"});
+        Map<String, String[]> b = new HashMap<>(a);
+        b.put(Params.PROFILE, new String[]{"list"});
+        Map<String, String[]> c = new HashMap<>(b);
+        c.put(Params.FIELDS, new String[]{"label,identifier"});
+        Map<String, String[]> d = new HashMap<>(b);
+        d.put(Params.FIELDS, new String[]{"identifier", "label"});
+
+        assertNotEquals(SearchParameters.of(a).fingerprint(), SearchParameters.of(b).fingerprint());
+        assertNotEquals(SearchParameters.of(b).fingerprint(), SearchParameters.of(c).fingerprint());
+        assertEquals(SearchParameters.of(c).fingerprint(), SearchParameters.of(d).fingerprint());
+        assertArrayEquals(new String[]{"label", "identifier"}, SearchParameters.of(c).getFields());
+    }
+
+    @Test
+    public void testSizeIsClamped() {
+        Map<String, String[]> map = new HashMap<>();
+        map.put(Params.SIZE, new String[]{"100000"});
+        map.put(Params.FROM, new String[]{"abc"});
+        SearchParameters params = SearchParameters.of(map);
+        assertEquals(Params.MAX_SIZE, params.getSize());
+        assertEquals(Params.DEFAULT_FROM, params.getFrom());
+    }
+
+    @Test
+    public void testFromIsCapped() {
+        Map<String, String[]> map = new HashMap<>();
+        map.put(Params.FROM, new String[]{"1000000"});
+        map.put(Params.SIZE, new String[]{"50"});
+        assertEquals(Params.MAX_RESULT_WINDOW - 50, SearchParameters.of(map).getFrom());
+    }
+}
@@ -0,0 +1,39 @@
+package no.uib.marcus.common.util;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+import static no.uib.marcus.common.util.GzipUtils.acceptsGzip;
+import static org.junit.Assert.*;
+
+public class GzipUtilsTest {
+
+    @Test
+    public void testAcceptsGzip() {
+        assertTrue(acceptsGzip("gzip"));
+        assertTrue(acceptsGzip("gzip, deflate, br"));
+        assertTrue(acceptsGzip("br;q=1.0, GZIP;q=0.8"));
+        assertTrue(acceptsGzip("*"));
+        assertFalse(acceptsGzip(null));
+        assertFalse(acceptsGzip(""));
+        assertFalse(acceptsGzip("identity"));
+        assertFalse(acceptsGzip("deflate, br"));
+        assertFalse(acceptsGzip("gzip;q=0"));
+        assertFalse(acceptsGzip("gzip;q=0.0, br"));
+    }
+
+    @Test
+    public void testRoundTrip() throws IOException {
+        byte[] body = "{\"took\":5,\"timed_out\":false,\"hits\":{\"hits\":[]}}".getBytes(StandardCharsets.UTF_8);
+        byte[] gzipped = GzipUtils.gzip(body);
+        assertArrayEquals(body, GzipUtils.gunzip(gzipped));
+        assertEquals("{\"took\":5", new String(GzipUtils.gunzipHead(gzipped, 9), StandardCharsets.UTF_8));
+    }
+
+    @Test(expected = IOException.class)
+    public void testGunzipInvalid() throws IOException {
+        GzipUtils.gunzip("not gzip".getBytes(StandardCharsets.UTF_8));
+    }
+}
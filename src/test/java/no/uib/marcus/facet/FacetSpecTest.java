@@ -0,0 +1,72 @@
+package no.uib.marcus.facet;
+
+import no.uib.marcus.search.IllegalParameterException;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class FacetSpecTest {
+    private static final String AGGS = "["
+            + "{\"field\": \"assigned_to\", \"order\": \"term_asc\"},"
+            + "{\"field\": \"subject.exact\", \"size\": 10},"
+            + "{\"field\": \"created\", \"type\": \"date_histogram\", \"interval\": \"365d\"},"
+            + "{\"field\": \"customer_name\", \"size\": 21, \"operator\": \"or\", \"min_doc_count\": 0}"
+            + "]";
+
+    @Test
+    public void testParse() {
+        FacetSpec spec = FacetSpec.parse(AGGS);
+        assertEquals(4, spec.getFacets().size());
+        assertEquals(AGGS, spec.getSource());
+
+        Facet subject = spec.getFacets().get(1);
+        assertEquals("subject.exact", subject.getField());
+        assertEquals(Integer.valueOf(10), subject.getSize());
+        assertNull(subject.getMinDocCount());
+        assertNull(subject.getOrder());
+
+        assertTrue(spec.getFacets().get(2).isDateHistogram());
+        assertEquals(Integer.valueOf(0), spec.getFacets().get(3).getMinDocCount());
+    }
+
+    @Test
+    public void testOROperatorIgnoresCase() {
+        FacetSpec spec = FacetSpec.parse(AGGS);
+        assertTrue(spec.hasOROperator("customer_name"));
+        assertFalse(spec.hasOROperator("assigned_to"));
+        assertFalse(spec.hasOROperator("unknown"));
+    }
+
+    @Test
+    public void testContains() {
+        FacetSpec spec = FacetSpec.parse(AGGS);
+        assertTrue(spec.contains("assigned_to", "order", "TERM_ASC"));
+        assertTrue(spec.contains("subject.exact", "size", "10"));
+        assertFalse(spec.contains("subject.exact", "order", "term_asc"));
+    }
+
+    @Test
+    public void testParseIsMemoized() {
+        String aggs = new String(AGGS);
+        assertSame(FacetSpec.parse(AGGS), FacetSpec.parse(aggs));
+    }
+
+    @Test
+    public void testEmptyAggregations() {
+        assertSame(FacetSpec.EMPTY, FacetSpec.parse(null));
+        assertSame(FacetSpec.EMPTY, FacetSpec.parse(" "));
+        assertTrue(FacetSpec.parse("[]").isEmpty());
+        //Elements without a field are ignored
+        assertTrue(FacetSpec.parse("[{\"size\": 10}]").isEmpty());
+    }
+
+    @Test(expected = IllegalParameterException.class)
+    public void testInvalidJson() {
+        FacetSpec.parse("Test facets");
+    }
+
+    @Test(expected = IllegalParameterException.class)
+    public void testNotAnArray() {
+        FacetSpec.parse("{\"field\": \"type\"}");
+    }
+}
@@ -0,0 +1,68 @@
+package no.uib.marcus.metrics;
+
+import org.junit.Test;
+
+import java.io.StringWriter;
+
+import static org.junit.Assert.*;
+
+public class HistogramTest {
+
+    @Test
+    public void testLogLinearBounds() {
+        assertArrayEquals(
+                new long[]{10, 20, 30, 40, 50, 60, 70, 80, 90, 100, 200, 300, 400, 500, 600, 700, 800, 900, 1000},
+                Histogram.logLinearBounds(10, 1000));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testInvalidRange() {
+        Histogram.logLinear(1000, 10);
+    }
+
+    @Test
+    public void testRecord() {
+        Histogram histogram = Histogram.logLinear(10, 100);
+        histogram.record(5);    // <= 10
+        histogram.record(10);   // <= 10, bounds are inclusive
+        histogram.record(11);   // <= 20
+        histogram.record(95);   // <= 100
+        histogram.record(5000); // overflow
+
+        long[] counts = histogram.getCumulativeCounts();
+        assertEquals(11, counts.length);
+        assertEquals(2, counts[0]);
+        assertEquals(3, counts[1]);
+        assertEquals(3, counts[8]);
+        assertEquals(4, counts[9]);
+        assertEquals(5, counts[10]);
+        assertEquals(5, histogram.getCount());
+        assertEquals(5 + 10 + 11 + 95 + 5000, histogram.getSum());
+    }
+
+    @Test
+    public void testStatusCounts() {
+        RequestMetrics metrics = new RequestMetrics("search", "wab");
+        metrics.started();
+        metrics.started();
+        assertEquals(2, metrics.getInFlight());
+        metrics.completed(200, 1_000_000);
+        metrics.completed(42, 1_000_000);
+        assertEquals(0, metrics.getInFlight());
+        assertEquals(1, metrics.getStatusCount(200));
+        assertEquals(1, metrics.getStatusCount(0));
+        assertArrayEquals(new int[]{0, 200}, metrics.getStatuses());
+    }
+
+    @Test
+    public void testExposition() throws Exception {
+        Metrics.suggest().started();
+        Metrics.suggest().completed(200, 2_000_000);
+        StringWriter out = new StringWriter();
+        Metrics.write(out);
+        String text = out.toString();
+        assertTrue(text.contains("# TYPE blackbox_request_duration_seconds histogram"));
+        assertTrue(text.contains("blackbox_requests_total{endpoint=\"suggest\",service=\"none\",code=\"200\"}"));
+        assertTrue(text.contains("blackbox_request_duration_seconds_bucket{endpoint=\"suggest\",service=\"none\",le=\"+Inf\"}"));
+    }
+}
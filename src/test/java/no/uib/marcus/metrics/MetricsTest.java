@@ -0,0 +1,32 @@
+package no.uib.marcus.metrics;
+
+import no.uib.marcus.cache.ResponseCache;
+import org.junit.Test;
+
+import java.io.StringWriter;
+
+import static org.junit.Assert.assertTrue;
+
+public class MetricsTest {
+
+    @Test
+    public void testRegisteredSourcesAreWritten() throws Exception {
+        Metrics.register(out -> {
+            out.header("blackbox_test_total", "counter", "A test counter");
+            out.sample("blackbox_test_total", "result", "hit", 3);
+        });
+        StringWriter out = new StringWriter();
+        Metrics.write(out);
+        String text = out.toString();
+        assertTrue(text.contains("# TYPE blackbox_test_total counter\n"));
+        assertTrue(text.contains("blackbox_test_total{result=\"hit\"} 3\n"));
+    }
+
+    @Test
+    public void testSubsystemsRegisterTheirOwnMetrics() throws Exception {
+        ResponseCache.getDefault();
+        StringWriter out = new StringWriter();
+        Metrics.write(out);
+        assertTrue(out.toString().contains("blackbox_cache_bytes 0\n"));
+    }
+}
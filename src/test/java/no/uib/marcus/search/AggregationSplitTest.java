@@ -0,0 +1,89 @@
+package no.uib.marcus.search;
+
+import co.elastic.clients.elasticsearch.core.SearchRequest;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.json.JsonMapper;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+public class AggregationSplitTest {
+    private static final JsonMapper jsonMapper = new JsonMapper();
+
+    @Test
+    public void testSplit() throws IOException {
+        SearchRequest searchRequest = SearchRequest.of(s -> s
+                .from(20)
+                .size(10)
+                .query(q -> q.match(m -> m.field("label").query("bergen")))
+                .postFilter(q -> q.term(t -> t.field("type").value("Brev")))
+                .sort(so -> so.field(f -> f.field("label")))
+                .aggregations("type", a -> a.terms(t -> t.field("type"))));
+        AggregationSplit split = AggregationSplit.of(searchRequest);
+
+        JsonNode hits = jsonMapper.readTree(split.getHitsBody());
+        assertNull(hits.get("aggregations"));
+        assertEquals(20, hits.get("from").asInt());
+        assertNotNull(hits.get("sort"));
+        assertNotNull(hits.get("post_filter"));
+
+        JsonNode aggregations = jsonMapper.readTree(split.getAggregationsBody());
+        assertEquals(0, aggregations.get("size").asInt());
+        assertFalse(aggregations.get("track_total_hits").asBoolean());
+        assertNull(aggregations.get("from"));
+        assertNull(aggregations.get("sort"));
+        assertNull(aggregations.get("post_filter"));
+        assertEquals(hits.get("query"), aggregations.get("query"));
+        assertEquals("type", aggregations.at("/aggregations/type/terms/field").asText());
+    }
+
+    @Test
+    public void testPagesShareTheAggregationRequest() throws IOException {
+        AggregationSplit first = AggregationSplit.of(SearchRequest.of(s -> s.from(0)
+                .aggregations("type", a -> a.terms(t -> t.field("type")))));
+        AggregationSplit second = AggregationSplit.of(SearchRequest.of(s -> s.from(10)
+                .sort(so -> so.field(f -> f.field("label")))
+                .aggregations("type", a -> a.terms(t -> t.field("type")))));
+        assertArrayEquals(first.getAggregationsBody(), second.getAggregationsBody());
+    }
+
+    @Test
+    public void testAggregationParameters() {
+        assertEquals(Map.of("request_cache", "true"), AggregationSplit.aggregationParameters(null));
+        Map<String, String> parameters = AggregationSplit.aggregationParameters(Map.of("filter_path",
+                ResponseProfile.IDS_FILTER_PATH));
+        assertEquals("timed_out," + ResponseProfile.BUCKETS_FILTER_PATH, parameters.get("filter_path"));
+    }
+
+    @Test
+    public void testMerge() throws IOException {
+        byte[] aggregations = AggregationSplit.aggregationsOf(bytes(
+                "{\"took\":1,\"timed_out\":false,\"aggregations\":{\"type\":{\"buckets\":[{\"key\":\"Brev\"}]}}}"));
+        byte[] merged = AggregationSplit.merge(bytes("{\"took\":2,\"hits\":{\"hits\":[]}}\n"), aggregations);
+        JsonNode response = jsonMapper.readTree(merged);
+        assertEquals(2, response.get("took").asInt());
+        assertEquals("Brev", response.at("/aggregations/type/buckets/0/key").asText());
+
+        assertEquals("{ \"aggregations\":{}}",
+                new String(AggregationSplit.merge(bytes("{ }"), bytes("{}")), StandardCharsets.UTF_8));
+        //Nothing to add
+        assertEquals(0, AggregationSplit.aggregationsOf(bytes("{\"timed_out\":false}")).length);
+        assertEquals("{}", new String(AggregationSplit.merge(bytes("{}"), new byte[0]), StandardCharsets.UTF_8));
+    }
+
+    @Test
+    public void testTimedOutAggregationsMarkTheResponse() throws IOException {
+        assertNull(AggregationSplit.aggregationsOf(bytes("{\"timed_out\":true,\"aggregations\":{}}")));
+        JsonNode response = jsonMapper.readTree(AggregationSplit.merge(
+                bytes("{\"took\":2,\"timed_out\":false,\"hits\":{}}"), null));
+        assertTrue(response.get("timed_out").asBoolean());
+    }
+
+    private static byte[] bytes(String json) {
+        return json.getBytes(StandardCharsets.UTF_8);
+    }
+}
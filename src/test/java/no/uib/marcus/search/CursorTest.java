@@ -0,0 +1,79 @@
+package no.uib.marcus.search;
+
+import co.elastic.clients.elasticsearch._types.FieldValue;
+import co.elastic.clients.elasticsearch.core.SearchRequest;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class CursorTest {
+
+    private static final String RESPONSE = "{\"pit_id\":\"pit-2\",\"took\":3,\"timed_out\":false,"
+            + "\"hits\":{\"total\":{\"value\":100},\"hits\":["
+            + "{\"_id\":\"a\",\"_source\":{\"sort\":[\"ignored\"]},\"sort\":[2.5,\"Bergen\",17]},"
+            + "{\"_id\":\"b\",\"_source\":{\"label\":\"b\"},\"sort\":[1.25,\"Oslo\",42]}]},"
+            + "\"aggregations\":{\"sort\":{\"buckets\":[]}}}";
+
+    @Test
+    public void testNextFromResponse() throws IOException {
+        Cursor next = Cursor.next(stream(RESPONSE), 2);
+        assertNotNull(next);
+        assertEquals("pit-2", next.getPitId());
+        assertEquals(List.of(1.25, "Oslo", 42L), values(next));
+    }
+
+    @Test
+    public void testNoNextAfterLastPage() throws IOException {
+        assertNull(Cursor.next(stream(RESPONSE), 10));
+        assertNull(Cursor.next(stream("{\"pit_id\":\"pit\",\"hits\":{\"hits\":[]}}"), 10));
+    }
+
+    @Test
+    public void testEncodeDecode() throws IOException {
+        Cursor cursor = Cursor.next(stream(RESPONSE), 2);
+        Cursor decoded = Cursor.decode(cursor.encode());
+        assertEquals(cursor.getPitId(), decoded.getPitId());
+        assertEquals(values(cursor), values(decoded));
+    }
+
+    @Test
+    public void testVariantIsKept() throws IOException {
+        Cursor cursor = Cursor.next(stream(RESPONSE), 2);
+        assertEquals(-1, Cursor.decode(cursor.encode()).getVariant());
+        Cursor decoded = Cursor.decode(cursor.withVariant(3).encode());
+        assertEquals(3, decoded.getVariant());
+        assertEquals(values(cursor), values(decoded));
+    }
+
+    @Test
+    public void testApplyTo() {
+        SearchRequest first = Cursor.start("pit-1").applyTo(new SearchRequest.Builder()).build();
+        assertEquals("pit-1", first.pit().id());
+        assertTrue(first.searchAfter().isEmpty());
+        assertTrue(first.index().isEmpty());
+    }
+
+    @Test(expected = IllegalParameterException.class)
+    public void testInvalidCursor() {
+        Cursor.decode("not a cursor");
+    }
+
+    @Test(expected = IllegalParameterException.class)
+    public void testCursorWithoutPit() {
+        Cursor.decode(Base64.getUrlEncoder().encodeToString("{\"after\":[]}".getBytes(StandardCharsets.UTF_8)));
+    }
+
+    private static List<Object> values(Cursor cursor) {
+        return cursor.getSearchAfter().stream().map(FieldValue::_get).toList();
+    }
+
+    private static ByteArrayInputStream stream(String json) {
+        return new ByteArrayInputStream(json.getBytes(StandardCharsets.UTF_8));
+    }
+}
@@ -0,0 +1,125 @@
+package no.uib.marcus.search;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.json.JsonMapper;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+public class MultiSearchTest {
+    private static final JsonMapper jsonMapper = new JsonMapper();
+
+    @Test
+    public void testParse() {
+        List<Map<String, String[]>> searches = MultiSearch.parse(stream(
+                "[{\"service\":\"marcus\",\"q\":\"bergen\",\"size\":0,\"index\":[\"a\",\"b\"],"
+                        + "\"aggs\":[{\"field\":\"type\"}]},\"not a search\"]"), 10);
+        assertEquals(2, searches.size());
+        Map<String, String[]> first = searches.getFirst();
+        assertArrayEquals(new String[]{"bergen"}, first.get("q"));
+        assertArrayEquals(new String[]{"0"}, first.get("size"));
+        assertArrayEquals(new String[]{"a", "b"}, first.get("index"));
+        assertArrayEquals(new String[]{"[{\"field\":\"type\"}]"}, first.get("aggs"));
+        assertNull(searches.get(1));
+    }
+
+    @Test
+    public void testParseObjectWithSearches() {
+        assertEquals(1, MultiSearch.parse(stream("{\"searches\":[{\"q\":\"x\"}]}"), 10).size());
+    }
+
+    @Test
+    public void testParseRejectsInvalidBatches() {
+        assertThrows(IllegalParameterException.class, () -> MultiSearch.parse(stream("[]"), 10));
+        assertThrows(IllegalParameterException.class, () -> MultiSearch.parse(stream("{\"q\":\"x\"}"), 10));
+        assertThrows(IllegalParameterException.class, () -> MultiSearch.parse(stream("[{"), 10));
+        assertThrows(IllegalParameterException.class, () -> MultiSearch.parse(stream("[{},{}]"), 1));
+    }
+
+    @Test
+    public void testNdjsonSkipsInvalidSearches() throws IOException {
+        MultiSearch multiSearch = new MultiSearch()
+                .add(new String[]{"a", "b"}, bytes("{\"size\":1}"), null)
+                .addError(400, "Bad")
+                .add(new String[0], bytes("{\"size\":2}"), null);
+        assertEquals(3, multiSearch.size());
+        assertEquals(2, multiSearch.sent());
+        assertEquals("{\"index\":\"a,b\"}\n{\"size\":1}\n{}\n{\"size\":2}\n",
+                new String(multiSearch.toNdjson(), StandardCharsets.UTF_8));
+    }
+
+    @Test
+    public void testFilterPathOnlyWhenShared() {
+        MultiSearch shared = new MultiSearch()
+                .add(new String[0], bytes("{}"), "took,hits.hits._id")
+                .add(new String[0], bytes("{}"), "took,hits.hits._id");
+        assertEquals("responses.status,responses.error,responses.took,responses.hits.hits._id",
+                shared.getParameters().get("filter_path"));
+        MultiSearch mixed = new MultiSearch()
+                .add(new String[0], bytes("{}"), "took")
+                .add(new String[0], bytes("{}"), null);
+        assertNull(mixed.getParameters());
+    }
+
+    @Test
+    public void testResponsesInOrderWithErrors() throws IOException {
+        MultiSearch multiSearch = new MultiSearch()
+                .add(new String[0], bytes("{}"), null)
+                .addError(400, "Unknown profile")
+                .add(new String[0], bytes("{}"), null);
+        String responses = "{\"took\":7,\"responses\":["
+                + "{\"took\":3,\"hits\":{\"hits\":[{\"_id\":\"a\"}]},\"status\":200},"
+                + "{\"error\":{\"type\":\"query_shard_exception\",\"reason\":\"internal\"},\"status\":400}]}";
+        JsonNode result = write(multiSearch, responses);
+        assertEquals(3, result.get("responses").size());
+        assertEquals("a", result.at("/responses/0/hits/hits/0/_id").asText());
+        assertEquals("Unknown profile", result.at("/responses/1/error").asText());
+        assertEquals(400, result.at("/responses/1/status").asInt());
+        //Elasticsearch internals are not passed on
+        assertEquals("Invalid search request", result.at("/responses/2/error").asText());
+    }
+
+    @Test
+    public void testFailureOfWholeBatch() throws IOException {
+        MultiSearch multiSearch = new MultiSearch()
+                .addError(400, "Bad")
+                .add(new String[0], bytes("{}"), null);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        multiSearch.writeFailure(504, "Search request timed out", out);
+        JsonNode result = jsonMapper.readTree(out.toByteArray());
+        assertEquals(400, result.at("/responses/0/status").asInt());
+        assertEquals(504, result.at("/responses/1/status").asInt());
+    }
+
+    @Test
+    public void testMissingResponsesAreErrors() throws IOException {
+        MultiSearch multiSearch = new MultiSearch()
+                .add(new String[0], bytes("{}"), null)
+                .add(new String[0], bytes("{}"), null);
+        JsonNode result = write(multiSearch, "{\"responses\":[{\"status\":200}]}");
+        assertEquals(200, result.at("/responses/0/status").asInt());
+        assertEquals(500, result.at("/responses/1/status").asInt());
+    }
+
+    private static JsonNode write(MultiSearch multiSearch, String responses) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        multiSearch.writeResponses(stream(responses), out);
+        return jsonMapper.readTree(out.toByteArray());
+    }
+
+    private static InputStream stream(String json) {
+        return new ByteArrayInputStream(bytes(json));
+    }
+
+    private static byte[] bytes(String json) {
+        return json.getBytes(StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,65 @@
+package no.uib.marcus.search;
+
+import co.elastic.clients.elasticsearch.core.SearchRequest;
+import co.elastic.clients.elasticsearch.core.search.SourceConfig;
+import no.uib.marcus.common.ServiceName;
+import org.junit.Test;
+
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class ResponseProfileTest {
+
+    @Test
+    public void testDefaultIsFull() {
+        ResponseProfile profile = ResponseProfile.of(ServiceName.MARCUS, null, List.of());
+        assertSame(ResponseProfile.defaultProfile(), profile);
+        assertNull(profile.getParameters());
+        assertNull(build(profile).source());
+    }
+
+    @Test
+    public void testListProfile() {
+        ResponseProfile profile = ResponseProfile.of(ServiceName.NATUREN, "LIST", List.of());
+        assertEquals(ResponseProfile.LIST_FILTER_PATH, profile.getParameters().get("filter_path"));
+        assertEquals(List.of("textContent"), profile.getExcludes());
+        SourceConfig source = build(profile).source();
+        assertTrue(source.isFilter());
+        assertEquals(List.of("textContent"), source.filter().excludes());
+    }
+
+    @Test
+    public void testIdsProfileFetchesNoSource() {
+        ResponseProfile profile = ResponseProfile.of(ServiceName.WAB, "ids", List.of());
+        assertEquals(ResponseProfile.IDS_FILTER_PATH, profile.getFilterPath());
+        SourceConfig source = build(profile).source();
+        assertTrue(source.isFetch());
+        assertFalse(source.fetch());
+    }
+
+    @Test
+    public void testFields() {
+        ResponseProfile profile = ResponseProfile.of(ServiceName.MARCUS, "list", List.of("identifier", "label"));
+        assertEquals(List.of("identifier", "label"), build(profile).source().filter().includes());
+    }
+
+    @Test(expected = IllegalParameterException.class)
+    public void testFieldNotAllowed() {
+        ResponseProfile.of(ServiceName.MARCUS, null, List.of("secret"));
+    }
+
+    @Test(expected = IllegalParameterException.class)
+    public void testFieldsWithIds() {
+        ResponseProfile.of(ServiceName.MARCUS, "ids", List.of("label"));
+    }
+
+    @Test(expected = IllegalParameterException.class)
+    public void testUnknownProfile() {
+        ResponseProfile.of(ServiceName.MARCUS, "tiny", List.of());
+    }
+
+    private static SearchRequest build(ResponseProfile profile) {
+        return profile.applyTo(new SearchRequest.Builder()).build();
+    }
+}
@@ -0,0 +1,54 @@
+package no.uib.marcus.search.export;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.json.JsonMapper;
+import no.uib.marcus.search.IllegalParameterException;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class ExportFormatTest {
+    private static final JsonMapper jsonMapper = new JsonMapper();
+
+    @Test
+    public void testOf() {
+        assertEquals(ExportFormat.NDJSON, ExportFormat.of(null));
+        assertEquals(ExportFormat.CSV, ExportFormat.of("CSV"));
+    }
+
+    @Test(expected = IllegalParameterException.class)
+    public void testUnknownFormat() {
+        ExportFormat.of("xlsx");
+    }
+
+    @Test
+    public void testNdjson() throws IOException {
+        String hit = "{\"_id\":\"ubb-1\",\"_source\":{\"label\":\"Bergen\",\"type\":\"Brev\"},\"sort\":[1]}";
+        assertEquals("{\"_id\":\"ubb-1\",\"label\":\"Bergen\",\"type\":\"Brev\"}\n",
+                write(ExportFormat.NDJSON, hit, List.of()));
+        assertEquals(0, ExportFormat.NDJSON.header(List.of("label")).length);
+    }
+
+    @Test
+    public void testCsv() throws IOException {
+        List<String> fields = List.of("label", "subject", "madeBy.name", "missing");
+        assertEquals("_id,label,subject,madeBy.name,missing\r\n",
+                new String(ExportFormat.CSV.header(fields), StandardCharsets.UTF_8));
+        String hit = "{\"_id\":\"ubb-1\",\"_source\":{\"label\":\"Bergen\",\"subject\":[\"Flyfoto\",\"Nordnes, Bergen\"],"
+                + "\"madeBy\":{\"name\":\"Selmer, \\\"Marcus\\\"\"}}}";
+        assertEquals("ubb-1,Bergen,\"Flyfoto|Nordnes, Bergen\",\"Selmer, \"\"Marcus\"\"\",\r\n",
+                write(ExportFormat.CSV, hit, fields));
+    }
+
+    private static String write(ExportFormat format, String hit, List<String> fields) throws IOException {
+        JsonNode node = jsonMapper.readTree(hit);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        format.write(node, fields, out);
+        return out.toString(StandardCharsets.UTF_8);
+    }
+}
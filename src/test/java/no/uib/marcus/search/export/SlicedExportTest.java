@@ -0,0 +1,142 @@
+package no.uib.marcus.search.export;
+
+import co.elastic.clients.elasticsearch.core.SearchRequest;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.json.JsonMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import no.uib.marcus.client.LowLevelClient;
+import no.uib.marcus.client.RawResponse;
+import no.uib.marcus.client.RequestBody;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+
+import static org.junit.Assert.*;
+
+public class SlicedExportTest {
+    private static final JsonMapper jsonMapper = new JsonMapper();
+
+    @Test
+    public void testExportsEverySlice() throws IOException {
+        //3 slices of 5 documents, in pages of 2
+        FakeCluster cluster = new FakeCluster(5, -1);
+        SlicedExport export = new SlicedExport(cluster, request(2), "pit", 3, ExportFormat.NDJSON, List.of());
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+        assertEquals(15, export.run(out));
+        String[] lines = out.toString(StandardCharsets.UTF_8).split("\n");
+        assertEquals(15, lines.length);
+        Set<String> ids = new HashSet<>();
+        for (String line : lines) {
+            ids.add(jsonMapper.readTree(line).get("_id").asText());
+        }
+        assertEquals(15, ids.size());
+        //Two full pages and one last page per slice
+        assertEquals(9, cluster.requests);
+    }
+
+    @Test(expected = IOException.class)
+    public void testFailedSliceFailsExport() throws IOException {
+        new SlicedExport(new FakeCluster(5, 1), request(2), "pit", 3, ExportFormat.NDJSON, List.of())
+                .run(new ByteArrayOutputStream());
+    }
+
+    @Test
+    public void testPrepareDropsTimeouts() throws IOException {
+        ObjectNode request = SlicedExport.prepare(
+                SearchRequest.of(s -> s.index("test").timeout("1s").terminateAfter(10L).size(20)), 100, List.of());
+        assertFalse(request.has("timeout"));
+        assertFalse(request.has("terminate_after"));
+        assertEquals(100, request.get("size").asInt());
+    }
+
+    @Test(expected = IOException.class)
+    public void testTimedOutPageFailsExport() throws IOException {
+        FakeCluster cluster = new FakeCluster(5, -1);
+        cluster.timedOutSlice = 2;
+        new SlicedExport(cluster, request(2), "pit", 3, ExportFormat.NDJSON, List.of())
+                .run(new ByteArrayOutputStream());
+    }
+
+    @Test(expected = IOException.class)
+    public void testFailedShardFailsExport() throws IOException {
+        FakeCluster cluster = new FakeCluster(5, -1);
+        cluster.failedShardSlice = 0;
+        new SlicedExport(cluster, request(2), "pit", 3, ExportFormat.NDJSON, List.of())
+                .run(new ByteArrayOutputStream());
+    }
+
+    private static ObjectNode request(int size) {
+        ObjectNode request = jsonMapper.createObjectNode();
+        request.put("size", size);
+        request.putObject("query").putObject("match_all");
+        return request;
+    }
+
+    /**
+     * Answers sliced point in time searches, each slice holds the same number of documents
+     */
+    private static final class FakeCluster implements LowLevelClient {
+        private final int documentsPerSlice;
+        private final int failingSlice;
+        private volatile int requests;
+        private volatile int timedOutSlice = -1;
+        private volatile int failedShardSlice = -1;
+
+        FakeCluster(int documentsPerSlice, int failingSlice) {
+            this.documentsPerSlice = documentsPerSlice;
+            this.failingSlice = failingSlice;
+        }
+
+        @Override
+        public synchronized RawResponse perform(String method, String endpoint, Map<String, String> parameters,
+                                                byte[] body) throws IOException {
+            requests++;
+            JsonNode request = jsonMapper.readTree(body);
+            assertEquals("pit", request.path("pit").path("id").asText());
+            int slice = request.path("slice").path("id").asInt();
+            if (slice == failingSlice) {
+                return new RawResponse(500, "{}".getBytes(StandardCharsets.UTF_8));
+            }
+            int size = request.path("size").asInt();
+            int after = request.has("search_after") ? request.get("search_after").get(0).asInt() + 1 : 0;
+            ObjectNode response = jsonMapper.createObjectNode();
+            response.put("pit_id", "pit");
+            response.put("timed_out", slice == timedOutSlice);
+            response.putObject("_shards").put("failed", slice == failedShardSlice ? 1 : 0);
+            ArrayNode hits = response.putObject("hits").putArray("hits");
+            for (int i = after; i < Math.min(after + size, documentsPerSlice); i++) {
+                ObjectNode hit = hits.addObject();
+                hit.put("_id", slice + "-" + i);
+                hit.putObject("_source").put("label", "Document " + i);
+                hit.putArray("sort").add(i);
+            }
+            return new RawResponse(200, jsonMapper.writeValueAsBytes(response));
+        }
+
+        @Override
+        public RawResponse perform(String method, String endpoint, Map<String, String> parameters, RequestBody body) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public CompletableFuture<RawResponse> performAsync(String method, String endpoint,
+                                                           Map<String, String> parameters, byte[] body) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public CompletableFuture<RawResponse> performAsync(String method, String endpoint,
+                                                           Map<String, String> parameters, RequestBody body) {
+            throw new UnsupportedOperationException();
+        }
+    }
+}
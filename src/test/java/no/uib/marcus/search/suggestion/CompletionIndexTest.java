@@ -0,0 +1,63 @@
+package no.uib.marcus.search.suggestion;
+
+import com.fasterxml.jackson.databind.json.JsonMapper;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.Assert.*;
+
+public class CompletionIndexTest {
+
+    private static CompletionIndex index(CompletionIndex.Input... inputs) {
+        return CompletionIndex.of(List.of(inputs));
+    }
+
+    @Test
+    public void testPrefixIsCaseInsensitive() {
+        CompletionIndex index = index(
+                new CompletionIndex.Input("Bergen", 1),
+                new CompletionIndex.Input("bergensbanen", 1),
+                new CompletionIndex.Input("Berlin", 1),
+                new CompletionIndex.Input("Oslo", 1));
+        assertEquals(Set.of("Bergen", "bergensbanen"), CompletionIndex.suggest("BERG", 10, List.of(index)));
+        assertEquals(Set.of("Berlin"), CompletionIndex.suggest("berl", 10, List.of(index)));
+        assertTrue(CompletionIndex.suggest("x", 10, List.of(index)).isEmpty());
+    }
+
+    @Test
+    public void testHighestWeightsWin() {
+        CompletionIndex index = index(
+                new CompletionIndex.Input("Bergen", 1),
+                new CompletionIndex.Input("Bergsdalen", 5),
+                new CompletionIndex.Input("Berlin", 3),
+                new CompletionIndex.Input("Bergen", 10));
+        assertEquals(3, index.size());
+        assertEquals(Set.of("Bergen", "Bergsdalen"), CompletionIndex.suggest("ber", 2, List.of(index)));
+    }
+
+    @Test
+    public void testSeveralIndicesAreMergedWithoutDuplicates() {
+        CompletionIndex marcus = index(new CompletionIndex.Input("Bergen", 1), new CompletionIndex.Input("Berlin", 1));
+        CompletionIndex ska = index(new CompletionIndex.Input("Bergen", 2), new CompletionIndex.Input("Bergsdalen", 1));
+        assertEquals(Set.of("Bergen", "Bergsdalen", "Berlin"), CompletionIndex.suggest("ber", 3, List.of(marcus, ska)));
+    }
+
+    @Test
+    public void testAddInputs() throws IOException {
+        JsonMapper mapper = new JsonMapper();
+        List<CompletionIndex.Input> inputs = new ArrayList<>();
+        CompletionIndex.addInputs(mapper.readTree("\"Bergen\""), inputs);
+        CompletionIndex.addInputs(mapper.readTree("[\"Oslo\", {\"input\": [\"Berlin\", \"\"], \"weight\": 4}]"), inputs);
+        CompletionIndex.addInputs(mapper.readTree("{\"input\": \"Bergsdalen\"}"), inputs);
+        CompletionIndex.addInputs(null, inputs);
+        assertEquals(List.of(
+                new CompletionIndex.Input("Bergen", 1),
+                new CompletionIndex.Input("Oslo", 1),
+                new CompletionIndex.Input("Berlin", 4),
+                new CompletionIndex.Input("Bergsdalen", 1)), inputs);
+    }
+}
@@ -0,0 +1,51 @@
+package no.uib.marcus.search.suggestion;
+
+import no.uib.marcus.client.RawResponse;
+import no.uib.marcus.common.util.GzipUtils;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Set;
+
+import static org.junit.Assert.*;
+
+public class CompletionSuggestionTest {
+
+    private static RawResponse response(int status, String body) {
+        return new RawResponse(status, body.getBytes(StandardCharsets.UTF_8));
+    }
+
+    @Test
+    public void testFilteredResponse() throws IOException {
+        RawResponse response = response(200, "{\"suggest\":{\"suggest\":[{\"options\":"
+                + "[{\"text\":\"Bergsdalen\"},{\"text\":\"Bergen\"},{\"text\":\"Bergen\"}]}]}}");
+        assertEquals(Set.of("Bergen", "Bergsdalen"), CompletionSuggestion.toSuggestionTexts(response));
+    }
+
+    @Test
+    public void testUnfilteredResponseOnlyGivesOptionTexts() throws IOException {
+        RawResponse response = response(200, "{\"took\":1,\"hits\":{\"hits\":[]},\"suggest\":{\"suggest\":"
+                + "[{\"text\":\"berg\",\"offset\":0,\"length\":4,\"options\":[{\"text\":\"Bergen\",\"_index\":\"marcus\","
+                + "\"_score\":1.0,\"_source\":{\"text\":\"ignored\"},\"contexts\":{\"text\":[\"ignored\"]}}]}]}}");
+        assertEquals(Set.of("Bergen"), CompletionSuggestion.toSuggestionTexts(response));
+    }
+
+    @Test
+    public void testGzipResponse() throws IOException {
+        byte[] body = "{\"suggest\":{\"suggest\":[{\"options\":[{\"text\":\"Bergen\"}]}]}}"
+                .getBytes(StandardCharsets.UTF_8);
+        RawResponse response = new RawResponse(200, GzipUtils.gzip(body), true);
+        assertEquals(Set.of("Bergen"), CompletionSuggestion.toSuggestionTexts(response));
+    }
+
+    @Test
+    public void testEmptyResponse() throws IOException {
+        assertTrue(CompletionSuggestion.toSuggestionTexts(response(200, "{}")).isEmpty());
+    }
+
+    @Test(expected = IOException.class)
+    public void testErrorResponse() throws IOException {
+        CompletionSuggestion.toSuggestionTexts(response(400, "{\"error\":{}}"));
+    }
+}
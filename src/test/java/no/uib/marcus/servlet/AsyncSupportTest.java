@@ -0,0 +1,132 @@
+package no.uib.marcus.servlet;
+
+import jakarta.servlet.AsyncContext;
+import jakarta.servlet.AsyncListener;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import no.uib.marcus.client.ConcurrencyLimiter;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.*;
+
+public class AsyncSupportTest {
+
+    @Test
+    public void testPermitIsReleasedOnTimeout() throws IOException {
+        FakeAsyncRequest request = new FakeAsyncRequest();
+        ConcurrencyLimiter limiter = new ConcurrencyLimiter(100);
+        AtomicReference<Throwable> handled = new AtomicReference<>();
+
+        AsyncSupport.<String>respond(ExecutionMode.ASYNC, request.request(), null, limiter.tryAcquire(),
+                result -> false, () -> "never used", CompletableFuture::new,
+                (out, result, failure) -> handled.set(failure));
+        assertEquals(1, limiter.getInFlight());
+        request.listeners.forEach(listener -> {
+            try {
+                listener.onTimeout(null);
+            } catch (IOException e) {
+                throw new AssertionError(e);
+            }
+        });
+
+        assertTrue(handled.get() instanceof TimeoutException);
+        assertTrue(request.completed.get());
+        assertEquals(0, limiter.getInFlight());
+        //A timeout is a failure
+        assertEquals(18, limiter.getLimit());
+    }
+
+    @Test
+    public void testPermitIsReleasedWhenClientDisconnects() throws IOException {
+        FakeAsyncRequest request = new FakeAsyncRequest();
+        ConcurrencyLimiter limiter = new ConcurrencyLimiter(100);
+        CompletableFuture<String> search = new CompletableFuture<>();
+        AtomicBoolean handled = new AtomicBoolean();
+
+        AsyncSupport.<String>respond(ExecutionMode.ASYNC, request.request(), null, limiter.tryAcquire(),
+                result -> false, () -> "never used", () -> search,
+                (out, result, failure) -> handled.set(true));
+        request.listeners.forEach(listener -> {
+            try {
+                listener.onError(null);
+            } catch (IOException e) {
+                throw new AssertionError(e);
+            }
+        });
+
+        //The search is cancelled and nothing is written to the gone client
+        assertTrue(search.isCancelled());
+        assertFalse(handled.get());
+        assertEquals(0, limiter.getInFlight());
+    }
+
+    @Test
+    public void testPermitIsReleasedOnBlockingFailure() throws IOException {
+        ConcurrencyLimiter limiter = new ConcurrencyLimiter(100);
+        AtomicReference<Throwable> handled = new AtomicReference<>();
+
+        AsyncSupport.<String>respond(ExecutionMode.BLOCKING, null, null, limiter.tryAcquire(),
+                result -> false, () -> {
+                    throw new IOException("Connection refused");
+                }, CompletableFuture::new,
+                (out, result, failure) -> handled.set(failure));
+
+        assertTrue(handled.get() instanceof IOException);
+        assertEquals(0, limiter.getInFlight());
+        assertEquals(18, limiter.getLimit());
+    }
+
+    @Test
+    public void testFailedResultBacksOff() throws IOException {
+        ConcurrencyLimiter limiter = new ConcurrencyLimiter(100);
+
+        AsyncSupport.<String>respond(ExecutionMode.BLOCKING, null, null, limiter.tryAcquire(),
+                "overloaded"::equals, () -> "overloaded", CompletableFuture::new,
+                (out, result, failure) -> assertEquals("overloaded", result));
+
+        assertEquals(0, limiter.getInFlight());
+        assertEquals(18, limiter.getLimit());
+    }
+
+    /**
+     * A request in asynchronous mode whose listeners are called by the test instead of the container
+     */
+    private static final class FakeAsyncRequest {
+        final List<AsyncListener> listeners = new ArrayList<>();
+        final AtomicBoolean completed = new AtomicBoolean();
+
+        HttpServletRequest request() {
+            AsyncContext context = proxy(AsyncContext.class, (proxy, method, args) -> switch (method.getName()) {
+                case "addListener" -> {
+                    listeners.add((AsyncListener) args[0]);
+                    yield null;
+                }
+                case "start" -> {
+                    ((Runnable) args[0]).run();
+                    yield null;
+                }
+                case "complete" -> {
+                    completed.set(true);
+                    yield null;
+                }
+                case "getResponse" -> proxy(HttpServletResponse.class, (p, m, a) -> null);
+                default -> null;
+            });
+            return proxy(HttpServletRequest.class,
+                    (proxy, method, args) -> "startAsync".equals(method.getName()) ? context : null);
+        }
+
+        private static <T> T proxy(Class<T> type, java.lang.reflect.InvocationHandler handler) {
+            return type.cast(Proxy.newProxyInstance(type.getClassLoader(), new Class<?>[]{type}, handler));
+        }
+    }
+}
@@ -0,0 +1,37 @@
+package no.uib.marcus.servlet;
+
+import jakarta.servlet.http.HttpServletResponse;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.lang.reflect.Proxy;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+public class ReadyServletTest {
+
+    @Test
+    public void testNotReadyWithoutClient() throws IOException {
+        AtomicInteger status = new AtomicInteger();
+        StringWriter body = new StringWriter();
+        //Only what the servlet uses, the client has not been created in tests
+        HttpServletResponse response = (HttpServletResponse) Proxy.newProxyInstance(
+                HttpServletResponse.class.getClassLoader(), new Class<?>[]{HttpServletResponse.class},
+                (proxy, method, args) -> switch (method.getName()) {
+                    case "setStatus" -> {
+                        status.set((Integer) args[0]);
+                        yield null;
+                    }
+                    case "getWriter" -> new PrintWriter(body);
+                    default -> null;
+                });
+
+        new ReadyServlet().doGet(null, response);
+
+        assertEquals(HttpServletResponse.SC_SERVICE_UNAVAILABLE, status.get());
+        assertTrue(body.toString().startsWith("{\"ready\":false,\"client\":false,"));
+    }
+}
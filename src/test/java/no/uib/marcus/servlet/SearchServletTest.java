@@ -0,0 +1,39 @@
+package no.uib.marcus.servlet;
+
+import no.uib.marcus.client.ConcurrencyLimiter;
+import no.uib.marcus.client.RawResponse;
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.CompletableFuture;
+
+import static org.junit.Assert.*;
+
+public class SearchServletTest {
+
+    @Test
+    public void testBadRequestLeavesLimitUnchanged() {
+        ConcurrencyLimiter limiter = new ConcurrencyLimiter(100);
+        limiter.tryAcquire().releaseWhenComplete(
+                CompletableFuture.completedFuture(response(400, "{\"error\":{\"type\":\"parsing_exception\"}}")),
+                SearchServlet::isFailed);
+        limiter.tryAcquire().releaseWhenComplete(
+                CompletableFuture.completedFuture(response(404, "{\"error\":{\"type\":\"search_context_missing_exception\"}}")),
+                SearchServlet::isFailed);
+        assertEquals(0, limiter.getInFlight());
+        assertEquals(20, limiter.getLimit());
+    }
+
+    @Test
+    public void testServerErrorsAndTimeoutsAreFailures() {
+        assertTrue(SearchServlet.isFailed(response(503, "{}")));
+        assertTrue(SearchServlet.isFailed(response(429, "{}")));
+        assertTrue(SearchServlet.isFailed(response(200, "{\"took\":5,\"timed_out\":true,\"hits\":{}}")));
+        assertFalse(SearchServlet.isFailed(response(200, "{\"took\":5,\"timed_out\":false,\"hits\":{}}")));
+        assertFalse(SearchServlet.isFailed(response(400, "{}")));
+    }
+
+    private static RawResponse response(int status, String body) {
+        return new RawResponse(status, body.getBytes(StandardCharsets.UTF_8));
+    }
+}